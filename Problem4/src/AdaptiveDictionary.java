@@ -0,0 +1,469 @@
+import java.io.PrintWriter;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Dictionaries that start out as small arrays that we search linearly,
+ * and turn into hash tables when they grow.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class AdaptiveDictionary<K, V>
+    implements Dictionary<K, V>
+{
+  // +-------+-----------------------------------------------------------
+  // | Notes |
+  // +-------+
+
+  /*
+      A dictionary with a handful of entries is fastest as a list: no
+      hash codes, no table to allocate, and a search that only touches
+      a few neighboring slots.  A dictionary with thousands of entries
+      needs a hash table.  When we don't know in advance which we'll
+      get, we start as a list and switch.
+
+      While we're small, the entries sit in two parallel arrays of
+      length LIST_CAPACITY, unordered, with the first size slots used.
+      That's more compact than an AssociationList, which needs a node
+      per entry.  remove moves the last entry into the hole, so the
+      used slots stay together.  We don't allocate the arrays until
+      the first set, so a dictionary that never gets an entry costs
+      just the one object.
+
+      When a set would add entry number LIST_CAPACITY + 1, we promote
+      the dictionary: we move everything into an OpenHashTable and
+      send all further operations there.  If the dictionary was built
+      to demote, and removes shrink the table below DEMOTE_SIZE
+      entries, we move back to the arrays.  DEMOTE_SIZE is well below
+      LIST_CAPACITY, so a dictionary that hovers around one size
+      doesn't keep switching back and forth.  Demoting is off by
+      default; most dictionaries that get big stay big.
+
+      The capacity passed to the constructor (or to the factory's
+      build) picks the starting form.  A capacity larger than
+      LIST_CAPACITY means the client expects a big dictionary, so we
+      start out as a hash table of that capacity.
+   */
+
+  // +-----------+-------------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The most entries we keep in the arrays.
+   */
+  static final int LIST_CAPACITY = 8;
+
+  /**
+   * The size below which a dictionary that demotes goes back to the
+   * arrays.
+   */
+  static final int DEMOTE_SIZE = LIST_CAPACITY / 2;
+
+  // +--------+----------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The keys, while we're a list.  Null until the first set.
+   */
+  Object[] keys;
+
+  /**
+   * The values, while we're a list.  values[i] goes with keys[i].
+   */
+  Object[] values;
+
+  /**
+   * The number of entries in the arrays.
+   */
+  int size;
+
+  /**
+   * The hash table, once we've been promoted.  Null while we're a list.
+   */
+  OpenHashTable<K, V> table;
+
+  /**
+   * Whether we go back to being a list when we shrink.
+   */
+  boolean demote;
+
+  /**
+   * The capacity we were built with.
+   */
+  int capacity;
+
+  // +--------------+----------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new dictionary that starts as a list.
+   */
+  public AdaptiveDictionary()
+  {
+    this(0);
+  } // AdaptiveDictionary()
+
+  /**
+   * Create a new dictionary with a suggested initial capacity.
+   */
+  public AdaptiveDictionary(int capacity)
+  {
+    this(capacity, false);
+  } // AdaptiveDictionary(int)
+
+  /**
+   * Create a new dictionary with a suggested initial capacity that
+   * may go back to being a list when it shrinks.
+   */
+  public AdaptiveDictionary(int capacity, boolean demote)
+  {
+    this.capacity = capacity;
+    this.demote = demote;
+    this.clear();
+  } // AdaptiveDictionary(int, boolean)
+
+  // +-----------+-------------------------------------------------------
+  // | Factories |
+  // +-----------+
+
+  /**
+   * Build a factory for adaptive dictionaries, which start out as
+   * lists or hash tables depending on the capacity passed to build.
+   */
+  public static <K, V> DictionaryFactory<K, V> factory(final boolean demote)
+  {
+    return new DictionaryFactory<K, V>()
+      {
+        public Dictionary<K, V> build(int capacity)
+        {
+          return new AdaptiveDictionary<K, V>(capacity, demote);
+        } // build(int)
+      }; // new DictionaryFactory<K, V>
+  } // factory(boolean)
+
+  // +-----------+-------------------------------------------------------
+  // | Observers |
+  // +-----------+
+
+  /**
+   * Determine if the dictionary contains a particular key.
+   */
+  public boolean containsKey(K key)
+  {
+    if (this.table != null)
+      return this.table.containsKey(key);
+    return this.find(key) >= 0;
+  } // containsKey(K)
+
+  /**
+   * Dump the dictionary.
+   */
+  public void dump(PrintWriter pen)
+  {
+    if (this.table != null)
+      {
+        this.table.dump(pen);
+        return;
+      } // if we're a table
+    pen.print("[");
+    for (int i = 0; i < this.size; i++)
+      {
+        pen.print(this.keys[i] + ":" + this.values[i]);
+        if (i + 1 < this.size)
+          {
+            pen.print(", ");
+          } // if there are more
+      } // for
+    pen.println("]");
+  } // dump(PrintWriter)
+
+  /**
+   * Get the value for a particular key.
+   */
+  public V get(K key)
+    throws Exception
+  {
+    if (this.table != null)
+      return this.table.get(key);
+    int i = this.find(key);
+    if (i < 0)
+      {
+        throw new Exception("Invalid key: " + key);
+      } // if the key isn't there
+    return this.value(i);
+  } // get(K)
+
+  /**
+   * Get the value for a particular key, or defaultValue if there is
+   * no such key.
+   */
+  public V getOrDefault(K key, V defaultValue)
+  {
+    if (this.table != null)
+      return this.table.getOrDefault(key, defaultValue);
+    int i = this.find(key);
+    return (i < 0) ? defaultValue : this.value(i);
+  } // getOrDefault(K, V)
+
+  /**
+   * Get the size of the dictionary - the number of values stored.
+   */
+  public int size()
+  {
+    return (this.table != null) ? this.table.size() : this.size;
+  } // size()
+
+  /**
+   * Determine whether we've been promoted to a hash table.
+   */
+  public boolean isTable()
+  {
+    return this.table != null;
+  } // isTable()
+
+  // +----------+--------------------------------------------------------
+  // | Mutators |
+  // +----------+
+
+  /**
+   * Clear the whole dictionary, going back to the form we started in.
+   */
+  public void clear()
+  {
+    this.keys = null;
+    this.values = null;
+    this.size = 0;
+    this.table = (this.capacity > LIST_CAPACITY)
+                 ? new OpenHashTable<K, V>(this.capacity)
+                 : null;
+  } // clear()
+
+  /**
+   * Remove a key/value pair.
+   */
+  public void remove(K key)
+  {
+    if (this.table != null)
+      {
+        this.table.remove(key);
+        if (this.demote && (this.table.size() < DEMOTE_SIZE))
+          {
+            this.toList();
+          } // if we've shrunk enough to go back to a list
+        return;
+      } // if we're a table
+    int i = this.find(key);
+    if (i >= 0)
+      {
+        // Fill the hole with the last entry.
+        --this.size;
+        this.keys[i] = this.keys[this.size];
+        this.values[i] = this.values[this.size];
+        this.keys[this.size] = null;
+        this.values[this.size] = null;
+      } // if the key is there
+  } // remove(K)
+
+  /**
+   * Set a value.
+   */
+  public void set(K key, V value)
+  {
+    if (this.table != null)
+      {
+        this.table.set(key, value);
+        return;
+      } // if we're a table
+    int i = this.find(key);
+    if (i >= 0)
+      {
+        this.values[i] = value;
+        return;
+      } // if the key is already there
+    if (this.keys == null)
+      {
+        this.keys = new Object[LIST_CAPACITY];
+        this.values = new Object[LIST_CAPACITY];
+      } // if this is the first set
+    else if (this.size == LIST_CAPACITY)
+      {
+        this.toTable();
+        this.table.set(key, value);
+        return;
+      } // if the arrays are full
+    this.keys[this.size] = key;
+    this.values[this.size] = value;
+    ++this.size;
+  } // set(K, V)
+
+  // +-----------+-------------------------------------------------------
+  // | Iterators |
+  // +-----------+
+
+  /**
+   * Get an iterator for the values.
+   */
+  public Iterator<V> iterator()
+  {
+    if (this.table != null)
+      return this.table.iterator();
+    return new Iterator<V>()
+      {
+        int i = 0;
+
+        public boolean hasNext()
+        {
+          return this.i < AdaptiveDictionary.this.size;
+        } // hasNext()
+
+        public V next()
+          throws NoSuchElementException
+        {
+          if (!this.hasNext())
+            throw new NoSuchElementException();
+          return AdaptiveDictionary.this.value(this.i++);
+        } // next()
+
+        public void remove()
+          throws UnsupportedOperationException
+        {
+          throw new UnsupportedOperationException();
+        } // remove()
+      }; // new Iterator<V>
+  } // iterator()
+
+  /**
+   * Get an iterator for the keys.
+   */
+  public Iterator<K> keysIterator()
+  {
+    if (this.table != null)
+      return this.table.keysIterator();
+    return new Iterator<K>()
+      {
+        int i = 0;
+
+        public boolean hasNext()
+        {
+          return this.i < AdaptiveDictionary.this.size;
+        } // hasNext()
+
+        public K next()
+          throws NoSuchElementException
+        {
+          if (!this.hasNext())
+            throw new NoSuchElementException();
+          return AdaptiveDictionary.this.key(this.i++);
+        } // next()
+
+        public void remove()
+          throws UnsupportedOperationException
+        {
+          throw new UnsupportedOperationException();
+        } // remove()
+      }; // new Iterator<K>
+  } // keysIterator()
+
+  /**
+   * Get an Iterable for the keys.  See explanation in Dictionary.java.
+   */
+  public Iterable<K> keys()
+  {
+    return new Iterable<K>()
+      {
+        public Iterator<K> iterator()
+        {
+          return AdaptiveDictionary.this.keysIterator();
+        } // iterator()
+      }; // new Iterable<K>
+  } // keys()
+
+  // +---------+---------------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Find the index of the entry with a given key in the arrays, or -1
+   * if there is no such entry.
+   *
+   * @pre this.table == null
+   */
+  int find(K key)
+  {
+    for (int i = 0; i < this.size; i++)
+      {
+        if (key.equals(this.keys[i]))
+          {
+            return i;
+          } // if we found it
+      } // for
+    return -1;
+  } // find(K)
+
+  /**
+   * Move the entries from the arrays into a new hash table.
+   *
+   * @pre this.table == null
+   */
+  void toTable()
+  {
+    // Leave room to grow, so that the table doesn't expand right away.
+    this.table = new OpenHashTable<K, V>(4 * LIST_CAPACITY);
+    for (int i = 0; i < this.size; i++)
+      {
+        this.table.set(this.key(i), this.value(i));
+      } // for
+    this.keys = null;
+    this.values = null;
+    this.size = 0;
+  } // toTable()
+
+  /**
+   * Move the entries from the hash table back into the arrays.
+   *
+   * @pre this.table != null
+   * @pre this.table.size() <= LIST_CAPACITY
+   */
+  void toList()
+  {
+    OpenHashTable<K, V> old = this.table;
+    this.table = null;
+    this.keys = new Object[LIST_CAPACITY];
+    this.values = new Object[LIST_CAPACITY];
+    this.size = 0;
+    for (int i = 0; i < old.keys.length; i++)
+      {
+        if (old.keys[i] != null)
+          {
+            // The keys are all different, so we skip set's search.
+            this.keys[this.size] = old.keys[i];
+            this.values[this.size] = old.values[i];
+            ++this.size;
+          } // if the slot is used
+      } // for
+  } // toList()
+
+  /**
+   * Get the ith key.  Included mostly so that the unchecked conversions
+   * to K are all in one place.
+   */
+  @SuppressWarnings("unchecked")
+  K key(int i)
+  {
+    return (K) this.keys[i];
+  } // key(int)
+
+  /**
+   * Get the ith value.
+   */
+  @SuppressWarnings("unchecked")
+  V value(int i)
+  {
+    return (V) this.values[i];
+  } // value(int)
+
+} // class AdaptiveDictionary<K,V>
@@ -0,0 +1,85 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for our adaptive dictionary class.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class AdaptiveDictionaryTest
+{
+  /**
+   * Our handy dandy factory.
+   */
+  public DictionaryFactory<Character,String> adFactory =
+    AdaptiveDictionary.factory(false);
+
+  /**
+   * A factory for dictionaries that go back to being lists.
+   */
+  public DictionaryFactory<Character,String> demoteFactory =
+    AdaptiveDictionary.factory(true);
+
+  /**
+   * Random tests are always a good starting point.  The random tests
+   * ask for capacities on both sides of LIST_CAPACITY, and add enough
+   * keys to promote the lists.
+   */
+  @Test
+  public void randomTest()
+    throws Exception
+  {
+    DictionaryIteratorTests.randomTest(adFactory);
+  } // test
+
+  /**
+   * Random tests for dictionaries that demote.
+   */
+  @Test
+  public void demoteRandomTest()
+    throws Exception
+  {
+    DictionaryIteratorTests.randomTest(demoteFactory);
+  } // demoteRandomTest()
+
+  /**
+   * Grow a dictionary past LIST_CAPACITY and shrink it again, making
+   * sure that it changes form when it should and keeps its contents.
+   */
+  @Test
+  public void promoteTest()
+    throws Exception
+  {
+    final int n = 3 * AdaptiveDictionary.LIST_CAPACITY;
+    for (boolean demote : new boolean[] { false, true })
+      {
+        AdaptiveDictionary<Integer, Integer> dict =
+            new AdaptiveDictionary<Integer, Integer>(0, demote);
+        for (int i = 0; i < n; i++)
+          {
+            dict.set(i, -i);
+            assertEquals(i >= AdaptiveDictionary.LIST_CAPACITY,
+                         dict.isTable());
+            assertEquals(i + 1, dict.size());
+          } // for
+        for (int i = 0; i < n; i++)
+          {
+            dict.remove(i);
+            assertEquals(n - i - 1, dict.size());
+            if (demote && (dict.size() < AdaptiveDictionary.DEMOTE_SIZE))
+              assertFalse(dict.isTable());
+            for (int j = i + 1; j < n; j++)
+              {
+                assertEquals(Integer.valueOf(-j), dict.getOrDefault(j, null));
+              } // for each remaining key
+          } // for
+        assertEquals(!demote, dict.isTable());
+        dict.clear();
+        assertFalse(dict.isTable());
+      } // for each setting of demote
+    // A big capacity means we start as a table.
+    assertTrue(new AdaptiveDictionary<Integer, Integer>(1000).isTable());
+  } // promoteTest()
+
+} // AdaptiveDictionaryTest
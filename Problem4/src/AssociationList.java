@@ -28,7 +28,9 @@ public class AssociationList<K, V>
       (or maybe just because we're lazy).
 
       To help with various operations, an internal find method finds
-      a key and returns the node immediately preceding the key.
+      a key and returns the node immediately preceding the key.  Since
+      set and remove miss all the time, they use findPredecessor, which
+      returns null rather than throwing an exception on a miss.
    */
 
   // +--------+----------------------------------------------------------
@@ -79,19 +81,19 @@ public class AssociationList<K, V>
     return prev.next.value;
   } // get(K)
 
-  public boolean containsKey(K key)
+  public V getOrDefault(K key, V defaultValue)
   {
-    try
-      {
-        // If find succeeds, the key is there.
-        find(key);
-        return true;
-      }
-    catch (Exception e)
+    Node prev = findPredecessor(key);
+    if (prev == null)
       {
-        // If find doesn't succeed, the key is not there.
-        return false;
-      } // try/catch
+        return defaultValue;
+      } // if the key is not there
+    return prev.next.value;
+  } // getOrDefault(K, V)
+
+  public boolean containsKey(K key)
+  {
+    return findPredecessor(key) != null;
   } // containsKey(K)
 
   // +----------+--------------------------------------------------------
@@ -100,35 +102,31 @@ public class AssociationList<K, V>
 
   public void set(K key, V value)
   {
-    try
+    Node prev = findPredecessor(key);
+    if (prev != null)
       {
-        Node prev = find(key);
         // The key is already there.  Update the value.
         prev.next.value = value;
-      } // try 
-    catch (Exception e)
+      } // if the key is already there
+    else
       {
         // New key/value pairs go at the front.
         this.front.next = new Node(key, value, this.front.next);
         ++this.size;
-      } // catch (Exception)
+      } // if the key is new
   } // set(K,V)
 
   public void remove(K key)
   {
-    try 
+    // Find the predecessor to the node containing the key.
+    Node prev = findPredecessor(key);
+    if (prev != null)
       {
-        // Find the predecessor to the node containing the key.
-        Node prev = find(key);
         // Skip over the node.  Yay garbage collection!
         prev.next = prev.next.next;
         // Decrement the size
         --this.size;
-      } // try
-    catch (Exception e)
-      { 
-        // Do nothing.  We just aren't allowed to throw an exception.
-      } // catch(Exception)
+      } // if the key is there
   } // remove(K)
 
   public void clear()
@@ -217,6 +215,25 @@ public class AssociationList<K, V>
    */
   public Node find(K key)
     throws Exception
+  {
+    Node prev = findPredecessor(key);
+    if (prev == null)
+      {
+        throw new Exception("No element with key '" + key + "'");
+      } // if the key is not there
+    return prev;
+  } // find
+
+  /**
+   * Find the node with a specified key without throwing an exception
+   * when it's missing.  Building an exception (and its stack trace) is
+   * expensive, and set and remove expect to miss all the time, so
+   * they use this rather than find.
+   *
+   * @return prev, the node immediately before the found node, or null
+   *   if no node has the given key.
+   */
+  public Node findPredecessor(K key)
   {
     Node prev = this.front;
     while (prev.next != null)
@@ -230,8 +247,8 @@ public class AssociationList<K, V>
 
     // If we've gotten through the while loop, no elements
     // remain, and so it's not there.
-    throw new Exception("No element with key '" + key + "'");
-  } // find
+    return null;
+  } // findPredecessor
 
   /**
    * A simple iterator for nodes.  This iterator is probably not
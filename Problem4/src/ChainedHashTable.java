@@ -1,8 +1,10 @@
+import java.io.IOException;
 import java.io.PrintWriter;
 
+import java.nio.channels.ReadableByteChannel;
+
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.Random;
 
 /**
  * A simple implementation of hash tables using open addressing (aka
@@ -23,6 +25,37 @@ public class ChainedHashTable<K, V>
 
       We expand the hash table when the load factor is greater than
       LOAD_FACTOR (see constants below).
+
+      As in OpenHashTable, the number of buckets is always a power of
+      two, and we pick a bucket from the low bits of the mixed hash
+      code (with the table's seed folded in), rather than dividing.
+      Expanding doubles the number of buckets, so the keys in old bucket
+      i all land in new bucket i or i + oldBuckets.length.
+
+      By default, we expand all at once, which means that the set that
+      triggers an expansion takes time proportional to the size of the
+      table.  Tables built in incremental mode instead keep the old
+      buckets around next to the new ones and move MIGRATION_STEP of
+      the old buckets on each call to set or remove, so no single call
+      does more than a bounded amount of rehashing.  While we're
+      migrating, old buckets with index less than migrated are empty,
+      and a key lives in the old table exactly when its old index is
+      at least migrated.  Lookups check that, so they never migrate.
+
+      Because each set moves MIGRATION_STEP >= 2 buckets, and the new
+      table is at least twice as large as the old one, we finish
+      migrating well before the new table is full enough to expand.
+
+      Expanding doesn't help when many keys share a hash code, whether
+      because of a poor hashCode or because someone chose the keys to
+      collide.  So once a bucket holds more than TREEIFY_THRESHOLD
+      entries, we replace it with a TreeBucket, which keeps the same
+      list but also keeps a balanced tree for lookups.  When removes
+      shrink a tree bucket below UNTREEIFY_THRESHOLD entries, we turn
+      it back into a plain list.  The gap between the two thresholds
+      keeps a bucket that hovers around one size from flipping back and
+      forth.  With a reasonable hashCode, buckets almost never get that
+      long, so we almost never pay for the trees.
    */
 
   // +-----------+-------------------------------------------------------
@@ -39,6 +72,23 @@ public class ChainedHashTable<K, V>
    */
   static final int DEFAULT_CAPACITY = 41;
 
+  /**
+   * The number of old buckets we move on each set or remove when
+   * expanding incrementally.
+   */
+  static final int MIGRATION_STEP = 4;
+
+  /**
+   * The number of entries past which a bucket becomes a tree.
+   */
+  static final int TREEIFY_THRESHOLD = 8;
+
+  /**
+   * The number of entries below which a tree bucket becomes a list
+   * again.
+   */
+  static final int UNTREEIFY_THRESHOLD = 6;
+
   // +--------+----------------------------------------------------------
   // | Fields |
   // +--------+
@@ -63,10 +113,25 @@ public class ChainedHashTable<K, V>
   Object[] buckets;
 
   /**
-   * Our helpful random number generator, used primarily when 
-   * expanding the size of the table..
+   * The seed we fold into each hash code.
    */
-  Random rand;
+  int seed;
+
+  /**
+   * Whether we expand incrementally.
+   */
+  boolean incremental;
+
+  /**
+   * The buckets we're moving out of, when we're in the middle of an
+   * incremental expansion, and null otherwise.
+   */
+  Object[] oldBuckets = null;
+
+  /**
+   * The number of old buckets we've moved so far.
+   */
+  int migrated = 0;
 
   // +--------------+----------------------------------------------------
   // | Constructors |
@@ -85,11 +150,63 @@ public class ChainedHashTable<K, V>
    */
   public ChainedHashTable(int capacity)
   {
-    this.rand = new Random();
-    this.capacity = capacity;
-    this.clear();
+    this(capacity, false);
   } // ChainedHashTable(int)
 
+  /**
+   * Create a new hash table with a specified initial capacity that
+   * expands either all at once or incrementally.
+   */
+  public ChainedHashTable(int capacity, boolean incremental)
+  {
+    this(capacity, incremental, 0);
+  } // ChainedHashTable(int, boolean)
+
+  /**
+   * Create a new hash table with a specified initial capacity, which
+   * we round up to a power of two, that expands either all at once or
+   * incrementally, and that folds seed into the hash codes.
+   */
+  public ChainedHashTable(int capacity, boolean incremental, int seed)
+  {
+    this.capacity = OpenHashTable.powerOfTwo(capacity);
+    this.incremental = incremental;
+    this.seed = seed;
+    this.clear();
+  } // ChainedHashTable(int, boolean, int)
+
+  // +-----------+-------------------------------------------------------
+  // | Factories |
+  // +-----------+
+
+  /**
+   * Load a table from a snapshot (see Snapshot.java).  We know how
+   * many entries there are before we start, so we allocate enough
+   * buckets up front that loading never expands the table.
+   *
+   * @throws IOException
+   *   if we can't read the channel or it doesn't hold a snapshot
+   */
+  public static <K, V> ChainedHashTable<K, V> fromSnapshot(
+      ReadableByteChannel in, Codec<K> keyCodec, Codec<V> valueCodec)
+    throws IOException
+  {
+    Snapshot.Reader<K, V> reader =
+        new Snapshot.Reader<K, V>(in, keyCodec, valueCodec);
+    long capacity = (long) (reader.count() / LOAD_FACTOR) + 1;
+    if (capacity > (1 << 30))
+      {
+        throw new IOException("Too many entries: " + reader.count());
+      } // if the table would be too big
+    ChainedHashTable<K, V> table =
+        new ChainedHashTable<K, V>((int) capacity);
+    while (reader.next())
+      {
+        table.set(reader.key(), reader.value());
+      } // while
+    return table;
+  } // fromSnapshot(ReadableByteChannel, Codec<K>, Codec<V>)
+
   // +-----------+-------------------------------------------------------
   // | Observers |
   // +-----------+
@@ -99,7 +216,7 @@ public class ChainedHashTable<K, V>
    */
   public boolean containsKey(K key)
   {
-    AssociationList<K, V> bucket = this.get(this.find(key));
+    AssociationList<K, V> bucket = this.bucket(key);
     return (bucket != null) && (bucket.containsKey(key));
   } // containsKey(K)
 
@@ -109,6 +226,18 @@ public class ChainedHashTable<K, V>
   public void dump(PrintWriter pen)
   {
     pen.println("DUMPING ...");
+    if (this.oldBuckets != null)
+      {
+        for (int i = this.migrated; i < this.oldBuckets.length; i++)
+          {
+            AssociationList<K, V> bucket = this.oldBucket(i);
+            if (bucket != null)
+              {
+                pen.println("OLD BUCKET " + i);
+                bucket.dump(pen);
+              } // if the current bucket is not null
+          } // for each old bucket we haven't moved
+      } // if we're migrating
     for (int i = 0; i < this.buckets.length; i++)
       {
         AssociationList<K, V> bucket = this.get(i);
@@ -127,7 +256,7 @@ public class ChainedHashTable<K, V>
   public V get(K key)
     throws Exception
   {
-    AssociationList<K, V> bucket = this.get(this.find(key));
+    AssociationList<K, V> bucket = this.bucket(key);
     if (bucket == null)
       {
         throw new Exception("Invalid key: " + key);
@@ -139,6 +268,24 @@ public class ChainedHashTable<K, V>
       } // if (bucket != null)
   } // get(K)
 
+  /**
+   * Get the value for a particular key, or defaultValue if there is
+   * no such key.
+   */
+  public V getOrDefault(K key, V defaultValue)
+  {
+    AssociationList<K, V> bucket = this.bucket(key);
+    if (bucket == null)
+      {
+        return defaultValue;
+      } // if (bucket == null)
+    else
+      // if (bucket != null)
+      {
+        return bucket.getOrDefault(key, defaultValue);
+      } // if (bucket != null)
+  } // getOrDefault(K, V)
+
   /**
    * Get the size of the dictionary - the number of values stored.
    */
@@ -157,6 +304,8 @@ public class ChainedHashTable<K, V>
   public void clear()
   {
     this.buckets = new Object[this.capacity];
+    this.oldBuckets = null;
+    this.migrated = 0;
     this.size = 0;
   } // clear()
 
@@ -165,10 +314,22 @@ public class ChainedHashTable<K, V>
    */
   public void remove(K key)
   {
-    AssociationList<K, V> bucket = this.get(this.find(key));
+    if (this.oldBuckets != null)
+      {
+        this.migrate(MIGRATION_STEP);
+      } // if we're migrating
+    AssociationList<K, V> bucket = this.bucket(key);
     if (bucket != null)
       {
+        int oldsize = bucket.size;
         bucket.remove(key);
+        this.size -= oldsize - bucket.size;
+        // Short trees go back to being lists.
+        if ((bucket instanceof TreeBucket)
+            && (bucket.size < UNTREEIFY_THRESHOLD))
+          {
+            this.replace(key, ((TreeBucket<K, V>) bucket).toList());
+          } // if the tree is short
       } // if (bucket != null)
   } // remove(K)
 
@@ -177,24 +338,50 @@ public class ChainedHashTable<K, V>
    */
   public void set(K key, V value)
   {
+    // Do our share of any expansion that is underway.
+    if (this.oldBuckets != null)
+      {
+        this.migrate(MIGRATION_STEP);
+      } // if we're migrating
     // If there are too many entries, expand the table.
-    if (this.size > (this.buckets.length * LOAD_FACTOR))
+    if ((this.oldBuckets == null)
+        && (this.size > (this.buckets.length * LOAD_FACTOR)))
       {
-        expand();
+        if (this.incremental)
+          startExpand();
+        else
+          expand();
       } // if there are too many entries
-    // Find out where the key belongs.
-    int index = this.find(key);
+    // Find out where the key belongs.  Keys in old buckets that we
+    // haven't moved yet stay there until we move the whole bucket.
+    Object[] table = this.buckets;
+    int index;
+    if ((this.oldBuckets != null)
+        && ((index = this.oldIndex(key)) >= this.migrated))
+      {
+        table = this.oldBuckets;
+      } // if the key belongs in the old table
+    else
+      {
+        index = this.find(key);
+      } // if the key belongs in the new table
     // Create a new association list, if necessary.
-    if (buckets[index] == null)
+    if (table[index] == null)
       {
-        this.buckets[index] = new AssociationList<K, V>();
-      } // if (buckets[index] == null)
+        table[index] = new AssociationList<K, V>();
+      } // if (table[index] == null)
     // Add the entry.
-    AssociationList<K, V> bucket = this.get(index);
+    @SuppressWarnings("unchecked")
+    AssociationList<K, V> bucket = (AssociationList<K, V>) table[index];
     int oldsize = bucket.size;
     bucket.set(key, value);
     // Update the size
     this.size += bucket.size - oldsize;
+    // Long lists become trees.
+    if ((bucket.size > TREEIFY_THRESHOLD) && !(bucket instanceof TreeBucket))
+      {
+        table[index] = new TreeBucket<K, V>(bucket);
+      } // if the list is long
   } // set(K,V)
 
   // +-----------+-------------------------------------------------------
@@ -214,8 +401,8 @@ public class ChainedHashTable<K, V>
         /**
          * The actual iterator doing all the work
          */
-        Iterator<AssociationList<K, V>> bucketIt =
-            ChainedHashTable.this.bucketIterator();
+        Iterator<AssociationList<K, V>.Node> nodeIt =
+            ChainedHashTable.this.nodeIterator();
 
         // +---------+----------------------------------------------------------
         // | Methods |
@@ -231,7 +418,7 @@ public class ChainedHashTable<K, V>
          */
         public boolean hasNext()
         {
-          return this.bucketIt.hasNext();
+          return this.nodeIt.hasNext();
         } // hasNext()
 
         /**
@@ -246,7 +433,7 @@ public class ChainedHashTable<K, V>
         public V next()
           throws NoSuchElementException
         {
-          return this.bucketIt.next().front.next.value;
+          return this.nodeIt.next().value;
         } // next()
 
         /**
@@ -275,8 +462,8 @@ public class ChainedHashTable<K, V>
         /**
          * The actual iterator doing all the work
          */
-        Iterator<AssociationList<K, V>> bucketIt =
-            ChainedHashTable.this.bucketIterator();
+        Iterator<AssociationList<K, V>.Node> nodeIt =
+            ChainedHashTable.this.nodeIterator();
 
         // +---------+----------------------------------------------------------
         // | Methods |
@@ -292,7 +479,7 @@ public class ChainedHashTable<K, V>
          */
         public boolean hasNext()
         {
-          return this.bucketIt.hasNext();
+          return this.nodeIt.hasNext();
         } // hasNext()
 
         /**
@@ -307,7 +494,7 @@ public class ChainedHashTable<K, V>
         public K next()
           throws NoSuchElementException
         {
-          return this.bucketIt.next().front.next.key;
+          return this.nodeIt.next().key;
         } // next()
 
         /**
@@ -338,7 +525,7 @@ public class ChainedHashTable<K, V>
   } // keys()
 
   /**
-   * Get a bucket iterator
+   * Get a bucket iterator.  Only nonempty buckets are returned.
    */
   public Iterator<AssociationList<K, V>> bucketIterator()
   {
@@ -352,11 +539,6 @@ public class ChainedHashTable<K, V>
          */
         int index = 0;
 
-        /**
-         * Number of iterations made so far
-         */
-        int numOfIterations = 0;
-
         // +---------+----------------------------------------------------------
         // | Methods |
         // +---------+   
@@ -364,21 +546,25 @@ public class ChainedHashTable<K, V>
          * Determine whether there are any more elements to iterate
          * 
          * @pre none
-         * @post this doesn't change its position
+         * @post this.index is the index of the next nonempty bucket, if any
          * @return true if there are elements that weren't iterated yet
          * @return false otherwise
          */
         public boolean hasNext()
         {
-          return numOfIterations < ChainedHashTable.this.size;
+          // Skip over the empty buckets
+          while ((this.index < this.limit())
+                 && ((this.bucket() == null) || (this.bucket().size == 0)))
+            this.index++;
+          return this.index < this.limit();
         }// hasNext()
 
         /**
-         * Return the next pair in the table and move the iterator
+         * Return the next bucket in the table and move the iterator
          * 
-         * @pre 0 <= this.index <= OpenHashTable.this.capacity
+         * @pre 0 <= this.index <= ChainedHashTable.this.buckets.length
          * @post this.index++
-         * @return the next pair
+         * @return the next bucket
          * @throw NoSuchElementException
          *      if this.hasNext == false, there is no next element 
          */
@@ -387,19 +573,37 @@ public class ChainedHashTable<K, V>
         {
           if (this.hasNext())
             {
-              AssociationList<K, V> bucket;
-              // While the current element in the array is empty, move
-              while ((bucket =
-                  (AssociationList<K, V>) ChainedHashTable.this.buckets[index++]) == null)
-                ;
-              // Completed an iteration - increment counter
-              this.numOfIterations++;
-              return bucket;
-            }// if there is a next element
+              AssociationList<K, V> result = this.bucket();
+              this.index++;
+              return result;
+            } // if there is a next bucket
           else
             throw new NoSuchElementException();
         } // next()
 
+        /**
+         * The number of positions we visit.  While we're migrating,
+         * positions past the end of the new table refer to the old one.
+         */
+        int limit()
+        {
+          Object[] old = ChainedHashTable.this.oldBuckets;
+          return ChainedHashTable.this.buckets.length
+                 + ((old == null) ? 0 : old.length);
+        } // limit()
+
+        /**
+         * The bucket at the current position.
+         */
+        AssociationList<K, V> bucket()
+        {
+          int length = ChainedHashTable.this.buckets.length;
+          if (this.index < length)
+            return ChainedHashTable.this.get(this.index);
+          else
+            return ChainedHashTable.this.oldBucket(this.index - length);
+        } // bucket()
+
         /**
          * Remove method is not supported
          * @throws  UnsupportedOperationException
@@ -409,9 +613,83 @@ public class ChainedHashTable<K, V>
         {
           throw new UnsupportedOperationException();
         } // remove()
-      };// new Iterator<KVPair>()
+      };// new Iterator<AssociationList<K, V>>()
   }//bucketIterator()
 
+  /**
+   * Get an iterator for all of the nodes in all of the buckets.
+   */
+  public Iterator<AssociationList<K, V>.Node> nodeIterator()
+  {
+    return new Iterator<AssociationList<K, V>.Node>()
+      {
+        // +--------+----------------------------------------------------------
+        // | Fields |
+        // +--------+
+        /**
+         * The buckets we have left to visit
+         */
+        Iterator<AssociationList<K, V>> bucketIt =
+            ChainedHashTable.this.bucketIterator();
+
+        /**
+         * The predecessor of the next node in the current bucket
+         */
+        AssociationList<K, V>.Node current = null;
+
+        // +---------+----------------------------------------------------------
+        // | Methods |
+        // +---------+   
+        /**
+         * Determine whether there are any more nodes to iterate
+         * 
+         * @pre none
+         * @post this.current.next is the next node, if any
+         * @return true if there are nodes that weren't iterated yet
+         * @return false otherwise
+         */
+        public boolean hasNext()
+        {
+          if ((this.current == null) || (this.current.next == null))
+            {
+              // Move on to the next nonempty bucket
+              if (!this.bucketIt.hasNext())
+                return false;
+              this.current = this.bucketIt.next().front;
+            } // if the current bucket is used up
+          return true;
+        }// hasNext()
+
+        /**
+         * Return the next node in the table and move the iterator
+         * 
+         * @pre none
+         * @post the position of this is incremented
+         * @return the next node
+         * @throw NoSuchElementException
+         *      if this.hasNext == false, there is no next element 
+         */
+        public AssociationList<K, V>.Node next()
+          throws NoSuchElementException
+        {
+          if (!this.hasNext())
+            throw new NoSuchElementException();
+          this.current = this.current.next;
+          return this.current;
+        } // next()
+
+        /**
+         * Remove method is not supported
+         * @throws  UnsupportedOperationException
+         */
+        public void remove()
+          throws UnsupportedOperationException
+        {
+          throw new UnsupportedOperationException();
+        } // remove()
+      };// new Iterator<AssociationList<K, V>.Node>()
+  }//nodeIterator()
+
   // +---------+---------------------------------------------------------
   // | Helpers |
   // +---------+
@@ -425,9 +703,8 @@ public class ChainedHashTable<K, V>
     // Remember the old table.
     Object[] old = this.buckets;
 
-    // Figure out the capacity of the new table, making it somewhat
-    // unpredictable.
-    int newCapacity = 2 * this.buckets.length + rand.nextInt(10);
+    // Double the capacity, so that it's still a power of two.
+    int newCapacity = 2 * this.buckets.length;
 
     // Create a new table of that capacity.
     this.buckets = new Object[newCapacity];
@@ -452,15 +729,135 @@ public class ChainedHashTable<K, V>
       } // for
   } // expand()
 
+  /**
+   * Start an incremental expansion.  The current buckets become the old
+   * buckets, and we move them a few at a time in migrate.
+   *
+   * @pre this.oldBuckets == null
+   */
+  void startExpand()
+  {
+    this.oldBuckets = this.buckets;
+    this.migrated = 0;
+    // As in expand, we double the capacity.
+    this.buckets = new Object[2 * this.oldBuckets.length];
+  } // startExpand()
+
+  /**
+   * Move up to count of the old buckets into the new table.  When we've
+   * moved all of them, we drop the old table.
+   *
+   * @pre this.oldBuckets != null
+   */
+  void migrate(int count)
+  {
+    int stop = Math.min(this.migrated + count, this.oldBuckets.length);
+    while (this.migrated < stop)
+      {
+        AssociationList<K, V> bucket = this.oldBucket(this.migrated);
+        if (bucket != null)
+          {
+            // Each key appears only once in the table, so we can relink
+            // the nodes directly rather than calling set, which would
+            // search each new bucket and build new nodes.
+            AssociationList<K, V>.Node current = bucket.front.next;
+            while (current != null)
+              {
+                AssociationList<K, V>.Node next = current.next;
+                int index = this.find(current.key);
+                if (this.buckets[index] == null)
+                  {
+                    this.buckets[index] = new AssociationList<K, V>();
+                  } // if (buckets[index] == null)
+                AssociationList<K, V> target = this.get(index);
+                if (target instanceof TreeBucket)
+                  {
+                    // We can't relink into a tree.
+                    target.set(current.key, current.value);
+                  } // if the target is a tree
+                else
+                  {
+                    current.next = target.front.next;
+                    target.front.next = current;
+                    ++target.size;
+                    if (target.size > TREEIFY_THRESHOLD)
+                      {
+                        this.buckets[index] = new TreeBucket<K, V>(target);
+                      } // if the list is long
+                  } // if the target is a list
+                current = next;
+              } // while
+            this.oldBuckets[this.migrated] = null;
+          } // if (bucket != null)
+        ++this.migrated;
+      } // while
+    if (this.migrated == this.oldBuckets.length)
+      {
+        this.oldBuckets = null;
+        this.migrated = 0;
+      } // if we've moved everything
+  } // migrate(int)
+
+  /**
+   * Get the bucket that holds a given key, if the key is in the table.
+   * While we're migrating, that may be one of the old buckets.
+   */
+  AssociationList<K, V> bucket(K key)
+  {
+    if (this.oldBuckets != null)
+      {
+        int index = this.oldIndex(key);
+        if (index >= this.migrated)
+          return this.oldBucket(index);
+      } // if we're migrating
+    return this.get(this.find(key));
+  } // bucket(K)
+
+  /**
+   * Replace the bucket that holds a given key.  While we're migrating,
+   * that may be one of the old buckets.
+   */
+  void replace(K key, AssociationList<K, V> bucket)
+  {
+    if (this.oldBuckets != null)
+      {
+        int index = this.oldIndex(key);
+        if (index >= this.migrated)
+          {
+            this.oldBuckets[index] = bucket;
+            return;
+          } // if the key is in the old table
+      } // if we're migrating
+    this.buckets[this.find(key)] = bucket;
+  } // replace(K, AssociationList<K, V>)
+
   /**
    * Find the index of the entry with a given key.  If there is no such
    * entry, return the index of an entry we can use to store that key.
    */
   int find(K key)
   {
-    return Math.abs(key.hashCode() % this.buckets.length);
+    return this.hash(key) & (this.buckets.length - 1);
   } // find(K)
 
+  /**
+   * Find the index of the old bucket for a given key.
+   *
+   * @pre this.oldBuckets != null
+   */
+  int oldIndex(K key)
+  {
+    return this.hash(key) & (this.oldBuckets.length - 1);
+  } // oldIndex(K)
+
+  /**
+   * Find the mixed hash code of a key.
+   */
+  int hash(K key)
+  {
+    return OpenHashTable.mix(key.hashCode() ^ this.seed);
+  } // hash(K)
+
   /**
    * Get the ith bucket.  Included mostly so that the unchecked conversions 
    * to association lists are all in one place.
@@ -471,5 +868,14 @@ public class ChainedHashTable<K, V>
     return (AssociationList<K, V>) buckets[i];
   } // get (int)
 
+  /**
+   * Get the ith old bucket.
+   */
+  @SuppressWarnings("unchecked")
+  AssociationList<K, V> oldBucket(int i)
+  {
+    return (AssociationList<K, V>) oldBuckets[i];
+  } // oldBucket(int)
+
 } // class ChainedHashTable<K,V>
 
@@ -21,6 +21,18 @@ public class ChainedHashTableTest
         } // build(int)
       }; // new DictionaryFactory
 
+  /**
+   * A factory for tables that expand incrementally.
+   */
+  public DictionaryFactory<Character,String> incrementalFactory =
+    new DictionaryFactory<Character,String>()
+      {
+        public Dictionary<Character, String> build(int capacity)
+        {
+          return new ChainedHashTable<Character, String>(capacity, true);
+        } // build(int)
+      }; // new DictionaryFactory
+
   /**
    * Random tests are always a good starting point.
    */
@@ -31,4 +43,172 @@ public class ChainedHashTableTest
     DictionaryIteratorTests.randomTest(chtFactory);
   } // test
 
+  /**
+   * Random tests for incremental expansion.
+   */
+  @Test
+  public void incrementalRandomTest()
+    throws Exception
+  {
+    DictionaryIteratorTests.randomTest(incrementalFactory);
+  } // incrementalRandomTest()
+
+  /**
+   * Make sure that every key stays visible while we're in the middle
+   * of moving buckets, for sets and removes alike.
+   */
+  @Test
+  public void incrementalExpandTest()
+    throws Exception
+  {
+    final int n = 500;
+    ChainedHashTable<Integer, Integer> table =
+        new ChainedHashTable<Integer, Integer>(5, true);
+    boolean sawMigration = false;
+    for (int i = 0; i < n; i++)
+      {
+        table.set(i, -i);
+        sawMigration |= (table.oldBuckets != null);
+        assertEquals(i + 1, table.size());
+        // We box by hand, since table.get(int) gets a bucket.
+        for (Integer j = 0; j <= i; j++)
+          {
+            assertEquals(Integer.valueOf(-j), table.get(j));
+          } // for each key we've added
+      } // for each key
+    assertTrue("never migrated", sawMigration);
+    // Remove the even keys, again checking each step.
+    for (int i = 0; i < n; i += 2)
+      {
+        table.remove(i);
+        assertFalse(table.containsKey(i));
+        assertEquals(n - i / 2 - 1, table.size());
+      } // for each even key
+    int count = 0;
+    for (Integer key : table.keys())
+      {
+        assertTrue(key % 2 == 1);
+        assertEquals(Integer.valueOf(-key), table.get(key));
+        count++;
+      } // for each remaining key
+    assertEquals(n / 2, count);
+  } // incrementalExpandTest()
+
+  /**
+   * Make sure that long buckets become trees and short ones become
+   * lists again, and that nothing gets lost along the way, for keys
+   * that all share a hash code.
+   */
+  @Test
+  public void collisionTest()
+    throws Exception
+  {
+    for (boolean incremental : new boolean[] { false, true })
+      {
+        collisionTest(new ChainedHashTable<Object, Integer>(5, incremental),
+                      true);
+        collisionTest(new ChainedHashTable<Object, Integer>(5, incremental),
+                      false);
+      } // for each mode
+  } // collisionTest()
+
+  // +-----------+-------------------------------------------------------
+  // | Utilities |
+  // +-----------+
+
+  /**
+   * Fill a table with 1024 keys that share a hash code, either
+   * Strings or keys that aren't Comparable, and then remove all but a
+   * few of them.
+   */
+  static void collisionTest(ChainedHashTable<Object, Integer> table,
+                            boolean strings)
+    throws Exception
+  {
+    final int n = 1024;
+    for (int i = 0; i < n; i++)
+      {
+        table.set(strings ? collidingString(i) : collidingKey(i), i);
+        assertEquals(i + 1, table.size());
+      } // for
+    Object any = strings ? collidingString(0) : collidingKey(0);
+    assertTrue("long bucket is still a list",
+               table.bucket(any) instanceof TreeBucket);
+    for (int i = 0; i < n; i++)
+      {
+        Object key = strings ? collidingString(i) : collidingKey(i);
+        assertEquals(Integer.valueOf(i), table.get(key));
+      } // for
+    // Remove all but the last three keys.
+    for (int i = 0; i < n - 3; i++)
+      {
+        table.remove(strings ? collidingString(i) : collidingKey(i));
+        assertEquals(n - i - 1, table.size());
+      } // for
+    assertFalse("short bucket is still a tree",
+                table.bucket(any) instanceof TreeBucket);
+    for (int i = 0; i < n; i++)
+      {
+        Object key = strings ? collidingString(i) : collidingKey(i);
+        assertEquals(i >= n - 3, table.containsKey(key));
+      } // for
+  } // collisionTest(ChainedHashTable<Object, Integer>, boolean)
+
+  /**
+   * Build the ith of a family of Strings that all have the same hash
+   * code.  "Aa" and "BB" have the same hash code, so any two strings
+   * made of the same number of them do, too.
+   */
+  static String collidingString(int i)
+  {
+    StringBuilder str = new StringBuilder();
+    for (int bit = 0; bit < 16; bit++)
+      {
+        str.append(((i & (1 << bit)) == 0) ? "Aa" : "BB");
+      } // for
+    return str.toString();
+  } // collidingString(int)
+
+  /**
+   * Build a key that is equal to collidingKey(i), and has the same hash
+   * code as every other colliding key, but that can't be compared.
+   */
+  static Object collidingKey(int i)
+  {
+    return new CollidingKey(i);
+  } // collidingKey(int)
+
+  // +---------------+---------------------------------------------------
+  // | Inner Classes |
+  // +---------------+
+
+  /**
+   * Keys that all have the same hash code and aren't Comparable.
+   */
+  static class CollidingKey
+  {
+    int id;
+
+    CollidingKey(int id)
+    {
+      this.id = id;
+    } // CollidingKey(int)
+
+    public int hashCode()
+    {
+      return 42;
+    } // hashCode()
+
+    public boolean equals(Object other)
+    {
+      return (other instanceof CollidingKey)
+             && (((CollidingKey) other).id == this.id);
+    } // equals(Object)
+
+    public String toString()
+    {
+      return "CollidingKey(" + this.id + ")";
+    } // toString()
+  } // class CollidingKey
+
 } // ChainedHashTableTest
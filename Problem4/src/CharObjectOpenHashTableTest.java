@@ -0,0 +1,63 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for our hash tables with char keys.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class CharObjectOpenHashTableTest
+{
+  /**
+   * Our handy dandy factory.
+   */
+  public DictionaryFactory<Character,String> cohtFactory =
+    new DictionaryFactory<Character,String>()
+      {
+        public Dictionary<Character, String> build(int capacity)
+        {
+          return new CharObjectOpenHashTable<String>(capacity).asDictionary();
+        } // build(int)
+      }; // new DictionaryFactory
+
+  /**
+   * Random tests are always a good starting point.
+   */
+  @Test
+  public void randomTest()
+    throws Exception
+  {
+    DictionaryIteratorTests.randomTest(cohtFactory);
+  } // test
+
+  /**
+   * The NUL character marks empty slots, so make sure that it works as
+   * a key anyway.
+   */
+  @Test
+  public void zeroTest()
+    throws Exception
+  {
+    CharObjectOpenHashTable<String> table =
+        new CharObjectOpenHashTable<String>(4);
+    table.set('a', "a");
+    assertFalse(table.containsKey((char) 0));
+    table.set((char) 0, "nul");
+    table.set('b', "b");
+    assertEquals(3, table.size());
+    assertEquals("nul", table.get((char) 0));
+    int count = 0;
+    for (Character key : table.asDictionary().keys())
+      {
+        assertTrue(table.containsKey(key));
+        count++;
+      } // for
+    assertEquals(3, count);
+    table.remove((char) 0);
+    assertFalse(table.containsKey((char) 0));
+    assertEquals("a", table.get('a'));
+    assertEquals(2, table.size());
+  } // zeroTest()
+
+} // CharObjectOpenHashTableTest
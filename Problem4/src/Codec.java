@@ -0,0 +1,111 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Ways to turn values into bytes and back, for dictionaries that keep
+ * their entries outside the heap.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public interface Codec<T>
+{
+  // +-------+-----------------------------------------------------------
+  // | Notes |
+  // +-------+
+
+  /*
+     A dictionary that stores keys as bytes compares the bytes, not the
+     objects, so a key codec must give equal keys equal encodings and
+     different keys different encodings.  It must also give the same
+     encoding in every run of every program that opens the file, so
+     an encoding can't depend on identity hash codes or on the default
+     character set.
+
+     The codecs below use big-endian numbers and UTF-8 strings.
+   */
+
+  // +-----------+-------------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * Characters, as two bytes.
+   */
+  public static final Codec<Character> CHARACTERS = new Codec<Character>()
+    {
+      public byte[] encode(Character ch)
+      {
+        return ByteBuffer.allocate(2).putChar(ch).array();
+      } // encode(Character)
+
+      public Character decode(byte[] bytes)
+      {
+        return ByteBuffer.wrap(bytes).getChar();
+      } // decode(byte[])
+    }; // new Codec<Character>
+
+  /**
+   * Integers, as four bytes.
+   */
+  public static final Codec<Integer> INTEGERS = new Codec<Integer>()
+    {
+      public byte[] encode(Integer i)
+      {
+        return ByteBuffer.allocate(4).putInt(i).array();
+      } // encode(Integer)
+
+      public Integer decode(byte[] bytes)
+      {
+        return ByteBuffer.wrap(bytes).getInt();
+      } // decode(byte[])
+    }; // new Codec<Integer>
+
+  /**
+   * Longs, as eight bytes.
+   */
+  public static final Codec<Long> LONGS = new Codec<Long>()
+    {
+      public byte[] encode(Long l)
+      {
+        return ByteBuffer.allocate(8).putLong(l).array();
+      } // encode(Long)
+
+      public Long decode(byte[] bytes)
+      {
+        return ByteBuffer.wrap(bytes).getLong();
+      } // decode(byte[])
+    }; // new Codec<Long>
+
+  /**
+   * Strings, in UTF-8.
+   */
+  public static final Codec<String> STRINGS = new Codec<String>()
+    {
+      public byte[] encode(String str)
+      {
+        return str.getBytes(StandardCharsets.UTF_8);
+      } // encode(String)
+
+      public String decode(byte[] bytes)
+      {
+        return new String(bytes, StandardCharsets.UTF_8);
+      } // decode(byte[])
+    }; // new Codec<String>
+
+  // +---------+---------------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Turn a value into bytes.
+   *
+   * @pre value != null
+   */
+  public byte[] encode(T value);
+
+  /**
+   * Turn bytes made by encode back into a value.
+   */
+  public T decode(byte[] bytes);
+
+} // interface Codec<T>
@@ -0,0 +1,533 @@
+import java.io.PrintWriter;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A chained hash table that many threads can use at once.  Writers lock
+ * one stripe of the buckets, readers don't lock at all.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class ConcurrentChainedHashTable<K, V>
+    implements Dictionary<K, V>, Iterable<V>
+{
+  // +-------+-----------------------------------------------------------
+  // | Notes |
+  // +-------+
+
+  /*
+      The design follows ChainedHashTable, with a chain of nodes in each
+      bucket, but it borrows the locking scheme of the original
+      java.util.concurrent.ConcurrentHashMap.
+
+      The buckets are split into STRIPES stripes, each with its own
+      lock.  The table size is always a power of two and at least
+      STRIPES, and a key's bucket is its (mixed) hash code masked by
+      the table size, so bucket i always belongs to stripe
+      i % STRIPES, whatever size the table has.  set, remove, and clear
+      lock the stripe (or stripes) they change.  Threads that write to
+      different stripes never wait for each other.
+
+      Readers never lock.  That works because a chain, once another
+      thread can see it, never changes shape:
+        * The next field of a node is final.  New nodes go at the front
+          of a chain, and we publish them by writing the bucket with a
+          volatile write (AtomicReferenceArray.set).
+        * To remove a node, we copy the nodes in front of it and link
+          the copies to the node after it.  A reader that is part way
+          along the old chain still sees a complete chain.
+        * Values are volatile, so replacing one is a single write.
+        * Expansion builds a whole new table of new nodes and then
+          publishes it through the volatile table field.  Until then,
+          readers carry on using the old table, which doesn't change.
+      So a reader sees each chain as it was at some point in time.
+      The iterators are weakly consistent in the same way.
+
+      Each stripe keeps count of its own entries, under its own lock, so
+      writers never fight over one shared size field.  size() adds up
+      the counts, so it is only exact when nobody is writing.
+
+      Expansion has to move every stripe, so it takes all the locks,
+      always in order from stripe 0 up, so that two expansions can't
+      deadlock.  A writer that notices that its stripe is too full
+      first releases its own lock and then asks for the expansion.  The
+      expansion checks again once it has every lock, since another
+      thread may have expanded the table in the meantime.
+   */
+
+  // +-----------+-------------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The load factor for expanding the table.
+   */
+  static final double LOAD_FACTOR = 0.75;
+
+  /**
+   * The number of stripes.  Must be a power of two.
+   */
+  static final int STRIPES = 64;
+
+  /**
+   * The default initial capacity of the hash table.
+   */
+  static final int DEFAULT_CAPACITY = 64;
+
+  // +--------+----------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The buckets.  Writers only replace this while holding every lock.
+   */
+  volatile AtomicReferenceArray<Node<K, V>> buckets;
+
+  /**
+   * The locks, one per stripe.  Each also counts the entries in its
+   * stripe.
+   */
+  Stripe[] stripes;
+
+  /**
+   * The capacity we start with, and return to when cleared.
+   */
+  int capacity;
+
+  // +--------------+----------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new hash table with the default initial capacity.
+   */
+  public ConcurrentChainedHashTable()
+  {
+    this(DEFAULT_CAPACITY);
+  } // ConcurrentChainedHashTable()
+
+  /**
+   * Create a new hash table with a specified initial capacity.  We
+   * round the capacity up to a power of two that is at least STRIPES.
+   */
+  public ConcurrentChainedHashTable(int capacity)
+  {
+    this.capacity = STRIPES;
+    while (this.capacity < capacity)
+      this.capacity *= 2;
+    this.stripes = new Stripe[STRIPES];
+    for (int i = 0; i < STRIPES; i++)
+      {
+        this.stripes[i] = new Stripe();
+      } // for
+    this.buckets = new AtomicReferenceArray<Node<K, V>>(this.capacity);
+  } // ConcurrentChainedHashTable(int)
+
+  // +-----------+-------------------------------------------------------
+  // | Observers |
+  // +-----------+
+
+  /**
+   * Determine if the hash table contains a particular key.
+   */
+  public boolean containsKey(K key)
+  {
+    return this.findNode(key) != null;
+  } // containsKey(K)
+
+  /**
+   * Dump the hash table.
+   */
+  public void dump(PrintWriter pen)
+  {
+    pen.println("DUMPING ...");
+    AtomicReferenceArray<Node<K, V>> table = this.buckets;
+    for (int i = 0; i < table.length(); i++)
+      {
+        Node<K, V> node = table.get(i);
+        if (node != null)
+          {
+            pen.print("BUCKET " + i + ":");
+            for (; node != null; node = node.next)
+              {
+                pen.print(" " + node.key + ":" + node.value);
+              } // for each node
+            pen.println();
+          } // if the bucket is not empty
+      } // for each bucket
+    pen.println("... DONE");
+  } // dump(PrintWriter)
+
+  /**
+   * Get the value for a particular key.
+   */
+  public V get(K key)
+    throws Exception
+  {
+    Node<K, V> node = this.findNode(key);
+    if (node == null)
+      {
+        throw new Exception("Invalid key: " + key);
+      } // if (node == null)
+    return node.value;
+  } // get(K)
+
+  /**
+   * Get the value for a particular key, or defaultValue if there is
+   * no such key.
+   */
+  public V getOrDefault(K key, V defaultValue)
+  {
+    Node<K, V> node = this.findNode(key);
+    return (node == null) ? defaultValue : node.value;
+  } // getOrDefault(K, V)
+
+  /**
+   * Get the number of values stored.  If other threads are changing
+   * the table, this is only an estimate.
+   */
+  public int size()
+  {
+    int size = 0;
+    for (Stripe stripe : this.stripes)
+      {
+        size += stripe.count;
+      } // for
+    return size;
+  } // size()
+
+  // +----------+--------------------------------------------------------
+  // | Mutators |
+  // +----------+
+
+  /**
+   * Clear the whole table.
+   */
+  public void clear()
+  {
+    this.lockAll();
+    try
+      {
+        this.buckets = new AtomicReferenceArray<Node<K, V>>(this.capacity);
+        for (Stripe stripe : this.stripes)
+          {
+            stripe.count = 0;
+          } // for
+      } // try
+    finally
+      {
+        this.unlockAll();
+      } // finally
+  } // clear()
+
+  /**
+   * Remove a key/value pair.
+   */
+  public void remove(K key)
+  {
+    int hash = mix(key.hashCode());
+    Stripe stripe = this.stripes[hash & (STRIPES - 1)];
+    stripe.lock();
+    try
+      {
+        AtomicReferenceArray<Node<K, V>> table = this.buckets;
+        int index = hash & (table.length() - 1);
+        Node<K, V> front = table.get(index);
+        Node<K, V> node = front;
+        while ((node != null)
+               && ((node.hash != hash) || !key.equals(node.key)))
+          node = node.next;
+        if (node != null)
+          {
+            // Copy the nodes in front of the one we're removing, so
+            // that readers of the old chain aren't disturbed.
+            Node<K, V> rest = node.next;
+            for (Node<K, V> p = front; p != node; p = p.next)
+              {
+                rest = new Node<K, V>(p.key, p.hash, p.value, rest);
+              } // for
+            table.set(index, rest);
+            stripe.count--;
+          } // if we found the key
+      } // try
+    finally
+      {
+        stripe.unlock();
+      } // finally
+  } // remove(K)
+
+  /**
+   * Set a value.
+   */
+  public void set(K key, V value)
+  {
+    int hash = mix(key.hashCode());
+    Stripe stripe = this.stripes[hash & (STRIPES - 1)];
+    boolean full;
+    stripe.lock();
+    try
+      {
+        // We have to look at the table after we've locked the stripe,
+        // since someone may have expanded it while we were waiting.
+        AtomicReferenceArray<Node<K, V>> table = this.buckets;
+        int index = hash & (table.length() - 1);
+        Node<K, V> front = table.get(index);
+        Node<K, V> node = front;
+        while ((node != null)
+               && ((node.hash != hash) || !key.equals(node.key)))
+          node = node.next;
+        if (node != null)
+          {
+            node.value = value;
+          } // if the key is already there
+        else
+          {
+            table.set(index, new Node<K, V>(key, hash, value, front));
+            stripe.count++;
+          } // if the key is new
+        full = stripe.count > (table.length() / STRIPES) * LOAD_FACTOR;
+      } // try
+    finally
+      {
+        stripe.unlock();
+      } // finally
+    if (full)
+      {
+        this.expand();
+      } // if the stripe is too full
+  } // set(K,V)
+
+  // +-----------+-------------------------------------------------------
+  // | Iterators |
+  // +-----------+
+
+  /**
+   * Get an iterator for the values.
+   */
+  public Iterator<V> iterator()
+  {
+    return new NodeIterator<V>()
+      {
+        V extract(Node<K, V> node)
+        {
+          return node.value;
+        } // extract(Node<K, V>)
+      }; // new NodeIterator<V>
+  } // iterator()
+
+  /**
+   * Get an iterator for the keys.
+   */
+  public Iterator<K> keysIterator()
+  {
+    return new NodeIterator<K>()
+      {
+        K extract(Node<K, V> node)
+        {
+          return node.key;
+        } // extract(Node<K, V>)
+      }; // new NodeIterator<K>
+  } // keysIterator()
+
+  /**
+   * Get an Iterable for the keys.  See explanation in Dictionary.java.
+   */
+  public Iterable<K> keys()
+  {
+    return new Iterable<K>()
+      {
+        public Iterator<K> iterator()
+        {
+          return ConcurrentChainedHashTable.this.keysIterator();
+        } // iterator()
+      }; // new Iterable<K>
+  } // keys()
+
+  // +---------+---------------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Double the size of the table, if some stripe is still too full
+   * once we hold all the locks.
+   */
+  void expand()
+  {
+    this.lockAll();
+    try
+      {
+        AtomicReferenceArray<Node<K, V>> old = this.buckets;
+        double limit = (old.length() / STRIPES) * LOAD_FACTOR;
+        boolean full = false;
+        for (Stripe stripe : this.stripes)
+          {
+            full |= stripe.count > limit;
+          } // for
+        if (!full)
+          {
+            return;
+          } // if someone else expanded the table already
+        int length = 2 * old.length();
+        AtomicReferenceArray<Node<K, V>> table =
+            new AtomicReferenceArray<Node<K, V>>(length);
+        for (int i = 0; i < old.length(); i++)
+          {
+            for (Node<K, V> node = old.get(i); node != null; node = node.next)
+              {
+                // We build new nodes, since readers may still be
+                // walking the old chains.
+                int index = node.hash & (length - 1);
+                table.set(index, new Node<K, V>(node.key, node.hash,
+                                                node.value,
+                                                table.get(index)));
+              } // for each node
+          } // for each old bucket
+        this.buckets = table;
+      } // try
+    finally
+      {
+        this.unlockAll();
+      } // finally
+  } // expand()
+
+  /**
+   * Find the node with a given key, or null if there is none.  Does
+   * not lock.
+   */
+  Node<K, V> findNode(K key)
+  {
+    int hash = mix(key.hashCode());
+    AtomicReferenceArray<Node<K, V>> table = this.buckets;
+    Node<K, V> node = table.get(hash & (table.length() - 1));
+    while ((node != null) && ((node.hash != hash) || !key.equals(node.key)))
+      node = node.next;
+    return node;
+  } // findNode(K)
+
+  /**
+   * Lock every stripe, in order.
+   */
+  void lockAll()
+  {
+    for (Stripe stripe : this.stripes)
+      {
+        stripe.lock();
+      } // for
+  } // lockAll()
+
+  /**
+   * Unlock every stripe.
+   */
+  void unlockAll()
+  {
+    for (Stripe stripe : this.stripes)
+      {
+        stripe.unlock();
+      } // for
+  } // unlockAll()
+
+  /**
+   * Scramble the bits of a hash code, so that the low bits, which pick
+   * the stripe and the bucket, depend on all of them.  This is the
+   * finalizer from MurmurHash3, as in OpenHashTable.
+   */
+  static int mix(int hash)
+  {
+    return OpenHashTable.mix(hash);
+  } // mix(int)
+
+  // +---------------+---------------------------------------------------
+  // | Inner Classes |
+  // +---------------+
+
+  /**
+   * One node in a chain.  Everything but the value is final, which is
+   * what lets readers skip locking.
+   */
+  static class Node<K, V>
+  {
+    final K key;
+    final int hash;
+    volatile V value;
+    final Node<K, V> next;
+
+    Node(K key, int hash, V value, Node<K, V> next)
+    {
+      this.key = key;
+      this.hash = hash;
+      this.value = value;
+      this.next = next;
+    } // Node(K, int, V, Node<K, V>)
+  } // class Node<K, V>
+
+  /**
+   * The lock for one stripe, along with the number of entries in it.
+   * We only change count while holding the lock, but readers of size
+   * don't lock, so it's volatile.
+   */
+  @SuppressWarnings("serial")
+  static class Stripe
+      extends ReentrantLock
+  {
+    volatile int count = 0;
+  } // class Stripe
+
+  /**
+   * Iterators over the nodes, in bucket order.  Subclasses say what
+   * they want from each node.  The iterator works from the table as
+   * it was when the iterator was made.
+   */
+  abstract class NodeIterator<T>
+      implements Iterator<T>
+  {
+    /**
+     * The table we're iterating.
+     */
+    AtomicReferenceArray<Node<K, V>> table =
+        ConcurrentChainedHashTable.this.buckets;
+
+    /**
+     * The index of the next bucket to look at.
+     */
+    int index = 0;
+
+    /**
+     * The next node to return, or null if we need to look for one.
+     */
+    Node<K, V> next = null;
+
+    /**
+     * Get the part of the node that we're iterating.
+     */
+    abstract T extract(Node<K, V> node);
+
+    public boolean hasNext()
+    {
+      while ((this.next == null) && (this.index < this.table.length()))
+        {
+          this.next = this.table.get(this.index++);
+        } // while
+      return this.next != null;
+    } // hasNext()
+
+    public T next()
+      throws NoSuchElementException
+    {
+      if (!this.hasNext())
+        throw new NoSuchElementException();
+      Node<K, V> node = this.next;
+      this.next = node.next;
+      return this.extract(node);
+    } // next()
+
+    public void remove()
+      throws UnsupportedOperationException
+    {
+      throw new UnsupportedOperationException();
+    } // remove()
+  } // class NodeIterator<T>
+
+} // class ConcurrentChainedHashTable<K, V>
@@ -0,0 +1,123 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unit tests for our concurrent chained hash table class.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class ConcurrentChainedHashTableTest
+{
+  /**
+   * Our handy dandy factory.
+   */
+  public DictionaryFactory<Character,String> cchtFactory =
+    new DictionaryFactory<Character,String>()
+      {
+        public Dictionary<Character, String> build(int capacity)
+        {
+          return new ConcurrentChainedHashTable<Character, String>(capacity);
+        } // build(int)
+      }; // new DictionaryFactory
+
+  /**
+   * Random tests are always a good starting point.
+   */
+  @Test
+  public void randomTest()
+    throws Exception
+  {
+    DictionaryIteratorTests.randomTest(cchtFactory);
+  } // test
+
+  /**
+   * Several writers add and remove their own keys while a reader keeps
+   * checking keys that never change.  The table expands many times
+   * along the way, so readers see expansions in progress.
+   */
+  @Test
+  public void concurrentTest()
+    throws Exception
+  {
+    final int writers = 4;
+    final int perWriter = 20000;
+    final int stable = 1000;
+    final ConcurrentChainedHashTable<Integer, Integer> table =
+        new ConcurrentChainedHashTable<Integer, Integer>();
+    // Keys -1 .. -stable are there throughout.
+    for (int i = 1; i <= stable; i++)
+      {
+        table.set(-i, i);
+      } // for
+    final AtomicReference<String> failure = new AtomicReference<String>();
+    final AtomicBoolean done = new AtomicBoolean(false);
+
+    Thread[] threads = new Thread[writers + 1];
+    for (int w = 0; w < writers; w++)
+      {
+        final int base = w * perWriter;
+        threads[w] = new Thread()
+          {
+            public void run()
+            {
+              // Add all of our keys, then remove the even ones.
+              for (int i = base; i < base + perWriter; i++)
+                {
+                  table.set(i, i);
+                } // for
+              for (int i = base; i < base + perWriter; i += 2)
+                {
+                  table.remove(i);
+                } // for
+            } // run()
+          }; // new Thread
+      } // for each writer
+    threads[writers] = new Thread()
+      {
+        public void run()
+        {
+          while (!done.get() && (failure.get() == null))
+            {
+              for (int i = 1; i <= stable; i++)
+                {
+                  Integer value = table.getOrDefault(-i, null);
+                  if ((value == null) || (value != i))
+                    {
+                      failure.set("key " + (-i) + " had value " + value);
+                    } // if the value is wrong
+                } // for
+            } // while
+        } // run()
+      }; // new Thread
+
+    threads[writers].start();
+    for (int w = 0; w < writers; w++)
+      {
+        threads[w].start();
+      } // for
+    for (int w = 0; w < writers; w++)
+      {
+        threads[w].join();
+      } // for
+    done.set(true);
+    threads[writers].join();
+
+    assertNull(failure.get());
+    assertEquals(stable + writers * perWriter / 2, table.size());
+    for (int i = 0; i < writers * perWriter; i++)
+      {
+        assertEquals((i % 2) == 1, table.containsKey(i));
+      } // for
+    int count = 0;
+    for (Integer value : table)
+      {
+        count++;
+      } // for
+    assertEquals(table.size(), count);
+  } // concurrentTest()
+
+} // ConcurrentChainedHashTableTest
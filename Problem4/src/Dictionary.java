@@ -36,6 +36,13 @@ public interface Dictionary<K, V>
   public V get(K key)
     throws Exception;
 
+  /**
+   * Get the value associated with a particular key, or defaultValue if
+   * the key is not in the dictionary.  Unlike get, this never throws
+   * an exception, so it's the better choice when misses are expected.
+   */
+  public V getOrDefault(K key, V defaultValue);
+
   /**
    * Determine if the dictionary contains a value with a particular key.
    * (Useful in checking the precondition for get.)
@@ -0,0 +1,851 @@
+import java.io.PrintWriter;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Timing experiments for our dictionaries.  For each implementation,
+ * key type, key distribution, and size, we time get, containsKey, set,
+ * remove, and a full iteration, and print one line per operation.
+ *
+ * Usage: java DictionaryBenchmark [maxSize [implementation ...]]
+ *        java DictionaryBenchmark latency [count [implementation ...]]
+ *        java DictionaryBenchmark threads [size [implementation ...]]
+ *        java DictionaryBenchmark cache [capacity [implementation ...]]
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class DictionaryBenchmark
+{
+  // +-------+-----------------------------------------------------------
+  // | Notes |
+  // +-------+
+
+  /*
+     We'd normally reach for a harness like JMH for this kind of thing,
+     but these projects are built by hand (or by Eclipse), so we do the
+     minimum that such a harness does for us: we run each measurement
+     several times so that the JIT has a chance to warm up, we report
+     the best round, and we accumulate results into a field so that the
+     compiler can't throw the work away.
+
+     Insertion order follows the distribution: sequential keys are
+     inserted in order, the others in random order.  Lookups follow
+     the distribution.  Half of the containsKey calls are for keys
+     that are not in the dictionary.
+
+     Association lists are quadratic to fill, so by default we only
+     try them on small sizes.
+
+     The latency mode looks at the tail rather than the average.  It
+     times every set in a steady stream of inserts into a table that
+     starts small, so that the table expands many times along the way,
+     and reports percentiles of the individual times.  An expansion
+     that rehashes everything at once shows up in the high percentiles
+     and the maximum, even though it hardly changes the mean.  The
+     clock costs a few tens of nanoseconds per reading, so only the
+     relative values of the low percentiles mean much.  Garbage
+     collections also land in the tail, so it helps to run with a large
+     young generation (e.g., java -Xmn2g -XX:+UseSerialGC).
+
+     The threads mode measures throughput with 1 to 64 threads sharing
+     one dictionary of Integer keys, first with lookups only and then
+     with a tenth of the operations adding or removing keys.  The
+     writes use keys outside the ones we look up, so the lookups always
+     hit.  Dictionaries that aren't thread-safe are used the way we
+     use them today: every operation holds the dictionary's monitor.
+     The numbers only mean something on a machine with as many cores
+     as threads; on fewer cores, the best we can hope for is that
+     throughput stays flat.
+
+     The cache mode uses each dictionary as a memo cache that holds at
+     most capacity entries, in front of CACHE_KEYS times as many
+     Integer keys.  Each operation looks a key up, and on a miss, sets
+     it.  We report the hit rate and the throughput.  LRUCache bounds
+     itself.  The others are unbounded tables with the cap applied
+     from outside, the way we used to: "+flush" clears the table when
+     it's full, and "+random" keeps its own array of the keys in the
+     table and removes a random one to make room.  Besides the usual
+     distributions, cache mode tries "zipf+scan": Zipfian lookups,
+     interrupted after every CACHE_SCAN_PERIOD times capacity of them
+     by a scan of capacity keys that we never see again, the way a
+     batch job or a report would pass through a cache.  That's the
+     case WTinyLFUCache is for.
+   */
+
+  // +-----------+-------------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The sizes we try.
+   */
+  static final int[] SIZES =
+      { 10, 100, 1000, 10000, 100000, 1000000, 10000000 };
+
+  /**
+   * The implementations we know about.
+   */
+  static final String[] IMPLEMENTATIONS =
+      { "AssociationList", "ChainedHashTable", "IncrementalChainedHashTable",
+       "ConcurrentChainedHashTable", "OpenHashTable",
+       "LockFreeOpenHashTable", "AdaptiveDictionary" };
+
+  /**
+   * The implementations we compare in latency mode.
+   */
+  static final String[] LATENCY_IMPLEMENTATIONS =
+      { "ChainedHashTable", "IncrementalChainedHashTable" };
+
+  /**
+   * The number of inserts we time in latency mode.
+   */
+  static final int LATENCY_INSERTS = 1000000;
+
+  /**
+   * The percentiles we report in latency mode.
+   */
+  static final double[] PERCENTILES = { 50, 99, 99.9, 99.99 };
+
+  /**
+   * The implementations we compare in threads mode.
+   */
+  static final String[] THREAD_IMPLEMENTATIONS =
+      { "ChainedHashTable", "ConcurrentChainedHashTable",
+       "LockFreeOpenHashTable" };
+
+  /**
+   * The numbers of threads we try in threads mode.
+   */
+  static final int[] THREAD_COUNTS = { 1, 2, 4, 8, 16, 32, 64 };
+
+  /**
+   * The percentages of writes we try in threads mode.
+   */
+  static final int[] WRITE_PERCENTS = { 0, 10 };
+
+  /**
+   * The size of the dictionary in threads mode.
+   */
+  static final int THREAD_SIZE = 100000;
+
+  /**
+   * The total number of operations, over all threads, in each round
+   * of threads mode.
+   */
+  static final int THREAD_OPS = 4000000;
+
+  /**
+   * The implementations we compare in cache mode.
+   */
+  static final String[] CACHE_IMPLEMENTATIONS =
+      { "LRUCache", "WTinyLFUCache", "OpenHashTable+flush",
+       "OpenHashTable+random" };
+
+  /**
+   * The distributions we try in cache mode.
+   */
+  static final String[] CACHE_DISTRIBUTIONS =
+      { "sequential", "uniform", "zipf", "zipf+scan" };
+
+  /**
+   * The default capacity of the caches in cache mode.
+   */
+  static final int CACHE_CAPACITY = 10000;
+
+  /**
+   * The number of keys in cache mode, as a multiple of the capacity.
+   */
+  static final int CACHE_KEYS = 10;
+
+  /**
+   * The number of operations in each round of cache mode.
+   */
+  static final int CACHE_OPS = 2000000;
+
+  /**
+   * The number of Zipfian lookups between scans in cache mode, as a
+   * multiple of the capacity.
+   */
+  static final int CACHE_SCAN_PERIOD = 4;
+
+  /**
+   * The number of lookups in each round.
+   */
+  static final int LOOKUPS = 1000000;
+
+  /**
+   * The number of rounds for each measurement.
+   */
+  static final int ROUNDS = 5;
+
+  /**
+   * The largest association list we build, unless asked for one by name.
+   */
+  static final int LIST_LIMIT = 1000;
+
+  /**
+   * The seed for our random number generator, so that runs are
+   * repeatable.
+   */
+  static final long SEED = 207;
+
+  // +--------+----------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Somewhere to put results so that they aren't optimized away.
+   */
+  static long sink = 0;
+
+  // +------+------------------------------------------------------------
+  // | Main |
+  // +------+
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    PrintWriter pen = new PrintWriter(System.out, true);
+    if ((args.length > 0) && args[0].equals("latency"))
+      {
+        int count = (args.length > 1) ? Integer.parseInt(args[1])
+                                      : LATENCY_INSERTS;
+        String[] impls = LATENCY_IMPLEMENTATIONS;
+        if (args.length > 2)
+          {
+            impls = new String[args.length - 2];
+            System.arraycopy(args, 2, impls, 0, impls.length);
+          } // if the user named implementations
+        pen.println(latencyHeader());
+        for (String impl : impls)
+          {
+            runLatency(pen, impl, factory(impl), KeyGenerator.integers(),
+                       count);
+          } // for each implementation
+        pen.println("# checksum " + sink);
+        return;
+      } // if latency mode
+    if ((args.length > 0) && args[0].equals("threads"))
+      {
+        int size = (args.length > 1) ? Integer.parseInt(args[1])
+                                     : THREAD_SIZE;
+        String[] impls = THREAD_IMPLEMENTATIONS;
+        if (args.length > 2)
+          {
+            impls = new String[args.length - 2];
+            System.arraycopy(args, 2, impls, 0, impls.length);
+          } // if the user named implementations
+        pen.println(String.format("%-28s %7s %7s %12s", "implementation",
+                                  "threads", "writes", "Mops/s"));
+        for (int writePercent : WRITE_PERCENTS)
+          {
+            for (String impl : impls)
+              {
+                for (int threads : THREAD_COUNTS)
+                  {
+                    runThreads(pen, impl, factory(impl), size, threads,
+                               writePercent);
+                  } // for each number of threads
+              } // for each implementation
+          } // for each write percentage
+        pen.println("# checksum " + sink);
+        return;
+      } // if threads mode
+    if ((args.length > 0) && args[0].equals("cache"))
+      {
+        int capacity = (args.length > 1) ? Integer.parseInt(args[1])
+                                         : CACHE_CAPACITY;
+        String[] impls = CACHE_IMPLEMENTATIONS;
+        if (args.length > 2)
+          {
+            impls = new String[args.length - 2];
+            System.arraycopy(args, 2, impls, 0, impls.length);
+          } // if the user named implementations
+        pen.println(String.format("%-28s %-11s %9s %9s %12s",
+                                  "implementation", "dist", "capacity",
+                                  "hit rate", "Mops/s"));
+        for (String dist : CACHE_DISTRIBUTIONS)
+          {
+            for (String impl : impls)
+              {
+                runCache(pen, impl, dist, capacity);
+              } // for each implementation
+          } // for each distribution
+        pen.println("# checksum " + sink);
+        return;
+      } // if cache mode
+    int maxSize = SIZES[SIZES.length - 1];
+    String[] impls = IMPLEMENTATIONS;
+    int listLimit = LIST_LIMIT;
+    if (args.length > 0)
+      {
+        maxSize = Integer.parseInt(args[0]);
+      } // if the user gave a maximum size
+    if (args.length > 1)
+      {
+        impls = new String[args.length - 1];
+        System.arraycopy(args, 1, impls, 0, impls.length);
+        // If you ask for association lists by name, you get them.
+        listLimit = maxSize;
+      } // if the user named implementations
+
+    KeyGenerator<?>[] generators =
+        { KeyGenerator.characters(), KeyGenerator.integers(),
+         KeyGenerator.strings() };
+
+    pen.println(header());
+    for (KeyGenerator<?> gen : generators)
+      {
+        for (String dist : KeyGenerator.DISTRIBUTIONS)
+          {
+            for (int size : SIZES)
+              {
+                if ((size > maxSize) || (size > gen.maxKeys()))
+                  continue;
+                for (String impl : impls)
+                  {
+                    if (impl.equals("AssociationList") && (size > listLimit))
+                      continue;
+                    run(pen, impl, factory(impl), gen, dist, size);
+                  } // for each implementation
+              } // for each size
+          } // for each distribution
+      } // for each type of key
+    pen.println("# checksum " + sink);
+  } // main(String[])
+
+  // +------------+------------------------------------------------------
+  // | Benchmarks |
+  // +------------+
+
+  /**
+   * Time each of the operations on one kind of dictionary with one
+   * kind of key.
+   */
+  static <K> void run(PrintWriter pen, String impl,
+                      DictionaryFactory<K, Integer> factory,
+                      KeyGenerator<K> gen, String dist, int size)
+    throws Exception
+  {
+    Random rand = new Random(SEED);
+    K[] keys = gen.keys(0, size);
+    // Keys that are not in the dictionary.  If the key type is too
+    // small, we fall back to keys that are.
+    K[] missing =
+        (2 * size <= gen.maxKeys()) ? gen.keys(size, 2 * size) : keys;
+    int[] order = KeyGenerator.insertionOrder(dist, size, rand);
+    int[] stream = KeyGenerator.indices(dist, LOOKUPS, size, rand);
+    // Small dictionaries get rebuilt many times per round.
+    int reps = Math.max(1, LOOKUPS / size);
+
+    long set = Long.MAX_VALUE;
+    long get = Long.MAX_VALUE;
+    long contains = Long.MAX_VALUE;
+    long iterate = Long.MAX_VALUE;
+    long remove = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++)
+      {
+        Dictionary<K, Integer> dict = null;
+
+        // set
+        long start = System.nanoTime();
+        for (int r = 0; r < reps; r++)
+          {
+            dict = factory.build(size);
+            fill(dict, keys, order);
+          } // for
+        set = Math.min(set, System.nanoTime() - start);
+
+        // get
+        start = System.nanoTime();
+        for (int i = 0; i < stream.length; i++)
+          {
+            sink += dict.get(keys[stream[i]]);
+          } // for
+        get = Math.min(get, System.nanoTime() - start);
+
+        // containsKey
+        start = System.nanoTime();
+        for (int i = 0; i < stream.length; i++)
+          {
+            K key = ((i & 1) == 0) ? keys[stream[i]] : missing[stream[i]];
+            if (dict.containsKey(key))
+              sink++;
+          } // for
+        contains = Math.min(contains, System.nanoTime() - start);
+
+        // iterate
+        start = System.nanoTime();
+        for (int r = 0; r < reps; r++)
+          {
+            for (Integer value : dict)
+              {
+                sink += value;
+              } // for
+          } // for
+        iterate = Math.min(iterate, System.nanoTime() - start);
+
+        // remove.  We rebuild the dictionaries before we start the
+        // clock, so we only time the removals.
+        Dictionary<K, Integer>[] dicts = newArray(reps);
+        for (int r = 0; r < reps; r++)
+          {
+            dicts[r] = factory.build(size);
+            fill(dicts[r], keys, order);
+          } // for
+        start = System.nanoTime();
+        for (int r = 0; r < reps; r++)
+          {
+            for (int i = 0; i < order.length; i++)
+              {
+                dicts[r].remove(keys[order[i]]);
+              } // for
+          } // for
+        remove = Math.min(remove, System.nanoTime() - start);
+      } // for each round
+
+    String prefix = String.format("%-28s %-10s %-11s %9d ", impl, gen.name(),
+                                  dist, size);
+    long perRep = (long) reps * size;
+    pen.println(prefix + line("set", set, perRep));
+    pen.println(prefix + line("get", get, stream.length));
+    pen.println(prefix + line("containsKey", contains, stream.length));
+    pen.println(prefix + line("remove", remove, perRep));
+    pen.println(prefix + line("iterate", iterate, perRep));
+  } // run
+
+  /**
+   * Time each of a stream of inserts of distinct keys, in random order,
+   * into a dictionary that starts out small.  We report the percentiles
+   * from the round with the smallest maximum, which is the round least
+   * disturbed by the garbage collector and the JIT.
+   */
+  static <K> void runLatency(PrintWriter pen, String impl,
+                             DictionaryFactory<K, Integer> factory,
+                             KeyGenerator<K> gen, int count)
+    throws Exception
+  {
+    Random rand = new Random(SEED);
+    K[] keys = gen.keys(0, count);
+    int[] order = KeyGenerator.permutation(count, rand);
+    long[] times = new long[count];
+    long[] best = null;
+    for (int round = 0; round < ROUNDS; round++)
+      {
+        Dictionary<K, Integer> dict = factory.build(1);
+        for (int i = 0; i < count; i++)
+          {
+            K key = keys[order[i]];
+            long start = System.nanoTime();
+            dict.set(key, i);
+            times[i] = System.nanoTime() - start;
+          } // for
+        sink += dict.getOrDefault(keys[0], 0);
+        Arrays.sort(times);
+        if ((best == null) || (times[count - 1] < best[count - 1]))
+          {
+            best = times.clone();
+          } // if this is the best round so far
+      } // for each round
+
+    StringBuilder result = new StringBuilder();
+    result.append(String.format("%-28s %9d", impl, count));
+    for (double p : PERCENTILES)
+      {
+        int index = (int) Math.ceil(p / 100 * count) - 1;
+        result.append(String.format(" %10d", best[Math.max(0, index)]));
+      } // for each percentile
+    result.append(String.format(" %12d", best[count - 1]));
+    pen.println(result);
+  } // runLatency
+
+  /**
+   * Measure the throughput of a mix of lookups and writes, shared
+   * out among some number of threads.
+   */
+  static void runThreads(PrintWriter pen, String impl,
+                         DictionaryFactory<Integer, Integer> factory,
+                         int size, int threads, final int writePercent)
+    throws Exception
+  {
+    Random rand = new Random(SEED);
+    final Integer[] keys = KeyGenerator.integers().keys(0, 2 * size);
+    final int[] stream = KeyGenerator.indices("uniform", THREAD_OPS, size,
+                                              rand);
+    final boolean locked = !threadSafe(impl);
+    final int perThread = THREAD_OPS / threads;
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++)
+      {
+        final Dictionary<Integer, Integer> dict = factory.build(size);
+        for (int i = 0; i < size; i++)
+          {
+            dict.set(keys[i], i);
+          } // for
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++)
+          {
+            final int lb = t * perThread;
+            workers[t] = new Thread()
+              {
+                public void run()
+                {
+                  long local = 0;
+                  try
+                    {
+                      start.await();
+                    } // try
+                  catch (InterruptedException e)
+                    {
+                      return;
+                    } // catch
+                  for (int i = lb; i < lb + perThread; i++)
+                    {
+                      if (locked)
+                        {
+                          synchronized (dict)
+                            {
+                              local += step(dict, keys, stream, i, size,
+                                            writePercent);
+                            } // synchronized
+                        } // if we need to lock
+                      else
+                        {
+                          local += step(dict, keys, stream, i, size,
+                                        writePercent);
+                        } // if the dictionary is thread-safe
+                    } // for
+                  synchronized (DictionaryBenchmark.class)
+                    {
+                      sink += local;
+                    } // synchronized
+                } // run()
+              }; // new Thread
+            workers[t].start();
+          } // for each thread
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers)
+          {
+            worker.join();
+          } // for
+        best = Math.min(best, System.nanoTime() - begin);
+      } // for each round
+    double mops = (double) perThread * threads / best * 1000;
+    pen.println(String.format("%-28s %7d %6d%% %12.2f",
+                              impl + (locked ? " (locked)" : ""), threads,
+                              writePercent, mops));
+  } // runThreads
+
+  /**
+   * Use a dictionary as a memo cache with a bounded number of entries,
+   * and report the hit rate and throughput.
+   */
+  static void runCache(PrintWriter pen, String impl, String dist,
+                       int capacity)
+    throws Exception
+  {
+    Random rand = new Random(SEED);
+    int n = CACHE_KEYS * capacity;
+    int[] stream = cacheStream(dist, n, capacity, rand);
+    int max = 0;
+    for (int k : stream)
+      {
+        max = Math.max(max, k);
+      } // for
+    Integer[] keys = KeyGenerator.integers().keys(0, max + 1);
+    boolean bounded = !impl.startsWith("OpenHashTable");
+    boolean flush = impl.endsWith("+flush");
+    DictionaryFactory<Integer, Integer> factory =
+        bounded ? DictionaryBenchmark.<Integer>cacheFactory(impl) : null;
+    long best = Long.MAX_VALUE;
+    long hits = 0;
+    for (int round = 0; round < ROUNDS; round++)
+      {
+        Dictionary<Integer, Integer> dict =
+            bounded ? factory.build(capacity)
+                    : new OpenHashTable<Integer, Integer>();
+        // The keys in an unbounded table, for the "+random" policy.
+        Integer[] resident = new Integer[capacity];
+        int count = 0;
+        hits = 0;
+        long local = 0;
+        long begin = System.nanoTime();
+        for (int i = 0; i < CACHE_OPS; i++)
+          {
+            Integer key = keys[stream[i]];
+            Integer value = dict.getOrDefault(key, null);
+            if (value != null)
+              {
+                ++hits;
+                local += value;
+                continue;
+              } // if it's a hit
+            if (bounded)
+              {
+                dict.set(key, stream[i]);
+              } // if the dictionary bounds itself
+            else if (count < capacity)
+              {
+                dict.set(key, stream[i]);
+                resident[count++] = key;
+              } // if there's room
+            else if (flush)
+              {
+                dict.clear();
+                dict.set(key, stream[i]);
+                resident[0] = key;
+                count = 1;
+              } // if we flush
+            else
+              {
+                int victim = rand.nextInt(capacity);
+                dict.remove(resident[victim]);
+                dict.set(key, stream[i]);
+                resident[victim] = key;
+              } // if we evict at random
+          } // for
+        best = Math.min(best, System.nanoTime() - begin);
+        sink += local;
+      } // for each round
+    pen.println(String.format("%-28s %-11s %9d %8.2f%% %12.2f", impl, dist,
+                              capacity, 100.0 * hits / CACHE_OPS,
+                              (double) CACHE_OPS / best * 1000));
+  } // runCache
+
+  /**
+   * Build the stream of key indices for cache mode.  The keys of the
+   * scans in "zipf+scan" come after the n that the lookups use, and
+   * each is used only once.
+   */
+  static int[] cacheStream(String dist, int n, int capacity, Random rand)
+  {
+    if (!dist.equals("zipf+scan"))
+      {
+        return KeyGenerator.indices(dist, CACHE_OPS, n, rand);
+      } // if it's one of the usual distributions
+    int[] stream = KeyGenerator.indices("zipf", CACHE_OPS, n, rand);
+    int period = (CACHE_SCAN_PERIOD + 1) * capacity;
+    int scanned = 0;
+    for (int i = 0; i < CACHE_OPS; i++)
+      {
+        if ((i % period) >= CACHE_SCAN_PERIOD * capacity)
+          {
+            stream[i] = n + scanned++;
+          } // if we're in a scan
+      } // for
+    return stream;
+  } // cacheStream(String, int, int, Random)
+
+  /**
+   * Do the ith operation of the threads mode.  Lookups use the first
+   * size keys, writes alternately add and remove the other size keys.
+   */
+  static int step(Dictionary<Integer, Integer> dict, Integer[] keys,
+                  int[] stream, int i, int size, int writePercent)
+  {
+    int k = stream[i];
+    if ((i % 100) < writePercent)
+      {
+        if ((i & 1) == 0)
+          dict.set(keys[size + k], i);
+        else
+          dict.remove(keys[size + k]);
+        return 0;
+      } // if this is a write
+    else
+      {
+        return dict.getOrDefault(keys[k], 0);
+      } // if this is a lookup
+  } // step
+
+  // +-----------+-------------------------------------------------------
+  // | Utilities |
+  // +-----------+
+
+  /**
+   * Build a factory for the named implementation.
+   *
+   * @throws IllegalArgumentException
+   *   if we don't know the implementation.
+   */
+  static <K> DictionaryFactory<K, Integer> factory(String impl)
+  {
+    if (impl.equals("AssociationList"))
+      {
+        return new DictionaryFactory<K, Integer>()
+          {
+            public Dictionary<K, Integer> build(int capacity)
+            {
+              return new AssociationList<K, Integer>();
+            } // build(int)
+          }; // new DictionaryFactory
+      } // if AssociationList
+    else if (impl.equals("ChainedHashTable"))
+      {
+        return new DictionaryFactory<K, Integer>()
+          {
+            public Dictionary<K, Integer> build(int capacity)
+            {
+              return new ChainedHashTable<K, Integer>();
+            } // build(int)
+          }; // new DictionaryFactory
+      } // if ChainedHashTable
+    else if (impl.equals("IncrementalChainedHashTable"))
+      {
+        return new DictionaryFactory<K, Integer>()
+          {
+            public Dictionary<K, Integer> build(int capacity)
+            {
+              return new ChainedHashTable<K, Integer>(
+                  ChainedHashTable.DEFAULT_CAPACITY, true);
+            } // build(int)
+          }; // new DictionaryFactory
+      } // if IncrementalChainedHashTable
+    else if (impl.equals("ConcurrentChainedHashTable"))
+      {
+        return new DictionaryFactory<K, Integer>()
+          {
+            public Dictionary<K, Integer> build(int capacity)
+            {
+              return new ConcurrentChainedHashTable<K, Integer>();
+            } // build(int)
+          }; // new DictionaryFactory
+      } // if ConcurrentChainedHashTable
+    else if (impl.equals("OpenHashTable"))
+      {
+        return new DictionaryFactory<K, Integer>()
+          {
+            public Dictionary<K, Integer> build(int capacity)
+            {
+              return new OpenHashTable<K, Integer>();
+            } // build(int)
+          }; // new DictionaryFactory
+      } // if OpenHashTable
+    else if (impl.equals("LockFreeOpenHashTable"))
+      {
+        return new DictionaryFactory<K, Integer>()
+          {
+            public Dictionary<K, Integer> build(int capacity)
+            {
+              return new LockFreeOpenHashTable<K, Integer>();
+            } // build(int)
+          }; // new DictionaryFactory
+      } // if LockFreeOpenHashTable
+    else if (impl.equals("AdaptiveDictionary"))
+      {
+        return new DictionaryFactory<K, Integer>()
+          {
+            public Dictionary<K, Integer> build(int capacity)
+            {
+              return new AdaptiveDictionary<K, Integer>();
+            } // build(int)
+          }; // new DictionaryFactory
+      } // if AdaptiveDictionary
+    else
+      {
+        throw new IllegalArgumentException("Unknown implementation: " + impl);
+      } // if we don't know the implementation
+  } // factory(String)
+
+  /**
+   * Build a factory for the named bounded cache.  The factory's
+   * capacity is the most entries the cache holds.
+   */
+  static <K> DictionaryFactory<K, Integer> cacheFactory(String impl)
+  {
+    if (impl.equals("LRUCache"))
+      {
+        return new DictionaryFactory<K, Integer>()
+          {
+            public Dictionary<K, Integer> build(int capacity)
+            {
+              return new LRUCache<K, Integer>(capacity);
+            } // build(int)
+          }; // new DictionaryFactory
+      } // if LRUCache
+    else if (impl.equals("WTinyLFUCache"))
+      {
+        return new DictionaryFactory<K, Integer>()
+          {
+            public Dictionary<K, Integer> build(int capacity)
+            {
+              return new WTinyLFUCache<K, Integer>(capacity);
+            } // build(int)
+          }; // new DictionaryFactory
+      } // if WTinyLFUCache
+    else
+      {
+        throw new IllegalArgumentException("Unknown cache: " + impl);
+      } // if we don't know the cache
+  } // cacheFactory(String)
+
+  /**
+   * Determine whether the named implementation can be shared among
+   * threads without a lock around it.
+   */
+  static boolean threadSafe(String impl)
+  {
+    return impl.startsWith("Concurrent") || impl.startsWith("LockFree");
+  } // threadSafe(String)
+
+  /**
+   * Add the keys to the dictionary in the given order.  Each key is
+   * associated with its index.
+   */
+  static <K> void fill(Dictionary<K, Integer> dict, K[] keys, int[] order)
+  {
+    for (int i = 0; i < order.length; i++)
+      {
+        dict.set(keys[order[i]], order[i]);
+      } // for
+  } // fill(Dictionary<K, Integer>, K[], int[])
+
+  /**
+   * Make an array of dictionaries.  Java won't make an array of a generic
+   * type, so we make a raw one and cast it.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  static <K> Dictionary<K, Integer>[] newArray(int length)
+  {
+    return (Dictionary<K, Integer>[]) new Dictionary[length];
+  } // newArray(int)
+
+  /**
+   * The column headings.
+   */
+  static String header()
+  {
+    return String.format("%-28s %-10s %-11s %9s %-12s %10s", "implementation",
+                         "keys", "dist", "size", "op", "ns/op");
+  } // header()
+
+  /**
+   * The column headings for latency mode.
+   */
+  static String latencyHeader()
+  {
+    StringBuilder result = new StringBuilder();
+    result.append(String.format("%-28s %9s", "implementation", "inserts"));
+    for (double p : PERCENTILES)
+      {
+        String name = (p == Math.floor(p)) ? Integer.toString((int) p)
+                                           : Double.toString(p);
+        result.append(String.format(" %10s", "p" + name + " ns"));
+      } // for each percentile
+    result.append(String.format(" %12s", "max ns"));
+    return result.toString();
+  } // latencyHeader()
+
+  /**
+   * Format the time for one operation.
+   */
+  static String line(String op, long nanos, long ops)
+  {
+    return String.format("%-12s %10.1f", op, (double) nanos / ops);
+  } // line(String, long, long)
+} // class DictionaryBenchmark
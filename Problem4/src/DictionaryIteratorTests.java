@@ -10,6 +10,7 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Random;
+import java.util.function.Function;
 
 /**
  * Randomized tests for binary search trees.
@@ -131,6 +132,20 @@ public class DictionaryIteratorTests
             System.err.println("mapKeys:  " + Arrays.toString(mapKeys));
             reportError(dict, ops, "Different sets of keys!");
           } // if dictKeys != mapKeys
+
+        // Make sure that getOrDefault agrees with the hashmap, both for
+        // keys that are there and for keys that aren't.
+        for (char key = 'a'; key <= 'z'; key++)
+          {
+            String expected = map.get(key);
+            String actual = dict.getOrDefault(key, null);
+            if ((expected == null) ? (actual != null)
+                                   : !expected.equals(actual))
+              {
+                reportError(dict, ops, "getOrDefault(" + key + ") gave "
+                                       + actual + " rather than " + expected);
+              } // if getOrDefault gave the wrong value
+          } // for each letter
       } // for each iteration
   } // randomTest()
 
@@ -163,4 +178,86 @@ public class DictionaryIteratorTests
     fail(message);
   } // reportError
 
+  /**
+   * View a dictionary with some other kind of key as one with
+   * Character keys, so that randomTest can check it.  in and out
+   * convert keys to and from the dictionary's own.
+   */
+  static <N> Dictionary<Character, String> withCharKeys(
+      final Dictionary<N, String> dict, final Function<Character, N> in,
+      final Function<N, Character> out)
+  {
+    return new Dictionary<Character, String>()
+      {
+        public String get(Character key)
+          throws Exception
+        {
+          return dict.get(in.apply(key));
+        } // get(Character)
+
+        public String getOrDefault(Character key, String defaultValue)
+        {
+          return dict.getOrDefault(in.apply(key), defaultValue);
+        } // getOrDefault(Character, String)
+
+        public boolean containsKey(Character key)
+        {
+          return dict.containsKey(in.apply(key));
+        } // containsKey(Character)
+
+        public void dump(PrintWriter pen)
+        {
+          dict.dump(pen);
+        } // dump(PrintWriter)
+
+        public void set(Character key, String value)
+        {
+          dict.set(in.apply(key), value);
+        } // set(Character, String)
+
+        public void remove(Character key)
+        {
+          dict.remove(in.apply(key));
+        } // remove(Character)
+
+        public void clear()
+        {
+          dict.clear();
+        } // clear()
+
+        public Iterator<String> iterator()
+        {
+          return dict.iterator();
+        } // iterator()
+
+        public Iterable<Character> keys()
+        {
+          return new Iterable<Character>()
+            {
+              public Iterator<Character> iterator()
+              {
+                return keysIterator();
+              } // iterator()
+            }; // new Iterable<Character>
+        } // keys()
+
+        public Iterator<Character> keysIterator()
+        {
+          final Iterator<N> keys = dict.keysIterator();
+          return new Iterator<Character>()
+            {
+              public boolean hasNext()
+              {
+                return keys.hasNext();
+              } // hasNext()
+
+              public Character next()
+              {
+                return out.apply(keys.next());
+              } // next()
+            }; // new Iterator<Character>
+        } // keysIterator()
+      }; // new Dictionary<Character, String>
+  } // withCharKeys(Dictionary<N, String>, Function, Function)
+
 } // class DictionaryIteratorTests
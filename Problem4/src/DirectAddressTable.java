@@ -0,0 +1,428 @@
+import java.io.PrintWriter;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * Dictionaries for keys from a small, dense domain, stored in an array
+ * indexed by the key.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class DirectAddressTable<K, V>
+    implements Dictionary<K, V>
+{
+  // +-------+-----------------------------------------------------------
+  // | Notes |
+  // +-------+
+
+  /*
+      When every key maps to its own small integer, such as a letter's
+      position in the alphabet, we don't need to hash at all.  The
+      client supplies a function from keys to indices in [0, capacity),
+      and the entry for a key lives at its index: no probing, no
+      chains, and no calls to equals.
+
+      The function must give different keys different indices.  We
+      can't check that without calling equals, which would defeat the
+      purpose, so a function that maps two keys to the same index
+      makes them the same key as far as we're concerned.
+
+      We keep the keys as well as the values, so that we can iterate
+      over the keys without an inverse function, and a bitmap of the
+      used slots (one bit per slot, 64 to a long).  Iteration skips a
+      word at a time over empty stretches of the bitmap and finds the
+      next used slot in a word with numberOfTrailingZeros, so a sparse
+      table iterates in time proportional to its size plus
+      capacity/64, rather than its capacity.
+
+      Keys whose index is out of range are never in the table.  get
+      and getOrDefault treat them as missing keys, remove ignores
+      them, and set throws an IllegalArgumentException, since there's
+      nowhere to put them.
+   */
+
+  // +--------+----------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The function from keys to indices.
+   */
+  ToIntFunction<? super K> index;
+
+  /**
+   * The keys.  keys[i] is only meaningful when bit i of used is set.
+   */
+  Object[] keys;
+
+  /**
+   * The values.  values[i] goes with keys[i].
+   */
+  Object[] values;
+
+  /**
+   * The used slots.  Bit i % 64 of used[i / 64] is set when slot i
+   * holds an entry.
+   */
+  long[] used;
+
+  /**
+   * The number of entries in the table.
+   */
+  int size;
+
+  // +--------------+----------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new table for keys that index maps into [0, capacity).
+   */
+  public DirectAddressTable(int capacity, ToIntFunction<? super K> index)
+  {
+    this.index = index;
+    this.keys = new Object[capacity];
+    this.values = new Object[capacity];
+    this.used = new long[(capacity + 63) / 64];
+    this.size = 0;
+  } // DirectAddressTable(int, ToIntFunction<? super K>)
+
+  // +-----------+-------------------------------------------------------
+  // | Factories |
+  // +-----------+
+
+  /**
+   * Build a factory for tables for keys that index maps into
+   * [0, capacity).  The factory ignores its capacity hint, since the
+   * key domain decides the capacity.
+   */
+  public static <K, V> DictionaryFactory<K, V> factory(
+      final int capacity, final ToIntFunction<? super K> index)
+  {
+    return new DictionaryFactory<K, V>()
+      {
+        public Dictionary<K, V> build(int ignored)
+        {
+          return new DirectAddressTable<K, V>(capacity, index);
+        } // build(int)
+      }; // new DictionaryFactory<K, V>
+  } // factory(int, ToIntFunction<? super K>)
+
+  /**
+   * Build a factory for tables whose keys are the characters from
+   * first to last, inclusive.
+   */
+  public static <V> DictionaryFactory<Character, V> characters(
+      final char first, char last)
+  {
+    return factory(last - first + 1, new ToIntFunction<Character>()
+      {
+        public int applyAsInt(Character ch)
+        {
+          return ch - first;
+        } // applyAsInt(Character)
+      }); // new ToIntFunction<Character>
+  } // characters(char, char)
+
+  // +-----------+-------------------------------------------------------
+  // | Observers |
+  // +-----------+
+
+  /**
+   * Determine if the table contains a particular key.
+   */
+  public boolean containsKey(K key)
+  {
+    int i = this.index.applyAsInt(key);
+    return this.inRange(i) && this.isUsed(i);
+  } // containsKey(K)
+
+  /**
+   * Dump the table.
+   */
+  public void dump(PrintWriter pen)
+  {
+    pen.print("{");
+    int printed = 0; // Number of elements printed
+    for (int i = this.nextUsed(0); i >= 0; i = this.nextUsed(i + 1))
+      {
+        pen.print(i + ":" + this.keys[i] + ":" + this.values[i]);
+        if (++printed < this.size)
+          {
+            pen.print(", ");
+          } // if the number printed is less than the size
+      } // for each used slot
+    pen.println("}");
+  } // dump(PrintWriter)
+
+  /**
+   * Get the value for a particular key.
+   */
+  public V get(K key)
+    throws Exception
+  {
+    int i = this.index.applyAsInt(key);
+    if (!this.inRange(i) || !this.isUsed(i))
+      {
+        throw new Exception("Invalid key: " + key);
+      } // if the key isn't there
+    return this.value(i);
+  } // get(K)
+
+  /**
+   * Get the value for a particular key, or defaultValue if there is
+   * no such key.
+   */
+  public V getOrDefault(K key, V defaultValue)
+  {
+    int i = this.index.applyAsInt(key);
+    return (this.inRange(i) && this.isUsed(i)) ? this.value(i)
+                                               : defaultValue;
+  } // getOrDefault(K, V)
+
+  /**
+   * Get the size of the dictionary - the number of values stored.
+   */
+  public int size()
+  {
+    return this.size;
+  } // size()
+
+  // +----------+--------------------------------------------------------
+  // | Mutators |
+  // +----------+
+
+  /**
+   * Clear the whole table.
+   */
+  public void clear()
+  {
+    for (int i = this.nextUsed(0); i >= 0; i = this.nextUsed(i + 1))
+      {
+        this.keys[i] = null;
+        this.values[i] = null;
+      } // for each used slot
+    Arrays.fill(this.used, 0L);
+    this.size = 0;
+  } // clear()
+
+  /**
+   * Remove a key/value pair.
+   */
+  public void remove(K key)
+  {
+    int i = this.index.applyAsInt(key);
+    if (this.inRange(i))
+      {
+        // Subtract one exactly when the bit was set.
+        this.size -= (int) ((this.used[i >>> 6] >>> i) & 1);
+        this.used[i >>> 6] &= ~(1L << i);
+        this.keys[i] = null;
+        this.values[i] = null;
+      } // if the key could be there
+  } // remove(K)
+
+  /**
+   * Set a value.
+   *
+   * @throws IllegalArgumentException if the key's index is out of range
+   */
+  public void set(K key, V value)
+  {
+    int i = this.index.applyAsInt(key);
+    if (!this.inRange(i))
+      {
+        throw new IllegalArgumentException("Key out of range: " + key);
+      } // if there's nowhere to put the key
+    // Add one exactly when the bit wasn't set.
+    this.size += (int) (((this.used[i >>> 6] >>> i) & 1) ^ 1);
+    this.used[i >>> 6] |= 1L << i;
+    this.keys[i] = key;
+    this.values[i] = value;
+  } // set(K, V)
+
+  // +-----------+-------------------------------------------------------
+  // | Iterators |
+  // +-----------+
+
+  /**
+   * Get an iterator for the values.
+   */
+  public Iterator<V> iterator()
+  {
+    return new Iterator<V>()
+      {
+        SlotIterator slots = new SlotIterator();
+
+        public boolean hasNext()
+        {
+          return this.slots.hasNext();
+        } // hasNext()
+
+        public V next()
+          throws NoSuchElementException
+        {
+          return DirectAddressTable.this.value(this.slots.nextSlot());
+        } // next()
+
+        public void remove()
+          throws UnsupportedOperationException
+        {
+          throw new UnsupportedOperationException();
+        } // remove()
+      }; // new Iterator<V>
+  } // iterator()
+
+  /**
+   * Get an iterator for the keys.
+   */
+  public Iterator<K> keysIterator()
+  {
+    return new Iterator<K>()
+      {
+        SlotIterator slots = new SlotIterator();
+
+        public boolean hasNext()
+        {
+          return this.slots.hasNext();
+        } // hasNext()
+
+        public K next()
+          throws NoSuchElementException
+        {
+          return DirectAddressTable.this.key(this.slots.nextSlot());
+        } // next()
+
+        public void remove()
+          throws UnsupportedOperationException
+        {
+          throw new UnsupportedOperationException();
+        } // remove()
+      }; // new Iterator<K>
+  } // keysIterator()
+
+  /**
+   * Get an Iterable for the keys.  See explanation in Dictionary.java.
+   */
+  public Iterable<K> keys()
+  {
+    return new Iterable<K>()
+      {
+        public Iterator<K> iterator()
+        {
+          return DirectAddressTable.this.keysIterator();
+        } // iterator()
+      }; // new Iterable<K>
+  } // keys()
+
+  // +---------+---------------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Determine whether an index is a slot in the table.
+   */
+  boolean inRange(int i)
+  {
+    // One unsigned comparison catches negative indices, too.
+    return Integer.compareUnsigned(i, this.keys.length) < 0;
+  } // inRange(int)
+
+  /**
+   * Determine whether slot i holds an entry.
+   *
+   * @pre this.inRange(i)
+   */
+  boolean isUsed(int i)
+  {
+    return ((this.used[i >>> 6] >>> i) & 1) != 0;
+  } // isUsed(int)
+
+  /**
+   * Find the first used slot at or after slot i, or -1 if there isn't
+   * one.
+   */
+  int nextUsed(int i)
+  {
+    int word = i >>> 6;
+    if (word >= this.used.length)
+      {
+        return -1;
+      } // if we're past the end
+    // Ignore the bits for the slots before i.
+    long bits = this.used[word] & (-1L << i);
+    while (bits == 0)
+      {
+        if (++word == this.used.length)
+          {
+            return -1;
+          } // if there are no more words
+        bits = this.used[word];
+      } // while
+    return (word << 6) + Long.numberOfTrailingZeros(bits);
+  } // nextUsed(int)
+
+  /**
+   * Get the ith key.  Included mostly so that the unchecked conversions
+   * to K are all in one place.
+   */
+  @SuppressWarnings("unchecked")
+  K key(int i)
+  {
+    return (K) this.keys[i];
+  } // key(int)
+
+  /**
+   * Get the ith value.
+   */
+  @SuppressWarnings("unchecked")
+  V value(int i)
+  {
+    return (V) this.values[i];
+  } // value(int)
+
+  // +---------------+---------------------------------------------------
+  // | Inner Classes |
+  // +---------------+
+
+  /**
+   * A way to step through the used slots, in order.  The iterators for
+   * keys and values use this, and pull out what they need.
+   */
+  class SlotIterator
+  {
+    /**
+     * The next used slot, or -1 if there are no more.
+     */
+    int next = DirectAddressTable.this.nextUsed(0);
+
+    /**
+     * Determine whether there are any more entries to visit
+     */
+    boolean hasNext()
+    {
+      return this.next >= 0;
+    } // hasNext()
+
+    /**
+     * Get the index of the next used slot, and move on.
+     *
+     * @throw NoSuchElementException
+     *      if this.hasNext == false, there is no next element
+     */
+    int nextSlot()
+      throws NoSuchElementException
+    {
+      if (!this.hasNext())
+        throw new NoSuchElementException();
+      int result = this.next;
+      this.next = DirectAddressTable.this.nextUsed(result + 1);
+      return result;
+    } // nextSlot()
+  } // class SlotIterator
+
+} // class DirectAddressTable<K,V>
@@ -0,0 +1,99 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.function.ToIntFunction;
+
+/**
+ * Unit tests for our direct-address table class.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class DirectAddressTableTest
+{
+  /**
+   * Our handy dandy factory.  The random tests use lowercase letters.
+   */
+  public DictionaryFactory<Character,String> datFactory =
+    DirectAddressTable.characters('a', 'z');
+
+  /**
+   * Random tests are always a good starting point.
+   */
+  @Test
+  public void randomTest()
+    throws Exception
+  {
+    DictionaryIteratorTests.randomTest(datFactory);
+  } // test
+
+  /**
+   * Keys outside the domain are never there, and can't be set.
+   */
+  @Test
+  public void rangeTest()
+    throws Exception
+  {
+    Dictionary<Character, String> dict = datFactory.build(0);
+    dict.set('a', "aardvark");
+    assertFalse(dict.containsKey('A'));
+    assertFalse(dict.containsKey('{'));
+    assertEquals("none", dict.getOrDefault('A', "none"));
+    dict.remove('A');
+    try
+      {
+        dict.set('A', "Aardvark");
+        fail("set an out-of-range key");
+      } // try
+    catch (IllegalArgumentException e)
+      {
+        // That's what we expected.
+      } // catch
+    assertEquals("aardvark", dict.get('a'));
+  } // rangeTest()
+
+  /**
+   * Iteration should visit exactly the used slots, in order, in a big
+   * sparse table whose used slots straddle words of the bitmap.
+   */
+  @Test
+  public void iterateTest()
+    throws Exception
+  {
+    final int capacity = 1000;
+    DirectAddressTable<Integer, Integer> table =
+        new DirectAddressTable<Integer, Integer>(capacity,
+          new ToIntFunction<Integer>()
+            {
+              public int applyAsInt(Integer i)
+              {
+                return i;
+              } // applyAsInt(Integer)
+            }); // new ToIntFunction<Integer>
+    int[] slots = { 0, 1, 63, 64, 127, 500, 998, 999 };
+    for (int slot : slots)
+      {
+        table.set(slot, -slot);
+        table.set(slot, slot);
+      } // for
+    table.set(200, 200);
+    table.remove(200);
+    table.remove(201);
+    assertEquals(slots.length, table.size());
+    ArrayList<Integer> visited = new ArrayList<Integer>();
+    for (Integer key : table.keys())
+      {
+        visited.add(key);
+      } // for
+    assertEquals(slots.length, visited.size());
+    for (int i = 0; i < slots.length; i++)
+      {
+        assertEquals(Integer.valueOf(slots[i]), visited.get(i));
+      } // for
+    table.clear();
+    assertEquals(0, table.size());
+    assertFalse(table.iterator().hasNext());
+  } // iterateTest()
+
+} // DirectAddressTableTest
@@ -0,0 +1,194 @@
+/**
+ * An approximate count of how often we've seen each of many keys,
+ * using a few bits per key, that forgets old counts over time.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class FrequencySketch
+{
+  // +-------+-----------------------------------------------------------
+  // | Notes |
+  // +-------+
+
+  /*
+      This is a count-min sketch with 4-bit counters, as in TinyLFU
+      (Einziger, Friedman, and Manes), laid out the way Caffeine lays
+      out its sketch.
+
+      The counters are packed sixteen to a long.  To count a key, we
+      pick DEPTH = 4 longs with four different hash functions, and in
+      the ith long we bump counter (start + i), where start comes from
+      the low bits of the key's hash code.  So each key has four
+      counters, one per row of the sketch, in four different longs.
+      Other keys share some of those counters, so each counter can
+      only overestimate, and the smallest of the four is our estimate.
+      Counters stop at 15, which is plenty to tell a key we see all the
+      time from one we've seen once.
+
+      To forget the past, after every sampleSize increments we halve
+      every counter (a shift and a mask per long).  Old popularity then
+      fades, and a key that used to be hot has to keep being asked for
+      to stay that way.
+
+      The table has one long for each entry the cache can hold, rounded
+      up to a power of two: about 8 bytes per entry.  Callers pass
+      hash codes that are already mixed; we scramble them again for
+      each row.
+   */
+
+  // +-----------+-------------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of counters per key.
+   */
+  static final int DEPTH = 4;
+
+  /**
+   * The multipliers for the hash function of each row.
+   */
+  static final long[] SEEDS =
+      { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+       0xcbf29ce484222325L };
+
+  /**
+   * The low bit of every counter in a long.
+   */
+  static final long ONE_MASK = 0x1111111111111111L;
+
+  /**
+   * The low three bits of every counter in a long.
+   */
+  static final long RESET_MASK = 0x7777777777777777L;
+
+  /**
+   * The number of increments between halvings, per entry.
+   */
+  static final int SAMPLE_FACTOR = 10;
+
+  // +--------+----------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The counters.
+   */
+  long[] table;
+
+  /**
+   * The number of increments since we last halved the counters, less
+   * the ones that halving took back.
+   */
+  int additions;
+
+  /**
+   * The number of increments at which we halve the counters.
+   */
+  int sampleSize;
+
+  // +--------------+----------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a sketch for a cache that holds up to maxSize entries.
+   */
+  public FrequencySketch(int maxSize)
+  {
+    int length = OpenHashTable.powerOfTwo(Math.max(maxSize, 8));
+    this.table = new long[length];
+    this.sampleSize = SAMPLE_FACTOR * Math.max(maxSize, 8);
+    this.additions = 0;
+  } // FrequencySketch(int)
+
+  // +-----------+-------------------------------------------------------
+  // | Observers |
+  // +-----------+
+
+  /**
+   * Estimate how often we've seen a key with a given (mixed) hash
+   * code, lately.
+   */
+  public int frequency(int hash)
+  {
+    int start = (hash & 3) << 2;
+    int result = Integer.MAX_VALUE;
+    for (int i = 0; i < DEPTH; i++)
+      {
+        long word = this.table[this.indexOf(hash, i)];
+        int count = (int) ((word >>> ((start + i) << 2)) & 0xf);
+        result = Math.min(result, count);
+      } // for each row
+    return result;
+  } // frequency(int)
+
+  // +----------+--------------------------------------------------------
+  // | Mutators |
+  // +----------+
+
+  /**
+   * Count one more sighting of a key with a given (mixed) hash code.
+   */
+  public void increment(int hash)
+  {
+    int start = (hash & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < DEPTH; i++)
+      {
+        added |= this.incrementAt(this.indexOf(hash, i), start + i);
+      } // for each row
+    if (added && (++this.additions == this.sampleSize))
+      {
+        this.reset();
+      } // if it's time to forget
+  } // increment(int)
+
+  /**
+   * Halve every counter.
+   */
+  void reset()
+  {
+    int odd = 0;
+    for (int i = 0; i < this.table.length; i++)
+      {
+        odd += Long.bitCount(this.table[i] & ONE_MASK);
+        this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+      } // for
+    // Halving rounds the odd counters down, which takes back about a
+    // quarter of an increment per counter per key.
+    this.additions = (this.additions - (odd >>> 2)) >>> 1;
+  } // reset()
+
+  // +---------+---------------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Bump counter j of table[i], unless it's already at the maximum.
+   *
+   * @return true if we changed the counter
+   */
+  boolean incrementAt(int i, int j)
+  {
+    int offset = j << 2;
+    long mask = 0xfL << offset;
+    if ((this.table[i] & mask) != mask)
+      {
+        this.table[i] += 1L << offset;
+        return true;
+      } // if the counter has room
+    return false;
+  } // incrementAt(int, int)
+
+  /**
+   * Find the long that holds a hash code's counter in row i.
+   */
+  int indexOf(int hash, int i)
+  {
+    long h = (hash + SEEDS[i]) * SEEDS[i];
+    h += h >>> 32;
+    return ((int) h) & (this.table.length - 1);
+  } // indexOf(int, int)
+
+} // class FrequencySketch
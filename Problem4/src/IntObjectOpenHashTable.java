@@ -0,0 +1,608 @@
+import java.io.PrintWriter;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Hash tables with int keys, using open addressing.  The keys are
+ * never boxed, unless you ask for a Dictionary view of the table.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class IntObjectOpenHashTable<V>
+    implements Iterable<V>
+{
+  // +-------+-----------------------------------------------------------
+  // | Notes |
+  // +-------+
+
+  /*
+      This is OpenHashTable, specialized for int keys.  The keys live in
+      an int[], so a lookup never boxes the key, never calls hashCode
+      or equals, and compares keys with ==.  Since an int has no spare
+      value to mark an empty slot, we use 0 to mean empty and keep the
+      entry for the key 0, if there is one, off to the side in
+      hasZero and zeroValue.  That costs a test on every operation, but
+      saves a third array (or a boolean[]) for marking used slots.
+
+      Otherwise, the table works just like OpenHashTable: Robin Hood
+      linear probing, removal by backward shifting, a power-of-two size
+      with the home slot taken from the low bits of the mixed key, and
+      doubling when the load factor passes LOAD_FACTOR.  Mixing an int
+      is as cheap as comparing it, so we don't cache the hash codes;
+      we recompute them when we need a probe distance.
+
+      IntObjectOpenHashTable<V> isn't a Dictionary<Integer, V>, because
+      then get(5) and get(Integer.valueOf(5)) would be different
+      methods that happen to do the same thing, and it would be far too
+      easy to box by accident.  Use asDictionary when you need one; the
+      view boxes keys only when it returns them.
+
+      CharObjectOpenHashTable and LongObjectOpenHashTable are the same
+      code for char and long keys.  If you fix something here, fix it
+      there, too.  They're copies because Java generics can't range
+      over primitive types (a K would box every key, which is the
+      whole thing we're avoiding), and the build has no step that
+      could generate them from a template.  Their tests all run
+      DictionaryIteratorTests.randomTest on asDictionary, so the
+      views at least stay in step.
+   */
+
+  // +-----------+-------------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The load factor for expanding the table.
+   */
+  static final double LOAD_FACTOR = OpenHashTable.LOAD_FACTOR;
+
+  /**
+   * The default initial capacity of the hash table.
+   */
+  static final int DEFAULT_CAPACITY = 64;
+
+  // +--------+----------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The number of values currently stored in the hash table, including
+   * the one for 0.
+   */
+  int size = 0;
+
+  /**
+   * The capacity of the table.
+   */
+  int capacity = 0;
+
+  /**
+   * The keys, with 0 for an empty slot.
+   */
+  int[] keys;
+
+  /**
+   * The values.  values[i] goes with keys[i].
+   */
+  Object[] values;
+
+  /**
+   * One less than the size of the table, which is a power of two.
+   */
+  int mask;
+
+  /**
+   * The seed we fold into each key.
+   */
+  int seed;
+
+  /**
+   * Whether the table holds the key 0.
+   */
+  boolean hasZero;
+
+  /**
+   * The value for the key 0.
+   */
+  V zeroValue;
+
+  // +--------------+----------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new hash table with the default initial capacity.
+   */
+  public IntObjectOpenHashTable()
+  {
+    this(DEFAULT_CAPACITY);
+  } // IntObjectOpenHashTable()
+
+  /**
+   * Create a new hash table with a specified initial capacity.
+   */
+  public IntObjectOpenHashTable(int capacity)
+  {
+    this(capacity, 0);
+  } // IntObjectOpenHashTable(int)
+
+  /**
+   * Create a new hash table with a specified initial capacity, which
+   * we round up to a power of two, and a seed for the hash codes.
+   */
+  public IntObjectOpenHashTable(int capacity, int seed)
+  {
+    this.capacity = OpenHashTable.powerOfTwo(capacity);
+    this.seed = seed;
+    this.clear();
+  } // IntObjectOpenHashTable(int, int)
+
+  // +-----------+-------------------------------------------------------
+  // | Observers |
+  // +-----------+
+
+  /**
+   * Determine if the hash table contains a particular key.
+   */
+  public boolean containsKey(int key)
+  {
+    return (key == 0) ? this.hasZero : (this.find(key) >= 0);
+  } // containsKey(int)
+
+  /**
+   * Dump the hash table.
+   */
+  public void dump(PrintWriter pen)
+  {
+    pen.print("{");
+    int printed = 0; // Number of elements printed
+    if (this.hasZero)
+      {
+        pen.print("0:" + this.zeroValue);
+        if (++printed < this.size)
+          {
+            pen.print(", ");
+          } // if the number printed is less than the size
+      } // if we have the key 0
+    for (int i = 0; i < this.keys.length; i++)
+      {
+        if (this.keys[i] != 0)
+          {
+            pen.print(i + ":" + this.keys[i] + ":" + this.values[i]);
+            if (++printed < this.size)
+              {
+                pen.print(", ");
+              } // if the number printed is less than the size
+          } // if the current element is not empty
+      } // for
+    pen.println("}");
+  } // dump(PrintWriter)
+
+  /**
+   * Get the value for a particular key.
+   */
+  public V get(int key)
+    throws Exception
+  {
+    if (!this.containsKey(key))
+      {
+        throw new Exception("Invalid key: " + key);
+      } // if the key isn't there
+    return this.getOrDefault(key, null);
+  } // get(int)
+
+  /**
+   * Get the value for a particular key, or defaultValue if there is
+   * no such key.
+   */
+  public V getOrDefault(int key, V defaultValue)
+  {
+    if (key == 0)
+      {
+        return this.hasZero ? this.zeroValue : defaultValue;
+      } // if the key is 0
+    int index = this.find(key);
+    if (index < 0)
+      {
+        return defaultValue;
+      } // if (index < 0)
+    else
+      // if (index >= 0)
+      {
+        return this.value(index);
+      } // if (index >= 0)
+  } // getOrDefault(int, V)
+
+  /**
+   * Get the size of the dictionary - the number of values stored.
+   */
+  public int size()
+  {
+    return this.size;
+  } // size()
+
+  // +----------+--------------------------------------------------------
+  // | Mutators |
+  // +----------+
+
+  /**
+   * Clear the whole table.
+   */
+  public void clear()
+  {
+    this.keys = new int[this.capacity];
+    this.values = new Object[this.capacity];
+    this.mask = this.capacity - 1;
+    this.hasZero = false;
+    this.zeroValue = null;
+    this.size = 0;
+  } // clear()
+
+  /**
+   * Remove a key/value pair.
+   */
+  public void remove(int key)
+  {
+    if (key == 0)
+      {
+        if (this.hasZero)
+          {
+            this.hasZero = false;
+            this.zeroValue = null;
+            --this.size;
+          } // if we have the key 0
+        return;
+      } // if the key is 0
+    int index = this.find(key);
+    if (index < 0)
+      {
+        return;
+      } // if the key isn't there
+    // Shift the following entries back a slot, until we reach a gap or
+    // an entry that is already at home.
+    int next = (index + 1) & this.mask;
+    while ((this.keys[next] != 0) && (this.distance(next) > 0))
+      {
+        this.keys[index] = this.keys[next];
+        this.values[index] = this.values[next];
+        index = next;
+        next = (next + 1) & this.mask;
+      } // while
+    this.keys[index] = 0;
+    this.values[index] = null;
+    --this.size;
+  } // remove(int)
+
+  /**
+   * Set a value.
+   */
+  public void set(int key, V value)
+  {
+    if (key == 0)
+      {
+        if (!this.hasZero)
+          {
+            this.hasZero = true;
+            ++this.size;
+          } // if the key is new
+        this.zeroValue = value;
+        return;
+      } // if the key is 0
+    // If there are too many entries, expand the table, so that there is
+    // always an empty slot.
+    if ((this.size + 1) > (this.keys.length * LOAD_FACTOR))
+      {
+        expand();
+      } // if there are too many entries
+    int index = this.find(key);
+    if (index < 0)
+      {
+        ++this.size;
+        this.insert(key, value);
+      } // if (index < 0)
+    else
+      // if (index >= 0)
+      {
+        this.values[index] = value;
+      } // if (index >= 0)
+  } // set(int, V)
+
+  // +-----------+-------------------------------------------------------
+  // | Iterators |
+  // +-----------+
+
+  /**
+   * Get an iterator for the values.
+   */
+  public Iterator<V> iterator()
+  {
+    return new Iterator<V>()
+      {
+        /**
+         * The actual iterator doing all the work
+         */
+        SlotIterator slots = new SlotIterator();
+
+        public boolean hasNext()
+        {
+          return this.slots.hasNext();
+        } // hasNext()
+
+        public V next()
+          throws NoSuchElementException
+        {
+          int slot = this.slots.nextSlot();
+          return (slot < 0) ? IntObjectOpenHashTable.this.zeroValue
+                            : IntObjectOpenHashTable.this.value(slot);
+        } // next()
+
+        public void remove()
+          throws UnsupportedOperationException
+        {
+          throw new UnsupportedOperationException();
+        } // remove()
+      }; // new Iterator<V>
+  } // iterator()
+
+  /**
+   * Get a view of this table as a Dictionary with Integer keys.
+   * Changes to either show up in the other.
+   */
+  public Dictionary<Integer, V> asDictionary()
+  {
+    return new Dictionary<Integer, V>()
+      {
+        IntObjectOpenHashTable<V> table = IntObjectOpenHashTable.this;
+
+        public V get(Integer key)
+          throws Exception
+        {
+          return this.table.get(key.intValue());
+        } // get(Integer)
+
+        public V getOrDefault(Integer key, V defaultValue)
+        {
+          return this.table.getOrDefault(key.intValue(), defaultValue);
+        } // getOrDefault(Integer, V)
+
+        public boolean containsKey(Integer key)
+        {
+          return this.table.containsKey(key.intValue());
+        } // containsKey(Integer)
+
+        public void dump(PrintWriter pen)
+        {
+          this.table.dump(pen);
+        } // dump(PrintWriter)
+
+        public void set(Integer key, V value)
+        {
+          this.table.set(key.intValue(), value);
+        } // set(Integer, V)
+
+        public void remove(Integer key)
+        {
+          this.table.remove(key.intValue());
+        } // remove(Integer)
+
+        public void clear()
+        {
+          this.table.clear();
+        } // clear()
+
+        public Iterator<V> iterator()
+        {
+          return this.table.iterator();
+        } // iterator()
+
+        public Iterator<Integer> keysIterator()
+        {
+          return new Iterator<Integer>()
+            {
+              SlotIterator slots = table.new SlotIterator();
+
+              public boolean hasNext()
+              {
+                return this.slots.hasNext();
+              } // hasNext()
+
+              public Integer next()
+                throws NoSuchElementException
+              {
+                int slot = this.slots.nextSlot();
+                return (slot < 0) ? 0 : table.keys[slot];
+              } // next()
+
+              public void remove()
+                throws UnsupportedOperationException
+              {
+                throw new UnsupportedOperationException();
+              } // remove()
+            }; // new Iterator<Integer>
+        } // keysIterator()
+
+        public Iterable<Integer> keys()
+        {
+          return new Iterable<Integer>()
+            {
+              public Iterator<Integer> iterator()
+              {
+                return keysIterator();
+              } // iterator()
+            }; // new Iterable<Integer>
+        } // keys()
+      }; // new Dictionary<Integer, V>
+  } // asDictionary()
+
+  // +---------+---------------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Expand the size of the table.
+   */
+  @SuppressWarnings("unchecked")
+  void expand()
+  {
+    // Remember the old table.
+    int[] oldKeys = this.keys;
+    Object[] oldValues = this.values;
+
+    // Create a new table, twice as large.
+    int newSize = 2 * this.keys.length;
+    this.keys = new int[newSize];
+    this.values = new Object[newSize];
+    this.mask = newSize - 1;
+
+    // Move all the entries from the old table to their appropriate
+    // location in the new table.
+    for (int i = 0; i < oldKeys.length; i++)
+      {
+        if (oldKeys[i] != 0)
+          {
+            this.insert(oldKeys[i], (V) oldValues[i]);
+          } // if oldKeys[i] != 0
+      } // for
+  } // expand()
+
+  /**
+   * Find the distance of the entry at a given index from its home.
+   *
+   * @pre this.keys[index] != 0
+   */
+  int distance(int index)
+  {
+    return (index - this.home(this.keys[index])) & this.mask;
+  } // distance(int)
+
+  /**
+   * Find the index of the entry with a given key.  If there is no such
+   * entry, return -1.
+   *
+   * @pre key != 0
+   */
+  int find(int key)
+  {
+    // Note: Since we've ensured that there's always some free space in
+    // the table, this loop is guaranteed to terminate.
+    int index = this.home(key);
+    int dist = 0;
+    while (this.keys[index] != 0)
+      {
+        if (this.keys[index] == key)
+          {
+            return index;
+          } // if we found the key
+        if (this.distance(index) < dist)
+          {
+            // If the key were here, it would have taken this slot.
+            return -1;
+          } // if we've gone past where the key could be
+        index = (index + 1) & this.mask;
+        dist++;
+      } // while
+    return -1;
+  } // find(int)
+
+  /**
+   * Find the home of a key, the slot we try first.
+   */
+  int home(int key)
+  {
+    return OpenHashTable.mix(key ^ this.seed) & this.mask;
+  } // home(int)
+
+  /**
+   * Put an entry in the table, using the Robin Hood rule to decide
+   * which entries move along.
+   *
+   * @pre key != 0, and key is not in the table.
+   * @pre There is at least one empty slot in the table.
+   */
+  void insert(int key, V value)
+  {
+    int index = this.home(key);
+    int dist = 0;
+    while (this.keys[index] != 0)
+      {
+        int residentDist = this.distance(index);
+        if (residentDist < dist)
+          {
+            // The resident is better off than we are, so we take its
+            // slot, and carry on placing it.
+            int residentKey = this.keys[index];
+            V residentValue = this.value(index);
+            this.keys[index] = key;
+            this.values[index] = value;
+            key = residentKey;
+            value = residentValue;
+            dist = residentDist;
+          } // if the resident is closer to home
+        index = (index + 1) & this.mask;
+        dist++;
+      } // while
+    this.keys[index] = key;
+    this.values[index] = value;
+  } // insert(int, V)
+
+  /**
+   * Get the ith value.  Included mostly so that the unchecked
+   * conversions to V are all in one place.
+   */
+  @SuppressWarnings("unchecked")
+  V value(int i)
+  {
+    return (V) values[i];
+  } // value(int)
+
+  // +---------------+---------------------------------------------------
+  // | Inner Classes |
+  // +---------------+
+
+  /**
+   * A way to step through the slots that hold entries.  The slot for
+   * the key 0, if there is one, comes first, as slot -1.
+   */
+  class SlotIterator
+  {
+    /**
+     * Current position of the iterator
+     */
+    int index = IntObjectOpenHashTable.this.hasZero ? -1 : 0;
+
+    /**
+     * Number of iterations made so far
+     */
+    int numOfIterations = 0;
+
+    /**
+     * Determine whether there are any more entries to visit
+     */
+    boolean hasNext()
+    {
+      return this.numOfIterations < IntObjectOpenHashTable.this.size;
+    } // hasNext()
+
+    /**
+     * Get the index of the next slot that holds an entry, and move on.
+     *
+     * @throw NoSuchElementException
+     *      if this.hasNext == false, there is no next element
+     */
+    int nextSlot()
+      throws NoSuchElementException
+    {
+      if (!this.hasNext())
+        throw new NoSuchElementException();
+      this.numOfIterations++;
+      if (this.index < 0)
+        return this.index++;
+      // While the current slot is empty, move
+      while (IntObjectOpenHashTable.this.keys[this.index] == 0)
+        this.index++;
+      return this.index++;
+    } // nextSlot()
+  } // class SlotIterator
+
+} // class IntObjectOpenHashTable<V>
@@ -0,0 +1,105 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Unit tests for our hash tables with int keys.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class IntObjectOpenHashTableTest
+{
+  /**
+   * Our handy dandy factory.  Letters become ints around 0, so that
+   * the key 0 and negative keys both come up.
+   */
+  public DictionaryFactory<Character,String> factory =
+    new DictionaryFactory<Character,String>()
+      {
+        public Dictionary<Character, String> build(int capacity)
+        {
+          return DictionaryIteratorTests.withCharKeys(
+              new IntObjectOpenHashTable<String>(capacity).asDictionary(),
+              new Function<Character, Integer>()
+                {
+                  public Integer apply(Character key)
+                  {
+                    return key - 'm';
+                  } // apply(Character)
+                }, // new Function<Character, Integer>
+              new Function<Integer, Character>()
+                {
+                  public Character apply(Integer key)
+                  {
+                    return (char) (key + 'm');
+                  } // apply(Integer)
+                }); // new Function<Integer, Character>
+        } // build(int)
+      }; // new DictionaryFactory
+
+  /**
+   * Check the Dictionary view against the tests that every dictionary
+   * passes.
+   */
+  @Test
+  public void dictionaryTest()
+    throws Exception
+  {
+    DictionaryIteratorTests.randomTest(factory);
+  } // dictionaryTest()
+
+  /**
+   * Do lots of random sets and removes, checking against a HashMap as
+   * we go.  The keys include 0, which the table treats specially, and
+   * the largest and smallest ints.
+   */
+  @Test
+  public void randomTest()
+    throws Exception
+  {
+    Random rand = new Random();
+    IntObjectOpenHashTable<Integer> table =
+        new IntObjectOpenHashTable<Integer>(4);
+    HashMap<Integer, Integer> map = new HashMap<Integer, Integer>();
+    int[] special = { 0, 1, -1, Integer.MIN_VALUE, Integer.MAX_VALUE };
+    for (int i = 0; i < 20000; i++)
+      {
+        int key = (rand.nextInt(10) == 0) ? special[rand.nextInt(5)]
+                                          : rand.nextInt(2000) - 1000;
+        if (rand.nextInt(3) == 0)
+          {
+            table.remove(key);
+            map.remove(key);
+          } // if we remove
+        else
+          {
+            table.set(key, i);
+            map.put(key, i);
+          } // if we set
+        assertEquals(map.size(), table.size());
+        assertEquals(map.containsKey(key), table.containsKey(key));
+        assertEquals(map.get(key), table.getOrDefault(key, null));
+      } // for
+    // Every key and value in the table should be in the map.
+    Dictionary<Integer, Integer> dict = table.asDictionary();
+    int count = 0;
+    for (Integer key : dict.keys())
+      {
+        assertEquals(map.get(key), dict.get(key));
+        count++;
+      } // for
+    assertEquals(map.size(), count);
+    count = 0;
+    for (Integer value : table)
+      {
+        assertTrue(map.containsValue(value));
+        count++;
+      } // for
+    assertEquals(map.size(), count);
+  } // randomTest()
+
+} // IntObjectOpenHashTableTest
@@ -0,0 +1,307 @@
+import java.lang.reflect.Array;
+
+import java.util.Random;
+
+/**
+ * Streams of keys for benchmarking dictionaries.  A generator knows
+ * how to turn an index in [0..n) into a key of some type and how to
+ * produce a stream of indices that follows one of a few common
+ * distributions.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public abstract class KeyGenerator<K>
+{
+  // +-------+-----------------------------------------------------------
+  // | Notes |
+  // +-------+
+
+  /*
+     The same file appears in Problems23 and Problem4, in the same way
+     that Dictionary.java does, so that the two projects stay independent.
+
+     Distributions are given by name so that they can be picked from
+     the command line.
+
+       sequential - 0, 1, 2, ..., n-1, 0, 1, ...
+       uniform    - each index is equally likely
+       zipf       - index i (counting from 0) is chosen with probability
+                    proportional to 1/(i+1)^ZIPF_THETA.  The popular
+                    indices are scattered by a fixed permutation so
+                    that "hot" keys are not simply the smallest ones.
+
+     The Zipfian generator is the one described by Gray et al. in
+     "Quickly Generating Billion-Record Synthetic Databases" (SIGMOD
+     1994).  It takes O(n) to set up and O(1) per index.
+   */
+
+  // +-----------+-------------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The names of the distributions we support.
+   */
+  public static final String[] DISTRIBUTIONS =
+      { "sequential", "uniform", "zipf" };
+
+  /**
+   * The skew of the Zipfian distribution.  0.99 is the usual choice
+   * in key/value store benchmarks.
+   */
+  public static final double ZIPF_THETA = 0.99;
+
+  // +--------+----------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * A short name for the type of key, used in reports.
+   */
+  String name;
+
+  /**
+   * The largest number of distinct keys we can build.
+   */
+  int maxKeys;
+
+  // +--------------+----------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new generator.
+   */
+  public KeyGenerator(String name, int maxKeys)
+  {
+    this.name = name;
+    this.maxKeys = maxKeys;
+  } // KeyGenerator(String, int)
+
+  // +-----------+-------------------------------------------------------
+  // | Observers |
+  // +-----------+
+
+  /**
+   * Build the key with the given index.  Distinct indices must give
+   * distinct (i.e., not equal) keys.
+   *
+   * @pre 0 <= i < this.maxKeys()
+   */
+  public abstract K key(int i);
+
+  /**
+   * Get the name of this kind of key.
+   */
+  public String name()
+  {
+    return this.name;
+  } // name()
+
+  /**
+   * Get the largest number of distinct keys we can build.
+   */
+  public int maxKeys()
+  {
+    return this.maxKeys;
+  } // maxKeys()
+
+  /**
+   * Build the keys with indices in [lb..ub).
+   *
+   * @pre lb < ub
+   */
+  @SuppressWarnings("unchecked")
+  public K[] keys(int lb, int ub)
+  {
+    // We build an array of the keys' own class, rather than an Object[],
+    // so that callers with a bounded K can use the result.
+    K first = this.key(lb);
+    K[] result = (K[]) Array.newInstance(first.getClass(), ub - lb);
+    for (int i = lb; i < ub; i++)
+      {
+        result[i - lb] = this.key(i);
+      } // for
+    return result;
+  } // keys(int, int)
+
+  // +-----------------------+-------------------------------------------
+  // | Standard Key Builders |
+  // +-----------------------+
+
+  /**
+   * Characters.  There are only 2^16 of them.
+   */
+  public static KeyGenerator<Character> characters()
+  {
+    return new KeyGenerator<Character>("Character", Character.MAX_VALUE + 1)
+      {
+        public Character key(int i)
+        {
+          return Character.valueOf((char) i);
+        } // key(int)
+      }; // new KeyGenerator<Character>
+  } // characters()
+
+  /**
+   * Integers.
+   */
+  public static KeyGenerator<Integer> integers()
+  {
+    return new KeyGenerator<Integer>("Integer", Integer.MAX_VALUE)
+      {
+        public Integer key(int i)
+        {
+          return Integer.valueOf(i);
+        } // key(int)
+      }; // new KeyGenerator<Integer>
+  } // integers()
+
+  /**
+   * Strings of the form "key" followed by a number, which look
+   * roughly like the identifiers people actually use as keys.
+   */
+  public static KeyGenerator<String> strings()
+  {
+    return new KeyGenerator<String>("String", Integer.MAX_VALUE)
+      {
+        public String key(int i)
+        {
+          return "key" + i;
+        } // key(int)
+      }; // new KeyGenerator<String>
+  } // strings()
+
+  // +---------------+---------------------------------------------------
+  // | Distributions |
+  // +---------------+
+
+  /**
+   * Build a stream of count indices in [0..n) that follows the named
+   * distribution.
+   *
+   * @throws IllegalArgumentException
+   *   if the distribution is not one of DISTRIBUTIONS.
+   */
+  public static int[] indices(String distribution, int count, int n,
+                              Random rand)
+  {
+    int[] result = new int[count];
+    if (distribution.equals("sequential"))
+      {
+        for (int i = 0; i < count; i++)
+          {
+            result[i] = i % n;
+          } // for
+      } // if sequential
+    else if (distribution.equals("uniform"))
+      {
+        for (int i = 0; i < count; i++)
+          {
+            result[i] = rand.nextInt(n);
+          } // for
+      } // if uniform
+    else if (distribution.equals("zipf"))
+      {
+        Zipf zipf = new Zipf(n, ZIPF_THETA);
+        int[] scatter = permutation(n, rand);
+        for (int i = 0; i < count; i++)
+          {
+            result[i] = scatter[zipf.next(rand)];
+          } // for
+      } // if zipf
+    else
+      {
+        throw new IllegalArgumentException("Unknown distribution: "
+                                           + distribution);
+      } // if we don't know the distribution
+    return result;
+  } // indices(String, int, int, Random)
+
+  /**
+   * Build the order in which we insert n distinct indices: in order for
+   * the sequential distribution, shuffled otherwise.
+   */
+  public static int[] insertionOrder(String distribution, int n, Random rand)
+  {
+    if (distribution.equals("sequential"))
+      {
+        return indices(distribution, n, n, rand);
+      } // if sequential
+    else
+      {
+        return permutation(n, rand);
+      } // if not sequential
+  } // insertionOrder(String, int, Random)
+
+  /**
+   * Build a random permutation of [0..n).
+   */
+  public static int[] permutation(int n, Random rand)
+  {
+    int[] result = new int[n];
+    for (int i = 0; i < n; i++)
+      {
+        result[i] = i;
+      } // for
+    // Fisher-Yates shuffle
+    for (int i = n - 1; i > 0; i--)
+      {
+        int j = rand.nextInt(i + 1);
+        int tmp = result[i];
+        result[i] = result[j];
+        result[j] = tmp;
+      } // for
+    return result;
+  } // permutation(int, Random)
+
+  // +---------------+---------------------------------------------------
+  // | Inner Classes |
+  // +---------------+
+
+  /**
+   * A Zipfian distribution over [0..n).
+   */
+  static class Zipf
+  {
+    int n;
+    double theta;
+    double alpha;
+    double zetan;
+    double eta;
+
+    Zipf(int n, double theta)
+    {
+      this.n = n;
+      this.theta = theta;
+      this.alpha = 1.0 / (1.0 - theta);
+      this.zetan = zeta(n, theta);
+      double zeta2 = zeta(2, theta);
+      this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / this.zetan);
+    } // Zipf(int, double)
+
+    int next(Random rand)
+    {
+      double u = rand.nextDouble();
+      double uz = u * this.zetan;
+      if (uz < 1.0)
+        return 0;
+      if (uz < 1.0 + Math.pow(0.5, this.theta))
+        return Math.min(1, this.n - 1);
+      int result = (int) (this.n * Math.pow(this.eta * u - this.eta + 1,
+                                            this.alpha));
+      return Math.min(result, this.n - 1);
+    } // next(Random)
+
+    static double zeta(int n, double theta)
+    {
+      double sum = 0;
+      for (int i = 1; i <= n; i++)
+        {
+          sum += 1.0 / Math.pow(i, theta);
+        } // for
+      return sum;
+    } // zeta(int, double)
+  } // class Zipf
+
+} // class KeyGenerator<K>
@@ -0,0 +1,540 @@
+import java.io.PrintWriter;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import java.util.function.BiConsumer;
+
+/**
+ * A dictionary that holds at most a fixed number of entries, and
+ * evicts the least recently used entry to make room for a new one.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class LRUCache<K, V>
+    implements Dictionary<K, V>, Iterable<V>
+{
+  // +-------+-----------------------------------------------------------
+  // | Notes |
+  // +-------+
+
+  /*
+      Each entry is in two linked structures at once.
+
+      For lookups, entries are chained into buckets, as in
+      ChainedHashTable: a power-of-two array of buckets, a bucket
+      picked by the low bits of the mixed hash code, and new entries
+      at the front of their chain.  We keep each entry's mixed hash
+      code, so expansion and chain searches rarely call hashCode or
+      equals.  The table doubles when the load factor passes
+      LOAD_FACTOR, but never has to grow past about maxSize entries'
+      worth, since that's all we ever hold.
+
+      For recency, entries are in a doubly linked list through their
+      before and after fields, with a dummy header at both ends:
+      header.after is the least recently used entry (the next victim)
+      and header.before is the most recently used.  A hit unlinks the
+      entry and relinks it just before the header, so get, set, and
+      remove all take constant time.
+
+      "Use" means get, getOrDefault, or set.  containsKey and the
+      iterators only look, so they neither change the order nor count
+      as hits or misses.  The iterators go from least to most recently
+      used.
+
+      When a set adds an entry that takes us past maxSize, we unlink the
+      least recently used entry from both structures and then hand it
+      to the eviction listener, if there is one.  The listener runs
+      after the cache is consistent again, so it may look at the cache,
+      but it shouldn't change it.
+
+      hits, misses, and evictions count what their names say.  Only
+      get and getOrDefault count hits and misses.
+   */
+
+  // +-----------+-------------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The load factor for expanding the table.
+   */
+  static final double LOAD_FACTOR = 0.75;
+
+  /**
+   * The smallest number of buckets we use.
+   */
+  static final int MIN_BUCKETS = 16;
+
+  // +--------+----------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The buckets.
+   */
+  Entry<K, V>[] buckets;
+
+  /**
+   * The dummy entry at both ends of the recency list.
+   */
+  Entry<K, V> header;
+
+  /**
+   * The number of entries.
+   */
+  int size;
+
+  /**
+   * The most entries we hold.
+   */
+  int maxSize;
+
+  /**
+   * Who to tell about evictions, or null.
+   */
+  BiConsumer<? super K, ? super V> listener;
+
+  /**
+   * The number of gets and getOrDefaults that found their key.
+   */
+  long hits;
+
+  /**
+   * The number of gets and getOrDefaults that didn't find their key.
+   */
+  long misses;
+
+  /**
+   * The number of entries we've evicted.
+   */
+  long evictions;
+
+  // +--------------+----------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new cache that holds at most maxSize entries.
+   */
+  public LRUCache(int maxSize)
+  {
+    this(maxSize, null);
+  } // LRUCache(int)
+
+  /**
+   * Create a new cache that holds at most maxSize entries, and tells
+   * listener about each entry it evicts.
+   *
+   * @pre maxSize > 0
+   */
+  public LRUCache(int maxSize, BiConsumer<? super K, ? super V> listener)
+  {
+    this.maxSize = maxSize;
+    this.listener = listener;
+    this.clear();
+  } // LRUCache(int, BiConsumer<? super K, ? super V>)
+
+  // +-----------+-------------------------------------------------------
+  // | Observers |
+  // +-----------+
+
+  /**
+   * Determine if the cache contains a particular key.  Doesn't count
+   * as a use.
+   */
+  public boolean containsKey(K key)
+  {
+    return this.find(key, hash(key)) != null;
+  } // containsKey(K)
+
+  /**
+   * Dump the cache, from least to most recently used.
+   */
+  public void dump(PrintWriter pen)
+  {
+    pen.print("[");
+    for (Entry<K, V> e = this.header.after; e != this.header; e = e.after)
+      {
+        pen.print(e.key + ":" + e.value);
+        if (e.after != this.header)
+          {
+            pen.print(", ");
+          } // if there are more
+      } // for
+    pen.println("]");
+  } // dump(PrintWriter)
+
+  /**
+   * Get the value for a particular key.
+   */
+  public V get(K key)
+    throws Exception
+  {
+    Entry<K, V> e = this.use(key);
+    if (e == null)
+      {
+        throw new Exception("Invalid key: " + key);
+      } // if the key isn't there
+    return e.value;
+  } // get(K)
+
+  /**
+   * Get the value for a particular key, or defaultValue if there is
+   * no such key.
+   */
+  public V getOrDefault(K key, V defaultValue)
+  {
+    Entry<K, V> e = this.use(key);
+    return (e == null) ? defaultValue : e.value;
+  } // getOrDefault(K, V)
+
+  /**
+   * Get the number of entries in the cache.
+   */
+  public int size()
+  {
+    return this.size;
+  } // size()
+
+  /**
+   * Get the number of lookups that found their key.
+   */
+  public long hits()
+  {
+    return this.hits;
+  } // hits()
+
+  /**
+   * Get the number of lookups that didn't find their key.
+   */
+  public long misses()
+  {
+    return this.misses;
+  } // misses()
+
+  /**
+   * Get the number of entries we've evicted.
+   */
+  public long evictions()
+  {
+    return this.evictions;
+  } // evictions()
+
+  // +----------+--------------------------------------------------------
+  // | Mutators |
+  // +----------+
+
+  /**
+   * Clear the whole cache.  Evictions don't include the entries we
+   * clear, and we don't tell the listener about them.  The counts
+   * stay as they were.
+   */
+  public void clear()
+  {
+    int buckets = MIN_BUCKETS;
+    while ((buckets < (this.maxSize / LOAD_FACTOR)) && (buckets < 1024))
+      buckets *= 2;
+    this.buckets = newBuckets(buckets);
+    this.header = new Entry<K, V>(null, 0, null, null);
+    this.header.before = this.header;
+    this.header.after = this.header;
+    this.size = 0;
+  } // clear()
+
+  /**
+   * Remove a key/value pair.
+   */
+  public void remove(K key)
+  {
+    Entry<K, V> e = this.find(key, hash(key));
+    if (e != null)
+      {
+        this.delete(e);
+      } // if the key is there
+  } // remove(K)
+
+  /**
+   * Set a value.  If that adds a key to a full cache, we evict the
+   * least recently used entry.
+   */
+  public void set(K key, V value)
+  {
+    int hash = hash(key);
+    Entry<K, V> e = this.find(key, hash);
+    if (e != null)
+      {
+        e.value = value;
+        this.moveToBack(e);
+        return;
+      } // if the key is already there
+    if (this.size >= this.buckets.length * LOAD_FACTOR)
+      {
+        this.expand();
+      } // if the table is too full
+    int index = hash & (this.buckets.length - 1);
+    e = new Entry<K, V>(key, hash, value, this.buckets[index]);
+    this.buckets[index] = e;
+    this.linkAtBack(e);
+    ++this.size;
+    if (this.size > this.maxSize)
+      {
+        Entry<K, V> victim = this.header.after;
+        this.delete(victim);
+        ++this.evictions;
+        if (this.listener != null)
+          {
+            this.listener.accept(victim.key, victim.value);
+          } // if someone wants to know
+      } // if we're over capacity
+  } // set(K, V)
+
+  // +-----------+-------------------------------------------------------
+  // | Iterators |
+  // +-----------+
+
+  /**
+   * Get an iterator for the values, from least to most recently used.
+   */
+  public Iterator<V> iterator()
+  {
+    return new EntryIterator<V>()
+      {
+        V extract(Entry<K, V> e)
+        {
+          return e.value;
+        } // extract(Entry<K, V>)
+      }; // new EntryIterator<V>
+  } // iterator()
+
+  /**
+   * Get an iterator for the keys, from least to most recently used.
+   */
+  public Iterator<K> keysIterator()
+  {
+    return new EntryIterator<K>()
+      {
+        K extract(Entry<K, V> e)
+        {
+          return e.key;
+        } // extract(Entry<K, V>)
+      }; // new EntryIterator<K>
+  } // keysIterator()
+
+  /**
+   * Get an Iterable for the keys.  See explanation in Dictionary.java.
+   */
+  public Iterable<K> keys()
+  {
+    return new Iterable<K>()
+      {
+        public Iterator<K> iterator()
+        {
+          return LRUCache.this.keysIterator();
+        } // iterator()
+      }; // new Iterable<K>
+  } // keys()
+
+  // +---------+---------------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Look up a key as a use: count a hit or a miss, and on a hit, make
+   * the entry the most recently used.
+   *
+   * @return the entry, or null if the key isn't there
+   */
+  Entry<K, V> use(K key)
+  {
+    Entry<K, V> e = this.find(key, hash(key));
+    if (e == null)
+      {
+        ++this.misses;
+        return null;
+      } // if it's a miss
+    ++this.hits;
+    this.moveToBack(e);
+    return e;
+  } // use(K)
+
+  /**
+   * Find the entry with a given key and mixed hash code, or null if
+   * there isn't one.
+   */
+  Entry<K, V> find(K key, int hash)
+  {
+    Entry<K, V> e = this.buckets[hash & (this.buckets.length - 1)];
+    while (e != null)
+      {
+        if ((e.hash == hash) && key.equals(e.key))
+          {
+            return e;
+          } // if we found it
+        e = e.next;
+      } // while
+    return null;
+  } // find(K, int)
+
+  /**
+   * Remove an entry from both its chain and the recency list.
+   *
+   * @pre e is in the cache
+   */
+  void delete(Entry<K, V> e)
+  {
+    int index = e.hash & (this.buckets.length - 1);
+    if (this.buckets[index] == e)
+      {
+        this.buckets[index] = e.next;
+      } // if it's at the front of its chain
+    else
+      {
+        Entry<K, V> prev = this.buckets[index];
+        while (prev.next != e)
+          {
+            prev = prev.next;
+          } // while
+        prev.next = e.next;
+      } // if it's further along
+    this.unlink(e);
+    --this.size;
+  } // delete(Entry<K, V>)
+
+  /**
+   * Double the number of buckets.
+   */
+  void expand()
+  {
+    Entry<K, V>[] old = this.buckets;
+    this.buckets = newBuckets(2 * old.length);
+    int mask = this.buckets.length - 1;
+    for (Entry<K, V> bucket : old)
+      {
+        Entry<K, V> e = bucket;
+        while (e != null)
+          {
+            Entry<K, V> next = e.next;
+            int index = e.hash & mask;
+            e.next = this.buckets[index];
+            this.buckets[index] = e;
+            e = next;
+          } // while
+      } // for each old bucket
+  } // expand()
+
+  /**
+   * Make an entry the most recently used.
+   */
+  void moveToBack(Entry<K, V> e)
+  {
+    if (e != this.header.before)
+      {
+        this.unlink(e);
+        this.linkAtBack(e);
+      } // if it isn't already
+  } // moveToBack(Entry<K, V>)
+
+  /**
+   * Put an entry at the most recently used end of the list.
+   */
+  void linkAtBack(Entry<K, V> e)
+  {
+    e.after = this.header;
+    e.before = this.header.before;
+    e.before.after = e;
+    this.header.before = e;
+  } // linkAtBack(Entry<K, V>)
+
+  /**
+   * Take an entry out of the recency list.
+   */
+  void unlink(Entry<K, V> e)
+  {
+    e.before.after = e.after;
+    e.after.before = e.before;
+  } // unlink(Entry<K, V>)
+
+  /**
+   * Find the mixed hash code of a key.
+   */
+  static int hash(Object key)
+  {
+    return OpenHashTable.mix(key.hashCode());
+  } // hash(Object)
+
+  /**
+   * Build an array of buckets.  Included mostly so that the unchecked
+   * conversion is all in one place.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  static <K, V> Entry<K, V>[] newBuckets(int length)
+  {
+    return (Entry<K, V>[]) new Entry[length];
+  } // newBuckets(int)
+
+  // +---------------+---------------------------------------------------
+  // | Inner Classes |
+  // +---------------+
+
+  /**
+   * The entries, which are in a chain and in the recency list.
+   */
+  static class Entry<K, V>
+  {
+    final K key;
+    final int hash;
+    V value;
+    Entry<K, V> next;
+    Entry<K, V> before;
+    Entry<K, V> after;
+
+    Entry(K key, int hash, V value, Entry<K, V> next)
+    {
+      this.key = key;
+      this.hash = hash;
+      this.value = value;
+      this.next = next;
+    } // Entry(K, int, V, Entry<K, V>)
+  } // class Entry<K, V>
+
+  /**
+   * Iterators over the entries, from least to most recently used.
+   * Subclasses say what they want from each entry.
+   */
+  abstract class EntryIterator<T>
+      implements Iterator<T>
+  {
+    /**
+     * The next entry to return.
+     */
+    Entry<K, V> current = LRUCache.this.header.after;
+
+    /**
+     * Get what we want from an entry.
+     */
+    abstract T extract(Entry<K, V> e);
+
+    public boolean hasNext()
+    {
+      return this.current != LRUCache.this.header;
+    } // hasNext()
+
+    public T next()
+      throws NoSuchElementException
+    {
+      if (!this.hasNext())
+        throw new NoSuchElementException();
+      Entry<K, V> e = this.current;
+      this.current = e.after;
+      return this.extract(e);
+    } // next()
+
+    public void remove()
+      throws UnsupportedOperationException
+    {
+      throw new UnsupportedOperationException();
+    } // remove()
+  } // class EntryIterator<T>
+
+} // class LRUCache<K,V>
@@ -0,0 +1,133 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.BiConsumer;
+
+/**
+ * Unit tests for our LRU cache class.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class LRUCacheTest
+{
+  /**
+   * Our handy dandy factory.  The caches are big enough for every
+   * letter, so they should act like any other dictionary.
+   */
+  public DictionaryFactory<Character,String> lruFactory =
+    new DictionaryFactory<Character,String>()
+      {
+        public Dictionary<Character, String> build(int capacity)
+        {
+          return new LRUCache<Character, String>(100);
+        } // build(int)
+      }; // new DictionaryFactory
+
+  /**
+   * Random tests are always a good starting point.
+   */
+  @Test
+  public void randomTest()
+    throws Exception
+  {
+    DictionaryIteratorTests.randomTest(lruFactory);
+  } // test
+
+  /**
+   * A small example that we can check by hand.
+   */
+  @Test
+  public void evictTest()
+    throws Exception
+  {
+    final ArrayList<String> evicted = new ArrayList<String>();
+    LRUCache<String, Integer> cache = new LRUCache<String, Integer>(3,
+      new BiConsumer<String, Integer>()
+        {
+          public void accept(String key, Integer value)
+          {
+            evicted.add(key + "=" + value);
+          } // accept(String, Integer)
+        }); // new BiConsumer
+    cache.set("a", 1);
+    cache.set("b", 2);
+    cache.set("c", 3);
+    // Using a makes b the least recently used.
+    assertEquals(Integer.valueOf(1), cache.get("a"));
+    cache.set("d", 4);
+    assertEquals("[b=2]", evicted.toString());
+    assertFalse(cache.containsKey("b"));
+    // containsKey doesn't count as a use, so c goes next.
+    assertTrue(cache.containsKey("c"));
+    cache.set("a", 10);
+    cache.set("e", 5);
+    assertEquals("[b=2, c=3]", evicted.toString());
+    assertEquals(null, cache.getOrDefault("c", null));
+    ArrayList<String> order = new ArrayList<String>();
+    for (String key : cache.keys())
+      {
+        order.add(key);
+      } // for
+    assertEquals("[d, a, e]", order.toString());
+    assertEquals(3, cache.size());
+    assertEquals(1, cache.hits());
+    assertEquals(1, cache.misses());
+    assertEquals(2, cache.evictions());
+  } // evictTest()
+
+  /**
+   * Compare lots of random operations with a LinkedHashMap in access
+   * order, which evicts the same way.
+   */
+  @Test
+  public void compareTest()
+    throws Exception
+  {
+    final int maxSize = 50;
+    Random rand = new Random();
+    LRUCache<Integer, Integer> cache = new LRUCache<Integer, Integer>(maxSize);
+    LinkedHashMap<Integer, Integer> map =
+        new LinkedHashMap<Integer, Integer>(16, 0.75f, true)
+          {
+            protected boolean removeEldestEntry(
+                Map.Entry<Integer, Integer> eldest)
+            {
+              return size() > maxSize;
+            } // removeEldestEntry(Map.Entry<Integer, Integer>)
+          }; // new LinkedHashMap
+    for (int i = 0; i < 100000; i++)
+      {
+        Integer key = rand.nextInt(200);
+        int op = rand.nextInt(10);
+        if (op < 5)
+          {
+            assertEquals(map.get(key), cache.getOrDefault(key, null));
+          } // if it's a lookup
+        else if (op < 9)
+          {
+            cache.set(key, i);
+            map.put(key, i);
+          } // if it's a set
+        else
+          {
+            cache.remove(key);
+            map.remove(key);
+          } // if it's a remove
+        assertEquals(map.size(), cache.size());
+      } // for
+    // The recency order should match, too.
+    ArrayList<Integer> expected = new ArrayList<Integer>(map.keySet());
+    ArrayList<Integer> actual = new ArrayList<Integer>();
+    for (Integer key : cache.keys())
+      {
+        actual.add(key);
+      } // for
+    assertEquals(expected, actual);
+  } // compareTest()
+
+} // LRUCacheTest
@@ -0,0 +1,767 @@
+import java.io.PrintWriter;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A hash table using open addressing that many threads can use at once
+ * without any locks.  No operation ever waits for another thread.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class LockFreeOpenHashTable<K, V>
+    implements Dictionary<K, V>, Iterable<V>
+{
+  // +-------+-----------------------------------------------------------
+  // | Notes |
+  // +-------+
+
+  /*
+      The probing is that of OpenHashTable: linear probing from a home
+      slot chosen by a mixed hash code.  The rest of the design is a
+      simplified version of Cliff Click's non-blocking hash table
+      (the one in his high-scale-lib).
+
+      A table has an array of keys and an array of values, and every
+      slot changes by compare-and-set (CAS).  Once a key slot holds a
+      key, it holds that key for as long as the table lives.  So a
+      probe sequence only ever grows, and two threads looking for the
+      same key always probe the same slots.  set claims an empty key
+      slot with a CAS and then CASes the value in.  remove CASes the
+      value to TOMBSTONE and leaves the key where it is.  Keys whose
+      value is null (not yet set) or TOMBSTONE are not in the table.
+
+      When too many key slots are used (counting tombstones), we build a
+      new table and hang it from the old one's next field.  Then every
+      slot of the old table has to be copied.  Copying slot i goes:
+        1. If the key slot is empty, CAS it to KEY_MOVED, so that nobody
+           can claim it.  We're done.
+        2. Otherwise, CAS the value to a Frozen box around the value.
+           (A null or TOMBSTONE value goes straight to MOVED.)  Nobody
+           changes a frozen value.
+        3. Put the frozen value into the new table, but only if that
+           key has no value there yet.
+        4. CAS the value to MOVED.  The new table now has the key.
+      Anyone can do any of these steps, and doing one twice does no
+      harm, so a thread that finds a frozen slot just finishes copying
+      it.  Threads that write to a table that is being copied also copy
+      a chunk of COPY_CHUNK slots before writing.  The thread that
+      finishes the last chunk makes the new table the top table.
+
+      Writers only ever go on to the next table once their slot in the
+      old table is MOVED, or their probe sequence reaches KEY_MOVED.
+      (A writer that finds the old table too full seals the empty slot
+      it reached with KEY_MOVED before going on.)
+      Since a slot never goes back to empty, a key can't be in the old
+      table beyond a KEY_MOVED slot.  So a value never sits in the new
+      table while an older value for the same key is live in the old
+      one.  That lets readers follow a simple rule.  A plain value is
+      current, a frozen value is also current, since nobody can have
+      changed the key in the new table yet, and MOVED or KEY_MOVED
+      means look in the next table.  Readers never write anything, and
+      never wait.
+
+      Each get, containsKey, set, and remove takes effect at one CAS or
+      volatile read, so each is linearizable.  clear, size, and the
+      iterators are weakly consistent, as in ConcurrentHashMap.  They
+      are exact when no other thread is writing, but they may miss
+      or repeat entries that change while they run.  An iterator
+      returns the value in a frozen slot, since the thread copying it
+      may stall before step 3, and the copy may then land in a part
+      of the next table that the iterator has already passed.  So an
+      entry that is being copied may come up twice, once from each
+      table, even when nobody is writing.
+   */
+
+  // +-----------+-------------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The fraction of key slots (including tombstones) we fill before
+   * starting a new table.
+   */
+  static final double LOAD_FACTOR = 0.5;
+
+  /**
+   * The smallest table we build.  Must be a power of two.
+   */
+  static final int MIN_CAPACITY = 16;
+
+  /**
+   * The usual number of slots a writer copies when it helps with a
+   * resize.
+   */
+  static final int COPY_CHUNK = 64;
+
+  /**
+   * The value of a slot that has been removed.
+   */
+  static final Object TOMBSTONE = new Object();
+
+  /**
+   * The value of a slot that has been copied to the next table.
+   */
+  static final Object MOVED = new Object();
+
+  /**
+   * The key of a slot that was empty when we copied the table.
+   */
+  static final Object KEY_MOVED = new Object();
+
+  /**
+   * The result of find when the key is not in the table.
+   */
+  static final int NOT_FOUND = -1;
+
+  /**
+   * The result of find or claim when we should look in the next table.
+   */
+  static final int GO_ON = -2;
+
+  // +--------+----------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The top table.  Tables that are being copied hang off this one.
+   */
+  AtomicReference<Table> top;
+
+  /**
+   * The number of entries.
+   */
+  LongAdder size = new LongAdder();
+
+  /**
+   * The number of slots a writer copies when it helps with a resize.
+   * Tests make this small, so that tables spend longer part way
+   * through being copied.
+   */
+  int copyChunk = COPY_CHUNK;
+
+  // +--------------+----------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new hash table with the default initial capacity.
+   */
+  public LockFreeOpenHashTable()
+  {
+    this(MIN_CAPACITY);
+  } // LockFreeOpenHashTable()
+
+  /**
+   * Create a new hash table with room for about capacity entries.
+   */
+  public LockFreeOpenHashTable(int capacity)
+  {
+    this.top = new AtomicReference<Table>(new Table(tableSize(capacity)));
+  } // LockFreeOpenHashTable(int)
+
+  // +-----------+-------------------------------------------------------
+  // | Observers |
+  // +-----------+
+
+  /**
+   * Determine if the hash table contains a particular key.
+   */
+  public boolean containsKey(K key)
+  {
+    return this.lookup(key) != null;
+  } // containsKey(K)
+
+  /**
+   * Dump the hash table.
+   */
+  public void dump(PrintWriter pen)
+  {
+    for (Table t = this.top.get(); t != null; t = t.next.get())
+      {
+        pen.print("{");
+        for (int i = 0; i < t.length; i++)
+          {
+            Object key = t.keys.get(i);
+            if ((key != null) && (key != KEY_MOVED))
+              {
+                pen.print(" " + i + ":" + key + ":" + show(t.values.get(i)));
+              } // if the slot has a key
+          } // for
+        pen.println(" }");
+      } // for each table
+  } // dump(PrintWriter)
+
+  /**
+   * Get the value for a particular key.
+   */
+  public V get(K key)
+    throws Exception
+  {
+    V value = this.lookup(key);
+    if (value == null)
+      {
+        throw new Exception("Invalid key: " + key);
+      } // if (value == null)
+    return value;
+  } // get(K)
+
+  /**
+   * Get the value for a particular key, or defaultValue if there is
+   * no such key.
+   */
+  public V getOrDefault(K key, V defaultValue)
+  {
+    V value = this.lookup(key);
+    return (value == null) ? defaultValue : value;
+  } // getOrDefault(K, V)
+
+  /**
+   * Get the number of values stored.  If other threads are changing
+   * the table, this is only an estimate.
+   */
+  public int size()
+  {
+    return this.size.intValue();
+  } // size()
+
+  // +----------+--------------------------------------------------------
+  // | Mutators |
+  // +----------+
+
+  /**
+   * Remove all the keys.  Each removal takes effect on its own, so
+   * keys that other threads add in the meantime may survive.  The
+   * iterator may give us a key that is being copied twice, and
+   * removing it the second time does nothing.
+   */
+  public void clear()
+  {
+    for (K key : this.keys())
+      {
+        this.remove(key);
+      } // for
+  } // clear()
+
+  /**
+   * Remove a key/value pair.
+   */
+  public void remove(K key)
+  {
+    int hash = mix(key.hashCode());
+    Table t = this.top.get();
+    while (t != null)
+      {
+        int index = t.find(key, hash);
+        if (index == NOT_FOUND)
+          return;
+        if (index == GO_ON)
+          {
+            t = this.helpCopy(t);
+            continue;
+          } // if the key may be in the next table
+        Object current = t.values.get(index);
+        if ((current == null) || (current == TOMBSTONE))
+          {
+            return;
+          } // if the key isn't there
+        else if ((current == MOVED) || (current instanceof Frozen))
+          {
+            this.copySlot(t, index);
+            t = this.helpCopy(t);
+          } // if the slot is being copied
+        else if (t.values.compareAndSet(index, current, TOMBSTONE))
+          {
+            this.size.decrement();
+            return;
+          } // if we removed it
+      } // while
+  } // remove(K)
+
+  /**
+   * Set a value.
+   */
+  public void set(K key, V value)
+  {
+    if (value == null)
+      {
+        throw new NullPointerException("null values are not allowed");
+      } // if (value == null)
+    int hash = mix(key.hashCode());
+    Table t = this.top.get();
+    while (true)
+      {
+        if (t.next.get() != null)
+          {
+            // Do our share of the copying before we write.
+            this.copyChunk(t);
+          } // if t is being copied
+        int index = this.claim(t, key, hash);
+        if (index < 0)
+          {
+            t = this.helpCopy(t);
+            continue;
+          } // if the key belongs in the next table
+        Object current = t.values.get(index);
+        if ((current == MOVED) || (current instanceof Frozen))
+          {
+            this.copySlot(t, index);
+            t = this.helpCopy(t);
+          } // if the slot is being copied
+        else if (t.values.compareAndSet(index, current, value))
+          {
+            if ((current == null) || (current == TOMBSTONE))
+              this.size.increment();
+            return;
+          } // if we set it
+      } // while
+  } // set(K, V)
+
+  // +-----------+-------------------------------------------------------
+  // | Iterators |
+  // +-----------+
+
+  /**
+   * Get an iterator for the values.
+   */
+  public Iterator<V> iterator()
+  {
+    return new SlotIterator<V>()
+      {
+        V extract(Object key, V value)
+        {
+          return value;
+        } // extract(Object, V)
+      }; // new SlotIterator<V>
+  } // iterator()
+
+  /**
+   * Get an iterator for the keys.
+   */
+  public Iterator<K> keysIterator()
+  {
+    return new SlotIterator<K>()
+      {
+        @SuppressWarnings("unchecked")
+        K extract(Object key, V value)
+        {
+          return (K) key;
+        } // extract(Object, V)
+      }; // new SlotIterator<K>
+  } // keysIterator()
+
+  /**
+   * Get an Iterable for the keys.  See explanation in Dictionary.java.
+   */
+  public Iterable<K> keys()
+  {
+    return new Iterable<K>()
+      {
+        public Iterator<K> iterator()
+        {
+          return LockFreeOpenHashTable.this.keysIterator();
+        } // iterator()
+      }; // new Iterable<K>
+  } // keys()
+
+  // +---------+---------------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Find the value for a key, or null if the key isn't there.  Never
+   * writes and never waits.
+   */
+  @SuppressWarnings("unchecked")
+  V lookup(K key)
+  {
+    int hash = mix(key.hashCode());
+    Table t = this.top.get();
+    while (t != null)
+      {
+        int index = t.find(key, hash);
+        if (index == NOT_FOUND)
+          return null;
+        if (index == GO_ON)
+          {
+            t = t.next.get();
+            continue;
+          } // if the key may be in the next table
+        Object value = t.values.get(index);
+        if (value instanceof Frozen)
+          return (V) ((Frozen) value).value;
+        if (value == MOVED)
+          {
+            t = t.next.get();
+            continue;
+          } // if the slot has been copied
+        return ((value == null) || (value == TOMBSTONE)) ? null : (V) value;
+      } // while
+    return null;
+  } // lookup(K)
+
+  /**
+   * Find or claim the key slot for key in t.  Returns GO_ON if the key
+   * belongs in the next table, either because t is being copied or
+   * because t is full.  In the second case, we start the copy.
+   */
+  int claim(Table t, Object key, int hash)
+  {
+    int mask = t.length - 1;
+    int index = hash & mask;
+    for (int probes = 0; probes < t.length; probes++)
+      {
+        Object k = t.keys.get(index);
+        if (k == null)
+          {
+            if (t.used.get() >= t.limit)
+              {
+                // We have to seal the slot before we go on.  Otherwise
+                // a reader could find it empty, and decide that the key
+                // isn't here, after we've put the key in the next table.
+                this.startCopy(t);
+                this.copySlot(t, index);
+              } // if the table is too full to claim another slot
+            else if (t.keys.compareAndSet(index, null, key))
+              {
+                t.hashes.set(index, hash);
+                t.used.incrementAndGet();
+                return index;
+              } // if we claimed the slot
+            k = t.keys.get(index);
+          } // if the slot is empty
+        if (k == KEY_MOVED)
+          return GO_ON;
+        if (sameKey(t, index, k, key, hash))
+          return index;
+        index = (index + 1) & mask;
+      } // for
+    this.startCopy(t);
+    return GO_ON;
+  } // claim(Table, Object, int)
+
+  /**
+   * Make sure that t has a next table.
+   */
+  void startCopy(Table t)
+  {
+    if (t.next.get() == null)
+      {
+        int length = tableSize(2 * this.size());
+        t.next.compareAndSet(null, new Table(Math.max(length, t.length)));
+      } // if there's no next table
+  } // startCopy(Table)
+
+  /**
+   * Help copy t, then return t's next table.
+   *
+   * @pre t.next.get() != null or t is full
+   */
+  Table helpCopy(Table t)
+  {
+    this.startCopy(t);
+    this.copyChunk(t);
+    return t.next.get();
+  } // helpCopy(Table)
+
+  /**
+   * Claim the next chunk of t to copy, if there is one, and copy it.
+   * Whoever copies the last slot promotes the next table.
+   */
+  void copyChunk(Table t)
+  {
+    int start = t.copyIndex.getAndAdd(this.copyChunk);
+    if (start >= t.length)
+      return;
+    int end = Math.min(start + this.copyChunk, t.length);
+    for (int i = start; i < end; i++)
+      {
+        this.copySlot(t, i);
+      } // for
+    if (t.copyDone.addAndGet(end - start) == t.length)
+      {
+        this.promote(t);
+      } // if we copied the last chunk
+  } // copyChunk(Table)
+
+  /**
+   * Make t's next table the top table, along with any tables after it
+   * that are also completely copied.
+   *
+   * @pre every slot of t has been copied
+   */
+  void promote(Table t)
+  {
+    while ((t != null) && (t.copyDone.get() == t.length)
+           && this.top.compareAndSet(t, t.next.get()))
+      {
+        t = t.next.get();
+      } // while
+  } // promote(Table)
+
+  /**
+   * Copy slot index of t to t's next table.  See the Notes for the
+   * steps.  Safe to call any number of times.
+   *
+   * @pre t.next.get() != null
+   */
+  void copySlot(Table t, int index)
+  {
+    // Step 1.  Seal empty key slots.
+    Object key = t.keys.get(index);
+    if (key == null)
+      {
+        if (t.keys.compareAndSet(index, null, KEY_MOVED))
+          return;
+        key = t.keys.get(index);
+      } // if the slot looks empty
+    if (key == KEY_MOVED)
+      return;
+    // Step 2.  Freeze the value.
+    Object value = t.values.get(index);
+    while (!(value instanceof Frozen))
+      {
+        if (value == MOVED)
+          return;
+        if ((value == null) || (value == TOMBSTONE))
+          {
+            if (t.values.compareAndSet(index, value, MOVED))
+              return;
+          } // if there's nothing to copy
+        else
+          {
+            t.values.compareAndSet(index, value, new Frozen(value));
+          } // if there's a value to copy
+        value = t.values.get(index);
+      } // while
+    // Step 3.  Copy it.  The thread that claimed the key slot may not
+    // have stored the hash yet, in which case we work it out.
+    int hash = t.hashes.get(index);
+    if (hash == 0)
+      hash = mix(key.hashCode());
+    Object frozen = ((Frozen) value).value;
+    this.copyInto(t.next.get(), key, hash, frozen);
+    // Step 4.  Mark it moved.
+    t.values.compareAndSet(index, value, MOVED);
+  } // copySlot(Table, int)
+
+  /**
+   * Put a key and value that we're copying into t, unless the key
+   * already has a value there.
+   */
+  void copyInto(Table t, Object key, int hash, Object value)
+  {
+    while (true)
+      {
+        int index = this.claim(t, key, hash);
+        if (index < 0)
+          {
+            t = this.helpCopy(t);
+            continue;
+          } // if we need to go on to the next table
+        Object current = t.values.get(index);
+        if ((current == MOVED) || (current instanceof Frozen))
+          {
+            this.copySlot(t, index);
+            t = this.helpCopy(t);
+          } // if t is being copied too
+        else if (current != null)
+          {
+            // Someone has set or removed the key since we froze it.
+            return;
+          } // if the key already has a value
+        else if (t.values.compareAndSet(index, null, value))
+          {
+            return;
+          } // if we copied the value
+      } // while
+  } // copyInto(Table, Object, int, Object)
+
+  /**
+   * Determine whether slot index of t, which holds k, is for key.
+   */
+  static boolean sameKey(Table t, int index, Object k, Object key, int hash)
+  {
+    if (k == key)
+      return true;
+    // The hash may not be there yet if another thread has only just
+    // claimed the slot, so we fall back on equals when it's 0.
+    int h = t.hashes.get(index);
+    return ((h == hash) || (h == 0)) && key.equals(k);
+  } // sameKey(Table, int, Object, Object, int)
+
+  /**
+   * The smallest power of two that holds n entries at our load factor.
+   */
+  static int tableSize(int n)
+  {
+    int length = MIN_CAPACITY;
+    while (length * LOAD_FACTOR < n)
+      length *= 2;
+    return length;
+  } // tableSize(int)
+
+  /**
+   * Scramble the bits of a hash code.  See OpenHashTable.
+   */
+  static int mix(int hash)
+  {
+    return OpenHashTable.mix(hash);
+  } // mix(int)
+
+  /**
+   * Describe the value of a slot, for dump.
+   */
+  static String show(Object value)
+  {
+    if (value == TOMBSTONE)
+      return "TOMBSTONE";
+    else if (value == MOVED)
+      return "MOVED";
+    else
+      return String.valueOf(value);
+  } // show(Object)
+
+  // +---------------+---------------------------------------------------
+  // | Inner Classes |
+  // +---------------+
+
+  /**
+   * One table, and the state of copying it to the next one.
+   */
+  static class Table
+  {
+    final int length;
+    final int limit;
+    final AtomicReferenceArray<Object> keys;
+    final AtomicReferenceArray<Object> values;
+    final AtomicIntegerArray hashes;
+    final AtomicInteger used = new AtomicInteger();
+    final AtomicReference<Table> next = new AtomicReference<Table>();
+    final AtomicInteger copyIndex = new AtomicInteger();
+    final AtomicInteger copyDone = new AtomicInteger();
+
+    Table(int length)
+    {
+      this.length = length;
+      this.limit = (int) (length * LOAD_FACTOR);
+      this.keys = new AtomicReferenceArray<Object>(length);
+      this.values = new AtomicReferenceArray<Object>(length);
+      this.hashes = new AtomicIntegerArray(length);
+    } // Table(int)
+
+    /**
+     * Find the slot for key, without claiming one.  Returns the index,
+     * NOT_FOUND, or GO_ON.
+     */
+    int find(Object key, int hash)
+    {
+      int mask = this.length - 1;
+      int index = hash & mask;
+      for (int probes = 0; probes < this.length; probes++)
+        {
+          Object k = this.keys.get(index);
+          if (k == null)
+            return NOT_FOUND;
+          if (k == KEY_MOVED)
+            return GO_ON;
+          if (sameKey(this, index, k, key, hash))
+            return index;
+          index = (index + 1) & mask;
+        } // for
+      return (this.next.get() == null) ? NOT_FOUND : GO_ON;
+    } // find(Object, int)
+  } // class Table
+
+  /**
+   * A value that is being copied to the next table.
+   */
+  static class Frozen
+  {
+    final Object value;
+
+    Frozen(Object value)
+    {
+      this.value = value;
+    } // Frozen(Object)
+  } // class Frozen
+
+  /**
+   * Iterators over the entries.  Subclasses say what they want from
+   * each one.
+   */
+  abstract class SlotIterator<T>
+      implements Iterator<T>
+  {
+    /**
+     * The table we're in.
+     */
+    Table table = LockFreeOpenHashTable.this.top.get();
+
+    /**
+     * The next slot to look at.
+     */
+    int index = 0;
+
+    /**
+     * The key and value of the next entry, if we've found it.
+     */
+    Object nextKey = null;
+    V nextValue = null;
+
+    /**
+     * Get the part of the entry that we're iterating.
+     */
+    abstract T extract(Object key, V value);
+
+    @SuppressWarnings("unchecked")
+    public boolean hasNext()
+    {
+      while ((this.nextKey == null) && (this.table != null))
+        {
+          if (this.index >= this.table.length)
+            {
+              this.table = this.table.next.get();
+              this.index = 0;
+              continue;
+            } // if we're done with this table
+          Object key = this.table.keys.get(this.index);
+          Object value = this.table.values.get(this.index);
+          this.index++;
+          // A frozen value may not have reached the next table yet,
+          // so we take it from here, even though it may come up again.
+          if (value instanceof Frozen)
+            value = ((Frozen) value).value;
+          if ((key == null) || (key == KEY_MOVED) || (value == null)
+              || (value == TOMBSTONE) || (value == MOVED))
+            continue;
+          this.nextKey = key;
+          this.nextValue = (V) value;
+        } // while
+      return this.nextKey != null;
+    } // hasNext()
+
+    public T next()
+      throws NoSuchElementException
+    {
+      if (!this.hasNext())
+        throw new NoSuchElementException();
+      T result = this.extract(this.nextKey, this.nextValue);
+      this.nextKey = null;
+      this.nextValue = null;
+      return result;
+    } // next()
+
+    public void remove()
+      throws UnsupportedOperationException
+    {
+      throw new UnsupportedOperationException();
+    } // remove()
+  } // class SlotIterator<T>
+
+} // class LockFreeOpenHashTable<K, V>
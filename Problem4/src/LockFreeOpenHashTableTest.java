@@ -0,0 +1,368 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unit tests for our lock-free hash table class.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class LockFreeOpenHashTableTest
+{
+  // +-------+-----------------------------------------------------------
+  // | Notes |
+  // +-------+
+
+  /*
+     The stress test runs many short trials.  In each, a few threads
+     share a table that starts small.  Between operations on a handful
+     of shared keys, each thread sets and removes FILL keys of its own.
+     Its own keys make the table grow to a few thousand slots.  In odd
+     trials, writers copy just one slot at a time, so the table spends
+     most of its time part way through being copied, and the shared
+     keys are used while they move from one table to the next.
+
+     We record when each operation on a shared key started and
+     finished, and what it returned.  Afterwards, we check that the
+     history of each shared key is linearizable.  That is, some order
+     of the operations, consistent with their start and finish times,
+     explains every result.  Because linearizability is local (Herlihy
+     and Wing), checking each key on its own is enough.
+
+     The check is the search of Wing and Gong, with the memoization
+     suggested by Lowe: try each operation that could have taken effect
+     first, and remember the (remaining operations, value) pairs that
+     led nowhere.
+
+     Raise TRIALS to stress harder.
+   */
+
+  // +-----------+-------------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of trials in the stress test.
+   */
+  static final int TRIALS = 300;
+
+  /**
+   * The number of threads in each trial.
+   */
+  static final int THREADS = 4;
+
+  /**
+   * The number of operations on shared keys each thread does in each
+   * trial.
+   */
+  static final int OPS = 30;
+
+  /**
+   * The number of operations on its own keys each thread does before
+   * each operation on a shared key.
+   */
+  static final int FILL = 20;
+
+  /**
+   * The number of shared keys.
+   */
+  static final int SHARED = 4;
+
+  /**
+   * The kinds of operation we record.
+   */
+  static final int GET = 0;
+  static final int SET = 1;
+  static final int REMOVE = 2;
+
+  // +-------+-----------------------------------------------------------
+  // | Tests |
+  // +-------+
+
+  /**
+   * Our handy dandy factory.
+   */
+  public DictionaryFactory<Character,String> lfFactory =
+    new DictionaryFactory<Character,String>()
+      {
+        public Dictionary<Character, String> build(int capacity)
+        {
+          return new LockFreeOpenHashTable<Character, String>(capacity);
+        } // build(int)
+      }; // new DictionaryFactory
+
+  /**
+   * Random tests are always a good starting point.
+   */
+  @Test
+  public void randomTest()
+    throws Exception
+  {
+    DictionaryIteratorTests.randomTest(lfFactory);
+  } // test
+
+  /**
+   * Make sure that the table copes with lots of removes, which fill it
+   * with tombstones, in a single thread.
+   */
+  @Test
+  public void churnTest()
+    throws Exception
+  {
+    LockFreeOpenHashTable<Integer, Integer> table =
+        new LockFreeOpenHashTable<Integer, Integer>();
+    for (int i = 0; i < 10000; i++)
+      {
+        table.set(i, i);
+        table.remove(i - 10);
+        assertEquals(Math.min(i + 1, 10), table.size());
+      } // for
+    for (int i = 0; i < 10000; i++)
+      {
+        assertEquals(i >= 9990, table.containsKey(i));
+      } // for
+  } // churnTest()
+
+  /**
+   * A thread copying a slot can stall after it freezes the value and
+   * before it puts it in the next table.  Iterators and clear should
+   * still see that entry.
+   */
+  @Test
+  public void frozenTest()
+    throws Exception
+  {
+    LockFreeOpenHashTable<Integer, Integer> table =
+        new LockFreeOpenHashTable<Integer, Integer>();
+    for (int i = 0; i < 6; i++)
+      {
+        table.set(i, i);
+      } // for
+    // Freeze every value by hand, as a stalled copier would.
+    LockFreeOpenHashTable.Table t = table.top.get();
+    table.startCopy(t);
+    for (int i = 0; i < t.length; i++)
+      {
+        Object value = t.values.get(i);
+        if (value != null)
+          t.values.set(i, new LockFreeOpenHashTable.Frozen(value));
+      } // for
+    HashSet<Integer> keys = new HashSet<Integer>();
+    for (Integer key : table.keys())
+      {
+        keys.add(key);
+      } // for
+    assertEquals(6, keys.size());
+    table.clear();
+    for (int i = 0; i < 6; i++)
+      {
+        assertFalse(table.containsKey(i));
+      } // for
+    assertEquals(0, table.size());
+  } // frozenTest()
+
+  /**
+   * Check that get, set, and remove on shared keys are linearizable
+   * while other threads grow the table.
+   */
+  @Test
+  public void stressTest()
+    throws Exception
+  {
+    for (int trial = 0; trial < TRIALS; trial++)
+      {
+        stressTrial(trial);
+      } // for
+  } // stressTest()
+
+  // +-----------+-------------------------------------------------------
+  // | Utilities |
+  // +-----------+
+
+  /**
+   * Run one trial of the stress test.
+   */
+  static void stressTrial(final int trial)
+    throws Exception
+  {
+    final LockFreeOpenHashTable<Integer, Integer> table =
+        new LockFreeOpenHashTable<Integer, Integer>(1);
+    if ((trial % 2) == 1)
+      table.copyChunk = 1;
+    final List<List<Op>> histories = new ArrayList<List<Op>>();
+    final AtomicReference<String> failure = new AtomicReference<String>();
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[THREADS];
+    for (int t = 0; t < THREADS; t++)
+      {
+        final int id = t;
+        final List<Op> history = new ArrayList<Op>();
+        histories.add(history);
+        threads[t] = new Thread()
+          {
+            public void run()
+            {
+              Random rand = new Random(trial * THREADS + id);
+              // This thread's own keys are all above any shared key.
+              int own = 100000 * (id + 1);
+              int next = own;
+              try
+                {
+                  start.await();
+                } // try
+              catch (InterruptedException e)
+                {
+                  return;
+                } // catch
+              for (int i = 0; i < OPS; i++)
+                {
+                  for (int f = 0; f < FILL; f++)
+                    {
+                      // One of our own keys.  Nobody else writes them,
+                      // so we know what we should see.
+                      int key = next++;
+                      table.set(key, key);
+                      if (table.getOrDefault(key, -1) != key)
+                        failure.set("lost own key " + key);
+                      if (rand.nextInt(3) == 0)
+                        {
+                          table.remove(key);
+                          if (table.containsKey(key))
+                            failure.set("failed to remove own key " + key);
+                        } // if we remove the key
+                    } // for each of our own keys
+                  if (rand.nextInt(4) == 0)
+                    Thread.yield();
+                  Op op = new Op();
+                  op.key = rand.nextInt(SHARED);
+                  op.kind = rand.nextInt(3);
+                  op.arg = id * OPS + i;
+                  op.start = System.nanoTime();
+                  if (op.kind == GET)
+                    op.result = table.getOrDefault(op.key, null);
+                  else if (op.kind == SET)
+                    table.set(op.key, op.arg);
+                  else
+                    table.remove(op.key);
+                  op.end = System.nanoTime();
+                  history.add(op);
+                } // for
+            } // run()
+          }; // new Thread
+        threads[t].start();
+      } // for each thread
+    start.countDown();
+    for (Thread thread : threads)
+      {
+        thread.join();
+      } // for
+    assertNull(failure.get());
+
+    // Check each shared key, finishing with a read of its final value.
+    for (int key = 0; key < SHARED; key++)
+      {
+        List<Op> ops = new ArrayList<Op>();
+        for (List<Op> history : histories)
+          {
+            for (Op op : history)
+              {
+                if (op.key == key)
+                  ops.add(op);
+              } // for
+          } // for
+        Op last = new Op();
+        last.key = key;
+        last.kind = GET;
+        last.start = System.nanoTime();
+        last.result = table.getOrDefault(key, null);
+        last.end = System.nanoTime();
+        ops.add(last);
+        assertTrue("too many operations on one key", ops.size() < 64);
+        if (!linearizable(ops, (1L << ops.size()) - 1, null,
+                          new HashSet<String>()))
+          {
+            fail("trial " + trial + ", key " + key
+                 + " is not linearizable: " + ops);
+          } // if the history isn't linearizable
+      } // for each shared key
+  } // stressTrial(int)
+
+  /**
+   * Determine whether the operations in remaining (a bit set of
+   * indices into ops) can be put in an order that respects their
+   * times and explains their results, starting from a key whose value
+   * is value (null if the key isn't there).  seen holds the states
+   * that we already know don't work.
+   *
+   * @pre ops.size() < 64
+   */
+  static boolean linearizable(List<Op> ops, long remaining, Integer value,
+                              HashSet<String> seen)
+  {
+    if (remaining == 0)
+      return true;
+    if (!seen.add(remaining + ":" + value))
+      return false;
+    // An operation can go first only if it started before every other
+    // remaining operation finished.
+    long firstEnd = Long.MAX_VALUE;
+    for (int i = 0; i < ops.size(); i++)
+      {
+        if ((remaining & (1L << i)) != 0)
+          firstEnd = Math.min(firstEnd, ops.get(i).end);
+      } // for
+    for (int i = 0; i < ops.size(); i++)
+      {
+        Op op = ops.get(i);
+        if (((remaining & (1L << i)) == 0) || (op.start > firstEnd))
+          continue;
+        Integer after = value;
+        if (op.kind == GET)
+          {
+            if ((op.result == null) ? (value != null)
+                                    : !op.result.equals(value))
+              continue;
+          } // if it's a get
+        else if (op.kind == SET)
+          after = op.arg;
+        else
+          after = null;
+        if (linearizable(ops, remaining & ~(1L << i), after, seen))
+          return true;
+      } // for
+    return false;
+  } // linearizable(List<Op>, long, Integer, HashSet<String>)
+
+  // +---------------+---------------------------------------------------
+  // | Inner Classes |
+  // +---------------+
+
+  /**
+   * One recorded operation on a shared key.
+   */
+  static class Op
+  {
+    int key;
+    int kind;
+    Integer arg;
+    Integer result;
+    long start;
+    long end;
+
+    public String toString()
+    {
+      String[] names = { "get", "set", "remove" };
+      return names[this.kind] + "(" + ((this.kind == SET) ? this.arg : "")
+             + ")" + ((this.kind == GET) ? "=" + this.result : "")
+             + "@[" + this.start + "," + this.end + "]";
+    } // toString()
+  } // class Op
+
+} // LockFreeOpenHashTableTest
@@ -0,0 +1,624 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import java.util.Iterator;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * A wrapper that makes changes to any dictionary durable, by writing
+ * each one to a log before making it.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class LoggedDictionary<K, V>
+    implements Dictionary<K, V>, Iterable<V>, Closeable
+{
+  // +-------+-----------------------------------------------------------
+  // | Notes |
+  // +-------+
+
+  /*
+      Every set, remove, and clear appends a record to the log, and then
+      changes the underlying dictionary.  When we open a log that
+      already has records, we replay them into the dictionary, so a
+      program that crashed gets back every change that made it to disk.
+      Lookups and iteration go straight to the underlying dictionary.
+
+      The log starts with MAGIC and VERSION.  Each record is its
+      payload's length, a CRC-32 of the payload, and the payload: the
+      operation (SET, REMOVE, or CLEAR), and then, as needed, the key's
+      length and bytes and the value's length (-1 for null) and bytes.
+      A crash can leave a partial record at the end of the log.  Replay
+      stops at the first record that is short or fails its checksum,
+      and cuts the log off there.
+
+      Writing a record is one write call, which only puts it in the
+      operating system's cache.  It isn't durable until we force the
+      file to disk, and a force costs about as much as a disk write,
+      so forcing after every change would limit us to a few hundred
+      changes per second on a spinning disk.  Instead we commit in
+      groups: we force after every syncEvery records, and a background
+      thread forces every syncMillis milliseconds if there's anything
+      to force.  So a crash can lose at most the last syncEvery changes
+      or syncMillis milliseconds' worth, whichever is less.  Either
+      limit can be 0 to turn it off, and syncEvery = 1 forces on every
+      change.  sync forces right away, for the changes that can't wait.
+
+      A log that only grows makes every restart slower.  checkpoint
+      takes a function that saves the dictionary somewhere durable
+      (e.g., MappedHashTable's force, or a snapshot), runs it, and then
+      empties the log, since the saved copy has everything in it.  When
+      we start, the caller first loads the saved copy into the
+      underlying dictionary, and we then replay the changes made since.
+
+      We don't lock the underlying dictionary, so, as usual, only one
+      thread should use us.  The only other thread is the one that
+      forces the log, and it only touches the log.
+   */
+
+  // +-----------+-------------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The first four bytes of every log ("WAL1").
+   */
+  static final int MAGIC = 0x57414c31;
+
+  /**
+   * The version of the log format.
+   */
+  static final int VERSION = 1;
+
+  /**
+   * The size of the log's header.
+   */
+  static final int HEADER_BYTES = 8;
+
+  /**
+   * The operation for set.
+   */
+  static final byte SET = 1;
+
+  /**
+   * The operation for remove.
+   */
+  static final byte REMOVE = 2;
+
+  /**
+   * The operation for clear.
+   */
+  static final byte CLEAR = 3;
+
+  /**
+   * By default, we force the log after this many changes.
+   */
+  static final int DEFAULT_SYNC_EVERY = 1000;
+
+  /**
+   * By default, we force the log this often, in milliseconds.
+   */
+  static final long DEFAULT_SYNC_MILLIS = 10;
+
+  // +--------+----------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The dictionary we make changes to.
+   */
+  Dictionary<K, V> base;
+
+  /**
+   * The log file.
+   */
+  File file;
+
+  /**
+   * The open log.
+   */
+  FileChannel channel;
+
+  /**
+   * How we turn keys into bytes.
+   */
+  Codec<K> keyCodec;
+
+  /**
+   * How we turn values into bytes.
+   */
+  Codec<V> valueCodec;
+
+  /**
+   * The number of records after which we force the log, or 0.
+   */
+  int syncEvery;
+
+  /**
+   * The thread that forces the log every so often, or null.
+   */
+  ScheduledThreadPoolExecutor syncer;
+
+  /**
+   * Where we build each record.
+   */
+  ByteBuffer record;
+
+  /**
+   * The checksum we compute for each record.
+   */
+  CRC32 crc;
+
+  /**
+   * The number of records we've written.
+   */
+  long written;
+
+  /**
+   * The number of records we'd written at the last force.  Volatile,
+   * since the sync thread updates it and others may read it without
+   * the lock.
+   */
+  volatile long synced;
+
+  /**
+   * The number of records we replayed when we opened the log.
+   */
+  int replayed;
+
+  // +--------------+----------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Log changes to base in a file, with the default group commit
+   * settings.  If the file has records, replay them into base first.
+   */
+  public LoggedDictionary(Dictionary<K, V> base, File file,
+                          Codec<K> keyCodec, Codec<V> valueCodec)
+    throws IOException
+  {
+    this(base, file, keyCodec, valueCodec, DEFAULT_SYNC_EVERY,
+         DEFAULT_SYNC_MILLIS);
+  } // LoggedDictionary(Dictionary<K, V>, File, Codec<K>, Codec<V>)
+
+  /**
+   * Log changes to base in a file, forcing the log after every
+   * syncEvery changes and every syncMillis milliseconds (either may
+   * be 0 for never).  If the file has records, replay them into base
+   * first.
+   *
+   * @throws IOException
+   *   if we can't read or write the file, or it isn't a log
+   */
+  public LoggedDictionary(Dictionary<K, V> base, File file,
+                          Codec<K> keyCodec, Codec<V> valueCodec,
+                          int syncEvery, long syncMillis)
+    throws IOException
+  {
+    this.base = base;
+    this.file = file;
+    this.keyCodec = keyCodec;
+    this.valueCodec = valueCodec;
+    this.syncEvery = syncEvery;
+    this.record = ByteBuffer.allocate(256);
+    this.crc = new CRC32();
+    this.channel = FileChannel.open(file.toPath(),
+                                    StandardOpenOption.CREATE,
+                                    StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE);
+    try
+      {
+        if (this.channel.size() == 0)
+          this.writeHeader();
+        else
+          this.replay();
+      } // try
+    catch (IOException e)
+      {
+        this.channel.close();
+        throw e;
+      } // catch (IOException)
+    if (syncMillis > 0)
+      {
+        this.syncer = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+          {
+            public Thread newThread(Runnable task)
+            {
+              Thread thread = new Thread(task, "log sync");
+              thread.setDaemon(true);
+              return thread;
+            } // newThread(Runnable)
+          }); // new ThreadFactory
+        this.syncer.scheduleWithFixedDelay(new Runnable()
+          {
+            public void run()
+            {
+              try
+                {
+                  LoggedDictionary.this.sync();
+                } // try
+              catch (IOException e)
+                {
+                  // The next sync on the main thread will report it.
+                } // catch (IOException)
+            } // run()
+          }, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+      } // if we sync on a timer
+  } // LoggedDictionary(Dictionary<K, V>, File, Codec<K>, Codec<V>, ...)
+
+  // +-----------+-------------------------------------------------------
+  // | Factories |
+  // +-----------+
+
+  /**
+   * Build a factory that logs changes to dictionaries from another
+   * factory, in new files in a directory.  The files go away when the
+   * program exits.  The dictionaries force the log on every change
+   * rather than on a timer, so they start no sync threads.  Each one
+   * still holds its file open, so callers that can should close
+   * them when they're done.
+   */
+  public static <K, V> DictionaryFactory<K, V> factory(
+      final DictionaryFactory<K, V> baseFactory, final File directory,
+      final Codec<K> keyCodec, final Codec<V> valueCodec)
+  {
+    return new DictionaryFactory<K, V>()
+      {
+        public Dictionary<K, V> build(int capacity)
+        {
+          try
+            {
+              File file = File.createTempFile("changes", ".wal", directory);
+              file.deleteOnExit();
+              return new LoggedDictionary<K, V>(baseFactory.build(capacity),
+                                                file, keyCodec, valueCodec,
+                                                1, 0);
+            } // try
+          catch (IOException e)
+            {
+              throw new UncheckedIOException(e);
+            } // catch (IOException)
+        } // build(int)
+      }; // new DictionaryFactory<K, V>
+  } // factory(DictionaryFactory<K, V>, File, Codec<K>, Codec<V>)
+
+  // +-----------+-------------------------------------------------------
+  // | Observers |
+  // +-----------+
+
+  /**
+   * Determine if the dictionary contains a particular key.
+   */
+  public boolean containsKey(K key)
+  {
+    return this.base.containsKey(key);
+  } // containsKey(K)
+
+  /**
+   * Dump the underlying dictionary.
+   */
+  public void dump(PrintWriter pen)
+  {
+    this.base.dump(pen);
+  } // dump(PrintWriter)
+
+  /**
+   * Get the value for a particular key.
+   */
+  public V get(K key)
+    throws Exception
+  {
+    return this.base.get(key);
+  } // get(K)
+
+  /**
+   * Get the value for a particular key, or defaultValue if there is
+   * no such key.
+   */
+  public V getOrDefault(K key, V defaultValue)
+  {
+    return this.base.getOrDefault(key, defaultValue);
+  } // getOrDefault(K, V)
+
+  /**
+   * Get the number of records we replayed when we opened the log.
+   */
+  public int replayed()
+  {
+    return this.replayed;
+  } // replayed()
+
+  // +----------+--------------------------------------------------------
+  // | Mutators |
+  // +----------+
+
+  /**
+   * Save the dictionary with save, and then empty the log.  save must
+   * make the underlying dictionary's current contents durable, since
+   * the log won't have them any more.
+   */
+  public synchronized void checkpoint(Runnable save)
+    throws IOException
+  {
+    this.sync();
+    save.run();
+    this.channel.truncate(0);
+    this.writeHeader();
+    this.channel.force(true);
+  } // checkpoint(Runnable)
+
+  /**
+   * Remove all of the entries.
+   */
+  public void clear()
+  {
+    this.record.clear();
+    this.record.put(CLEAR);
+    this.append();
+    this.base.clear();
+  } // clear()
+
+  /**
+   * Force the log, and stop the thread that forces it.  We can't be
+   * used after that.  (The underlying dictionary can.)
+   */
+  public void close()
+    throws IOException
+  {
+    if (this.syncer != null)
+      {
+        this.syncer.shutdownNow();
+      } // if there's a thread
+    this.sync();
+    this.channel.close();
+  } // close()
+
+  /**
+   * Remove a key/value pair.
+   */
+  public void remove(K key)
+  {
+    byte[] keyBytes = this.keyCodec.encode(key);
+    this.reserve(5 + keyBytes.length);
+    this.record.put(REMOVE);
+    this.record.putInt(keyBytes.length);
+    this.record.put(keyBytes);
+    this.append();
+    this.base.remove(key);
+  } // remove(K)
+
+  /**
+   * Set a value.
+   */
+  public void set(K key, V value)
+  {
+    byte[] keyBytes = this.keyCodec.encode(key);
+    byte[] valueBytes = (value == null) ? null
+                                        : this.valueCodec.encode(value);
+    int valueLength = (valueBytes == null) ? 0 : valueBytes.length;
+    this.reserve(9 + keyBytes.length + valueLength);
+    this.record.put(SET);
+    this.record.putInt(keyBytes.length);
+    this.record.put(keyBytes);
+    this.record.putInt((valueBytes == null) ? -1 : valueBytes.length);
+    if (valueBytes != null)
+      {
+        this.record.put(valueBytes);
+      } // if there's a value
+    this.append();
+    this.base.set(key, value);
+  } // set(K, V)
+
+  /**
+   * Force every record we've written to disk.
+   */
+  public synchronized void sync()
+    throws IOException
+  {
+    if (this.synced < this.written)
+      {
+        this.channel.force(false);
+        this.synced = this.written;
+      } // if there's anything to force
+  } // sync()
+
+  // +-----------+-------------------------------------------------------
+  // | Iterators |
+  // +-----------+
+
+  /**
+   * Get an iterator for the values.
+   */
+  public Iterator<V> iterator()
+  {
+    return this.base.iterator();
+  } // iterator()
+
+  /**
+   * Get an iterator for the keys.
+   */
+  public Iterator<K> keysIterator()
+  {
+    return this.base.keysIterator();
+  } // keysIterator()
+
+  /**
+   * Get an Iterable for the keys.  See explanation in Dictionary.java.
+   */
+  public Iterable<K> keys()
+  {
+    return this.base.keys();
+  } // keys()
+
+  // +---------+---------------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Clear the record buffer and make sure it can hold a payload of a
+   * given length.
+   */
+  void reserve(int length)
+  {
+    if (this.record.capacity() < length)
+      {
+        this.record = ByteBuffer.allocate(Math.max(length,
+                                                   2 * this.record.capacity()));
+      } // if the buffer is too small
+    this.record.clear();
+  } // reserve(int)
+
+  /**
+   * Write the payload in the record buffer to the log, with its length
+   * and checksum, and force the log if it's time.
+   */
+  synchronized void append()
+  {
+    this.record.flip();
+    int length = this.record.remaining();
+    this.crc.reset();
+    this.crc.update(this.record.duplicate());
+    ByteBuffer header = ByteBuffer.allocate(8);
+    header.putInt(length);
+    header.putInt((int) this.crc.getValue());
+    header.flip();
+    try
+      {
+        ByteBuffer[] buffers = { header, this.record };
+        while (this.record.hasRemaining())
+          {
+            this.channel.write(buffers);
+          } // while
+        ++this.written;
+        if ((this.syncEvery > 0)
+            && (this.written - this.synced >= this.syncEvery))
+          {
+            this.sync();
+          } // if it's time to force
+      } // try
+    catch (IOException e)
+      {
+        throw new UncheckedIOException(e);
+      } // catch (IOException)
+  } // append()
+
+  /**
+   * Write the header at the start of an empty log, and leave the
+   * channel positioned after it.
+   */
+  void writeHeader()
+    throws IOException
+  {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    header.putInt(MAGIC);
+    header.putInt(VERSION);
+    header.flip();
+    this.channel.position(0);
+    while (header.hasRemaining())
+      {
+        this.channel.write(header);
+      } // while
+  } // writeHeader()
+
+  /**
+   * Read the records in the log and make their changes to base.  Cut
+   * off any partial or damaged record at the end, and leave the
+   * channel positioned at the end.
+   */
+  void replay()
+    throws IOException
+  {
+    this.channel.position(0);
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        Channels.newInputStream(this.channel), 1 << 16));
+    if ((this.channel.size() < HEADER_BYTES) || (in.readInt() != MAGIC)
+        || (in.readInt() != VERSION))
+      {
+        throw new IOException("Not a log file: " + this.file);
+      } // if the header is wrong
+    long good = HEADER_BYTES;  // The end of the last good record
+    try
+      {
+        while (true)
+          {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            if ((length <= 0) || (length > this.channel.size() - good))
+              {
+                break;
+              } // if the length is nonsense
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            this.crc.reset();
+            this.crc.update(payload);
+            if ((int) this.crc.getValue() != checksum)
+              {
+                break;
+              } // if the record is damaged
+            this.apply(ByteBuffer.wrap(payload));
+            ++this.replayed;
+            good += 8 + length;
+          } // while
+      } // try
+    catch (EOFException e)
+      {
+        // The last record is partial.
+      } // catch (EOFException)
+    this.channel.truncate(good);
+    this.channel.position(good);
+  } // replay()
+
+  /**
+   * Make the change that a record's payload describes to base.
+   */
+  void apply(ByteBuffer payload)
+    throws IOException
+  {
+    byte op = payload.get();
+    if (op == CLEAR)
+      {
+        this.base.clear();
+        return;
+      } // if it's a clear
+    byte[] keyBytes = new byte[payload.getInt()];
+    payload.get(keyBytes);
+    K key = this.keyCodec.decode(keyBytes);
+    if (op == REMOVE)
+      {
+        this.base.remove(key);
+      } // if it's a remove
+    else if (op == SET)
+      {
+        int valueLength = payload.getInt();
+        V value = null;
+        if (valueLength >= 0)
+          {
+            byte[] valueBytes = new byte[valueLength];
+            payload.get(valueBytes);
+            value = this.valueCodec.decode(valueBytes);
+          } // if the value isn't null
+        this.base.set(key, value);
+      } // if it's a set
+    else
+      {
+        throw new IOException("Unknown operation " + op + " in "
+                              + this.file);
+      } // if we don't know the operation
+  } // apply(ByteBuffer)
+
+} // class LoggedDictionary<K,V>
@@ -0,0 +1,283 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Unit tests for our write-ahead logging dictionary wrapper.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class LoggedDictionaryTest
+{
+  /**
+   * Somewhere to put the logs.
+   */
+  File directory = MappedHashTableTest.createDirectory();
+
+  /**
+   * Our handy dandy factory, logging changes to open hash tables.
+   */
+  public DictionaryFactory<Character,String> loggedFactory =
+      LoggedDictionary.factory(new DictionaryFactory<Character,String>()
+        {
+          public Dictionary<Character, String> build(int capacity)
+          {
+            return new OpenHashTable<Character, String>(capacity);
+          } // build(int)
+        }, directory, Codec.CHARACTERS, Codec.STRINGS);
+
+  /**
+   * Random tests are always a good starting point.  randomTest drops
+   * its dictionaries without closing them, so the factory had better
+   * not start a sync thread for each one.
+   */
+  @Test
+  public void randomTest()
+    throws Exception
+  {
+    DictionaryIteratorTests.randomTest(loggedFactory);
+    LoggedDictionary<Character, String> dict =
+        (LoggedDictionary<Character, String>) loggedFactory.build(4);
+    assertNull(dict.syncer);
+    dict.close();
+  } // test
+
+  /**
+   * Lots of random changes, compared with a HashMap.  Every so often
+   * we close the dictionary and replay the log into a new, empty one,
+   * which should match.  Closing syncs the log, which a crash wouldn't,
+   * but replay reads the same bytes either way, since unsynced writes
+   * are still in the operating system's cache.
+   */
+  @Test
+  public void replayTest()
+    throws Exception
+  {
+    File file = new File(directory, "replay.wal");
+    Random rand = new Random();
+    HashMap<Integer, String> map = new HashMap<Integer, String>();
+    LoggedDictionary<Integer, String> dict = open(file, 100);
+    int changes = 0;
+    for (int i = 0; i < 50000; i++)
+      {
+        Integer key = rand.nextInt(2000);
+        int op = rand.nextInt(100);
+        if (op < 60)
+          {
+            String value = (op == 0) ? null : ("v" + i);
+            dict.set(key, value);
+            map.put(key, value);
+            ++changes;
+          } // if it's a set
+        else if (op < 99)
+          {
+            dict.remove(key);
+            map.remove(key);
+            ++changes;
+          } // if it's a remove
+        else if (rand.nextInt(100) == 0)
+          {
+            dict.clear();
+            map.clear();
+            ++changes;
+          } // if it's a clear
+        if ((i % 10000) == 0)
+          {
+            dict.close();
+            dict = open(file, 100);
+            assertEquals(changes, dict.replayed());
+            checkContents(map, dict);
+          } // if it's time to reopen
+      } // for
+    dict.close();
+    dict = open(file, 100);
+    assertEquals(changes, dict.replayed());
+    checkContents(map, dict);
+    dict.close();
+    file.delete();
+  } // replayTest()
+
+  /**
+   * A partial or damaged record at the end of the log should be cut
+   * off, and the records before it kept.
+   */
+  @Test
+  public void tornTest()
+    throws Exception
+  {
+    File file = new File(directory, "torn.wal");
+    LoggedDictionary<Integer, String> dict = open(file, 1);
+    for (int i = 0; i < 10; i++)
+      {
+        dict.set(i, "v" + i);
+      } // for
+    dict.close();
+    long length = file.length();
+    // Chop the last record in half.
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(length - 3);
+    raf.close();
+    dict = open(file, 1);
+    assertEquals(9, dict.replayed());
+    assertFalse(dict.containsKey(9));
+    assertEquals("v8", dict.get(8));
+    // Overwrite a byte of the last record's value.
+    dict.set(9, "nine");
+    dict.close();
+    raf = new RandomAccessFile(file, "rw");
+    raf.seek(raf.length() - 1);
+    raf.write('X');
+    raf.close();
+    dict = open(file, 1);
+    assertEquals(9, dict.replayed());
+    assertFalse(dict.containsKey(9));
+    // New records should go where the bad one was.
+    dict.set(9, "nine");
+    dict.close();
+    dict = open(file, 1);
+    assertEquals(10, dict.replayed());
+    assertEquals("nine", dict.get(9));
+    dict.close();
+    file.delete();
+  } // tornTest()
+
+  /**
+   * A checkpoint should empty the log, and restarting from the saved
+   * copy plus the log should give us everything.
+   */
+  @Test
+  public void checkpointTest()
+    throws Exception
+  {
+    File file = new File(directory, "checkpoint.wal");
+    File tableFile = new File(directory, "checkpoint.mht");
+    final MappedHashTable<Integer, String> table =
+        new MappedHashTable<Integer, String>(tableFile, Codec.INTEGERS,
+                                             Codec.STRINGS);
+    LoggedDictionary<Integer, String> dict =
+        new LoggedDictionary<Integer, String>(table, file, Codec.INTEGERS,
+                                              Codec.STRINGS, 0, 0);
+    for (int i = 0; i < 1000; i++)
+      {
+        dict.set(i, "v" + i);
+      } // for
+    long full = file.length();
+    dict.checkpoint(new Runnable()
+      {
+        public void run()
+        {
+          table.force();
+        } // run()
+      }); // new Runnable
+    assertEquals(LoggedDictionary.HEADER_BYTES, file.length());
+    assertTrue(full > file.length());
+    for (int i = 0; i < 10; i++)
+      {
+        dict.remove(i);
+      } // for
+    dict.close();
+    table.close();
+    MappedHashTable<Integer, String> reopened =
+        new MappedHashTable<Integer, String>(tableFile, Codec.INTEGERS,
+                                             Codec.STRINGS);
+    dict = new LoggedDictionary<Integer, String>(reopened, file,
+                                                 Codec.INTEGERS,
+                                                 Codec.STRINGS);
+    assertEquals(10, dict.replayed());
+    assertEquals(990, reopened.size());
+    assertFalse(dict.containsKey(5));
+    assertEquals("v500", dict.get(500));
+    dict.close();
+    reopened.close();
+    file.delete();
+    tableFile.delete();
+  } // checkpointTest()
+
+  /**
+   * The timer should force the log even if nothing else does.
+   */
+  @Test
+  public void timerTest()
+    throws Exception
+  {
+    File file = new File(directory, "timer.wal");
+    LoggedDictionary<Integer, String> dict =
+        new LoggedDictionary<Integer, String>(new OpenHashTable<Integer,
+                                                                String>(),
+                                              file, Codec.INTEGERS,
+                                              Codec.STRINGS, 0, 5);
+    dict.set(1, "one");
+    assertEquals(0, dict.synced);
+    for (int i = 0; (i < 100) && (dict.synced == 0); i++)
+      {
+        Thread.sleep(10);
+      } // for
+    assertEquals(1, dict.synced);
+    dict.close();
+    file.delete();
+  } // timerTest()
+
+  /**
+   * We shouldn't replay files that aren't logs.
+   */
+  @Test
+  public void badFileTest()
+    throws Exception
+  {
+    File file = new File(directory, "bad.wal");
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(new byte[100]);
+    out.close();
+    try
+      {
+        open(file, 1);
+        fail("replayed a file that isn't a log");
+      } // try
+    catch (IOException e)
+      {
+        // That's what we want.
+      } // catch (IOException)
+    file.delete();
+  } // badFileTest()
+
+  // +---------+---------------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Open a log over a new, empty dictionary, with no timer.
+   */
+  static LoggedDictionary<Integer, String> open(File file, int syncEvery)
+    throws IOException
+  {
+    return new LoggedDictionary<Integer, String>(
+        new OpenHashTable<Integer, String>(), file, Codec.INTEGERS,
+        Codec.STRINGS, syncEvery, 0);
+  } // open(File, int)
+
+  /**
+   * Check that a dictionary has exactly the entries in a map.
+   */
+  static void checkContents(HashMap<Integer, String> map,
+                            LoggedDictionary<Integer, String> dict)
+    throws Exception
+  {
+    int count = 0;
+    for (Integer key : dict.keys())
+      {
+        assertTrue(map.containsKey(key));
+        assertEquals(map.get(key), dict.get(key));
+        ++count;
+      } // for
+    assertEquals(map.size(), count);
+  } // checkContents(HashMap<Integer, String>, LoggedDictionary<...>)
+
+} // LoggedDictionaryTest
@@ -0,0 +1,589 @@
+import java.io.PrintWriter;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Hash tables with long keys, using open addressing.  The keys are
+ * never boxed, unless you ask for a Dictionary view of the table.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class LongObjectOpenHashTable<V>
+    implements Iterable<V>
+{
+  // +-------+-----------------------------------------------------------
+  // | Notes |
+  // +-------+
+
+  /*
+      This is IntObjectOpenHashTable with long keys, and the notes
+      there apply here, too.  The keys live in a long[], 0 marks an
+      empty slot, and the entry for the key 0 sits in hasZero and
+      zeroValue.
+
+      The only real difference is the hash code.  We fold the two
+      halves of the key together, as Long.hashCode does, before mixing.
+      Keys that differ only in ways that cancel out (such as 1 and
+      0x100000001L) share a home, but we compare whole keys, so that
+      only costs a little probing.
+   */
+
+  // +-----------+-------------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The load factor for expanding the table.
+   */
+  static final double LOAD_FACTOR = OpenHashTable.LOAD_FACTOR;
+
+  /**
+   * The default initial capacity of the hash table.
+   */
+  static final int DEFAULT_CAPACITY = 64;
+
+  // +--------+----------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The number of values currently stored in the hash table, including
+   * the one for 0.
+   */
+  int size = 0;
+
+  /**
+   * The capacity of the table.
+   */
+  int capacity = 0;
+
+  /**
+   * The keys, with 0 for an empty slot.
+   */
+  long[] keys;
+
+  /**
+   * The values.  values[i] goes with keys[i].
+   */
+  Object[] values;
+
+  /**
+   * One less than the size of the table, which is a power of two.
+   */
+  int mask;
+
+  /**
+   * The seed we fold into each key.
+   */
+  int seed;
+
+  /**
+   * Whether the table holds the key 0.
+   */
+  boolean hasZero;
+
+  /**
+   * The value for the key 0.
+   */
+  V zeroValue;
+
+  // +--------------+----------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new hash table with the default initial capacity.
+   */
+  public LongObjectOpenHashTable()
+  {
+    this(DEFAULT_CAPACITY);
+  } // LongObjectOpenHashTable()
+
+  /**
+   * Create a new hash table with a specified initial capacity.
+   */
+  public LongObjectOpenHashTable(int capacity)
+  {
+    this(capacity, 0);
+  } // LongObjectOpenHashTable(int)
+
+  /**
+   * Create a new hash table with a specified initial capacity, which
+   * we round up to a power of two, and a seed for the hash codes.
+   */
+  public LongObjectOpenHashTable(int capacity, int seed)
+  {
+    this.capacity = OpenHashTable.powerOfTwo(capacity);
+    this.seed = seed;
+    this.clear();
+  } // LongObjectOpenHashTable(int, int)
+
+  // +-----------+-------------------------------------------------------
+  // | Observers |
+  // +-----------+
+
+  /**
+   * Determine if the hash table contains a particular key.
+   */
+  public boolean containsKey(long key)
+  {
+    return (key == 0) ? this.hasZero : (this.find(key) >= 0);
+  } // containsKey(long)
+
+  /**
+   * Dump the hash table.
+   */
+  public void dump(PrintWriter pen)
+  {
+    pen.print("{");
+    int printed = 0; // Number of elements printed
+    if (this.hasZero)
+      {
+        pen.print("0:" + this.zeroValue);
+        if (++printed < this.size)
+          {
+            pen.print(", ");
+          } // if the number printed is less than the size
+      } // if we have the key 0
+    for (int i = 0; i < this.keys.length; i++)
+      {
+        if (this.keys[i] != 0)
+          {
+            pen.print(i + ":" + this.keys[i] + ":" + this.values[i]);
+            if (++printed < this.size)
+              {
+                pen.print(", ");
+              } // if the number printed is less than the size
+          } // if the current element is not empty
+      } // for
+    pen.println("}");
+  } // dump(PrintWriter)
+
+  /**
+   * Get the value for a particular key.
+   */
+  public V get(long key)
+    throws Exception
+  {
+    if (!this.containsKey(key))
+      {
+        throw new Exception("Invalid key: " + key);
+      } // if the key isn't there
+    return this.getOrDefault(key, null);
+  } // get(long)
+
+  /**
+   * Get the value for a particular key, or defaultValue if there is
+   * no such key.
+   */
+  public V getOrDefault(long key, V defaultValue)
+  {
+    if (key == 0)
+      {
+        return this.hasZero ? this.zeroValue : defaultValue;
+      } // if the key is 0
+    int index = this.find(key);
+    if (index < 0)
+      {
+        return defaultValue;
+      } // if (index < 0)
+    else
+      // if (index >= 0)
+      {
+        return this.value(index);
+      } // if (index >= 0)
+  } // getOrDefault(long, V)
+
+  /**
+   * Get the size of the dictionary - the number of values stored.
+   */
+  public int size()
+  {
+    return this.size;
+  } // size()
+
+  // +----------+--------------------------------------------------------
+  // | Mutators |
+  // +----------+
+
+  /**
+   * Clear the whole table.
+   */
+  public void clear()
+  {
+    this.keys = new long[this.capacity];
+    this.values = new Object[this.capacity];
+    this.mask = this.capacity - 1;
+    this.hasZero = false;
+    this.zeroValue = null;
+    this.size = 0;
+  } // clear()
+
+  /**
+   * Remove a key/value pair.
+   */
+  public void remove(long key)
+  {
+    if (key == 0)
+      {
+        if (this.hasZero)
+          {
+            this.hasZero = false;
+            this.zeroValue = null;
+            --this.size;
+          } // if we have the key 0
+        return;
+      } // if the key is 0
+    int index = this.find(key);
+    if (index < 0)
+      {
+        return;
+      } // if the key isn't there
+    // Shift the following entries back a slot, until we reach a gap or
+    // an entry that is already at home.
+    int next = (index + 1) & this.mask;
+    while ((this.keys[next] != 0) && (this.distance(next) > 0))
+      {
+        this.keys[index] = this.keys[next];
+        this.values[index] = this.values[next];
+        index = next;
+        next = (next + 1) & this.mask;
+      } // while
+    this.keys[index] = 0;
+    this.values[index] = null;
+    --this.size;
+  } // remove(long)
+
+  /**
+   * Set a value.
+   */
+  public void set(long key, V value)
+  {
+    if (key == 0)
+      {
+        if (!this.hasZero)
+          {
+            this.hasZero = true;
+            ++this.size;
+          } // if the key is new
+        this.zeroValue = value;
+        return;
+      } // if the key is 0
+    // If there are too many entries, expand the table, so that there is
+    // always an empty slot.
+    if ((this.size + 1) > (this.keys.length * LOAD_FACTOR))
+      {
+        expand();
+      } // if there are too many entries
+    int index = this.find(key);
+    if (index < 0)
+      {
+        ++this.size;
+        this.insert(key, value);
+      } // if (index < 0)
+    else
+      // if (index >= 0)
+      {
+        this.values[index] = value;
+      } // if (index >= 0)
+  } // set(long, V)
+
+  // +-----------+-------------------------------------------------------
+  // | Iterators |
+  // +-----------+
+
+  /**
+   * Get an iterator for the values.
+   */
+  public Iterator<V> iterator()
+  {
+    return new Iterator<V>()
+      {
+        /**
+         * The actual iterator doing all the work
+         */
+        SlotIterator slots = new SlotIterator();
+
+        public boolean hasNext()
+        {
+          return this.slots.hasNext();
+        } // hasNext()
+
+        public V next()
+          throws NoSuchElementException
+        {
+          int slot = this.slots.nextSlot();
+          return (slot < 0) ? LongObjectOpenHashTable.this.zeroValue
+                            : LongObjectOpenHashTable.this.value(slot);
+        } // next()
+
+        public void remove()
+          throws UnsupportedOperationException
+        {
+          throw new UnsupportedOperationException();
+        } // remove()
+      }; // new Iterator<V>
+  } // iterator()
+
+  /**
+   * Get a view of this table as a Dictionary with Long keys.
+   * Changes to either show up in the other.
+   */
+  public Dictionary<Long, V> asDictionary()
+  {
+    return new Dictionary<Long, V>()
+      {
+        LongObjectOpenHashTable<V> table = LongObjectOpenHashTable.this;
+
+        public V get(Long key)
+          throws Exception
+        {
+          return this.table.get(key.longValue());
+        } // get(Long)
+
+        public V getOrDefault(Long key, V defaultValue)
+        {
+          return this.table.getOrDefault(key.longValue(), defaultValue);
+        } // getOrDefault(Long, V)
+
+        public boolean containsKey(Long key)
+        {
+          return this.table.containsKey(key.longValue());
+        } // containsKey(Long)
+
+        public void dump(PrintWriter pen)
+        {
+          this.table.dump(pen);
+        } // dump(PrintWriter)
+
+        public void set(Long key, V value)
+        {
+          this.table.set(key.longValue(), value);
+        } // set(Long, V)
+
+        public void remove(Long key)
+        {
+          this.table.remove(key.longValue());
+        } // remove(Long)
+
+        public void clear()
+        {
+          this.table.clear();
+        } // clear()
+
+        public Iterator<V> iterator()
+        {
+          return this.table.iterator();
+        } // iterator()
+
+        public Iterator<Long> keysIterator()
+        {
+          return new Iterator<Long>()
+            {
+              SlotIterator slots = table.new SlotIterator();
+
+              public boolean hasNext()
+              {
+                return this.slots.hasNext();
+              } // hasNext()
+
+              public Long next()
+                throws NoSuchElementException
+              {
+                int slot = this.slots.nextSlot();
+                return (slot < 0) ? 0L : table.keys[slot];
+              } // next()
+
+              public void remove()
+                throws UnsupportedOperationException
+              {
+                throw new UnsupportedOperationException();
+              } // remove()
+            }; // new Iterator<Long>
+        } // keysIterator()
+
+        public Iterable<Long> keys()
+        {
+          return new Iterable<Long>()
+            {
+              public Iterator<Long> iterator()
+              {
+                return keysIterator();
+              } // iterator()
+            }; // new Iterable<Long>
+        } // keys()
+      }; // new Dictionary<Long, V>
+  } // asDictionary()
+
+  // +---------+---------------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Expand the size of the table.
+   */
+  @SuppressWarnings("unchecked")
+  void expand()
+  {
+    // Remember the old table.
+    long[] oldKeys = this.keys;
+    Object[] oldValues = this.values;
+
+    // Create a new table, twice as large.
+    int newSize = 2 * this.keys.length;
+    this.keys = new long[newSize];
+    this.values = new Object[newSize];
+    this.mask = newSize - 1;
+
+    // Move all the entries from the old table to their appropriate
+    // location in the new table.
+    for (int i = 0; i < oldKeys.length; i++)
+      {
+        if (oldKeys[i] != 0)
+          {
+            this.insert(oldKeys[i], (V) oldValues[i]);
+          } // if oldKeys[i] != 0
+      } // for
+  } // expand()
+
+  /**
+   * Find the distance of the entry at a given index from its home.
+   *
+   * @pre this.keys[index] != 0
+   */
+  int distance(int index)
+  {
+    return (index - this.home(this.keys[index])) & this.mask;
+  } // distance(int)
+
+  /**
+   * Find the index of the entry with a given key.  If there is no such
+   * entry, return -1.
+   *
+   * @pre key != 0
+   */
+  int find(long key)
+  {
+    // Note: Since we've ensured that there's always some free space in
+    // the table, this loop is guaranteed to terminate.
+    int index = this.home(key);
+    int dist = 0;
+    while (this.keys[index] != 0)
+      {
+        if (this.keys[index] == key)
+          {
+            return index;
+          } // if we found the key
+        if (this.distance(index) < dist)
+          {
+            // If the key were here, it would have taken this slot.
+            return -1;
+          } // if we've gone past where the key could be
+        index = (index + 1) & this.mask;
+        dist++;
+      } // while
+    return -1;
+  } // find(long)
+
+  /**
+   * Find the home of a key, the slot we try first.
+   */
+  int home(long key)
+  {
+    return OpenHashTable.mix(Long.hashCode(key) ^ this.seed) & this.mask;
+  } // home(long)
+
+  /**
+   * Put an entry in the table, using the Robin Hood rule to decide
+   * which entries move along.
+   *
+   * @pre key != 0, and key is not in the table.
+   * @pre There is at least one empty slot in the table.
+   */
+  void insert(long key, V value)
+  {
+    int index = this.home(key);
+    int dist = 0;
+    while (this.keys[index] != 0)
+      {
+        int residentDist = this.distance(index);
+        if (residentDist < dist)
+          {
+            // The resident is better off than we are, so we take its
+            // slot, and carry on placing it.
+            long residentKey = this.keys[index];
+            V residentValue = this.value(index);
+            this.keys[index] = key;
+            this.values[index] = value;
+            key = residentKey;
+            value = residentValue;
+            dist = residentDist;
+          } // if the resident is closer to home
+        index = (index + 1) & this.mask;
+        dist++;
+      } // while
+    this.keys[index] = key;
+    this.values[index] = value;
+  } // insert(long, V)
+
+  /**
+   * Get the ith value.  Included mostly so that the unchecked
+   * conversions to V are all in one place.
+   */
+  @SuppressWarnings("unchecked")
+  V value(int i)
+  {
+    return (V) values[i];
+  } // value(int)
+
+  // +---------------+---------------------------------------------------
+  // | Inner Classes |
+  // +---------------+
+
+  /**
+   * A way to step through the slots that hold entries.  The slot for
+   * the key 0, if there is one, comes first, as slot -1.
+   */
+  class SlotIterator
+  {
+    /**
+     * Current position of the iterator
+     */
+    int index = LongObjectOpenHashTable.this.hasZero ? -1 : 0;
+
+    /**
+     * Number of iterations made so far
+     */
+    int numOfIterations = 0;
+
+    /**
+     * Determine whether there are any more entries to visit
+     */
+    boolean hasNext()
+    {
+      return this.numOfIterations < LongObjectOpenHashTable.this.size;
+    } // hasNext()
+
+    /**
+     * Get the index of the next slot that holds an entry, and move on.
+     *
+     * @throw NoSuchElementException
+     *      if this.hasNext == false, there is no next element
+     */
+    int nextSlot()
+      throws NoSuchElementException
+    {
+      if (!this.hasNext())
+        throw new NoSuchElementException();
+      this.numOfIterations++;
+      if (this.index < 0)
+        return this.index++;
+      // While the current slot is empty, move
+      while (LongObjectOpenHashTable.this.keys[this.index] == 0)
+        this.index++;
+      return this.index++;
+    } // nextSlot()
+  } // class SlotIterator
+
+} // class LongObjectOpenHashTable<V>
@@ -0,0 +1,107 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Unit tests for our hash tables with long keys.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class LongObjectOpenHashTableTest
+{
+  /**
+   * Our handy dandy factory.  Letters become longs around 0 that
+   * differ only in their high bits, so that the key 0 and negative
+   * keys both come up, and the hash has to fold the halves together.
+   */
+  public DictionaryFactory<Character,String> factory =
+    new DictionaryFactory<Character,String>()
+      {
+        public Dictionary<Character, String> build(int capacity)
+        {
+          return DictionaryIteratorTests.withCharKeys(
+              new LongObjectOpenHashTable<String>(capacity).asDictionary(),
+              new Function<Character, Long>()
+                {
+                  public Long apply(Character key)
+                  {
+                    return (long) (key - 'm') << 40;
+                  } // apply(Character)
+                }, // new Function<Character, Long>
+              new Function<Long, Character>()
+                {
+                  public Character apply(Long key)
+                  {
+                    return (char) ((key >> 40) + 'm');
+                  } // apply(Long)
+                }); // new Function<Long, Character>
+        } // build(int)
+      }; // new DictionaryFactory
+
+  /**
+   * Check the Dictionary view against the tests that every dictionary
+   * passes.
+   */
+  @Test
+  public void dictionaryTest()
+    throws Exception
+  {
+    DictionaryIteratorTests.randomTest(factory);
+  } // dictionaryTest()
+
+  /**
+   * Do lots of random sets and removes, checking against a HashMap as
+   * we go.  The keys include 0, which the table treats specially, and
+   * the largest and smallest longs.
+   */
+  @Test
+  public void randomTest()
+    throws Exception
+  {
+    Random rand = new Random();
+    LongObjectOpenHashTable<Integer> table =
+        new LongObjectOpenHashTable<Integer>(4);
+    HashMap<Long, Integer> map = new HashMap<Long, Integer>();
+    long[] special = { 0, 1, -1, Long.MIN_VALUE, Long.MAX_VALUE,
+                       1L << 32, (1L << 32) + 1 };
+    for (int i = 0; i < 20000; i++)
+      {
+        long key = (rand.nextInt(10) == 0) ? special[rand.nextInt(7)]
+                                           : rand.nextInt(2000) - 1000;
+        if (rand.nextInt(3) == 0)
+          {
+            table.remove(key);
+            map.remove(key);
+          } // if we remove
+        else
+          {
+            table.set(key, i);
+            map.put(key, i);
+          } // if we set
+        assertEquals(map.size(), table.size());
+        assertEquals(map.containsKey(key), table.containsKey(key));
+        assertEquals(map.get(key), table.getOrDefault(key, null));
+      } // for
+    // Every key and value in the table should be in the map.
+    Dictionary<Long, Integer> dict = table.asDictionary();
+    int count = 0;
+    for (Long key : dict.keys())
+      {
+        assertEquals(map.get(key), dict.get(key));
+        count++;
+      } // for
+    assertEquals(map.size(), count);
+    count = 0;
+    for (Integer value : table)
+      {
+        assertTrue(map.containsValue(value));
+        count++;
+      } // for
+    assertEquals(map.size(), count);
+  } // randomTest()
+
+} // LongObjectOpenHashTableTest
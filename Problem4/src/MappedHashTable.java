@@ -0,0 +1,923 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Hash tables that live in a memory-mapped file, so that they survive
+ * from one run of a program to the next and open without being read.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class MappedHashTable<K, V>
+    implements Dictionary<K, V>, Iterable<V>, Closeable
+{
+  // +-------+-----------------------------------------------------------
+  // | Notes |
+  // +-------+
+
+  /*
+      Our other dictionaries live on the heap, so a program that needs
+      a big one has to rebuild it every time it starts.  This one lives
+      in a file that we map into memory with FileChannel.map.  Opening
+      it reads the header and nothing else.  A lookup reads the slots
+      and records it needs straight from the mapping, so the operating
+      system's page cache does our caching for us, and a table that was
+      used recently by any process is already in memory.
+
+      The file has three parts, all in big-endian ints:
+
+        header   HEADER_BYTES: MAGIC, VERSION, the number of slots, the
+                 number of entries, the end of the used part of the
+                 record area, and the number of garbage bytes in it.
+        slots    capacity slots of SLOT_BYTES: the offset of the slot's
+                 record (0 for an empty slot) and the key's hash code.
+        records  one per entry, each the key's length, the value's
+                 length (-1 for null), the key's bytes, and the value's
+                 bytes.  New records go at the end.
+
+      The slots work just like OpenHashTable's: a power-of-two number
+      of them, linear probing with the Robin Hood rule, removal by
+      shifting entries back, and expansion at LOAD_FACTOR.  Keeping
+      the hash code in the slot means a probe only reads a record when
+      the hash codes match, and expansion never decodes anything.
+
+      We don't keep the objects, just their bytes, so the codecs decide
+      what equality means: two keys are equal when their encodings are.
+      The hash code of a key is the mixed Arrays.hashCode of its bytes,
+      which is the same in every run (unlike many hashCode methods).
+
+      Records never move while the table is open.  A set that changes
+      the length of a value, or a remove, leaves the old record behind
+      as garbage.  (A set that doesn't change the length overwrites the
+      value in place.)  When the record area fills up, we either grow
+      the file, or, if at least half of the area is garbage, rebuild
+      it.  We also rebuild to double the number of slots.  A rebuild
+      writes a fresh, compact copy to a temporary file, and then
+      renames that over the old one, so the file on disk is always
+      either the old table or the new one.
+
+      Ordinary sets and removes change the mapping in place.  The
+      operating system writes the changes out when it likes; force (or
+      close) writes them out now.  A crash in the middle of a set can
+      leave the table inconsistent, so if you need durability, put a
+      log in front of it.
+
+      A MappedByteBuffer can't address more than 2 GB, so neither can
+      we.  Java 17's MemorySegment could, but it's still a preview
+      feature there.  Old mappings go away when they're collected;
+      Java gives us no way to unmap them sooner.
+
+      The Dictionary methods can't throw IOExceptions, so they wrap
+      them in UncheckedIOExceptions.  Only one table should have a file
+      open at a time.
+   */
+
+  // +-----------+-------------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The first four bytes of every table file ("MHT1").
+   */
+  static final int MAGIC = 0x4d485431;
+
+  /**
+   * The version of the file format.
+   */
+  static final int VERSION = 1;
+
+  /**
+   * The size of the header.
+   */
+  static final int HEADER_BYTES = 32;
+
+  /**
+   * The size of a slot: the record offset and the hash code.
+   */
+  static final int SLOT_BYTES = 8;
+
+  /**
+   * The size of a record before the key: the two lengths.
+   */
+  static final int RECORD_HEADER_BYTES = 8;
+
+  /**
+   * Where the header keeps the number of slots.
+   */
+  static final int CAPACITY_AT = 8;
+
+  /**
+   * Where the header keeps the number of entries.
+   */
+  static final int SIZE_AT = 12;
+
+  /**
+   * Where the header keeps the end of the used part of the records.
+   */
+  static final int END_AT = 16;
+
+  /**
+   * Where the header keeps the number of garbage bytes.
+   */
+  static final int GARBAGE_AT = 20;
+
+  /**
+   * The load factor for expanding the table.
+   */
+  static final double LOAD_FACTOR = 0.85;
+
+  /**
+   * The number of slots in a new table.
+   */
+  static final int DEFAULT_CAPACITY = 16;
+
+  /**
+   * The smallest record area we make.
+   */
+  static final int MIN_RECORD_BYTES = 4096;
+
+  // +--------+----------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The file the table lives in.
+   */
+  File file;
+
+  /**
+   * The open file.
+   */
+  FileChannel channel;
+
+  /**
+   * The whole file, mapped into memory.
+   */
+  MappedByteBuffer buffer;
+
+  /**
+   * How we turn keys into bytes and back.
+   */
+  Codec<K> keyCodec;
+
+  /**
+   * How we turn values into bytes and back.
+   */
+  Codec<V> valueCodec;
+
+  /**
+   * The number of slots.  Always a power of two.
+   */
+  int capacity;
+
+  /**
+   * capacity - 1, for picking a slot from a hash code.
+   */
+  int mask;
+
+  /**
+   * The number of entries.
+   */
+  int size;
+
+  /**
+   * The offset just past the last record.
+   */
+  int end;
+
+  /**
+   * The number of bytes in the record area that belong to records
+   * we've replaced or removed.
+   */
+  int garbage;
+
+  // +--------------+----------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Open the table in a file, or create a new, empty table if the file
+   * doesn't exist or is empty.
+   *
+   * @throws IOException
+   *   if we can't open the file, or it isn't a table
+   */
+  public MappedHashTable(File file, Codec<K> keyCodec, Codec<V> valueCodec)
+    throws IOException
+  {
+    this.file = file;
+    this.keyCodec = keyCodec;
+    this.valueCodec = valueCodec;
+    this.channel = FileChannel.open(file.toPath(),
+                                    StandardOpenOption.CREATE,
+                                    StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE);
+    try
+      {
+        if (this.channel.size() == 0)
+          this.format(DEFAULT_CAPACITY, MIN_RECORD_BYTES);
+        else
+          this.load();
+      } // try
+    catch (IOException e)
+      {
+        this.channel.close();
+        throw e;
+      } // catch (IOException)
+  } // MappedHashTable(File, Codec<K>, Codec<V>)
+
+  // +-----------+-------------------------------------------------------
+  // | Factories |
+  // +-----------+
+
+  /**
+   * Build a factory for tables in new files in a directory.  The files
+   * go away when the program exits.  The factory ignores its capacity
+   * hint.
+   */
+  public static <K, V> DictionaryFactory<K, V> factory(
+      final File directory, final Codec<K> keyCodec,
+      final Codec<V> valueCodec)
+  {
+    return new DictionaryFactory<K, V>()
+      {
+        public Dictionary<K, V> build(int capacity)
+        {
+          try
+            {
+              File file = File.createTempFile("table", ".mht", directory);
+              file.deleteOnExit();
+              return new MappedHashTable<K, V>(file, keyCodec, valueCodec);
+            } // try
+          catch (IOException e)
+            {
+              throw new UncheckedIOException(e);
+            } // catch (IOException)
+        } // build(int)
+      }; // new DictionaryFactory<K, V>
+  } // factory(File, Codec<K>, Codec<V>)
+
+  // +-----------+-------------------------------------------------------
+  // | Observers |
+  // +-----------+
+
+  /**
+   * Determine if the table contains a particular key.
+   */
+  public boolean containsKey(K key)
+  {
+    byte[] bytes = this.keyCodec.encode(key);
+    return this.find(bytes, hash(bytes)) >= 0;
+  } // containsKey(K)
+
+  /**
+   * Dump the table.
+   */
+  public void dump(PrintWriter pen)
+  {
+    pen.print("{");
+    int printed = 0; // Number of elements printed
+    for (int i = this.nextUsed(0); i >= 0; i = this.nextUsed(i + 1))
+      {
+        int offset = this.offset(i);
+        pen.print(i + ":" + this.key(offset) + ":" + this.value(offset));
+        if (++printed < this.size)
+          {
+            pen.print(", ");
+          } // if the number printed is less than the size
+      } // for each used slot
+    pen.println("}");
+  } // dump(PrintWriter)
+
+  /**
+   * Get the value for a particular key.
+   */
+  public V get(K key)
+    throws Exception
+  {
+    byte[] bytes = this.keyCodec.encode(key);
+    int index = this.find(bytes, hash(bytes));
+    if (index < 0)
+      {
+        throw new Exception("Invalid key: " + key);
+      } // if the key isn't there
+    return this.value(this.offset(index));
+  } // get(K)
+
+  /**
+   * Get the value for a particular key, or defaultValue if there is
+   * no such key.
+   */
+  public V getOrDefault(K key, V defaultValue)
+  {
+    byte[] bytes = this.keyCodec.encode(key);
+    int index = this.find(bytes, hash(bytes));
+    return (index < 0) ? defaultValue : this.value(this.offset(index));
+  } // getOrDefault(K, V)
+
+  /**
+   * Get the size of the dictionary - the number of values stored.
+   */
+  public int size()
+  {
+    return this.size;
+  } // size()
+
+  // +----------+--------------------------------------------------------
+  // | Mutators |
+  // +----------+
+
+  /**
+   * Clear the whole table, and shrink the file back to its starting
+   * size.
+   */
+  public void clear()
+  {
+    try
+      {
+        this.rebuild(DEFAULT_CAPACITY, false);
+      } // try
+    catch (IOException e)
+      {
+        throw new UncheckedIOException(e);
+      } // catch (IOException)
+  } // clear()
+
+  /**
+   * Write any changes out to the file now.
+   */
+  public void force()
+  {
+    this.buffer.force();
+  } // force()
+
+  /**
+   * Write any changes out to the file, and close it.  We can't be used
+   * after that.
+   */
+  public void close()
+    throws IOException
+  {
+    this.buffer.force();
+    this.channel.close();
+  } // close()
+
+  /**
+   * Remove a key/value pair.
+   */
+  public void remove(K key)
+  {
+    byte[] bytes = this.keyCodec.encode(key);
+    int index = this.find(bytes, hash(bytes));
+    if (index < 0)
+      {
+        return;
+      } // if the key isn't there
+    this.garbage += recordLength(this.buffer, this.offset(index));
+    // Shift the following entries back a slot, until we reach a gap or
+    // an entry that is already at home.
+    int next = (index + 1) & this.mask;
+    while ((this.offset(next) != 0) && (this.distance(next) > 0))
+      {
+        this.putSlot(index, this.offset(next), this.hash(next));
+        index = next;
+        next = (next + 1) & this.mask;
+      } // while
+    this.putSlot(index, 0, 0);
+    --this.size;
+    this.writeHeader();
+  } // remove(K)
+
+  /**
+   * Set a value.
+   *
+   * @throws IllegalStateException
+   *   if the file would have to grow past 2 GB
+   */
+  public void set(K key, V value)
+  {
+    byte[] keyBytes = this.keyCodec.encode(key);
+    byte[] valueBytes = (value == null) ? null
+                                        : this.valueCodec.encode(value);
+    int hash = hash(keyBytes);
+    int length = RECORD_HEADER_BYTES + keyBytes.length
+                 + ((valueBytes == null) ? 0 : valueBytes.length);
+    try
+      {
+        // Make room first, since a rebuild moves everything.
+        if ((this.size + 1) > (this.capacity * LOAD_FACTOR))
+          {
+            this.rebuild(2 * this.capacity, true);
+          } // if there are too many entries
+        this.reserve(length);
+      } // try
+    catch (IOException e)
+      {
+        throw new UncheckedIOException(e);
+      } // catch (IOException)
+    int index = this.find(keyBytes, hash);
+    if (index >= 0)
+      {
+        int offset = this.offset(index);
+        int oldLength = this.buffer.getInt(offset + 4);
+        if ((valueBytes != null) && (oldLength == valueBytes.length))
+          {
+            this.buffer.put(offset + RECORD_HEADER_BYTES + keyBytes.length,
+                            valueBytes);
+            return;
+          } // if the new value fits where the old one was
+        this.garbage += recordLength(this.buffer, offset);
+        this.putSlot(index, this.append(keyBytes, valueBytes), hash);
+      } // if the key is already there
+    else
+      {
+        this.insert(this.append(keyBytes, valueBytes), hash);
+        ++this.size;
+      } // if the key is new
+    this.writeHeader();
+  } // set(K, V)
+
+  // +-----------+-------------------------------------------------------
+  // | Iterators |
+  // +-----------+
+
+  /**
+   * Get an iterator for the values.
+   */
+  public Iterator<V> iterator()
+  {
+    return new Iterator<V>()
+      {
+        SlotIterator slots = new SlotIterator();
+
+        public boolean hasNext()
+        {
+          return this.slots.hasNext();
+        } // hasNext()
+
+        public V next()
+          throws NoSuchElementException
+        {
+          MappedHashTable<K, V> table = MappedHashTable.this;
+          return table.value(table.offset(this.slots.nextSlot()));
+        } // next()
+
+        public void remove()
+          throws UnsupportedOperationException
+        {
+          throw new UnsupportedOperationException();
+        } // remove()
+      }; // new Iterator<V>
+  } // iterator()
+
+  /**
+   * Get an iterator for the keys.
+   */
+  public Iterator<K> keysIterator()
+  {
+    return new Iterator<K>()
+      {
+        SlotIterator slots = new SlotIterator();
+
+        public boolean hasNext()
+        {
+          return this.slots.hasNext();
+        } // hasNext()
+
+        public K next()
+          throws NoSuchElementException
+        {
+          MappedHashTable<K, V> table = MappedHashTable.this;
+          return table.key(table.offset(this.slots.nextSlot()));
+        } // next()
+
+        public void remove()
+          throws UnsupportedOperationException
+        {
+          throw new UnsupportedOperationException();
+        } // remove()
+      }; // new Iterator<K>
+  } // keysIterator()
+
+  /**
+   * Get an Iterable for the keys.  See explanation in Dictionary.java.
+   */
+  public Iterable<K> keys()
+  {
+    return new Iterable<K>()
+      {
+        public Iterator<K> iterator()
+        {
+          return MappedHashTable.this.keysIterator();
+        } // iterator()
+      }; // new Iterable<K>
+  } // keys()
+
+  // +---------+---------------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Find the index of the slot for a key, given its bytes and hash
+   * code.  If there is no such slot, return -1.
+   */
+  int find(byte[] key, int hash)
+  {
+    // As in OpenHashTable, there's always an empty slot, so this loop
+    // terminates.
+    int index = hash & this.mask;
+    int dist = 0;
+    int offset;
+    while ((offset = this.offset(index)) != 0)
+      {
+        if ((this.hash(index) == hash) && this.matches(offset, key))
+          {
+            return index;
+          } // if we found the key
+        if (this.distance(index) < dist)
+          {
+            return -1;
+          } // if we've gone past where the key could be
+        index = (index + 1) & this.mask;
+        dist++;
+      } // while
+    return -1;
+  } // find(byte[], int)
+
+  /**
+   * Put a record in the slots, using the Robin Hood rule to decide
+   * which entries move along.
+   *
+   * @pre There is at least one empty slot.
+   */
+  void insert(int offset, int hash)
+  {
+    int index = hash & this.mask;
+    int dist = 0;
+    while (this.offset(index) != 0)
+      {
+        int residentDist = this.distance(index);
+        if (residentDist < dist)
+          {
+            int residentOffset = this.offset(index);
+            int residentHash = this.hash(index);
+            this.putSlot(index, offset, hash);
+            offset = residentOffset;
+            hash = residentHash;
+            dist = residentDist;
+          } // if the resident is closer to home
+        index = (index + 1) & this.mask;
+        dist++;
+      } // while
+    this.putSlot(index, offset, hash);
+  } // insert(int, int)
+
+  /**
+   * Write a record at the end of the record area.
+   *
+   * @pre there's room (see reserve)
+   * @return the offset of the record
+   */
+  int append(byte[] key, byte[] value)
+  {
+    int offset = this.end;
+    this.buffer.putInt(offset, key.length);
+    this.buffer.putInt(offset + 4, (value == null) ? -1 : value.length);
+    this.buffer.put(offset + RECORD_HEADER_BYTES, key);
+    int length = RECORD_HEADER_BYTES + key.length;
+    if (value != null)
+      {
+        this.buffer.put(offset + length, value);
+        length += value.length;
+      } // if there's a value
+    this.end += length;
+    return offset;
+  } // append(byte[], byte[])
+
+  /**
+   * Make sure there are at least length free bytes at the end of the
+   * record area, by compacting or growing the file.
+   */
+  void reserve(int length)
+    throws IOException
+  {
+    if ((long) this.end + length <= this.buffer.capacity())
+      {
+        return;
+      } // if there's already room
+    if (this.garbage >= (this.end - this.recordsStart()) / 2)
+      {
+        this.rebuild(this.capacity, true);
+        if ((long) this.end + length <= this.buffer.capacity())
+          {
+            return;
+          } // if that made enough room
+      } // if half the records are garbage
+    long needed = (long) this.end + length;
+    if (needed > Integer.MAX_VALUE)
+      {
+        throw new IllegalStateException("Table file full: " + this.file);
+      } // if we can't address that much
+    long size = Math.min(Math.max(2L * this.buffer.capacity(), needed),
+                         Integer.MAX_VALUE);
+    this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+  } // reserve(int)
+
+  /**
+   * Write a new table, with a given number of slots and (if copy is
+   * set) our entries, to a temporary file, and then put it in place of
+   * our file.
+   */
+  void rebuild(int capacity, boolean copy)
+    throws IOException
+  {
+    MappedByteBuffer old = this.buffer;
+    FileChannel oldChannel = this.channel;
+    int oldCapacity = this.capacity;
+    long live = copy ? (this.end - this.recordsStart() - this.garbage) : 0;
+    Path temp = new File(this.file.getPath() + ".tmp").toPath();
+    this.channel = FileChannel.open(temp,
+                                    StandardOpenOption.CREATE,
+                                    StandardOpenOption.TRUNCATE_EXISTING,
+                                    StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE);
+    this.format(capacity, Math.max(MIN_RECORD_BYTES, 2 * live));
+    for (int i = 0; copy && (i < oldCapacity); i++)
+      {
+        int offset = old.getInt(HEADER_BYTES + i * SLOT_BYTES);
+        if (offset != 0)
+          {
+            int length = recordLength(old, offset);
+            this.buffer.put(this.end, old, offset, length);
+            this.insert(this.end, old.getInt(HEADER_BYTES + i * SLOT_BYTES
+                                             + 4));
+            this.end += length;
+            ++this.size;
+          } // if the slot is used
+      } // for each old slot
+    this.writeHeader();
+    this.buffer.force();
+    Files.move(temp, this.file.toPath(),
+               StandardCopyOption.REPLACE_EXISTING,
+               StandardCopyOption.ATOMIC_MOVE);
+    oldChannel.close();
+  } // rebuild(int, boolean)
+
+  /**
+   * Map a new, empty table into the (empty) file.
+   */
+  void format(int capacity, long recordBytes)
+    throws IOException
+  {
+    long size = HEADER_BYTES + (long) capacity * SLOT_BYTES + recordBytes;
+    if (size > Integer.MAX_VALUE)
+      {
+        throw new IllegalStateException("Table file full: " + this.file);
+      } // if we can't address that much
+    this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    this.buffer.putInt(0, MAGIC);
+    this.buffer.putInt(4, VERSION);
+    this.buffer.putInt(CAPACITY_AT, capacity);
+    this.capacity = capacity;
+    this.mask = capacity - 1;
+    this.size = 0;
+    this.end = this.recordsStart();
+    this.garbage = 0;
+    this.writeHeader();
+  } // format(int, long)
+
+  /**
+   * Map an existing table and read its header.
+   *
+   * @throws IOException
+   *   if the file isn't a table, or its header doesn't fit the file
+   */
+  void load()
+    throws IOException
+  {
+    long size = this.channel.size();
+    if ((size < HEADER_BYTES) || (size > Integer.MAX_VALUE))
+      {
+        throw new IOException("Not a table file: " + this.file);
+      } // if the size is wrong
+    this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    if ((this.buffer.getInt(0) != MAGIC) || (this.buffer.getInt(4) != VERSION))
+      {
+        throw new IOException("Not a table file: " + this.file);
+      } // if the header is wrong
+    // Check the rest of the header against the file before we trust
+    // it, so that a bad file fails now rather than on some later
+    // access, and slot masking only ever sees a power of two.
+    int capacity = this.buffer.getInt(CAPACITY_AT);
+    if ((capacity <= 0) || ((capacity & (capacity - 1)) != 0)
+        || (HEADER_BYTES + (long) capacity * SLOT_BYTES > size))
+      {
+        throw new IOException("Bad capacity " + capacity + " in "
+                              + this.file);
+      } // if the capacity is wrong
+    long recordsStart = HEADER_BYTES + (long) capacity * SLOT_BYTES;
+    int count = this.buffer.getInt(SIZE_AT);
+    if ((count < 0) || (count > capacity))
+      {
+        throw new IOException("Bad size " + count + " in " + this.file);
+      } // if the size is wrong
+    int end = this.buffer.getInt(END_AT);
+    if ((end < recordsStart) || (end > size))
+      {
+        throw new IOException("Bad end " + end + " in " + this.file);
+      } // if the end is wrong
+    int garbage = this.buffer.getInt(GARBAGE_AT);
+    if ((garbage < 0) || (garbage > end - recordsStart))
+      {
+        throw new IOException("Bad garbage count " + garbage + " in "
+                              + this.file);
+      } // if the garbage count is wrong
+    this.capacity = capacity;
+    this.mask = capacity - 1;
+    this.size = count;
+    this.end = end;
+    this.garbage = garbage;
+  } // load()
+
+  /**
+   * Write the parts of the header that change.
+   */
+  void writeHeader()
+  {
+    this.buffer.putInt(SIZE_AT, this.size);
+    this.buffer.putInt(END_AT, this.end);
+    this.buffer.putInt(GARBAGE_AT, this.garbage);
+  } // writeHeader()
+
+  /**
+   * Determine whether the record at an offset has a given key.
+   */
+  boolean matches(int offset, byte[] key)
+  {
+    if (this.buffer.getInt(offset) != key.length)
+      {
+        return false;
+      } // if the lengths differ
+    int start = offset + RECORD_HEADER_BYTES;
+    for (int i = 0; i < key.length; i++)
+      {
+        if (this.buffer.get(start + i) != key[i])
+          {
+            return false;
+          } // if the bytes differ
+      } // for
+    return true;
+  } // matches(int, byte[])
+
+  /**
+   * Find the distance of the entry in a slot from its home.
+   *
+   * @pre this.offset(index) != 0
+   */
+  int distance(int index)
+  {
+    return (index - this.hash(index)) & this.mask;
+  } // distance(int)
+
+  /**
+   * Find the first used slot at or after slot i, or -1 if there isn't
+   * one.
+   */
+  int nextUsed(int i)
+  {
+    while ((i < this.capacity) && (this.offset(i) == 0))
+      i++;
+    return (i < this.capacity) ? i : -1;
+  } // nextUsed(int)
+
+  /**
+   * Get the record offset in a slot.
+   */
+  int offset(int index)
+  {
+    return this.buffer.getInt(HEADER_BYTES + index * SLOT_BYTES);
+  } // offset(int)
+
+  /**
+   * Get the hash code in a slot.
+   */
+  int hash(int index)
+  {
+    return this.buffer.getInt(HEADER_BYTES + index * SLOT_BYTES + 4);
+  } // hash(int)
+
+  /**
+   * Fill in a slot.
+   */
+  void putSlot(int index, int offset, int hash)
+  {
+    this.buffer.putInt(HEADER_BYTES + index * SLOT_BYTES, offset);
+    this.buffer.putInt(HEADER_BYTES + index * SLOT_BYTES + 4, hash);
+  } // putSlot(int, int, int)
+
+  /**
+   * Find where the record area starts.
+   */
+  int recordsStart()
+  {
+    return HEADER_BYTES + this.capacity * SLOT_BYTES;
+  } // recordsStart()
+
+  /**
+   * Decode the key of the record at an offset.
+   */
+  K key(int offset)
+  {
+    byte[] bytes = new byte[this.buffer.getInt(offset)];
+    this.buffer.get(offset + RECORD_HEADER_BYTES, bytes);
+    return this.keyCodec.decode(bytes);
+  } // key(int)
+
+  /**
+   * Decode the value of the record at an offset.
+   */
+  V value(int offset)
+  {
+    int keyLength = this.buffer.getInt(offset);
+    int valueLength = this.buffer.getInt(offset + 4);
+    if (valueLength < 0)
+      {
+        return null;
+      } // if the value is null
+    byte[] bytes = new byte[valueLength];
+    this.buffer.get(offset + RECORD_HEADER_BYTES + keyLength, bytes);
+    return this.valueCodec.decode(bytes);
+  } // value(int)
+
+  /**
+   * Find the mixed hash code of a key's bytes.
+   */
+  static int hash(byte[] key)
+  {
+    return OpenHashTable.mix(Arrays.hashCode(key));
+  } // hash(byte[])
+
+  /**
+   * Find the length of the record at an offset in a buffer.
+   */
+  static int recordLength(ByteBuffer buffer, int offset)
+  {
+    return RECORD_HEADER_BYTES + buffer.getInt(offset)
+           + Math.max(0, buffer.getInt(offset + 4));
+  } // recordLength(ByteBuffer, int)
+
+  // +---------------+---------------------------------------------------
+  // | Inner Classes |
+  // +---------------+
+
+  /**
+   * A way to step through the used slots, in order.  The iterators for
+   * keys and values use this, and pull out what they need.
+   */
+  class SlotIterator
+  {
+    /**
+     * The next used slot, or -1 if there are no more.
+     */
+    int next = MappedHashTable.this.nextUsed(0);
+
+    /**
+     * Determine whether there are any more entries to visit
+     */
+    boolean hasNext()
+    {
+      return this.next >= 0;
+    } // hasNext()
+
+    /**
+     * Get the index of the next used slot, and move on.
+     *
+     * @throw NoSuchElementException
+     *      if this.hasNext == false, there is no next element
+     */
+    int nextSlot()
+      throws NoSuchElementException
+    {
+      if (!this.hasNext())
+        throw new NoSuchElementException();
+      int result = this.next;
+      this.next = MappedHashTable.this.nextUsed(result + 1);
+      return result;
+    } // nextSlot()
+  } // class SlotIterator
+
+} // class MappedHashTable<K,V>
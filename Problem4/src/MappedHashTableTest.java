@@ -0,0 +1,205 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.file.Files;
+
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Unit tests for our memory-mapped hash table class.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class MappedHashTableTest
+{
+  /**
+   * Somewhere to put the tables.
+   */
+  File directory = createDirectory();
+
+  /**
+   * Our handy dandy factory.
+   */
+  public DictionaryFactory<Character,String> mappedFactory =
+      MappedHashTable.factory(directory, Codec.CHARACTERS, Codec.STRINGS);
+
+  /**
+   * Random tests are always a good starting point.
+   */
+  @Test
+  public void randomTest()
+    throws Exception
+  {
+    DictionaryIteratorTests.randomTest(mappedFactory);
+  } // test
+
+  /**
+   * Lots of random operations, compared with a HashMap, with values of
+   * different lengths so that sets leave garbage behind.  We close and
+   * reopen the table along the way, and it should pick up where it
+   * left off.
+   */
+  @Test
+  public void persistTest()
+    throws Exception
+  {
+    File file = new File(directory, "persist.mht");
+    Random rand = new Random();
+    HashMap<Integer, String> map = new HashMap<Integer, String>();
+    MappedHashTable<Integer, String> table =
+        new MappedHashTable<Integer, String>(file, Codec.INTEGERS,
+                                             Codec.STRINGS);
+    for (int i = 0; i < 100000; i++)
+      {
+        Integer key = rand.nextInt(20000);
+        int op = rand.nextInt(10);
+        if (op < 6)
+          {
+            String value = "v" + rand.nextInt(1 << rand.nextInt(20));
+            table.set(key, value);
+            map.put(key, value);
+          } // if it's a set
+        else if (op < 9)
+          {
+            assertEquals(map.get(key), table.getOrDefault(key, null));
+          } // if it's a lookup
+        else
+          {
+            table.remove(key);
+            map.remove(key);
+          } // if it's a remove
+        if ((i % 25000) == 0)
+          {
+            table.close();
+            table = new MappedHashTable<Integer, String>(file,
+                                                         Codec.INTEGERS,
+                                                         Codec.STRINGS);
+          } // if it's time to reopen
+      } // for
+    table.close();
+    table = new MappedHashTable<Integer, String>(file, Codec.INTEGERS,
+                                                 Codec.STRINGS);
+    assertEquals(map.size(), table.size());
+    for (Integer key : map.keySet())
+      {
+        assertEquals(map.get(key), table.get(key));
+      } // for
+    int count = 0;
+    for (Integer key : table.keys())
+      {
+        assertTrue(map.containsKey(key));
+        ++count;
+      } // for
+    assertEquals(map.size(), count);
+    // Clearing should shrink the file back down.
+    table.clear();
+    assertEquals(0, table.size());
+    assertFalse(table.containsKey(1));
+    table.set(1, null);
+    assertTrue(table.containsKey(1));
+    assertNull(table.get(1));
+    table.close();
+    assertTrue(file.length() < 10000);
+    file.delete();
+  } // persistTest()
+
+  /**
+   * We shouldn't open files that aren't tables.
+   */
+  @Test
+  public void badFileTest()
+    throws Exception
+  {
+    File file = new File(directory, "bad.mht");
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(new byte[100]);
+    out.close();
+    try
+      {
+        new MappedHashTable<Integer, String>(file, Codec.INTEGERS,
+                                             Codec.STRINGS);
+        fail("opened a file that isn't a table");
+      } // try
+    catch (IOException e)
+      {
+        // That's what we want.
+      } // catch (IOException)
+    file.delete();
+  } // badFileTest()
+
+  /**
+   * A table whose header doesn't fit its file shouldn't open.
+   */
+  @Test
+  public void badHeaderTest()
+    throws Exception
+  {
+    File file = new File(directory, "header.mht");
+    MappedHashTable<Integer, String> table =
+        new MappedHashTable<Integer, String>(file, Codec.INTEGERS,
+                                             Codec.STRINGS);
+    table.set(1, "one");
+    table.close();
+    int[][] bad = { { MappedHashTable.CAPACITY_AT, 12 },
+                    { MappedHashTable.CAPACITY_AT, 1 << 28 },
+                    { MappedHashTable.CAPACITY_AT, -16 },
+                    { MappedHashTable.SIZE_AT, -1 },
+                    { MappedHashTable.END_AT, 8 },
+                    { MappedHashTable.END_AT, Integer.MAX_VALUE },
+                    { MappedHashTable.GARBAGE_AT, Integer.MAX_VALUE } };
+    for (int[] field : bad)
+      {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(field[0]);
+        int old = raf.readInt();
+        raf.seek(field[0]);
+        raf.writeInt(field[1]);
+        raf.close();
+        try
+          {
+            new MappedHashTable<Integer, String>(file, Codec.INTEGERS,
+                                                 Codec.STRINGS);
+            fail("opened a table with " + field[1] + " at " + field[0]);
+          } // try
+        catch (IOException e)
+          {
+            // That's what we want.
+          } // catch (IOException)
+        raf = new RandomAccessFile(file, "rw");
+        raf.seek(field[0]);
+        raf.writeInt(old);
+        raf.close();
+      } // for
+    // Put back together, it should open again.
+    table = new MappedHashTable<Integer, String>(file, Codec.INTEGERS,
+                                                 Codec.STRINGS);
+    assertEquals("one", table.get(1));
+    table.close();
+    file.delete();
+  } // badHeaderTest()
+
+  /**
+   * Make a temporary directory for the tables.
+   */
+  static File createDirectory()
+  {
+    try
+      {
+        File directory = Files.createTempDirectory("mapped").toFile();
+        directory.deleteOnExit();
+        return directory;
+      } // try
+    catch (IOException e)
+      {
+        throw new RuntimeException(e);
+      } // catch (IOException)
+  } // createDirectory()
+
+} // MappedHashTableTest
@@ -1,8 +1,10 @@
+import java.io.IOException;
 import java.io.PrintWriter;
 
+import java.nio.channels.ReadableByteChannel;
+
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.Random;
 
 /**
  * A simple implementation of hash tables using open addressing (aka
@@ -27,16 +29,58 @@ public class OpenHashTable<K, V>
       (such as find and expand), removing the reporting code, adding
       a constructor that takes an initial capacity, and more.
 
-      We use linear probing to handle collisions.  
-
-      We expand the hash table when the load factor is greater than
-      LOAD_FACTOR (see constants below).
-
-      Since some combinations of data and hash function may lead to
-      a situation in which we get a surprising relationship between values
-      (e.g., all the hash values are 0 mod 32), when expanding the hash
-      table, we incorporate a random number.  (Is this likely to make a
-      big difference?  Who knows.  But it's likely to be fun.)
+      We store the table as parallel arrays of keys, values, and hash
+      codes, rather than as an array of key/value pair objects.  Each
+      entry then costs three array slots instead of a slot plus a
+      separate object, and a probe reads the hash code straight out of
+      an int[] without following any references.  We only look at the
+      key itself when the hash codes match.  A slot is empty when its
+      key is null.
+
+      We use linear probing with the Robin Hood rule to handle
+      collisions.  Each entry has a probe distance: how far it sits from
+      the slot its hash code picks (its home).  When we insert and find
+      an entry that is closer to its home than the one we're placing,
+      the new entry takes the slot and we carry on placing the old one.  That
+      keeps probe distances nearly equal, so even at LOAD_FACTOR = 0.85
+      the longest probe sequences stay short.  It also means a search
+      can stop as soon as it reaches a pair that is closer to its home
+      than the key would be, since the key would have displaced it.
+
+      To remove, we don't leave a tombstone.  We shift the entries that
+      follow the removed one back by one slot until we reach an empty
+      slot or an entry that is already at its home.  The table is then
+      exactly as if the removed entry had never been inserted.  (The
+      probe step must be 1 for that to work.)
+
+      Because we keep each key's (mixed) hash code, we can compute probe
+      distances, skip most calls to equals, and expand the table without
+      ever calling hashCode again.
+
+      Linear probing at a high load factor needs hash codes that are
+      spread over the table.  Many of the hash codes we see are not:
+      Integer and Character keys hash to themselves, so a dense range
+      of keys fills a solid block of slots, and everything that
+      collides near that block has to probe past all of it.  (With
+      plain hashCode() % length, inserting 200,000 shuffled Integers
+      could take 40 microseconds per set.)  So we scramble the hash
+      code with mix before choosing a home.  mix is a bijection, so
+      keys with equal mixed hash codes have equal hash codes.
+
+      Because mix spreads the hash codes over all 32 bits, the low bits
+      are as good as any, so the table size is always a power of two
+      and the home of a hash code is just its low bits (hash & mask).
+      That saves a division on every lookup and every probe step.
+
+      We expand the hash table, by doubling it, when the load factor is
+      greater than LOAD_FACTOR (see constants below).  Earlier versions
+      added a random amount to the new size, to avoid surprising
+      relationships between the hash codes and the size (e.g., all the
+      hash values are 0 mod 32).  mix takes care of that now, so growth
+      is deterministic.  If you'd rather that nobody can predict where
+      keys go, pass a seed to the constructor.  We fold it into every
+      hash code before mixing.  A table with seed 0 (the default) puts
+      keys in the same places every time.
    */
 
   // +-----------+-------------------------------------------------------
@@ -46,13 +90,7 @@ public class OpenHashTable<K, V>
   /**
    * The load factor for expanding the table.
    */
-  static final double LOAD_FACTOR = 0.5;
-
-  /**
-   * The offset to use in linear probes.  (We choose a prime because
-   * that helps ensure that we cover all of the spaces.)
-   */
-  static final int PROBE_OFFSET = 17;
+  static final double LOAD_FACTOR = 0.85;
 
   /**
    * The default initial capacity of the hash table.  
@@ -75,18 +113,32 @@ public class OpenHashTable<K, V>
   int capacity = 0;
 
   /**
-   * The array that we use to store the key/value pairs.  (We
-   * use an array, rather than a vector, because we want to
-   * control expansion.  We store objects, rather than KVPairs,
-   * because of the wonder of Java generics.)
+   * The keys, with null for an empty slot.  (We use arrays, rather
+   * than vectors, because we want to control expansion.  We store
+   * objects, rather than Ks and Vs, because of the wonder of Java
+   * generics.)
+   */
+  Object[] keys;
+
+  /**
+   * The values.  values[i] goes with keys[i].
    */
-  Object[] pairs;
+  Object[] values;
 
   /**
-   * Our helpful random number generator, used primarily when 
-   * expanding the size of the table..
+   * The mixed hash codes of the keys.  hashes[i] goes with keys[i].
    */
-  Random rand;
+  int[] hashes;
+
+  /**
+   * One less than the size of the table, which is a power of two.
+   */
+  int mask;
+
+  /**
+   * The seed we fold into each hash code.
+   */
+  int seed;
 
   // +--------------+----------------------------------------------------
   // | Constructors |
@@ -105,11 +157,63 @@ public class OpenHashTable<K, V>
    */
   public OpenHashTable(int capacity)
   {
-    this.rand = new Random();
-    this.capacity = capacity;
-    this.clear();
+    this(capacity, 0);
   } // OpenHashTable(int)
 
+  /**
+   * Create a new hash table with a specified initial capacity, which
+   * we round up to a power of two, and a seed for the hash codes.
+   */
+  public OpenHashTable(int capacity, int seed)
+  {
+    this.capacity = powerOfTwo(capacity);
+    this.seed = seed;
+    this.clear();
+  } // OpenHashTable(int, int)
+
+  // +-----------+-------------------------------------------------------
+  // | Factories |
+  // +-----------+
+
+  /**
+   * Load a table from a snapshot (see Snapshot.java).  We know how
+   * many entries there are before we start, so we allocate the arrays
+   * once, and we know the keys are distinct, so we place each entry
+   * without looking for its key first.
+   *
+   * @throws IOException
+   *   if we can't read the channel or it doesn't hold a snapshot
+   */
+  public static <K, V> OpenHashTable<K, V> fromSnapshot(
+      ReadableByteChannel in, Codec<K> keyCodec, Codec<V> valueCodec)
+    throws IOException
+  {
+    Snapshot.Reader<K, V> reader =
+        new Snapshot.Reader<K, V>(in, keyCodec, valueCodec);
+    // Leave room for one more entry, as set does.
+    long capacity = (long) ((reader.count() + 1) / LOAD_FACTOR) + 1;
+    if (capacity > (1 << 30))
+      {
+        throw new IOException("Too many entries: " + reader.count());
+      } // if the table would be too big
+    OpenHashTable<K, V> table = new OpenHashTable<K, V>((int) capacity);
+    while (reader.next())
+      {
+        K key = reader.key();
+        int hash = table.hash(key);
+        // A miss in a Robin Hood table stops early, so this check is
+        // cheap, and it keeps a bad snapshot from making two slots for
+        // one key.
+        if (table.find(key, hash) >= 0)
+          {
+            throw new IOException("corrupt snapshot: duplicate key " + key);
+          } // if we've seen the key already
+        table.insert(key, reader.value(), hash);
+        ++table.size;
+      } // while
+    return table;
+  } // fromSnapshot(ReadableByteChannel, Codec<K>, Codec<V>)
+
   // +-----------+-------------------------------------------------------
   // | Observers |
   // +-----------+
@@ -119,7 +223,7 @@ public class OpenHashTable<K, V>
    */
   public boolean containsKey(K key)
   {
-    return (pairs[this.find(key)] != null);
+    return (this.find(key) >= 0);
   } // containsKey(K)
 
   /**
@@ -129,13 +233,12 @@ public class OpenHashTable<K, V>
   {
     pen.print("{");
     int printed = 0; // Number of elements printed
-    for (int i = 0; i < this.pairs.length; i++)
+    for (int i = 0; i < this.keys.length; i++)
       {
-        KVPair pair = this.get(i);
-        if (pair != null)
+        if (this.keys[i] != null)
           {
-            pen.print(i + ":" + pair.key + "(" + pair.key.hashCode() + "):"
-                      + pair.value);
+            pen.print(i + ":" + this.keys[i] + "(" + this.keys[i].hashCode()
+                      + "):" + this.values[i]);
             if (++printed < this.size)
               {
                 pen.print(", ");
@@ -152,18 +255,35 @@ public class OpenHashTable<K, V>
     throws Exception
   {
     int index = this.find(key);
-    KVPair pair = this.get(index);
-    if (pair == null)
+    if (index < 0)
       {
         throw new Exception("Invalid key: " + key);
-      } // if (pair == null)
+      } // if (index < 0)
     else
-      // if (pair != null)
+      // if (index >= 0)
       {
-        return pair.value;
-      } // if (pair != null)
+        return this.value(index);
+      } // if (index >= 0)
   } // get(K)
 
+  /**
+   * Get the value for a particular key, or defaultValue if there is
+   * no such key.
+   */
+  public V getOrDefault(K key, V defaultValue)
+  {
+    int index = this.find(key);
+    if (index < 0)
+      {
+        return defaultValue;
+      } // if (index < 0)
+    else
+      // if (index >= 0)
+      {
+        return this.value(index);
+      } // if (index >= 0)
+  } // getOrDefault(K, V)
+
   /**
    * Get the size of the dictionary - the number of values stored.
    */
@@ -181,7 +301,10 @@ public class OpenHashTable<K, V>
    */
   public void clear()
   {
-    this.pairs = new Object[this.capacity];
+    this.keys = new Object[this.capacity];
+    this.values = new Object[this.capacity];
+    this.hashes = new int[this.capacity];
+    this.mask = this.capacity - 1;
     this.size = 0;
   } // clear()
 
@@ -190,7 +313,25 @@ public class OpenHashTable<K, V>
    */
   public void remove(K key)
   {
-    // STUB
+    int index = this.find(key);
+    if (index < 0)
+      {
+        return;
+      } // if the key isn't there
+    // Shift the following entries back a slot, until we reach a gap or
+    // an entry that is already at home.
+    int next = (index + 1) & this.mask;
+    while ((this.keys[next] != null) && (this.distance(next) > 0))
+      {
+        this.keys[index] = this.keys[next];
+        this.values[index] = this.values[next];
+        this.hashes[index] = this.hashes[next];
+        index = next;
+        next = (next + 1) & this.mask;
+      } // while
+    this.keys[index] = null;
+    this.values[index] = null;
+    --this.size;
   } // remove(K)
 
   /**
@@ -198,23 +339,27 @@ public class OpenHashTable<K, V>
    */
   public void set(K key, V value)
   {
-    // If there are too many entries, expand the table.
-    if (this.size > (this.pairs.length * LOAD_FACTOR))
+    // If there are too many entries, expand the table.  We check the
+    // size we might have after adding the entry, so that there is
+    // always an empty slot.
+    if ((this.size + 1) > (this.keys.length * LOAD_FACTOR))
       {
         expand();
       } // if there are too many entries
-    // Find out where the key belongs and put the pair there.
-    int index = this.find(key);
-    if (this.pairs[index] == null)
+    // If the key is already there, replace its value.  Otherwise,
+    // add a new entry.
+    int hash = this.hash(key);
+    int index = this.find(key, hash);
+    if (index < 0)
       {
         ++this.size;
-        this.pairs[index] = new KVPair(key, value);
-      } // if (this.pairs[index] == null)
+        this.insert(key, value, hash);
+      } // if (index < 0)
     else
-      // if (this.pairs[index] != null)
+      // if (index >= 0)
       {
-        this.get(index).value = value;
-      } // if (this.pairs[index] != null)
+        this.values[index] = value;
+      } // if (index >= 0)
   } // set(K,V)
 
   // +-----------+-------------------------------------------------------
@@ -234,7 +379,7 @@ public class OpenHashTable<K, V>
         /**
          * The actual iterator doing all the work
          */
-        Iterator<KVPair> pairsIt = OpenHashTable.this.pairsIterator();
+        SlotIterator slots = new SlotIterator();
 
         // +---------+----------------------------------------------------------
         // | Methods |
@@ -250,7 +395,7 @@ public class OpenHashTable<K, V>
          */
         public boolean hasNext()
         {
-          return this.pairsIt.hasNext();
+          return this.slots.hasNext();
         } // hasNext()
 
         /**
@@ -265,7 +410,7 @@ public class OpenHashTable<K, V>
         public V next()
           throws NoSuchElementException
         {
-          return this.pairsIt.next().value;
+          return OpenHashTable.this.value(this.slots.nextSlot());
         } // next()
 
         /**
@@ -292,7 +437,7 @@ public class OpenHashTable<K, V>
         /**
          * The actual iterator doing all the work
          */
-        Iterator<KVPair> pairsIt = OpenHashTable.this.pairsIterator();
+        SlotIterator slots = new SlotIterator();
 
         // +---------+----------------------------------------------------------
         // | Methods |
@@ -308,7 +453,7 @@ public class OpenHashTable<K, V>
          */
         public boolean hasNext()
         {
-          return this.pairsIt.hasNext();
+          return this.slots.hasNext();
         } // hasNext()
 
         /**
@@ -323,7 +468,7 @@ public class OpenHashTable<K, V>
         public K next()
           throws NoSuchElementException
         {
-          return this.pairsIt.next().key;
+          return OpenHashTable.this.key(this.slots.nextSlot());
         } // next()
 
         /**
@@ -337,79 +482,6 @@ public class OpenHashTable<K, V>
       }; // new Iterator<K>
   } // keysIterator()
 
-  /**
-   * Get an iterator for the KVpairs
-   */
-  public Iterator<KVPair> pairsIterator()
-  {
-    return new Iterator<KVPair>()
-      {
-        // +--------+----------------------------------------------------------
-        // | Fields |
-        // +--------+
-        /**
-         * Current position of the iterator
-         */
-        int index = 0;
-
-        /**
-         * Number of iterations made so far
-         */
-        int numOfIterations = 0;
-
-        // +---------+----------------------------------------------------------
-        // | Methods |
-        // +---------+   
-        /**
-         * Determine whether there are any more elements to iterate
-         * 
-         * @pre none
-         * @post this doesn't change its position
-         * @return true if there are elements that weren't iterated yet
-         * @return false otherwise
-         */
-        public boolean hasNext()
-        {
-          return numOfIterations < size;
-        }// hasNext()
-
-        /**
-         * Return the next pair in the table and move the iterator
-         * 
-         * @pre 0 <= this.index <= OpenHashTable.this.capacity
-         * @post this.index++
-         * @return the next pair
-         * @throw NoSuchElementException
-         *      if this.hasNext == false, there is no next element 
-         */
-        public KVPair next()
-          throws NoSuchElementException
-        {
-          if (this.hasNext())
-            {
-              KVPair pair;
-              // While the current element in the array is empty, move
-              while ((pair = (KVPair) OpenHashTable.this.pairs[index++]) == null)
-                ;
-              // Completed an iteration, increment counter
-              this.numOfIterations++;
-              return pair;
-            }// if there is a next element
-          else
-            throw new NoSuchElementException();
-        } // next()
-
-        /**
-         * Remove method is not supported
-         */
-        public void remove()
-          throws UnsupportedOperationException
-        {
-          throw new UnsupportedOperationException();
-        } // remove()
-      };// new Iterator<KVPair>()
-  }//pairsIterator()
-
   /**
    * Get an Iterable for the keys.  See explanation in Dictionary.java.
    */
@@ -435,84 +507,230 @@ public class OpenHashTable<K, V>
   void expand()
   {
     // Remember the old table.
-    Object[] old = this.pairs;
+    Object[] oldKeys = this.keys;
+    Object[] oldValues = this.values;
+    int[] oldHashes = this.hashes;
 
-    // Figure out the size of the new table, making it somewhat
-    // unpredictable and relatively prime to the probe offset..
-    int newSize = 2 * this.pairs.length + rand.nextInt(10);
-    if ((newSize % PROBE_OFFSET) == 0)
-      newSize += 1;
+    // The new table is twice as large, so its size is still a power of
+    // two.
+    int newSize = 2 * this.keys.length;
 
     // Create a new table of that size.
-    this.pairs = new Object[newSize];
+    this.keys = new Object[newSize];
+    this.values = new Object[newSize];
+    this.hashes = new int[newSize];
+    this.mask = newSize - 1;
 
-    // Move all the values from the old table to their appropriate
+    // Move all the entries from the old table to their appropriate
     // location in the new table.
-    for (int i = 0; i < old.length; i++)
+    for (int i = 0; i < oldKeys.length; i++)
       {
-        KVPair pair;
-        if ((pair = (KVPair) old[i]) != null)
+        if (oldKeys[i] != null)
           {
-            // We add directly, rather than calling set, because
-            // we don't want to build new pairs.
-            this.pairs[this.find(pair.key)] = pair;
-          } // if old[i] != null
+            // We insert directly, rather than calling set, because
+            // we don't want to look for the keys or rehash them.
+            this.insert((K) oldKeys[i], (V) oldValues[i], oldHashes[i]);
+          } // if oldKeys[i] != null
       } // for
   } // expand()
 
+  /**
+   * Find the distance of the entry at a given index from its home.
+   *
+   * @pre this.keys[index] != null
+   */
+  int distance(int index)
+  {
+    return (index - this.home(this.hashes[index])) & this.mask;
+  } // distance(int)
+
   /**
    * Find the index of the entry with a given key.  If there is no such
-   * entry, return the index of an entry we can use to store that key.
+   * entry, return -1.
    */
   int find(K key)
   {
-    // Note: Since we've ensured that the size of the hash table is
-    // relatively prime to the linear probe, and we've ensured that
-    // there's always some free space in the table, this loop is
-    // guaranteed to terminate.
-
-    int index = Math.abs(key.hashCode() % this.pairs.length);
-    ;
-    while ((pairs[index] != null) && (!key.equals(this.get(index).key)))
+    return this.find(key, this.hash(key));
+  } // find(K)
+
+  /**
+   * Find the index of the entry with a given key and mixed hash code.
+   * If there is no such entry, return -1.
+   */
+  int find(K key, int hash)
+  {
+    // Note: Since we've ensured that there's always some free space in
+    // the table, this loop is guaranteed to terminate.
+    int index = this.home(hash);
+    int dist = 0;
+    while (this.keys[index] != null)
+      {
+        if ((this.hashes[index] == hash) && key.equals(this.keys[index]))
+          {
+            return index;
+          } // if we found the key
+        if (this.distance(index) < dist)
+          {
+            // If the key were here, it would have taken this slot.
+            return -1;
+          } // if we've gone past where the key could be
+        index = (index + 1) & this.mask;
+        dist++;
+      } // while
+    return -1;
+  } // find(K, int)
+
+  /**
+   * Find the home of a mixed hash code, the slot we try first.
+   */
+  int home(int hash)
+  {
+    return hash & this.mask;
+  } // home(int)
+
+  /**
+   * Find the mixed hash code of a key.
+   */
+  int hash(K key)
+  {
+    return mix(key.hashCode() ^ this.seed);
+  } // hash(K)
+
+  /**
+   * Scramble the bits of a hash code, so that nearby hash codes end up
+   * far apart.  This is the finalizer from MurmurHash3.
+   */
+  static int mix(int hash)
+  {
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return hash;
+  } // mix(int)
+
+  /**
+   * Find the smallest power of two that is at least n (and at least 1).
+   *
+   * @throws IllegalArgumentException
+   *   if n is bigger than the biggest int power of two, 2^30
+   */
+  static int powerOfTwo(int n)
+  {
+    if (n > (1 << 30))
+      {
+        throw new IllegalArgumentException("No power of two holds " + n);
+      } // if the loop would overflow
+    int result = 1;
+    while (result < n)
+      result *= 2;
+    return result;
+  } // powerOfTwo(int)
+
+  /**
+   * Put an entry in the table, using the Robin Hood rule to decide
+   * which entries move along.
+   *
+   * @pre key is not in the table.
+   * @pre hash is this.hash(key).
+   * @pre There is at least one empty slot in the table.
+   */
+  void insert(K key, V value, int hash)
+  {
+    int index = this.home(hash);
+    int dist = 0;
+    while (this.keys[index] != null)
       {
-        index = (index + PROBE_OFFSET) % this.pairs.length;
+        int residentDist = this.distance(index);
+        if (residentDist < dist)
+          {
+            // The resident is better off than we are, so we take its
+            // slot, and carry on placing it.
+            K residentKey = this.key(index);
+            V residentValue = this.value(index);
+            int residentHash = this.hashes[index];
+            this.keys[index] = key;
+            this.values[index] = value;
+            this.hashes[index] = hash;
+            key = residentKey;
+            value = residentValue;
+            hash = residentHash;
+            dist = residentDist;
+          } // if the resident is closer to home
+        index = (index + 1) & this.mask;
+        dist++;
       } // while
-    return index;
-  } // find(K)
+    this.keys[index] = key;
+    this.values[index] = value;
+    this.hashes[index] = hash;
+  } // insert(K, V, int)
 
   /**
-   * Get the ith element of the table.  Included mostly so that the
-   * unchecked conversions to KVPairs is all in one place.
+   * Get the ith key.  Included mostly so that the unchecked conversions
+   * to K are all in one place.
    */
   @SuppressWarnings("unchecked")
-  KVPair get(int i)
+  K key(int i)
   {
-    return (KVPair) pairs[i];
-  } // get (int)
+    return (K) keys[i];
+  } // key(int)
+
+  /**
+   * Get the ith value.
+   */
+  @SuppressWarnings("unchecked")
+  V value(int i)
+  {
+    return (V) values[i];
+  } // value(int)
 
   // +---------------+---------------------------------------------------
   // | Inner Classes |
   // +---------------+
 
   /**
-   * An easy way to hold a key/value pair.
+   * A way to step through the slots that hold entries.  The iterators
+   * for keys and values use this, and pull out what they need.
    */
-  class KVPair
+  class SlotIterator
   {
-    K key;
-    V value;
-
-    KVPair(K key, V value)
+    /**
+     * Current position of the iterator
+     */
+    int index = 0;
+
+    /**
+     * Number of iterations made so far
+     */
+    int numOfIterations = 0;
+
+    /**
+     * Determine whether there are any more entries to visit
+     */
+    boolean hasNext()
     {
-      this.key = key;
-      this.value = value;
-    } // KVPair(K,V)
-
-    public String toString()
+      return this.numOfIterations < OpenHashTable.this.size;
+    } // hasNext()
+
+    /**
+     * Get the index of the next slot that holds an entry, and move on.
+     *
+     * @throw NoSuchElementException
+     *      if this.hasNext == false, there is no next element
+     */
+    int nextSlot()
+      throws NoSuchElementException
     {
-      return "KVPair(" + key + "," + value + ")";
-    } // toString()
-  } // class KVPair
+      if (!this.hasNext())
+        throw new NoSuchElementException();
+      // While the current slot is empty, move
+      while (OpenHashTable.this.keys[this.index] == null)
+        this.index++;
+      // Completed an iteration, increment counter
+      this.numOfIterations++;
+      return this.index++;
+    } // nextSlot()
+  } // class SlotIterator
 
 } // class OpenHashTable<K,V>
-
@@ -2,6 +2,11 @@ import static org.junit.Assert.*;
 
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+
 /**
  * Unit tests for our open hash table class.
  *
@@ -31,4 +36,98 @@ public class OpenHashTableTest
     DictionaryIteratorTests.randomTest(ohtFactory);
   } // test
 
+  /**
+   * Remove keys in random order, making sure that the others stay
+   * findable.  Backward shifting moves entries around, so a bad shift
+   * shows up as a key that goes missing.
+   */
+  @Test
+  public void removeTest()
+    throws Exception
+  {
+    final int n = 300;
+    Random rand = new Random();
+    OpenHashTable<Integer, Integer> table =
+        new OpenHashTable<Integer, Integer>(4);
+    Integer[] keys = new Integer[n];
+    for (int i = 0; i < n; i++)
+      {
+        // Spread the keys out a bit, but not so much that they don't
+        // collide.
+        keys[i] = rand.nextInt(10 * n);
+        table.set(keys[i], i);
+      } // for
+    Collections.shuffle(Arrays.asList(keys), rand);
+    HashSet<Integer> remaining = new HashSet<Integer>(Arrays.asList(keys));
+    for (Integer key : keys)
+      {
+        table.remove(key);
+        remaining.remove(key);
+        assertFalse(table.containsKey(key));
+        assertEquals(remaining.size(), table.size());
+        for (Integer other : remaining)
+          {
+            assertTrue("lost " + other + " after removing " + key,
+                       table.containsKey(other));
+          } // for each remaining key
+      } // for each key
+    // Without tombstones, the table should be completely empty.
+    for (int i = 0; i < table.keys.length; i++)
+      {
+        assertTrue(table.keys[i] == null);
+        assertTrue(table.values[i] == null);
+      } // for each slot
+  } // removeTest()
+
+  /**
+   * Make sure that tables stay a power of two in size, and that tables
+   * with the same seed lay out their keys the same way.
+   */
+  @Test
+  public void layoutTest()
+    throws Exception
+  {
+    OpenHashTable<Integer, Integer> a = new OpenHashTable<Integer, Integer>(41);
+    OpenHashTable<Integer, Integer> b = new OpenHashTable<Integer, Integer>(41);
+    OpenHashTable<Integer, Integer> c =
+        new OpenHashTable<Integer, Integer>(41, 12345);
+    assertEquals(64, a.keys.length);
+    for (int i = 0; i < 1000; i++)
+      {
+        // Include the keys whose hash codes are the extremes.
+        Integer key = (i == 0) ? Integer.MIN_VALUE
+                               : (i == 1) ? Integer.MAX_VALUE : i * 37;
+        a.set(key, i);
+        b.set(key, i);
+        c.set(key, i);
+        assertEquals(0, a.keys.length & (a.keys.length - 1));
+      } // for
+    assertTrue(Arrays.equals(a.keys, b.keys));
+    assertFalse(Arrays.equals(a.keys, c.keys));
+    assertEquals(Integer.valueOf(0), a.get(Integer.MIN_VALUE));
+    assertEquals(Integer.valueOf(1), c.get(Integer.MAX_VALUE));
+    assertEquals(Integer.valueOf(999), c.get(999 * 37));
+  } // layoutTest()
+
+  /**
+   * Capacities round up to powers of two, and ones too big to round
+   * up shouldn't wrap around.
+   */
+  @Test
+  public void powerOfTwoTest()
+  {
+    assertEquals(1, OpenHashTable.powerOfTwo(0));
+    assertEquals(16, OpenHashTable.powerOfTwo(9));
+    assertEquals(1 << 30, OpenHashTable.powerOfTwo(1 << 30));
+    try
+      {
+        OpenHashTable.powerOfTwo((1 << 30) + 1);
+        fail("rounded up past 2^30");
+      } // try
+    catch (IllegalArgumentException e)
+      {
+        // That's what we want.
+      } // catch (IllegalArgumentException)
+  } // powerOfTwoTest()
+
 } // OpenHashTableTest
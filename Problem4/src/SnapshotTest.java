@@ -0,0 +1,334 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Unit tests for snapshots and the hash tables that load them.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class SnapshotTest
+{
+  /**
+   * Snapshots of a table should load into each kind of table with the
+   * same entries, including null values.
+   */
+  @Test
+  public void roundTripTest()
+    throws Exception
+  {
+    Random rand = new Random();
+    HashMap<Integer, String> map = new HashMap<Integer, String>();
+    OpenHashTable<Integer, String> table =
+        new OpenHashTable<Integer, String>();
+    for (int i = 0; i < 100000; i++)
+      {
+        Integer key = rand.nextInt();
+        String value = (i % 100 == 0) ? null : ("v" + rand.nextInt());
+        table.set(key, value);
+        map.put(key, value);
+      } // for
+    byte[] bytes = write(table);
+
+    OpenHashTable<Integer, String> open =
+        OpenHashTable.fromSnapshot(channel(bytes), Codec.INTEGERS,
+                                   Codec.STRINGS);
+    checkContents(map, open);
+    assertEquals(map.size(), open.size());
+    // The table should be big enough already, and still work.
+    assertEquals(table.keys.length, open.keys.length);
+    open.set(-1, "new");
+    open.remove(-1);
+    checkContents(map, open);
+
+    ChainedHashTable<Integer, String> chained =
+        ChainedHashTable.fromSnapshot(channel(bytes), Codec.INTEGERS,
+                                      Codec.STRINGS);
+    checkContents(map, chained);
+    assertEquals(map.size(), chained.size());
+
+    // Any dictionary can read a snapshot with set.
+    OpenHashTable<Integer, String> small =
+        new OpenHashTable<Integer, String>();
+    assertEquals(map.size(),
+                 Snapshot.read(small, channel(write(chained)),
+                               Codec.INTEGERS, Codec.STRINGS));
+    checkContents(map, small);
+  } // roundTripTest()
+
+  /**
+   * Snapshots of caches shouldn't count as uses.  A get would move
+   * each entry to the back of the recency order while we walk it, and
+   * bump the hit counts.
+   */
+  @Test
+  public void cacheTest()
+    throws Exception
+  {
+    LRUCache<Integer, String> lru = new LRUCache<Integer, String>(1000);
+    WTinyLFUCache<Integer, String> tiny =
+        new WTinyLFUCache<Integer, String>(1000);
+    HashMap<Integer, String> map = new HashMap<Integer, String>();
+    for (int i = 0; i < 1000; i++)
+      {
+        lru.set(i, "v" + i);
+        tiny.set(i, "v" + i);
+        map.put(i, "v" + i);
+      } // for
+    for (int i = 0; i < 1000; i += 3)
+      {
+        lru.get(i);
+        tiny.get(i);
+      } // for
+
+    ArrayList<Integer> order = keyList(lru);
+    long hits = lru.hits();
+    checkContents(map, OpenHashTable.fromSnapshot(channel(write(lru)),
+                                                  Codec.INTEGERS,
+                                                  Codec.STRINGS));
+    assertEquals(order, keyList(lru));
+    assertEquals(hits, lru.hits());
+
+    order = keyList(tiny);
+    hits = tiny.hits();
+    checkContents(map, OpenHashTable.fromSnapshot(channel(write(tiny)),
+                                                  Codec.INTEGERS,
+                                                  Codec.STRINGS));
+    assertEquals(order, keyList(tiny));
+    assertEquals(hits, tiny.hits());
+  } // cacheTest()
+
+  /**
+   * Empty dictionaries and entries bigger than the buffer should both
+   * survive the trip.
+   */
+  @Test
+  public void edgeTest()
+    throws Exception
+  {
+    OpenHashTable<Integer, String> table =
+        new OpenHashTable<Integer, String>();
+    table = OpenHashTable.fromSnapshot(channel(write(table)),
+                                       Codec.INTEGERS, Codec.STRINGS);
+    assertEquals(0, table.size());
+    char[] chars = new char[3 * Snapshot.BUFFER_BYTES];
+    Arrays.fill(chars, 'x');
+    String big = new String(chars);
+    table.set(1, "one");
+    table.set(2, big);
+    table.set(3, "three");
+    table = OpenHashTable.fromSnapshot(channel(write(table)),
+                                       Codec.INTEGERS, Codec.STRINGS);
+    assertEquals(3, table.size());
+    assertEquals("one", table.get(1));
+    assertEquals(big, table.get(2));
+    assertEquals("three", table.get(3));
+  } // edgeTest()
+
+  /**
+   * Truncated snapshots and things that aren't snapshots should fail.
+   */
+  @Test
+  public void badSnapshotTest()
+    throws Exception
+  {
+    OpenHashTable<Integer, String> table =
+        new OpenHashTable<Integer, String>();
+    for (int i = 0; i < 100; i++)
+      {
+        table.set(i, "v" + i);
+      } // for
+    byte[] bytes = write(table);
+    try
+      {
+        OpenHashTable.fromSnapshot(channel(Arrays.copyOf(bytes,
+                                                         bytes.length - 1)),
+                                   Codec.INTEGERS, Codec.STRINGS);
+        fail("loaded a truncated snapshot");
+      } // try
+    catch (EOFException e)
+      {
+        // That's what we want.
+      } // catch (EOFException)
+    try
+      {
+        ChainedHashTable.fromSnapshot(channel(new byte[100]),
+                                      Codec.INTEGERS, Codec.STRINGS);
+        fail("loaded something that isn't a snapshot");
+      } // try
+    catch (IOException e)
+      {
+        // That's what we want.
+      } // catch (IOException)
+  } // badSnapshotTest()
+
+  /**
+   * Lengths that overflow, and lengths or counts that claim more bytes
+   * than there are, should fail cleanly rather than allocate huge
+   * arrays.
+   */
+  @Test
+  public void badLengthTest()
+    throws Exception
+  {
+    OpenHashTable<Integer, String> table =
+        new OpenHashTable<Integer, String>();
+    table.set(1, "one");
+    byte[] bytes = write(table);
+    // Lengths whose sum overflows an int.
+    ByteBuffer entry = ByteBuffer.wrap(bytes);
+    entry.putInt(Snapshot.HEADER_BYTES, Integer.MAX_VALUE);
+    entry.putInt(Snapshot.HEADER_BYTES + 4, Integer.MAX_VALUE);
+    try
+      {
+        OpenHashTable.fromSnapshot(channel(bytes), Codec.INTEGERS,
+                                   Codec.STRINGS);
+        fail("loaded an entry with overflowing lengths");
+      } // try
+    catch (IOException e)
+      {
+        assertTrue(e.getMessage().startsWith("corrupt snapshot"));
+      } // catch (IOException)
+
+    // A length bigger than the rest of a file.
+    entry.putInt(Snapshot.HEADER_BYTES, 4);
+    entry.putInt(Snapshot.HEADER_BYTES + 4, 1 << 30);
+    File file = Files.createTempFile("snapshot", ".snp").toFile();
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(bytes);
+    out.close();
+    FileChannel in = FileChannel.open(file.toPath());
+    try
+      {
+        OpenHashTable.fromSnapshot(in, Codec.INTEGERS, Codec.STRINGS);
+        fail("loaded an entry longer than the file");
+      } // try
+    catch (IOException e)
+      {
+        assertTrue(e.getMessage().startsWith("corrupt snapshot"));
+      } // catch (IOException)
+    in.close();
+
+    // A count that the rest of the file can't hold.  Loaders presize
+    // from the count, so we should catch it before they do.
+    entry.putInt(Snapshot.HEADER_BYTES, 4);
+    entry.putInt(Snapshot.HEADER_BYTES + 4, 3);
+    entry.putLong(Snapshot.HEADER_BYTES - 8, 1L << 40);
+    out = new FileOutputStream(file);
+    out.write(bytes);
+    out.close();
+    in = FileChannel.open(file.toPath());
+    try
+      {
+        OpenHashTable.fromSnapshot(in, Codec.INTEGERS, Codec.STRINGS);
+        fail("loaded a snapshot with too many entries");
+      } // try
+    catch (IOException e)
+      {
+        assertTrue(e.getMessage().startsWith("corrupt snapshot"));
+      } // catch (IOException)
+    in.close();
+    file.delete();
+  } // badLengthTest()
+
+  /**
+   * A snapshot that repeats a key shouldn't load into a table that
+   * skips set.
+   */
+  @Test
+  public void duplicateTest()
+    throws Exception
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Snapshot.Writer<Integer, String> writer =
+        new Snapshot.Writer<Integer, String>(Channels.newChannel(out),
+                                             Codec.INTEGERS, Codec.STRINGS,
+                                             2, false);
+    writer.write(1, "one");
+    writer.write(1, "uno");
+    writer.finish();
+    try
+      {
+        OpenHashTable.fromSnapshot(channel(out.toByteArray()),
+                                   Codec.INTEGERS, Codec.STRINGS);
+        fail("loaded a snapshot with a duplicate key");
+      } // try
+    catch (IOException e)
+      {
+        assertTrue(e.getMessage().startsWith("corrupt snapshot"));
+      } // catch (IOException)
+  } // duplicateTest()
+
+  // +---------+---------------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Take a snapshot of a dictionary in memory.
+   */
+  static byte[] write(Dictionary<Integer, String> dict)
+    throws IOException
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Snapshot.write(dict, Channels.newChannel(out), Codec.INTEGERS,
+                   Codec.STRINGS);
+    return out.toByteArray();
+  } // write(Dictionary<Integer, String>)
+
+  /**
+   * Get a channel that reads some bytes.
+   */
+  static ReadableByteChannel channel(byte[] bytes)
+  {
+    return Channels.newChannel(new ByteArrayInputStream(bytes));
+  } // channel(byte[])
+
+  /**
+   * Get the keys of a dictionary, in the order it iterates them.
+   */
+  static ArrayList<Integer> keyList(Dictionary<Integer, String> dict)
+  {
+    ArrayList<Integer> keys = new ArrayList<Integer>();
+    for (Integer key : dict.keys())
+      {
+        keys.add(key);
+      } // for
+    return keys;
+  } // keyList(Dictionary<Integer, String>)
+
+  /**
+   * Check that a dictionary has exactly the entries in a map.
+   */
+  static void checkContents(HashMap<Integer, String> map,
+                            Dictionary<Integer, String> dict)
+    throws Exception
+  {
+    int count = 0;
+    for (Integer key : dict.keys())
+      {
+        assertTrue(map.containsKey(key));
+        assertEquals(map.get(key), dict.get(key));
+        ++count;
+      } // for
+    assertEquals(map.size(), count);
+  } // checkContents(HashMap<Integer, String>, Dictionary<...>)
+
+} // SnapshotTest
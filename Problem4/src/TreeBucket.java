@@ -0,0 +1,449 @@
+/**
+ * Association lists that also keep their nodes in a balanced search
+ * tree, so that lookups take logarithmic time.  ChainedHashTable uses
+ * these for buckets that have grown long.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class TreeBucket<K, V>
+    extends AssociationList<K, V>
+{
+  // +-------+-----------------------------------------------------------
+  // | Notes |
+  // +-------+
+
+  /*
+      Every node is in two structures at once.  As in any association
+      list, the nodes form a linked list from front, so iteration,
+      dump, and anything else that walks front.next work unchanged.
+      The list is doubly linked, so that we can unlink a node that we
+      found through the tree without searching for its predecessor,
+      and findPredecessor just returns the prev link of the node it
+      finds.  get, getOrDefault, containsKey, and find all go through
+      findPredecessor, so we inherit them.
+
+      The nodes also form an AVL tree, balanced in the same way as the
+      balanced BSTs in Problems23.  The keys in a bucket may not be
+      Comparable, and almost all of them have the same hash code
+      (that's why the bucket got so long), so we order them by
+      + hash code, then
+      + class name, then
+      + compareTo, if both keys are Comparable and of the same class.
+      Keys that are still tied can't be told apart without equals, so
+      a lookup that reaches such a tie searches both subtrees.  Poorly
+      hashed Strings, Integers, and the like never tie, so they get
+      logarithmic lookups.  Keys that tie all the way down (for
+      example, ones that aren't Comparable and share a hash code) are
+      no worse off than in a plain list.
+
+      To keep the order total, and so that remove can find the exact
+      node it's unlinking, ties are finally broken by the order in
+      which the nodes went into the tree.
+   */
+
+  // +--------+----------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The root of the tree.
+   */
+  TreeNode root;
+
+  /**
+   * The number of nodes we've ever added, used to break ties.
+   */
+  long added;
+
+  // +--------------+----------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty tree bucket.
+   */
+  public TreeBucket()
+  {
+    super();
+    this.root = null;
+    this.added = 0;
+  } // TreeBucket()
+
+  /**
+   * Create a new tree bucket with the same contents as an association
+   * list.
+   */
+  public TreeBucket(AssociationList<K, V> list)
+  {
+    this();
+    AssociationList<K, V>.Node current = list.front.next;
+    while (current != null)
+      {
+        this.add(current.key, current.value);
+        current = current.next;
+      } // while
+  } // TreeBucket(AssociationList<K, V>)
+
+  // +----------+--------------------------------------------------------
+  // | Mutators |
+  // +----------+
+
+  public void set(K key, V value)
+  {
+    TreeNode node = this.lookup(this.root, key, key.hashCode());
+    if (node != null)
+      {
+        node.value = value;
+      } // if the key is already there
+    else
+      {
+        this.add(key, value);
+      } // if the key is new
+  } // set(K,V)
+
+  public void remove(K key)
+  {
+    TreeNode node = this.lookup(this.root, key, key.hashCode());
+    if (node != null)
+      {
+        node.prev.next = node.next;
+        if (node.next != null)
+          {
+            ((TreeNode) node.next).prev = node.prev;
+          } // if there's a next node
+        this.root = this.delete(this.root, node);
+        --this.size;
+      } // if the key is there
+  } // remove(K)
+
+  public void clear()
+  {
+    super.clear();
+    this.root = null;
+  } // clear()
+
+  // +-----------+-------------------------------------------------------
+  // | Observers |
+  // +-----------+
+
+  /**
+   * Convert back to a plain association list with the same contents.
+   */
+  public AssociationList<K, V> toList()
+  {
+    AssociationList<K, V> list = new AssociationList<K, V>();
+    Node current = this.front.next;
+    while (current != null)
+      {
+        // Each key appears only once, so we can skip list.set's search.
+        list.front.next = list.new Node(current.key, current.value,
+                                        list.front.next);
+        ++list.size;
+        current = current.next;
+      } // while
+    return list;
+  } // toList()
+
+  // +-----------------+-------------------------------------------------
+  // | Local Utilities |
+  // +-----------------+
+
+  /**
+   * Find the node with a specified key, without throwing an exception
+   * when it's missing.
+   *
+   * @return prev, the node immediately before the found node, or null
+   *   if no node has the given key.
+   */
+  public Node findPredecessor(K key)
+  {
+    TreeNode node = this.lookup(this.root, key, key.hashCode());
+    return (node == null) ? null : node.prev;
+  } // findPredecessor(K)
+
+  /**
+   * Add a key that isn't in the bucket yet, at the front of the list
+   * and in its place in the tree.
+   *
+   * @pre !this.containsKey(key)
+   */
+  void add(K key, V value)
+  {
+    TreeNode node = new TreeNode(key, value, key.hashCode(), this.added++);
+    node.prev = this.front;
+    node.next = this.front.next;
+    if (node.next != null)
+      {
+        ((TreeNode) node.next).prev = node;
+      } // if there's a next node
+    this.front.next = node;
+    this.root = this.insert(this.root, node);
+    ++this.size;
+  } // add(K, V)
+
+  /**
+   * Find the node with a given key (whose hash code is hash) in a
+   * subtree.
+   *
+   * @return the node, or null if there is no such node
+   */
+  TreeNode lookup(TreeNode tree, K key, int hash)
+  {
+    while (tree != null)
+      {
+        if ((hash == tree.hash) && key.equals(tree.key))
+          {
+            return tree;
+          } // if we've found it
+        int order = compare(key, hash, tree.key, tree.hash);
+        if (order < 0)
+          {
+            tree = tree.smaller;
+          } // if the key would be to the left
+        else if (order > 0)
+          {
+            tree = tree.larger;
+          } // if the key would be to the right
+        else
+          {
+            // A tie, so the key could be on either side.
+            TreeNode found = this.lookup(tree.larger, key, hash);
+            if (found != null)
+              {
+                return found;
+              } // if it was on the right
+            tree = tree.smaller;
+          } // if we can't tell
+      } // while
+    return null;
+  } // lookup(TreeNode, K, int)
+
+  /**
+   * Insert a node into a subtree.
+   *
+   * @return the new root of the subtree
+   */
+  TreeNode insert(TreeNode tree, TreeNode node)
+  {
+    if (tree == null)
+      {
+        return node;
+      } // if we've found the spot
+    if (compare(node, tree) < 0)
+      {
+        tree.smaller = this.insert(tree.smaller, node);
+      } // if it goes on the left
+    else
+      {
+        tree.larger = this.insert(tree.larger, node);
+      } // if it goes on the right
+    return balance(tree);
+  } // insert(TreeNode, TreeNode)
+
+  /**
+   * Delete a node from a subtree.
+   *
+   * @pre node is in tree
+   * @return the new root of the subtree
+   */
+  TreeNode delete(TreeNode tree, TreeNode node)
+  {
+    if (tree == node)
+      {
+        if (tree.smaller == null)
+          {
+            return tree.larger;
+          } // if there's no left subtree
+        if (tree.larger == null)
+          {
+            return tree.smaller;
+          } // if there's no right subtree
+        // Replace the node with the smallest node on its right.
+        TreeNode successor = tree.larger;
+        while (successor.smaller != null)
+          {
+            successor = successor.smaller;
+          } // while
+        successor.larger = this.delete(tree.larger, successor);
+        successor.smaller = tree.smaller;
+        return balance(successor);
+      } // if it's this node
+    if (compare(node, tree) < 0)
+      {
+        tree.smaller = this.delete(tree.smaller, node);
+      } // if it's on the left
+    else
+      {
+        tree.larger = this.delete(tree.larger, node);
+      } // if it's on the right
+    return balance(tree);
+  } // delete(TreeNode, TreeNode)
+
+  /**
+   * Compare two nodes, breaking any tie by the order in which they were
+   * added.  No two nodes compare as equal.
+   */
+  int compare(TreeNode a, TreeNode b)
+  {
+    int order = compare(a.key, a.hash, b.key, b.hash);
+    return (order != 0) ? order : Long.compare(a.order, b.order);
+  } // compare(TreeNode, TreeNode)
+
+  /**
+   * Compare two keys, with hash codes ha and hb, as far as we can
+   * without equals.  Returns 0 when we can't tell them apart.
+   */
+  @SuppressWarnings("unchecked")
+  static int compare(Object a, int ha, Object b, int hb)
+  {
+    if (ha != hb)
+      {
+        return (ha < hb) ? -1 : 1;
+      } // if the hash codes differ
+    Class<?> ca = a.getClass();
+    Class<?> cb = b.getClass();
+    if (ca != cb)
+      {
+        return ca.getName().compareTo(cb.getName());
+      } // if the classes differ
+    if (a instanceof Comparable)
+      {
+        return ((Comparable<Object>) a).compareTo(b);
+      } // if the keys are comparable
+    return 0;
+  } // compare(Object, int, Object, int)
+
+  /**
+   * Restore the balance of a subtree whose own subtrees are balanced
+   * but whose heights may differ by as much as two.
+   *
+   * @return the new root of the subtree
+   */
+  TreeNode balance(TreeNode tree)
+  {
+    int diff = height(tree.smaller) - height(tree.larger);
+    if (diff > 1)
+      {
+        // Left-right case: first turn it into a left-left case
+        if (height(tree.smaller.smaller) < height(tree.smaller.larger))
+          {
+            tree.smaller = rotateLeft(tree.smaller);
+          } // if the extra height is in the middle
+        return rotateRight(tree);
+      } // if the left side is too tall
+    else if (diff < -1)
+      {
+        // Right-left case: first turn it into a right-right case
+        if (height(tree.larger.larger) < height(tree.larger.smaller))
+          {
+            tree.larger = rotateRight(tree.larger);
+          } // if the extra height is in the middle
+        return rotateLeft(tree);
+      } // if the right side is too tall
+    else
+      {
+        update(tree);
+        return tree;
+      } // if the tree is already balanced
+  } // balance(TreeNode)
+
+  /**
+   * Rotate a subtree right, so that its smaller child becomes its root.
+   *
+   * @pre tree.smaller != null
+   * @return the new root of the subtree
+   */
+  TreeNode rotateRight(TreeNode tree)
+  {
+    TreeNode newRoot = tree.smaller;
+    tree.smaller = newRoot.larger;
+    newRoot.larger = tree;
+    update(tree);
+    update(newRoot);
+    return newRoot;
+  } // rotateRight(TreeNode)
+
+  /**
+   * Rotate a subtree left, so that its larger child becomes its root.
+   *
+   * @pre tree.larger != null
+   * @return the new root of the subtree
+   */
+  TreeNode rotateLeft(TreeNode tree)
+  {
+    TreeNode newRoot = tree.larger;
+    tree.larger = newRoot.smaller;
+    newRoot.smaller = tree;
+    update(tree);
+    update(newRoot);
+    return newRoot;
+  } // rotateLeft(TreeNode)
+
+  /**
+   * Get the height of a subtree.  The empty tree has height 0.
+   */
+  int height(TreeNode tree)
+  {
+    return (tree == null) ? 0 : tree.height;
+  } // height(TreeNode)
+
+  /**
+   * Recompute the height of a node from the heights of its subtrees.
+   */
+  void update(TreeNode tree)
+  {
+    tree.height = 1 + Math.max(height(tree.smaller), height(tree.larger));
+  } // update(TreeNode)
+
+  // +---------------+---------------------------------------------------
+  // | Inner Classes |
+  // +---------------+
+
+  /**
+   * Nodes that are in both the list and the tree.
+   */
+  class TreeNode
+      extends Node
+  {
+    /**
+     * The hash code of the key.
+     */
+    int hash;
+
+    /**
+     * When the node was added, for breaking ties.
+     */
+    long order;
+
+    /**
+     * The previous node in the list.
+     */
+    Node prev;
+
+    /**
+     * The subtree of smaller keys.
+     */
+    TreeNode smaller;
+
+    /**
+     * The subtree of larger keys.
+     */
+    TreeNode larger;
+
+    /**
+     * The height of the subtree rooted at this node.
+     */
+    int height;
+
+    /**
+     * Create a new node that isn't linked to anything yet.
+     */
+    public TreeNode(K key, V value, int hash, long order)
+    {
+      super(key, value);
+      this.hash = hash;
+      this.order = order;
+      this.height = 1;
+    } // TreeNode(K, V, int, long)
+  } // TreeNode
+} // TreeBucket<K,V>
@@ -0,0 +1,71 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for our tree bucket class.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class TreeBucketTest
+{
+  /**
+   * Our handy dandy factory.
+   */
+  public DictionaryFactory<Character,String> tbFactory =
+    new DictionaryFactory<Character,String>()
+      {
+        public Dictionary<Character, String> build(int capacity)
+        {
+          return new TreeBucket<Character, String>();
+        } // build(int)
+      }; // new DictionaryFactory
+
+  /**
+   * Random tests are always a good starting point.
+   */
+  @Test
+  public void randomTest()
+    throws Exception
+  {
+    DictionaryIteratorTests.randomTest(tbFactory);
+  } // test
+
+  /**
+   * Keys that share a hash code and can't be compared still have to
+   * be found, whichever side of a tie they end up on.
+   */
+  @Test
+  public void tieTest()
+    throws Exception
+  {
+    TreeBucket<Object, Integer> bucket = new TreeBucket<Object, Integer>();
+    Object[] keys = new Object[200];
+    for (int i = 0; i < keys.length; i++)
+      {
+        keys[i] = ChainedHashTableTest.collidingKey(i);
+        bucket.set(keys[i], i);
+      } // for
+    // Remove every third key, so that the tree rotates a bunch.
+    for (int i = 0; i < keys.length; i += 3)
+      {
+        bucket.remove(ChainedHashTableTest.collidingKey(i));
+      } // for
+    for (int i = 0; i < keys.length; i++)
+      {
+        Object key = ChainedHashTableTest.collidingKey(i);
+        assertEquals((i % 3) != 0, bucket.containsKey(key));
+        if ((i % 3) != 0)
+          assertEquals(Integer.valueOf(i), bucket.get(key));
+      } // for
+    int count = 0;
+    for (Integer value : bucket)
+      {
+        assertTrue((value % 3) != 0);
+        count++;
+      } // for
+    assertEquals(bucket.size, count);
+    assertEquals(keys.length - (keys.length + 2) / 3, count);
+  } // tieTest()
+
+} // TreeBucketTest
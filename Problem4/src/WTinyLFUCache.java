@@ -0,0 +1,696 @@
+import java.io.PrintWriter;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import java.util.function.BiConsumer;
+
+/**
+ * A dictionary that holds at most a fixed number of entries, and only
+ * lets a new entry push out an old one if the new key has been asked
+ * for more often, lately.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class WTinyLFUCache<K, V>
+    implements Dictionary<K, V>, Iterable<V>
+{
+  // +-------+-----------------------------------------------------------
+  // | Notes |
+  // +-------+
+
+  /*
+      An LRUCache evicts whatever was used least recently, so a single
+      pass over a lot of keys we'll never see again (a scan) pushes
+      out everything, including the keys that are popular.  This cache
+      follows W-TinyLFU (Einziger, Friedman, and Manes), the policy
+      behind Caffeine: it remembers, in a FrequencySketch, roughly how
+      often each key has been used lately, including keys that aren't
+      in the cache, and a new key only gets in by evicting a key that
+      is used less often.
+
+      The entries are in three recency lists, each with its own dummy
+      header, as in LRUCache:
+
+        * The window, about WINDOW_PERCENT percent of maxSize, where
+          new entries start.  It gives a new key a chance to build up
+          some uses before it has to compete.
+        * Probation, the part of the main area for entries that have
+          been admitted but haven't been used since.
+        * Protected, the part of the main area for entries that have
+          been used again.  It holds at most PROTECTED_PERCENT percent
+          of the main area.  A hit in probation moves the entry here,
+          and, if that makes protected too big, its least recently
+          used entry goes back to probation.
+
+      When the window overflows, its least recently used entry is the
+      candidate.  If the main area has room, the candidate just moves
+      there.  Otherwise the victim is the least recently used entry on
+      probation (or in protected, if probation is empty), and the one
+      the sketch says is less frequent is evicted.  Ties go to the
+      victim, so the keys of a scan, which each have one use, never
+      displace keys that have been used more than once.
+
+      Every use (a hit, or a set of a key) counts in the sketch.  A
+      miss doesn't, since a memo cache follows each miss with a set,
+      and we don't want to count that key twice.  Besides the entries,
+      the sketch costs about 8 bytes for each entry we can hold.
+
+      The buckets, the counts, and the listener work as in LRUCache.
+      The iterators go through the window, then probation, and then
+      protected, each from least to most recently used.
+   */
+
+  // +-----------+-------------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The load factor for expanding the table.
+   */
+  static final double LOAD_FACTOR = 0.75;
+
+  /**
+   * The smallest number of buckets we use.
+   */
+  static final int MIN_BUCKETS = 16;
+
+  /**
+   * The size of the window, as a percentage of maxSize.
+   */
+  static final int WINDOW_PERCENT = 1;
+
+  /**
+   * The largest size of protected, as a percentage of the main area.
+   */
+  static final int PROTECTED_PERCENT = 80;
+
+  /**
+   * The list for new entries.
+   */
+  static final int WINDOW = 0;
+
+  /**
+   * The list for admitted entries that haven't been used since.
+   */
+  static final int PROBATION = 1;
+
+  /**
+   * The list for admitted entries that have been used again.
+   */
+  static final int PROTECTED = 2;
+
+  // +--------+----------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The buckets.
+   */
+  Entry<K, V>[] buckets;
+
+  /**
+   * The dummy entries at both ends of each of the lists, indexed by
+   * WINDOW, PROBATION, and PROTECTED.
+   */
+  Entry<K, V>[] headers;
+
+  /**
+   * The number of entries in each list.
+   */
+  int[] lengths;
+
+  /**
+   * The number of entries.
+   */
+  int size;
+
+  /**
+   * The most entries we hold.
+   */
+  int maxSize;
+
+  /**
+   * The most entries in the window.
+   */
+  int windowMax;
+
+  /**
+   * The most entries in probation and protected together.
+   */
+  int mainMax;
+
+  /**
+   * The most entries in protected.
+   */
+  int protectedMax;
+
+  /**
+   * How often we've seen each key, roughly.
+   */
+  FrequencySketch sketch;
+
+  /**
+   * Who to tell about evictions, or null.
+   */
+  BiConsumer<? super K, ? super V> listener;
+
+  /**
+   * The number of gets and getOrDefaults that found their key.
+   */
+  long hits;
+
+  /**
+   * The number of gets and getOrDefaults that didn't find their key.
+   */
+  long misses;
+
+  /**
+   * The number of entries we've evicted, including candidates we
+   * didn't admit.
+   */
+  long evictions;
+
+  // +--------------+----------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new cache that holds at most maxSize entries.
+   */
+  public WTinyLFUCache(int maxSize)
+  {
+    this(maxSize, null);
+  } // WTinyLFUCache(int)
+
+  /**
+   * Create a new cache that holds at most maxSize entries, and tells
+   * listener about each entry it evicts.
+   *
+   * @pre maxSize > 0
+   */
+  public WTinyLFUCache(int maxSize,
+                       BiConsumer<? super K, ? super V> listener)
+  {
+    this.maxSize = maxSize;
+    this.windowMax = Math.max(1, maxSize * WINDOW_PERCENT / 100);
+    this.mainMax = maxSize - this.windowMax;
+    this.protectedMax = (int) ((long) this.mainMax * PROTECTED_PERCENT
+                               / 100);
+    this.listener = listener;
+    this.clear();
+  } // WTinyLFUCache(int, BiConsumer<? super K, ? super V>)
+
+  // +-----------+-------------------------------------------------------
+  // | Observers |
+  // +-----------+
+
+  /**
+   * Determine if the cache contains a particular key.  Doesn't count
+   * as a use.
+   */
+  public boolean containsKey(K key)
+  {
+    return this.find(key, hash(key)) != null;
+  } // containsKey(K)
+
+  /**
+   * Dump the cache: the window, probation, and protected.
+   */
+  public void dump(PrintWriter pen)
+  {
+    for (int queue = WINDOW; queue <= PROTECTED; queue++)
+      {
+        Entry<K, V> header = this.headers[queue];
+        pen.print("[");
+        for (Entry<K, V> e = header.after; e != header; e = e.after)
+          {
+            pen.print(e.key + ":" + e.value);
+            if (e.after != header)
+              {
+                pen.print(", ");
+              } // if there are more
+          } // for
+        pen.print("]");
+      } // for each list
+    pen.println();
+  } // dump(PrintWriter)
+
+  /**
+   * Get the value for a particular key.
+   */
+  public V get(K key)
+    throws Exception
+  {
+    Entry<K, V> e = this.use(key);
+    if (e == null)
+      {
+        throw new Exception("Invalid key: " + key);
+      } // if the key isn't there
+    return e.value;
+  } // get(K)
+
+  /**
+   * Get the value for a particular key, or defaultValue if there is
+   * no such key.
+   */
+  public V getOrDefault(K key, V defaultValue)
+  {
+    Entry<K, V> e = this.use(key);
+    return (e == null) ? defaultValue : e.value;
+  } // getOrDefault(K, V)
+
+  /**
+   * Get the number of entries in the cache.
+   */
+  public int size()
+  {
+    return this.size;
+  } // size()
+
+  /**
+   * Get the number of lookups that found their key.
+   */
+  public long hits()
+  {
+    return this.hits;
+  } // hits()
+
+  /**
+   * Get the number of lookups that didn't find their key.
+   */
+  public long misses()
+  {
+    return this.misses;
+  } // misses()
+
+  /**
+   * Get the number of entries we've evicted.
+   */
+  public long evictions()
+  {
+    return this.evictions;
+  } // evictions()
+
+  // +----------+--------------------------------------------------------
+  // | Mutators |
+  // +----------+
+
+  /**
+   * Clear the whole cache, and forget how often we've seen each key.
+   * Evictions don't include the entries we clear, and we don't tell
+   * the listener about them.  The counts stay as they were.
+   */
+  public void clear()
+  {
+    int buckets = MIN_BUCKETS;
+    while ((buckets < (this.maxSize / LOAD_FACTOR)) && (buckets < 1024))
+      buckets *= 2;
+    this.buckets = newEntries(buckets);
+    this.headers = newEntries(PROTECTED + 1);
+    for (int queue = WINDOW; queue <= PROTECTED; queue++)
+      {
+        Entry<K, V> header = new Entry<K, V>(null, 0, null, null);
+        header.before = header;
+        header.after = header;
+        this.headers[queue] = header;
+      } // for each list
+    this.lengths = new int[PROTECTED + 1];
+    this.size = 0;
+    this.sketch = new FrequencySketch(this.maxSize);
+  } // clear()
+
+  /**
+   * Remove a key/value pair.
+   */
+  public void remove(K key)
+  {
+    Entry<K, V> e = this.find(key, hash(key));
+    if (e != null)
+      {
+        this.delete(e);
+      } // if the key is there
+  } // remove(K)
+
+  /**
+   * Set a value.  A new key goes into the window, which may push an
+   * older entry out of the window and into the main area, and so
+   * evict either that entry or the main area's victim.
+   */
+  public void set(K key, V value)
+  {
+    int hash = hash(key);
+    Entry<K, V> e = this.find(key, hash);
+    if (e != null)
+      {
+        e.value = value;
+        this.sketch.increment(hash);
+        this.touch(e);
+        return;
+      } // if the key is already there
+    if (this.size >= this.buckets.length * LOAD_FACTOR)
+      {
+        this.expand();
+      } // if the table is too full
+    int index = hash & (this.buckets.length - 1);
+    e = new Entry<K, V>(key, hash, value, this.buckets[index]);
+    this.buckets[index] = e;
+    this.linkAtBack(e, WINDOW);
+    ++this.size;
+    this.sketch.increment(hash);
+    if (this.lengths[WINDOW] > this.windowMax)
+      {
+        this.admit(this.headers[WINDOW].after);
+      } // if the window is too full
+  } // set(K, V)
+
+  // +-----------+-------------------------------------------------------
+  // | Iterators |
+  // +-----------+
+
+  /**
+   * Get an iterator for the values.
+   */
+  public Iterator<V> iterator()
+  {
+    return new EntryIterator<V>()
+      {
+        V extract(Entry<K, V> e)
+        {
+          return e.value;
+        } // extract(Entry<K, V>)
+      }; // new EntryIterator<V>
+  } // iterator()
+
+  /**
+   * Get an iterator for the keys.
+   */
+  public Iterator<K> keysIterator()
+  {
+    return new EntryIterator<K>()
+      {
+        K extract(Entry<K, V> e)
+        {
+          return e.key;
+        } // extract(Entry<K, V>)
+      }; // new EntryIterator<K>
+  } // keysIterator()
+
+  /**
+   * Get an Iterable for the keys.  See explanation in Dictionary.java.
+   */
+  public Iterable<K> keys()
+  {
+    return new Iterable<K>()
+      {
+        public Iterator<K> iterator()
+        {
+          return WTinyLFUCache.this.keysIterator();
+        } // iterator()
+      }; // new Iterable<K>
+  } // keys()
+
+  // +---------+---------------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Look up a key as a use: count a hit or a miss, and on a hit,
+   * count the use in the sketch and move the entry along.
+   *
+   * @return the entry, or null if the key isn't there
+   */
+  Entry<K, V> use(K key)
+  {
+    int hash = hash(key);
+    Entry<K, V> e = this.find(key, hash);
+    if (e == null)
+      {
+        ++this.misses;
+        return null;
+      } // if it's a miss
+    ++this.hits;
+    this.sketch.increment(hash);
+    this.touch(e);
+    return e;
+  } // use(K)
+
+  /**
+   * Move an entry that we've just used: to the back of its list, or,
+   * if it's on probation, into protected.
+   */
+  void touch(Entry<K, V> e)
+  {
+    if (e.queue != PROBATION)
+      {
+        this.moveToBack(e, e.queue);
+        return;
+      } // if it stays in its list
+    this.moveToBack(e, PROTECTED);
+    if (this.lengths[PROTECTED] > this.protectedMax)
+      {
+        this.moveToBack(this.headers[PROTECTED].after, PROBATION);
+      } // if protected is too full
+  } // touch(Entry<K, V>)
+
+  /**
+   * Move the candidate from the window into the main area, evicting
+   * either it or the main area's victim if there isn't room.
+   *
+   * @pre candidate.queue == WINDOW
+   */
+  void admit(Entry<K, V> candidate)
+  {
+    if (this.lengths[PROBATION] + this.lengths[PROTECTED] < this.mainMax)
+      {
+        this.moveToBack(candidate, PROBATION);
+        return;
+      } // if there's room
+    Entry<K, V> victim = this.headers[PROBATION].after;
+    if (victim.queue != PROBATION)
+      {
+        victim = this.headers[PROTECTED].after;
+      } // if probation is empty
+    if ((victim.queue >= 0)
+        && (this.sketch.frequency(candidate.hash)
+            > this.sketch.frequency(victim.hash)))
+      {
+        this.evict(victim);
+        this.moveToBack(candidate, PROBATION);
+      } // if the candidate wins
+    else
+      {
+        this.evict(candidate);
+      } // if the victim wins (or there's no main area)
+  } // admit(Entry<K, V>)
+
+  /**
+   * Evict an entry, and tell the listener.
+   */
+  void evict(Entry<K, V> e)
+  {
+    this.delete(e);
+    ++this.evictions;
+    if (this.listener != null)
+      {
+        this.listener.accept(e.key, e.value);
+      } // if someone wants to know
+  } // evict(Entry<K, V>)
+
+  /**
+   * Find the entry with a given key and mixed hash code, or null if
+   * there isn't one.
+   */
+  Entry<K, V> find(K key, int hash)
+  {
+    Entry<K, V> e = this.buckets[hash & (this.buckets.length - 1)];
+    while (e != null)
+      {
+        if ((e.hash == hash) && key.equals(e.key))
+          {
+            return e;
+          } // if we found it
+        e = e.next;
+      } // while
+    return null;
+  } // find(K, int)
+
+  /**
+   * Remove an entry from both its chain and its list.
+   *
+   * @pre e is in the cache
+   */
+  void delete(Entry<K, V> e)
+  {
+    int index = e.hash & (this.buckets.length - 1);
+    if (this.buckets[index] == e)
+      {
+        this.buckets[index] = e.next;
+      } // if it's at the front of its chain
+    else
+      {
+        Entry<K, V> prev = this.buckets[index];
+        while (prev.next != e)
+          {
+            prev = prev.next;
+          } // while
+        prev.next = e.next;
+      } // if it's further along
+    this.unlink(e);
+    --this.size;
+  } // delete(Entry<K, V>)
+
+  /**
+   * Double the number of buckets.
+   */
+  void expand()
+  {
+    Entry<K, V>[] old = this.buckets;
+    this.buckets = newEntries(2 * old.length);
+    int mask = this.buckets.length - 1;
+    for (Entry<K, V> bucket : old)
+      {
+        Entry<K, V> e = bucket;
+        while (e != null)
+          {
+            Entry<K, V> next = e.next;
+            int index = e.hash & mask;
+            e.next = this.buckets[index];
+            this.buckets[index] = e;
+            e = next;
+          } // while
+      } // for each old bucket
+  } // expand()
+
+  /**
+   * Make an entry the most recently used in a list, moving it there
+   * from whatever list it's in.
+   */
+  void moveToBack(Entry<K, V> e, int queue)
+  {
+    if (e != this.headers[queue].before)
+      {
+        this.unlink(e);
+        this.linkAtBack(e, queue);
+      } // if it isn't already
+  } // moveToBack(Entry<K, V>, int)
+
+  /**
+   * Put an entry at the most recently used end of a list.
+   */
+  void linkAtBack(Entry<K, V> e, int queue)
+  {
+    Entry<K, V> header = this.headers[queue];
+    e.after = header;
+    e.before = header.before;
+    e.before.after = e;
+    header.before = e;
+    e.queue = queue;
+    ++this.lengths[queue];
+  } // linkAtBack(Entry<K, V>, int)
+
+  /**
+   * Take an entry out of its list.
+   */
+  void unlink(Entry<K, V> e)
+  {
+    e.before.after = e.after;
+    e.after.before = e.before;
+    --this.lengths[e.queue];
+  } // unlink(Entry<K, V>)
+
+  /**
+   * Find the mixed hash code of a key.
+   */
+  static int hash(Object key)
+  {
+    return OpenHashTable.mix(key.hashCode());
+  } // hash(Object)
+
+  /**
+   * Build an array of entries, for buckets or queue headers.  Included
+   * mostly so that the unchecked conversion is all in one place.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  static <K, V> Entry<K, V>[] newEntries(int length)
+  {
+    return (Entry<K, V>[]) new Entry[length];
+  } // newEntries(int)
+
+  // +---------------+---------------------------------------------------
+  // | Inner Classes |
+  // +---------------+
+
+  /**
+   * The entries, which are in a chain and in one of the lists.  The
+   * headers have queue -1, so they're never mistaken for entries.
+   */
+  static class Entry<K, V>
+  {
+    final K key;
+    final int hash;
+    V value;
+    Entry<K, V> next;
+    Entry<K, V> before;
+    Entry<K, V> after;
+    int queue = -1;
+
+    Entry(K key, int hash, V value, Entry<K, V> next)
+    {
+      this.key = key;
+      this.hash = hash;
+      this.value = value;
+      this.next = next;
+    } // Entry(K, int, V, Entry<K, V>)
+  } // class Entry<K, V>
+
+  /**
+   * Iterators over the entries, list by list.  Subclasses say what
+   * they want from each entry.
+   */
+  abstract class EntryIterator<T>
+      implements Iterator<T>
+  {
+    /**
+     * The list we're in.
+     */
+    int queue = WINDOW;
+
+    /**
+     * The next entry to return, or a header if we're at the end of
+     * the list.
+     */
+    Entry<K, V> current = WTinyLFUCache.this.headers[WINDOW].after;
+
+    /**
+     * Get what we want from an entry.
+     */
+    abstract T extract(Entry<K, V> e);
+
+    public boolean hasNext()
+    {
+      while ((this.current.queue < 0) && (this.queue < PROTECTED))
+        {
+          this.current = WTinyLFUCache.this.headers[++this.queue].after;
+        } // while we're at the end of a list that isn't the last
+      return this.current.queue >= 0;
+    } // hasNext()
+
+    public T next()
+      throws NoSuchElementException
+    {
+      if (!this.hasNext())
+        throw new NoSuchElementException();
+      Entry<K, V> e = this.current;
+      this.current = e.after;
+      return this.extract(e);
+    } // next()
+
+    public void remove()
+      throws UnsupportedOperationException
+    {
+      throw new UnsupportedOperationException();
+    } // remove()
+  } // class EntryIterator<T>
+
+} // class WTinyLFUCache<K,V>
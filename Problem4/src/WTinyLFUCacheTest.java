@@ -0,0 +1,158 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.function.BiConsumer;
+
+/**
+ * Unit tests for our W-TinyLFU cache class.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class WTinyLFUCacheTest
+{
+  /**
+   * Our handy dandy factory.  The caches are big enough for every
+   * letter, so they should act like any other dictionary.
+   */
+  public DictionaryFactory<Character,String> tinyLFUFactory =
+    new DictionaryFactory<Character,String>()
+      {
+        public Dictionary<Character, String> build(int capacity)
+        {
+          return new WTinyLFUCache<Character, String>(100);
+        } // build(int)
+      }; // new DictionaryFactory
+
+  /**
+   * Random tests are always a good starting point.
+   */
+  @Test
+  public void randomTest()
+    throws Exception
+  {
+    DictionaryIteratorTests.randomTest(tinyLFUFactory);
+  } // test
+
+  /**
+   * A scan of keys we only see once shouldn't push out keys that we
+   * use over and over.  An LRUCache of the same size loses them all.
+   * The scan is short enough that the sketch doesn't age the hot keys'
+   * counts; a longer one would, and then they'd be fair game.
+   */
+  @Test
+  public void scanTest()
+    throws Exception
+  {
+    WTinyLFUCache<Integer, Integer> cache =
+        new WTinyLFUCache<Integer, Integer>(100);
+    LRUCache<Integer, Integer> lru = new LRUCache<Integer, Integer>(100);
+    for (int i = 0; i < 50; i++)
+      {
+        cache.set(i, i);
+        lru.set(i, i);
+      } // for each hot key
+    for (int round = 0; round < 3; round++)
+      {
+        for (int i = 0; i < 50; i++)
+          {
+            assertEquals(Integer.valueOf(i), cache.get(i));
+            assertEquals(Integer.valueOf(i), lru.get(i));
+          } // for each hot key
+      } // for each round
+    for (int i = 1000; i < 1500; i++)
+      {
+        assertEquals(null, cache.getOrDefault(i, null));
+        cache.set(i, i);
+        lru.set(i, i);
+      } // for each key in the scan
+    for (int i = 0; i < 50; i++)
+      {
+        assertTrue("hot key " + i, cache.containsKey(i));
+        assertFalse(lru.containsKey(i));
+      } // for each hot key
+    assertEquals(100, cache.size());
+    assertEquals(150, cache.hits());
+    assertEquals(500, cache.misses());
+    assertEquals(450, cache.evictions());
+  } // scanTest()
+
+  /**
+   * Lots of random operations on a small cache.  The cache should
+   * never hold too much, whatever it holds should have the right
+   * value, and the listener should hear about every eviction.
+   */
+  @Test
+  public void boundTest()
+    throws Exception
+  {
+    final int maxSize = 50;
+    final HashMap<Integer, Integer> map = new HashMap<Integer, Integer>();
+    final int[] evicted = { 0 };
+    Random rand = new Random();
+    WTinyLFUCache<Integer, Integer> cache =
+        new WTinyLFUCache<Integer, Integer>(maxSize,
+          new BiConsumer<Integer, Integer>()
+            {
+              public void accept(Integer key, Integer value)
+              {
+                assertEquals(map.get(key), value);
+                ++evicted[0];
+              } // accept(Integer, Integer)
+            }); // new BiConsumer
+    for (int i = 0; i < 100000; i++)
+      {
+        Integer key = rand.nextInt(200);
+        int op = rand.nextInt(10);
+        if (op < 5)
+          {
+            Integer value = cache.getOrDefault(key, null);
+            if (value != null)
+              {
+                assertEquals(map.get(key), value);
+              } // if it's a hit
+          } // if it's a lookup
+        else if (op < 9)
+          {
+            cache.set(key, i);
+            map.put(key, i);
+          } // if it's a set
+        else
+          {
+            cache.remove(key);
+            map.remove(key);
+            assertFalse(cache.containsKey(key));
+          } // if it's a remove
+        assertTrue(cache.size() <= maxSize);
+      } // for
+    int count = 0;
+    for (Integer key : cache.keys())
+      {
+        assertTrue(cache.containsKey(key));
+        ++count;
+      } // for
+    assertEquals(cache.size(), count);
+    assertEquals(cache.evictions(), evicted[0]);
+  } // boundTest()
+
+  /**
+   * The sketch should count up, stop at 15, and halve its counts.
+   */
+  @Test
+  public void sketchTest()
+  {
+    FrequencySketch sketch = new FrequencySketch(64);
+    int hash = OpenHashTable.mix(12345);
+    assertEquals(0, sketch.frequency(hash));
+    for (int i = 1; i <= 20; i++)
+      {
+        sketch.increment(hash);
+        assertEquals(Math.min(i, 15), sketch.frequency(hash));
+      } // for
+    sketch.reset();
+    assertEquals(7, sketch.frequency(hash));
+  } // sketchTest()
+
+} // WTinyLFUCacheTest
@@ -0,0 +1,1318 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Dictionaries kept as B+ trees in fixed-size pages of a file, with a
+ * buffer pool to cache the pages.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class BPlusTree<K, V>
+    implements Dictionary<K, V>, Closeable
+{
+  // +-------+-----------------------------------------------------------
+  // | Notes |
+  // +-------+
+
+  /*
+     The key/value pairs live in the leaves of the tree, in order of
+     key, and each leaf links to the next, so a range scan finds its
+     first key and then just walks along the leaves.  Internal pages
+     hold only keys and child page numbers, so they're small in number
+     and stay in the buffer pool; a lookup in a tree of billions of
+     keys reads one or two pages that aren't already cached.  Every
+     page access goes through a BufferPool, which pins the page while
+     we use it.  We pin at most one path from the root to a leaf (plus
+     the pages a split allocates), so the pool needs only a few frames
+     to work, and more frames just make it faster.
+
+     Each page has a small header and an array of slots, which are the
+     offsets of its cells, in order of key.  The cells themselves fill
+     the page from the end toward the slots.  A leaf cell is the key's
+     length, the value's length (NULL_LENGTH for null), the key's
+     bytes, and the value's bytes.  An internal cell is a child page
+     number, the key's length, and the key's bytes, and the child holds
+     the keys at least that key and less than the next cell's key.  The
+     header's link is the first child of an internal page (the keys
+     less than the first cell's key) and the next leaf of a leaf (0 for
+     none, since page 0 is the meta page).  Adding a cell to a page
+     that has enough free space, but not in one piece, compacts the
+     page first.
+
+     Looking for a key in a page is a binary search of its slots.  The
+     codecs turn keys and values into bytes, and order compares the
+     decoded keys, as in LSMDictionary, so the ordering is the same as
+     BST's.
+
+     set goes down to the leaf, replaces or adds the cell, and splits
+     the leaf if it doesn't fit, moving about half its bytes to a new
+     leaf.  The new leaf's first key, and its page number, go up into
+     the parent, which may split in turn.  When the root splits, we
+     add a new root above it, so all the leaves are always at the same
+     depth.  No cell may be bigger than a quarter of a page, which
+     guarantees that the halves of a split fit.  remove just takes the
+     cell out of its leaf.  We don't merge pages that get small (as
+     many real databases don't), so a tree that shrinks keeps its
+     pages until it's cleared.
+
+     fromSorted builds a tree from sorted pairs without any splits: it
+     fills leaves left to right to BULK_FILL of a page and, as each
+     leaf is finished, adds its first key to the rightmost page at the
+     level above, which is filled the same way.  Only the rightmost
+     page at each level is pinned, and it writes each page just once.
+     Leaving a little room in each page means that scattered sets after
+     a bulk load don't all split.
+
+     Page 0 holds MAGIC, VERSION, the page size, the root's page
+     number, the number of pages, the number of pairs, and the height.
+     flush writes the dirty pages and the meta page and forces the
+     file, and close does the same.  The file is only consistent after
+     a flush.  A crash in between can leave it half-updated, since we
+     don't log anything.
+   */
+
+  // +-----------+-------------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The first four bytes of every file ("BPT1").
+   */
+  static final int MAGIC = 0x42505431;
+
+  /**
+   * The version of the file format.
+   */
+  static final int VERSION = 1;
+
+  /**
+   * The page size, by default.
+   */
+  static final int DEFAULT_PAGE_BYTES = 4096;
+
+  /**
+   * The number of pages in the buffer pool, by default.
+   */
+  static final int DEFAULT_POOL_PAGES = 1024;
+
+  /**
+   * The fewest pages we'll put in a buffer pool, which is enough for a
+   * path from the root to a leaf in any tree we can build, plus splits.
+   */
+  static final int MIN_POOL_PAGES = 16;
+
+  /**
+   * The largest page size, so that offsets fit in two bytes.
+   */
+  static final int MAX_PAGE_BYTES = 32768;
+
+  /**
+   * How full fromSorted makes each page.
+   */
+  static final double BULK_FILL = 0.9;
+
+  /**
+   * The kind of page for a leaf.
+   */
+  static final byte LEAF = 1;
+
+  /**
+   * The kind of page for an internal page.
+   */
+  static final byte INTERNAL = 2;
+
+  /**
+   * Where a page keeps its kind.
+   */
+  static final int KIND_AT = 0;
+
+  /**
+   * Where a page keeps its number of cells.
+   */
+  static final int COUNT_AT = 2;
+
+  /**
+   * Where a page keeps its link: the first child or the next leaf.
+   */
+  static final int LINK_AT = 4;
+
+  /**
+   * Where a page keeps the offset of the start of its cells.
+   */
+  static final int FREE_AT = 8;
+
+  /**
+   * Where a page's slots start.
+   */
+  static final int SLOTS_AT = 12;
+
+  /**
+   * The size of a leaf cell before the key: the two lengths.
+   */
+  static final int LEAF_CELL_HEADER = 4;
+
+  /**
+   * The size of an internal cell before the key: the child and the
+   * key's length.
+   */
+  static final int INTERNAL_CELL_HEADER = 6;
+
+  /**
+   * The value length that marks a null value.
+   */
+  static final int NULL_LENGTH = -1;
+
+  /**
+   * Where the meta page keeps the page size.
+   */
+  static final int PAGE_BYTES_AT = 8;
+
+  /**
+   * Where the meta page keeps the root's page number.
+   */
+  static final int ROOT_AT = 12;
+
+  /**
+   * Where the meta page keeps the number of pages.
+   */
+  static final int PAGE_COUNT_AT = 16;
+
+  /**
+   * Where the meta page keeps the number of pairs.
+   */
+  static final int SIZE_AT = 20;
+
+  /**
+   * Where the meta page keeps the height.
+   */
+  static final int HEIGHT_AT = 28;
+
+  /**
+   * The size of the part of the meta page that we use.
+   */
+  static final int META_BYTES = 32;
+
+  /**
+   * The value that lookups return when the key isn't there.
+   */
+  static final Object ABSENT = new Object();
+
+  // +--------+----------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The file.
+   */
+  File file;
+
+  /**
+   * The open file.
+   */
+  FileChannel channel;
+
+  /**
+   * The cache of pages.
+   */
+  BufferPool pool;
+
+  /**
+   * The order of the keys.
+   */
+  Comparator<K> order;
+
+  /**
+   * How we turn keys into bytes and back.
+   */
+  Codec<K> keyCodec;
+
+  /**
+   * How we turn values into bytes and back.
+   */
+  Codec<V> valueCodec;
+
+  /**
+   * The size of a page.
+   */
+  int pageBytes;
+
+  /**
+   * The largest cell we allow.
+   */
+  int maxCell;
+
+  /**
+   * The root's page number.
+   */
+  int root;
+
+  /**
+   * The number of pairs.
+   */
+  long size;
+
+  /**
+   * The number of levels of pages.
+   */
+  int height;
+
+  /**
+   * Room to rearrange a page's cells.
+   */
+  byte[] scratch;
+
+  // +--------------+----------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Open the tree in a file, creating the file if need be, with the
+   * default page size and buffer pool.
+   */
+  public BPlusTree(File file, Comparator<K> order, Codec<K> keyCodec,
+                   Codec<V> valueCodec)
+    throws IOException
+  {
+    this(file, order, keyCodec, valueCodec, DEFAULT_PAGE_BYTES,
+         DEFAULT_POOL_PAGES);
+  } // BPlusTree(File, Comparator<K>, Codec<K>, Codec<V>)
+
+  /**
+   * Open the tree in a file, keeping up to poolPages pages in memory.
+   * If we create the file, its pages have pageBytes bytes; otherwise
+   * we use the page size the file already has.
+   *
+   * @pre 64 <= pageBytes <= MAX_PAGE_BYTES, and pageBytes is a
+   *   multiple of 8
+   * @throws IOException
+   *   if we can't read or write the file, or it isn't a tree
+   */
+  public BPlusTree(File file, Comparator<K> order, Codec<K> keyCodec,
+                   Codec<V> valueCodec, int pageBytes, int poolPages)
+    throws IOException
+  {
+    this.file = file;
+    this.order = order;
+    this.keyCodec = keyCodec;
+    this.valueCodec = valueCodec;
+    this.channel = FileChannel.open(file.toPath(),
+                                    StandardOpenOption.CREATE,
+                                    StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE);
+    poolPages = Math.max(poolPages, MIN_POOL_PAGES);
+    try
+      {
+        if (this.channel.size() == 0)
+          {
+            this.setPageBytes(pageBytes);
+            this.pool = new BufferPool(this.channel, pageBytes, poolPages, 0);
+            this.create();
+          } // if the file is new
+        else
+          {
+            this.open(poolPages);
+          } // if the file has a tree
+      } // try
+    catch (IOException e)
+      {
+        this.channel.close();
+        throw e;
+      } // catch (IOException)
+  } // BPlusTree(File, Comparator<K>, Codec<K>, Codec<V>, int, int)
+
+  // +-----------+-------------------------------------------------------
+  // | Factories |
+  // +-----------+
+
+  /**
+   * Build a tree in a file, replacing whatever the file held, from
+   * pairs whose keys are sorted, in linear time.  The ith value goes
+   * with the ith key.  This is much faster than calling set for each
+   * pair, since it never splits a page and writes each page once.
+   *
+   * @throws IllegalArgumentException
+   *   if the keys are not in strictly increasing order, or a pair is
+   *   too big for a page.
+   * @throws NoSuchElementException
+   *   if values has fewer elements than keys.
+   */
+  public static <K, V> BPlusTree<K, V> fromSorted(File file,
+                                                  Comparator<K> order,
+                                                  Codec<K> keyCodec,
+                                                  Codec<V> valueCodec,
+                                                  Iterator<K> keys,
+                                                  Iterator<V> values)
+    throws IOException
+  {
+    // Empty the file first, so that the constructor doesn't reject a
+    // file that isn't a tree.
+    FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING).close();
+    BPlusTree<K, V> tree = new BPlusTree<K, V>(file, order, keyCodec,
+                                               valueCodec);
+    boolean loaded = false;
+    try
+      {
+        tree.load(keys, values);
+        tree.flush();
+        loaded = true;
+      } // try
+    finally
+      {
+        if (!loaded)
+          {
+            tree.channel.close();
+          } // if something went wrong
+      } // finally
+    return tree;
+  } // fromSorted(File, Comparator<K>, Codec<K>, Codec<V>, ...)
+
+  // +-----------+-------------------------------------------------------
+  // | Observers |
+  // +-----------+
+
+  /**
+   * Determine if the dictionary contains a particular key.
+   */
+  public boolean containsKey(K key)
+  {
+    return this.lookup(key) != ABSENT;
+  } // containsKey(K)
+
+  /**
+   * Get the value for a particular key.
+   */
+  @SuppressWarnings("unchecked")
+  public V get(K key)
+    throws Exception
+  {
+    Object value = this.lookup(key);
+    if (value == ABSENT)
+      {
+        throw new Exception("Invalid key: " + key);
+      } // if the key isn't there
+    return (V) value;
+  } // get(K)
+
+  /**
+   * Get the value for a particular key, or defaultValue if there is
+   * no such key.
+   */
+  @SuppressWarnings("unchecked")
+  public V getOrDefault(K key, V defaultValue)
+  {
+    Object value = this.lookup(key);
+    return (value == ABSENT) ? defaultValue : (V) value;
+  } // getOrDefault(K, V)
+
+  /**
+   * Get the number of levels of pages.
+   */
+  public int height()
+  {
+    return this.height;
+  } // height()
+
+  /**
+   * Get the number of key/value pairs.
+   */
+  public long size()
+  {
+    return this.size;
+  } // size()
+
+  // +----------+--------------------------------------------------------
+  // | Mutators |
+  // +----------+
+
+  /**
+   * Remove all of the pairs, and shrink the file back to nothing.
+   */
+  public void clear()
+  {
+    try
+      {
+        this.pool.discard(0);
+        this.channel.truncate(0);
+        this.create();
+      } // try
+    catch (IOException e)
+      {
+        throw new UncheckedIOException(e);
+      } // catch (IOException)
+  } // clear()
+
+  /**
+   * Flush, and close the file.  We can't be used after that.
+   */
+  public void close()
+    throws IOException
+  {
+    this.flush();
+    this.channel.close();
+  } // close()
+
+  /**
+   * Write every changed page to the file, and force it to disk.
+   */
+  public void flush()
+    throws IOException
+  {
+    BufferPool.Page meta = this.pool.pin(0);
+    ByteBuffer data = meta.data;
+    data.putInt(0, MAGIC);
+    data.putInt(4, VERSION);
+    data.putInt(PAGE_BYTES_AT, this.pageBytes);
+    data.putInt(ROOT_AT, this.root);
+    data.putInt(PAGE_COUNT_AT, this.pool.pageCount());
+    data.putLong(SIZE_AT, this.size);
+    data.putInt(HEIGHT_AT, this.height);
+    this.pool.unpin(meta, true);
+    this.pool.flush();
+    this.channel.force(false);
+  } // flush()
+
+  /**
+   * Remove a key/value pair.
+   */
+  public void remove(K key)
+  {
+    int id = this.root;
+    while (true)
+      {
+        BufferPool.Page page = this.pin(id);
+        ByteBuffer data = page.data;
+        if (data.get(KIND_AT) == LEAF)
+          {
+            int i = this.search(data, key);
+            if (i >= 0)
+              {
+                removeCell(data, i);
+                --this.size;
+              } // if the key is there
+            this.pool.unpin(page, i >= 0);
+            return;
+          } // if it's a leaf
+        id = this.child(data, key);
+        this.pool.unpin(page, false);
+      } // while
+  } // remove(K)
+
+  /**
+   * Set a value.
+   *
+   * @throws IllegalArgumentException
+   *   if the pair is too big for a page.
+   */
+  public void set(K key, V value)
+  {
+    byte[] cell = this.leafCell(key, value);
+    try
+      {
+        byte[] up = this.insert(this.root, key, cell);
+        if (up != null)
+          {
+            // The root split, so the tree grows a level.
+            BufferPool.Page page = this.pool.allocate();
+            initPage(page.data, INTERNAL, this.root);
+            this.insertCell(page.data, 0, up);
+            this.root = page.id;
+            ++this.height;
+            this.pool.unpin(page, true);
+          } // if the root split
+      } // try
+    catch (IOException e)
+      {
+        throw new UncheckedIOException(e);
+      } // catch (IOException)
+  } // set(K, V)
+
+  // +-----------+-------------------------------------------------------
+  // | Iterators |
+  // +-----------+
+
+  /**
+   * Get an iterator for the values, in order of their keys.
+   */
+  public Iterator<V> iterator()
+  {
+    return new LeafIterator<V>(null, null)
+      {
+        V extract(ByteBuffer data, int i)
+        {
+          return BPlusTree.this.value(data, i);
+        } // extract(ByteBuffer, int)
+      }; // new LeafIterator<V>
+  } // iterator()
+
+  /**
+   * Get an Iterable for the keys.
+   */
+  public Iterable<K> keys()
+  {
+    return this.range(null, null);
+  } // keys()
+
+  /**
+   * Get an iterator for the keys, in order from smallest to largest.
+   */
+  public Iterator<K> keysIterator()
+  {
+    return this.rangeIterator(null, null);
+  } // keysIterator()
+
+  /**
+   * Get an Iterable for the keys k with lo <= k < hi, in order from
+   * smallest to largest.  Either bound may be null, in which case the
+   * range is unbounded at that end.
+   */
+  public Iterable<K> range(final K lo, final K hi)
+  {
+    return new Iterable<K>()
+      {
+        public Iterator<K> iterator()
+        {
+          return BPlusTree.this.rangeIterator(lo, hi);
+        } // iterator()
+      }; // new Iterable<K>
+  } // range(K, K)
+
+  /**
+   * Get an iterator for the keys k with lo <= k < hi, in order from
+   * smallest to largest.  Either bound may be null.  Finding the first
+   * key reads one path from the root, and after that we just follow
+   * the links between leaves.
+   */
+  public Iterator<K> rangeIterator(K lo, K hi)
+  {
+    return new LeafIterator<K>(lo, hi)
+      {
+        K extract(ByteBuffer data, int i)
+        {
+          return BPlusTree.this.key(data, i);
+        } // extract(ByteBuffer, int)
+      }; // new LeafIterator<K>
+  } // rangeIterator(K, K)
+
+  // +---------+---------------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Check and remember the page size.
+   */
+  void setPageBytes(int pageBytes)
+    throws IOException
+  {
+    if ((pageBytes < 64) || (pageBytes > MAX_PAGE_BYTES)
+        || ((pageBytes % 8) != 0))
+      {
+        throw new IOException("Bad page size: " + pageBytes);
+      } // if the page size is bad
+    this.pageBytes = pageBytes;
+    this.maxCell = (pageBytes - SLOTS_AT) / 4 - 2;
+    this.scratch = new byte[pageBytes];
+  } // setPageBytes(int)
+
+  /**
+   * Set up an empty tree in an empty file: the meta page and a single,
+   * empty leaf.
+   */
+  void create()
+    throws IOException
+  {
+    BufferPool.Page meta = this.pool.allocate();
+    BufferPool.Page leaf = this.pool.allocate();
+    initPage(leaf.data, LEAF, 0);
+    this.root = leaf.id;
+    this.size = 0;
+    this.height = 1;
+    this.pool.unpin(leaf, true);
+    this.pool.unpin(meta, true);
+  } // create()
+
+  /**
+   * Read the meta page of an existing file.
+   */
+  void open(int poolPages)
+    throws IOException
+  {
+    ByteBuffer meta = ByteBuffer.allocate(META_BYTES);
+    while (meta.hasRemaining())
+      {
+        if (this.channel.read(meta, meta.position()) < 0)
+          {
+            throw new IOException("Not a B+ tree: " + this.file);
+          } // if the file is too short
+      } // while
+    if ((meta.getInt(0) != MAGIC) || (meta.getInt(4) != VERSION))
+      {
+        throw new IOException("Not a B+ tree: " + this.file);
+      } // if the header is wrong
+    this.setPageBytes(meta.getInt(PAGE_BYTES_AT));
+    this.root = meta.getInt(ROOT_AT);
+    this.size = meta.getLong(SIZE_AT);
+    this.height = meta.getInt(HEIGHT_AT);
+    this.pool = new BufferPool(this.channel, this.pageBytes, poolPages,
+                               meta.getInt(PAGE_COUNT_AT));
+  } // open(int)
+
+  /**
+   * Pin a page, for the methods that can't throw IOExceptions.
+   */
+  BufferPool.Page pin(int id)
+  {
+    try
+      {
+        return this.pool.pin(id);
+      } // try
+    catch (IOException e)
+      {
+        throw new UncheckedIOException(e);
+      } // catch (IOException)
+  } // pin(int)
+
+  /**
+   * Find the value for a key, or ABSENT if the key isn't there.
+   */
+  Object lookup(K key)
+  {
+    int id = this.root;
+    while (true)
+      {
+        BufferPool.Page page = this.pin(id);
+        ByteBuffer data = page.data;
+        if (data.get(KIND_AT) == LEAF)
+          {
+            int i = this.search(data, key);
+            Object result = (i >= 0) ? this.value(data, i) : ABSENT;
+            this.pool.unpin(page, false);
+            return result;
+          } // if it's a leaf
+        id = this.child(data, key);
+        this.pool.unpin(page, false);
+      } // while
+  } // lookup(K)
+
+  /**
+   * Set a key in the subtree rooted at a page, where cell is the leaf
+   * cell for the key and its value.
+   *
+   * @return the cell to add to the page's parent if the page split,
+   *   or null if it didn't
+   */
+  byte[] insert(int id, K key, byte[] cell)
+    throws IOException
+  {
+    BufferPool.Page page = this.pool.pin(id);
+    boolean changed = false;
+    try
+      {
+        ByteBuffer data = page.data;
+        int i;
+        if (data.get(KIND_AT) == LEAF)
+          {
+            i = this.search(data, key);
+            if (i >= 0)
+              {
+                removeCell(data, i);
+              } // if the key is there
+            else
+              {
+                i = -i - 1;
+                ++this.size;
+              } // if the key is new
+          } // if it's a leaf
+        else
+          {
+            i = this.childIndex(data, key);
+            int child = (i < 0) ? data.getInt(LINK_AT) : childAt(data, i);
+            cell = this.insert(child, key, cell);
+            if (cell == null)
+              {
+                return null;
+              } // if the child didn't split
+            // The new child goes just after the one that split.
+            ++i;
+          } // if it's an internal page
+        changed = true;
+        if (this.insertCell(data, i, cell))
+          {
+            return null;
+          } // if the cell fits
+        return this.split(page, i, cell);
+      } // try
+    finally
+      {
+        this.pool.unpin(page, changed);
+      } // finally
+  } // insert(int, K, byte[])
+
+  /**
+   * Split a page that's too full to add a cell at index i.  We move
+   * about half the bytes to a new page after it.
+   *
+   * @return the cell to add to the parent for the new page
+   */
+  byte[] split(BufferPool.Page page, int i, byte[] cell)
+    throws IOException
+  {
+    ByteBuffer data = page.data;
+    byte kind = data.get(KIND_AT);
+    // Gather the cells, with the new one in its place.
+    int count = data.getShort(COUNT_AT);
+    ArrayList<byte[]> cells = new ArrayList<byte[]>(count + 1);
+    int total = 0;
+    for (int j = 0; j < count; j++)
+      {
+        cells.add(this.cellBytes(data, j));
+        total += cells.get(j).length;
+      } // for
+    cells.add(i, cell);
+    total += cell.length;
+    // Find the middle, by bytes.
+    int mid = 0;
+    for (int sum = 0; (mid < cells.size() - 1) && (sum < total / 2); mid++)
+      {
+        sum += cells.get(mid).length;
+      } // for
+    mid = Math.max(mid, 1);
+
+    BufferPool.Page right = this.pool.allocate();
+    try
+      {
+        byte[] up;
+        int first;  // The first cell that goes in the new page
+        if (kind == LEAF)
+          {
+            initPage(right.data, LEAF, data.getInt(LINK_AT));
+            initPage(data, LEAF, right.id);
+            first = mid;
+            up = internalCell(right.id, cells.get(mid),
+                              LEAF_CELL_HEADER,
+                              readChar(cells.get(mid), 0));
+          } // if it's a leaf
+        else
+          {
+            // The middle cell's key goes up, and its child becomes
+            // the new page's first child.
+            byte[] middle = cells.get(mid);
+            initPage(right.data, INTERNAL, readInt(middle, 0));
+            initPage(data, INTERNAL, data.getInt(LINK_AT));
+            first = mid + 1;
+            up = internalCell(right.id, middle, INTERNAL_CELL_HEADER,
+                              readChar(middle, 4));
+          } // if it's an internal page
+        for (int j = 0; j < mid; j++)
+          {
+            this.insertCell(data, j, cells.get(j));
+          } // for
+        for (int j = first; j < cells.size(); j++)
+          {
+            this.insertCell(right.data, j - first, cells.get(j));
+          } // for
+        return up;
+      } // try
+    finally
+      {
+        this.pool.unpin(right, true);
+      } // finally
+  } // split(BufferPool.Page, int, byte[])
+
+  /**
+   * Add sorted pairs to the (empty) tree, filling pages left to right.
+   */
+  void load(Iterator<K> keys, Iterator<V> values)
+    throws IOException
+  {
+    int limit = (int) (this.pageBytes * BULK_FILL);
+    ArrayList<BufferPool.Page> levels = new ArrayList<BufferPool.Page>();
+    BufferPool.Page leaf = this.pool.pin(this.root);
+    try
+      {
+        K last = null;
+        while (keys.hasNext())
+          {
+            K key = keys.next();
+            if ((this.size > 0) && (this.order.compare(last, key) >= 0))
+              {
+                throw new IllegalArgumentException("Keys out of order: "
+                                                   + last + " then " + key);
+              } // if the keys are out of order
+            last = key;
+            byte[] cell = this.leafCell(key, values.next());
+            if (filled(leaf.data) + cell.length + 2 > limit)
+              {
+                BufferPool.Page next = this.pool.allocate();
+                initPage(next.data, LEAF, 0);
+                leaf.data.putInt(LINK_AT, next.id);
+                int previous = leaf.id;
+                this.pool.unpin(leaf, true);
+                leaf = next;
+                this.append(levels, 0,
+                            internalCell(next.id, cell, LEAF_CELL_HEADER,
+                                         readChar(cell, 0)),
+                            previous);
+              } // if the leaf is full
+            this.insertCell(leaf.data, leaf.data.getShort(COUNT_AT), cell);
+            ++this.size;
+          } // while
+        this.root = levels.isEmpty() ? leaf.id
+                                     : levels.get(levels.size() - 1).id;
+        this.height = levels.size() + 1;
+      } // try
+    finally
+      {
+        this.pool.unpin(leaf, true);
+        for (BufferPool.Page page : levels)
+          {
+            this.pool.unpin(page, true);
+          } // for
+      } // finally
+  } // load(Iterator<K>, Iterator<V>)
+
+  /**
+   * Add an internal cell to the rightmost page at a level of a tree
+   * we're building bottom up.  (Level 0 is just above the leaves.)  If
+   * that page is full, the cell's child starts a new page, and the
+   * cell's key goes up a level.  left is the page just before the
+   * cell's child, which becomes the first child of the level's first
+   * page.
+   */
+  void append(ArrayList<BufferPool.Page> levels, int level, byte[] cell,
+              int left)
+    throws IOException
+  {
+    if (level == levels.size())
+      {
+        BufferPool.Page page = this.pool.allocate();
+        initPage(page.data, INTERNAL, left);
+        levels.add(page);
+      } // if it's a new level
+    BufferPool.Page page = levels.get(level);
+    ByteBuffer data = page.data;
+    if (filled(data) + cell.length + 2 <= (int) (this.pageBytes * BULK_FILL))
+      {
+        this.insertCell(data, data.getShort(COUNT_AT), cell);
+        return;
+      } // if there's room
+    BufferPool.Page next = this.pool.allocate();
+    initPage(next.data, INTERNAL, readInt(cell, 0));
+    levels.set(level, next);
+    try
+      {
+        writeInt(cell, 0, next.id);
+        this.append(levels, level + 1, cell, page.id);
+      } // try
+    finally
+      {
+        this.pool.unpin(page, true);
+      } // finally
+  } // append(ArrayList<BufferPool.Page>, int, byte[], int)
+
+  /**
+   * Build the leaf cell for a pair.
+   *
+   * @throws IllegalArgumentException
+   *   if it's too big
+   */
+  byte[] leafCell(K key, V value)
+  {
+    byte[] keyBytes = this.keyCodec.encode(key);
+    byte[] valueBytes = (value == null) ? new byte[0]
+                                        : this.valueCodec.encode(value);
+    int length = LEAF_CELL_HEADER + keyBytes.length + valueBytes.length;
+    if (length > this.maxCell)
+      {
+        throw new IllegalArgumentException("Pair of " + length
+                                           + " bytes won't fit in a page");
+      } // if it's too big
+    byte[] cell = new byte[length];
+    writeChar(cell, 0, keyBytes.length);
+    writeChar(cell, 2, (value == null) ? NULL_LENGTH : valueBytes.length);
+    System.arraycopy(keyBytes, 0, cell, LEAF_CELL_HEADER, keyBytes.length);
+    System.arraycopy(valueBytes, 0, cell,
+                     LEAF_CELL_HEADER + keyBytes.length, valueBytes.length);
+    return cell;
+  } // leafCell(K, V)
+
+  /**
+   * Build an internal cell for a child, with the key of length
+   * keyLength at offset keyAt of another cell.
+   */
+  static byte[] internalCell(int child, byte[] source, int keyAt,
+                             int keyLength)
+  {
+    byte[] cell = new byte[INTERNAL_CELL_HEADER + keyLength];
+    writeInt(cell, 0, child);
+    writeChar(cell, 4, keyLength);
+    System.arraycopy(source, keyAt, cell, INTERNAL_CELL_HEADER, keyLength);
+    return cell;
+  } // internalCell(int, byte[], int, int)
+
+  /**
+   * Add a cell at index i of a page, compacting the page if that makes
+   * room.
+   *
+   * @return false if there's no room
+   */
+  boolean insertCell(ByteBuffer data, int i, byte[] cell)
+  {
+    int count = data.getShort(COUNT_AT);
+    int need = cell.length + 2;
+    if (data.getChar(FREE_AT) - (SLOTS_AT + 2 * count) < need)
+      {
+        if (this.pageBytes - used(data) < need)
+          {
+            return false;
+          } // if there isn't enough room even after compacting
+        this.compact(data);
+      } // if there isn't enough room in one piece
+    int at = data.getChar(FREE_AT) - cell.length;
+    data.put(at, cell);
+    data.putChar(FREE_AT, (char) at);
+    for (int j = count; j > i; j--)
+      {
+        data.putChar(SLOTS_AT + 2 * j, data.getChar(SLOTS_AT + 2 * j - 2));
+      } // for
+    data.putChar(SLOTS_AT + 2 * i, (char) at);
+    data.putShort(COUNT_AT, (short) (count + 1));
+    return true;
+  } // insertCell(ByteBuffer, int, byte[])
+
+  /**
+   * Move a page's cells together at the end of the page.
+   */
+  void compact(ByteBuffer data)
+  {
+    int count = data.getShort(COUNT_AT);
+    int at = this.pageBytes;
+    for (int i = 0; i < count; i++)
+      {
+        int slot = data.getChar(SLOTS_AT + 2 * i);
+        int length = this.cellLength(data, slot);
+        at -= length;
+        data.get(slot, this.scratch, at, length);
+        data.putChar(SLOTS_AT + 2 * i, (char) at);
+      } // for
+    data.put(at, this.scratch, at, this.pageBytes - at);
+    data.putChar(FREE_AT, (char) at);
+  } // compact(ByteBuffer)
+
+  /**
+   * Find the index of a key in a page.  If it isn't there, return
+   * -(i + 1), where i is the index it would go at.
+   */
+  int search(ByteBuffer data, K key)
+  {
+    int lb = 0;
+    int ub = data.getShort(COUNT_AT) - 1;
+    while (lb <= ub)
+      {
+        int mid = (lb + ub) >>> 1;
+        int comparison = this.order.compare(this.key(data, mid), key);
+        if (comparison < 0)
+          lb = mid + 1;
+        else if (comparison > 0)
+          ub = mid - 1;
+        else
+          return mid;
+      } // while
+    return -(lb + 1);
+  } // search(ByteBuffer, K)
+
+  /**
+   * Find the index of the cell of an internal page whose child holds a
+   * key, or -1 if it's the first child.
+   */
+  int childIndex(ByteBuffer data, K key)
+  {
+    int i = this.search(data, key);
+    return (i >= 0) ? i : -i - 2;
+  } // childIndex(ByteBuffer, K)
+
+  /**
+   * Find the child of an internal page that holds a key.
+   */
+  int child(ByteBuffer data, K key)
+  {
+    int i = this.childIndex(data, key);
+    return (i < 0) ? data.getInt(LINK_AT) : childAt(data, i);
+  } // child(ByteBuffer, K)
+
+  /**
+   * Decode the key of the ith cell of a page.
+   */
+  K key(ByteBuffer data, int i)
+  {
+    int cell = data.getChar(SLOTS_AT + 2 * i);
+    byte[] bytes;
+    if (data.get(KIND_AT) == LEAF)
+      {
+        bytes = new byte[data.getChar(cell)];
+        data.get(cell + LEAF_CELL_HEADER, bytes);
+      } // if it's a leaf
+    else
+      {
+        bytes = new byte[data.getChar(cell + 4)];
+        data.get(cell + INTERNAL_CELL_HEADER, bytes);
+      } // if it's an internal page
+    return this.keyCodec.decode(bytes);
+  } // key(ByteBuffer, int)
+
+  /**
+   * Decode the value of the ith cell of a leaf.
+   */
+  V value(ByteBuffer data, int i)
+  {
+    int cell = data.getChar(SLOTS_AT + 2 * i);
+    int keyLength = data.getChar(cell);
+    int valueLength = data.getShort(cell + 2);
+    if (valueLength == NULL_LENGTH)
+      {
+        return null;
+      } // if the value is null
+    byte[] bytes = new byte[valueLength];
+    data.get(cell + LEAF_CELL_HEADER + keyLength, bytes);
+    return this.valueCodec.decode(bytes);
+  } // value(ByteBuffer, int)
+
+  /**
+   * Copy the ith cell of a page.
+   */
+  byte[] cellBytes(ByteBuffer data, int i)
+  {
+    int cell = data.getChar(SLOTS_AT + 2 * i);
+    byte[] bytes = new byte[this.cellLength(data, cell)];
+    data.get(cell, bytes);
+    return bytes;
+  } // cellBytes(ByteBuffer, int)
+
+  /**
+   * Find the length of the cell at an offset in a page.
+   */
+  int cellLength(ByteBuffer data, int cell)
+  {
+    if (data.get(KIND_AT) == LEAF)
+      {
+        return LEAF_CELL_HEADER + data.getChar(cell)
+               + Math.max(data.getShort(cell + 2), 0);
+      } // if it's a leaf
+    return INTERNAL_CELL_HEADER + data.getChar(cell + 4);
+  } // cellLength(ByteBuffer, int)
+
+  /**
+   * Find the number of bytes a page uses for its header, slots, and
+   * cells, not counting any holes between the cells.
+   */
+  int used(ByteBuffer data)
+  {
+    int count = data.getShort(COUNT_AT);
+    int used = SLOTS_AT + 2 * count;
+    for (int i = 0; i < count; i++)
+      {
+        used += this.cellLength(data, data.getChar(SLOTS_AT + 2 * i));
+      } // for
+    return used;
+  } // used(ByteBuffer)
+
+  /**
+   * Find the number of bytes from the start of a page to the end of
+   * its slots, plus the bytes from the start of its cells to the end
+   * of the page.  That's the same as used for a page with no holes
+   * between its cells (e.g., one we're building), and much faster.
+   */
+  int filled(ByteBuffer data)
+  {
+    return SLOTS_AT + 2 * data.getShort(COUNT_AT)
+           + (this.pageBytes - data.getChar(FREE_AT));
+  } // filled(ByteBuffer)
+
+  // +-----------------+-------------------------------------------------
+  // | Local Utilities |
+  // +-----------------+
+
+  /**
+   * Make a page empty, of a given kind, with a given link.
+   */
+  void initPage(ByteBuffer data, byte kind, int link)
+  {
+    data.put(KIND_AT, kind);
+    data.putShort(COUNT_AT, (short) 0);
+    data.putInt(LINK_AT, link);
+    data.putChar(FREE_AT, (char) this.pageBytes);
+  } // initPage(ByteBuffer, byte, int)
+
+  /**
+   * Get the child of the ith cell of an internal page.
+   */
+  static int childAt(ByteBuffer data, int i)
+  {
+    return data.getInt(data.getChar(SLOTS_AT + 2 * i));
+  } // childAt(ByteBuffer, int)
+
+  /**
+   * Take the ith cell out of a page.  Its bytes become a hole that
+   * compact will reclaim.
+   */
+  static void removeCell(ByteBuffer data, int i)
+  {
+    int count = data.getShort(COUNT_AT);
+    for (int j = i; j < count - 1; j++)
+      {
+        data.putChar(SLOTS_AT + 2 * j, data.getChar(SLOTS_AT + 2 * j + 2));
+      } // for
+    data.putShort(COUNT_AT, (short) (count - 1));
+  } // removeCell(ByteBuffer, int)
+
+  /**
+   * Read a two-byte unsigned number from an array.
+   */
+  static int readChar(byte[] bytes, int at)
+  {
+    return ((bytes[at] & 0xff) << 8) | (bytes[at + 1] & 0xff);
+  } // readChar(byte[], int)
+
+  /**
+   * Read a four-byte number from an array.
+   */
+  static int readInt(byte[] bytes, int at)
+  {
+    return (readChar(bytes, at) << 16) | readChar(bytes, at + 2);
+  } // readInt(byte[], int)
+
+  /**
+   * Write a two-byte number into an array.
+   */
+  static void writeChar(byte[] bytes, int at, int n)
+  {
+    bytes[at] = (byte) (n >>> 8);
+    bytes[at + 1] = (byte) n;
+  } // writeChar(byte[], int, int)
+
+  /**
+   * Write a four-byte number into an array.
+   */
+  static void writeInt(byte[] bytes, int at, int n)
+  {
+    writeChar(bytes, at, n >>> 16);
+    writeChar(bytes, at + 2, n);
+  } // writeInt(byte[], int, int)
+
+  // +---------------+---------------------------------------------------
+  // | Inner Classes |
+  // +---------------+
+
+  /**
+   * An iterator over the cells of the leaves, from a starting key up
+   * to (but not including) an ending key.  Subclasses decide what to
+   * return for each cell.
+   */
+  abstract class LeafIterator<T>
+      implements Iterator<T>
+  {
+    /**
+     * The leaf we're in, or 0 when we've run out of leaves.
+     */
+    int leaf;
+
+    /**
+     * The index of the next cell in the leaf.
+     */
+    int index;
+
+    /**
+     * The upper bound of the range (exclusive), or null.
+     */
+    K hi;
+
+    /**
+     * Iterate the cells with keys k such that lo <= k < hi.  Either
+     * bound may be null.
+     */
+    LeafIterator(K lo, K hi)
+    {
+      this.hi = hi;
+      // Go down to the leaf that would hold lo (or the first leaf).
+      int id = BPlusTree.this.root;
+      while (true)
+        {
+          BufferPool.Page page = BPlusTree.this.pin(id);
+          ByteBuffer data = page.data;
+          if (data.get(KIND_AT) == LEAF)
+            {
+              this.leaf = id;
+              this.index = 0;
+              if (lo != null)
+                {
+                  int i = BPlusTree.this.search(data, lo);
+                  this.index = (i >= 0) ? i : -i - 1;
+                } // if there's a lower bound
+              BPlusTree.this.pool.unpin(page, false);
+              return;
+            } // if it's a leaf
+          id = (lo == null) ? data.getInt(LINK_AT)
+                            : BPlusTree.this.child(data, lo);
+          BPlusTree.this.pool.unpin(page, false);
+        } // while
+    } // LeafIterator(K, K)
+
+    /**
+     * Get the value to return for the ith cell of a leaf.
+     */
+    abstract T extract(ByteBuffer data, int i);
+
+    public boolean hasNext()
+    {
+      // Skip past the ends of leaves (and empty leaves).
+      while (this.leaf != 0)
+        {
+          BufferPool.Page page = BPlusTree.this.pin(this.leaf);
+          ByteBuffer data = page.data;
+          if (this.index < data.getShort(COUNT_AT))
+            {
+              boolean result =
+                  (this.hi == null)
+                  || (order.compare(BPlusTree.this.key(data, this.index),
+                                    this.hi) < 0);
+              BPlusTree.this.pool.unpin(page, false);
+              return result;
+            } // if there's another cell in this leaf
+          this.leaf = data.getInt(LINK_AT);
+          this.index = 0;
+          BPlusTree.this.pool.unpin(page, false);
+        } // while
+      return false;
+    } // hasNext()
+
+    public T next()
+    {
+      if (!this.hasNext())
+        {
+          throw new NoSuchElementException();
+        } // if there are no more elements
+      BufferPool.Page page = BPlusTree.this.pin(this.leaf);
+      T result = extract(page.data, this.index++);
+      BPlusTree.this.pool.unpin(page, false);
+      return result;
+    } // next()
+
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    } // remove()
+  } // class LeafIterator<T>
+
+} // class BPlusTree<K,V>
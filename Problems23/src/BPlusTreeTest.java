@@ -0,0 +1,357 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Tests for disk-based B+ trees and their buffer pools.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class BPlusTreeTest
+{
+  // +--------+----------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The usual order for integers.
+   */
+  Comparator<Integer> order = new Comparator<Integer>()
+    {
+      public int compare(Integer left, Integer right)
+      {
+        return left.compareTo(right);
+      } // compare(Integer, Integer)
+    }; // new Comparator<Integer>
+
+  // +-------+-----------------------------------------------------------
+  // | Tests |
+  // +-------+
+
+  /**
+   * Lots of random sets, removes, and lookups, compared with a TreeMap.
+   * The pages are tiny, so we split all the time, and the pool is
+   * small, so we evict all the time.  We close and reopen the tree
+   * along the way, and it should pick up where it left off.
+   */
+  @Test
+  public void randomTest()
+    throws Exception
+  {
+    File file = Files.createTempFile("bplus", ".bpt").toFile();
+    Random rand = new Random();
+    TreeMap<Integer, String> map = new TreeMap<Integer, String>();
+    BPlusTree<Integer, String> tree = open(file);
+    for (int i = 0; i < 50000; i++)
+      {
+        Integer key = rand.nextInt(5000);
+        int op = rand.nextInt(10);
+        if (op < 5)
+          {
+            // Values of different lengths, so that replacing a value
+            // can leave holes or force a split.
+            String value = (op == 0) ? null
+                                     : ("v" + rand.nextInt(1 << (i % 20)));
+            tree.set(key, value);
+            map.put(key, value);
+          } // if it's a set
+        else if (op < 8)
+          {
+            assertEquals(map.containsKey(key), tree.containsKey(key));
+            assertEquals(map.get(key), tree.getOrDefault(key, null));
+          } // if it's a lookup
+        else
+          {
+            tree.remove(key);
+            map.remove(key);
+          } // if it's a remove
+        if ((i % 10000) == 0)
+          {
+            tree.close();
+            tree = open(file);
+          } // if it's time to reopen
+      } // for
+    assertTrue(tree.height() > 2);
+    assertTrue(tree.pool.misses() > 0);
+    checkContents(map, tree);
+    checkRanges(map, tree, rand);
+    tree.close();
+    tree = open(file);
+    checkContents(map, tree);
+    // Clearing should shrink the file back down.
+    tree.clear();
+    assertEquals(0, tree.size());
+    assertFalse(tree.keys().iterator().hasNext());
+    tree.close();
+    assertTrue(file.length() <= 2 * 256);
+    file.delete();
+  } // randomTest()
+
+  /**
+   * Bulk loading should build a full, shallow tree that works like
+   * any other.
+   */
+  @Test
+  public void bulkLoadTest()
+    throws Exception
+  {
+    File file = Files.createTempFile("bplus", ".bpt").toFile();
+    final int n = 200000;
+    TreeMap<Integer, String> map = new TreeMap<Integer, String>();
+    for (int i = 0; i < n; i++)
+      {
+        map.put(2 * i, "v" + i);
+      } // for
+    BPlusTree<Integer, String> tree =
+        BPlusTree.fromSorted(file, order, Codec.INTEGERS, Codec.STRINGS,
+                             map.keySet().iterator(),
+                             map.values().iterator());
+    assertEquals(n, tree.size());
+    // About 200 pairs fit in a 4 KB leaf, and about 300 keys in an
+    // internal page, so 200,000 pairs need three levels.
+    assertEquals(3, tree.height());
+    checkContents(map, tree);
+    // Sets should still work, including ones that split.
+    Random rand = new Random();
+    for (int i = 0; i < 10000; i++)
+      {
+        Integer key = rand.nextInt(2 * n);
+        tree.set(key, "new" + i);
+        map.put(key, "new" + i);
+      } // for
+    checkContents(map, tree);
+    checkRanges(map, tree, rand);
+    tree.close();
+
+    // Keys out of order shouldn't load.
+    ArrayList<Integer> keys = new ArrayList<Integer>(map.keySet());
+    keys.set(1000, keys.get(999));
+    try
+      {
+        BPlusTree.fromSorted(file, order, Codec.INTEGERS, Codec.STRINGS,
+                             keys.iterator(), map.values().iterator());
+        fail("loaded keys out of order");
+      } // try
+    catch (IllegalArgumentException e)
+      {
+        // That's what we want.
+      } // catch (IllegalArgumentException)
+    file.delete();
+  } // bulkLoadTest()
+
+  /**
+   * The buffer pool should evict the least recently used unpinned page,
+   * write dirty pages back, and refuse to evict pinned ones.
+   */
+  @Test
+  public void poolTest()
+    throws Exception
+  {
+    File file = Files.createTempFile("pool", ".dat").toFile();
+    FileChannel channel = FileChannel.open(file.toPath(),
+                                           StandardOpenOption.READ,
+                                           StandardOpenOption.WRITE);
+    BufferPool pool = new BufferPool(channel, 64, 2, 0);
+    BufferPool.Page zero = pool.allocate();
+    BufferPool.Page one = pool.allocate();
+    zero.data.putInt(0, 1000);
+    one.data.putInt(0, 1001);
+    pool.unpin(zero, true);
+    pool.unpin(one, true);
+    // Page 0 is the least recently used, so page 2 replaces it.
+    BufferPool.Page two = pool.allocate();
+    assertEquals(64, channel.size());
+    try
+      {
+        // Page 1 can go, but then there's nothing left.
+        pool.pin(0);
+        pool.pin(3);
+        fail("evicted a pinned page");
+      } // try
+    catch (IllegalStateException e)
+      {
+        // That's what we want.
+      } // catch (IllegalStateException)
+    assertEquals(1000, pool.frames.get(0).data.getInt(0));
+    assertEquals(2, pool.misses());
+    pool.unpin(two, false);
+    pool.unpin(pool.frames.get(0), false);
+    assertEquals(1001, pool.pin(1).data.getInt(0));
+    assertEquals(0, pool.hits());
+    channel.close();
+    file.delete();
+  } // poolTest()
+
+  /**
+   * A failed read or write shouldn't leave the pool with a frame it
+   * can never evict, or a victim that's half gone.
+   */
+  @Test
+  public void poolFailureTest()
+    throws Exception
+  {
+    File file = Files.createTempFile("pool", ".dat").toFile();
+    FileChannel channel = FileChannel.open(file.toPath(),
+                                           StandardOpenOption.READ,
+                                           StandardOpenOption.WRITE);
+    BufferPool pool = new BufferPool(channel, 64, 1, 0);
+    BufferPool.Page zero = pool.allocate();
+    zero.data.putInt(0, 1000);
+    pool.unpin(zero, true);
+    // With the channel closed, writing back page 0 fails, so page 0
+    // should stay put.
+    channel.close();
+    try
+      {
+        pool.pin(1);
+        fail("evicted a page we couldn't write");
+      } // try
+    catch (IOException e)
+      {
+        // That's what we want.
+      } // catch (IOException)
+    assertSame(zero, pool.frames.get(0));
+    assertSame(zero, pool.header.after);
+    assertEquals(1, pool.frames.size());
+
+    // Now let the write work, but not the read.
+    pool.channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+    try
+      {
+        pool.pin(1);
+        fail("pinned a page we couldn't read");
+      } // try
+    catch (NonReadableChannelException e)
+      {
+        // That's what we want.
+      } // catch (NonReadableChannelException)
+    assertTrue(pool.frames.isEmpty());
+    pool.channel.close();
+
+    // With a working channel, the pool should carry on.
+    pool.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE);
+    assertEquals(1000, pool.pin(0).data.getInt(0));
+    pool.channel.close();
+    file.delete();
+  } // poolFailureTest()
+
+  /**
+   * We shouldn't open files that aren't trees, though we can replace
+   * them with a bulk load.
+   */
+  @Test
+  public void badFileTest()
+    throws Exception
+  {
+    File file = Files.createTempFile("bad", ".bpt").toFile();
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(new byte[100]);
+    out.close();
+    try
+      {
+        open(file);
+        fail("opened a file that isn't a tree");
+      } // try
+    catch (IOException e)
+      {
+        // That's what we want.
+      } // catch (IOException)
+    // But we can bulk load over it.
+    TreeMap<Integer, String> map = new TreeMap<Integer, String>();
+    map.put(1, "one");
+    map.put(2, "two");
+    BPlusTree<Integer, String> tree =
+        BPlusTree.fromSorted(file, order, Codec.INTEGERS, Codec.STRINGS,
+                             map.keySet().iterator(),
+                             map.values().iterator());
+    checkContents(map, tree);
+    tree.close();
+    file.delete();
+  } // badFileTest()
+
+  // +---------+---------------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Open a tree with tiny pages and a tiny pool.
+   */
+  BPlusTree<Integer, String> open(File file)
+    throws IOException
+  {
+    return new BPlusTree<Integer, String>(file, order, Codec.INTEGERS,
+                                          Codec.STRINGS, 256, 16);
+  } // open(File)
+
+  /**
+   * Check that a tree has exactly the entries in a map, and iterates
+   * them in order.
+   */
+  static void checkContents(TreeMap<Integer, String> map,
+                            BPlusTree<Integer, String> tree)
+    throws Exception
+  {
+    assertEquals(map.size(), tree.size());
+    for (Integer key : map.keySet())
+      {
+        assertEquals(map.get(key), tree.get(key));
+      } // for
+    ArrayList<Integer> keys = new ArrayList<Integer>();
+    for (Integer key : tree.keys())
+      {
+        keys.add(key);
+      } // for
+    assertEquals(new ArrayList<Integer>(map.keySet()), keys);
+    ArrayList<String> values = new ArrayList<String>();
+    Iterator<String> it = tree.iterator();
+    while (it.hasNext())
+      {
+        values.add(it.next());
+      } // while
+    assertEquals(new ArrayList<String>(map.values()), values);
+  } // checkContents(TreeMap<Integer, String>, BPlusTree<...>)
+
+  /**
+   * Check some random ranges against a map.
+   */
+  static void checkRanges(TreeMap<Integer, String> map,
+                          BPlusTree<Integer, String> tree, Random rand)
+  {
+    int max = map.lastKey() + 2;
+    for (int i = 0; i < 100; i++)
+      {
+        Integer lo = rand.nextInt(max);
+        Integer hi = lo + rand.nextInt(max / 10 + 1);
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (Integer key : tree.range(lo, hi))
+          {
+            keys.add(key);
+          } // for
+        assertEquals(new ArrayList<Integer>(map.subMap(lo, hi).keySet()),
+                     keys);
+      } // for
+    ArrayList<Integer> keys = new ArrayList<Integer>();
+    for (Integer key : tree.range(null, map.firstKey() + 1))
+      {
+        keys.add(key);
+      } // for
+    assertEquals(1, keys.size());
+  } // checkRanges(TreeMap<Integer, String>, BPlusTree<...>, Random)
+
+} // class BPlusTreeTest
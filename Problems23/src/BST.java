@@ -1,9 +1,16 @@
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.Stack;
+
+import java.util.function.BiConsumer;
 
 /**
  * Dictionaries implemented as binary search trees.
@@ -35,6 +42,42 @@ public class BST<K, V>
      The right subtree contains entries with keys larger than the
      key of the node.
 
+     If the tree is built as a balanced tree, we keep it balanced as
+     an AVL tree: each node records the height of its subtree, and
+     after every insertion or removal we rotate any node whose subtrees
+     differ in height by more than one.  That keeps the height below
+     about 1.44 log2(n), even when the keys arrive in order.  Unbalanced
+     trees don't bother with the heights.
+
+     find, insert, and remove use loops rather than recursion, so that
+     an unbalanced tree that has degenerated into a long list can't
+     overflow the stack.  To rebalance, insert and remove remember the
+     path from the root in an array, which is never longer than the
+     height of the tree.
+
+     Every node also records the number of nodes in its subtree, which
+     gives us the size of the tree, and lets us find the rank of a key
+     or the key of a given rank, in time proportional to the height.
+     insert and remove adjust the sizes on the way down, and undo the
+     change if the key turns out to be there (insert) or not there
+     (remove).
+
+     When we have all of the key/value pairs up front, fromSorted and
+     fromUnsorted build a perfectly balanced tree directly: the middle
+     pair goes at the root, and the two halves become the subtrees.
+     That's linear for sorted input, and fromUnsorted gets sorted input
+     with a merge sort.  A perfectly balanced tree is also an AVL tree,
+     so the result can be used in either mode.
+
+     snapshot writes the pairs in order and marks the snapshot as
+     sorted, so fromSnapshot can hand them straight to fromSorted as
+     it reads them, without sorting or buffering.  (See Snapshot.java
+     for the format.)
+
+     Iteration is in order, from the smallest key to the largest, so
+     the tree also supports ordered navigation (firstKey, floorKey,
+     and so on) and range scans that only visit the keys in the range.
+
    */
 
   // +--------+----------------------------------------------------------
@@ -51,6 +94,11 @@ public class BST<K, V>
    */
   Comparator<K> order;
 
+  /**
+   * Whether we keep the tree balanced.
+   */
+  boolean balanced;
+
   // +--------------+----------------------------------------------------
   // | Constructors |
   // +--------------+
@@ -59,10 +107,207 @@ public class BST<K, V>
    * Create a new BST
    */
   public BST(Comparator<K> order)
+  {
+    this(order, false);
+  } // BST(Comparator<K>)
+
+  /**
+   * Create a new BST that, if balanced is true, rebalances itself on
+   * every insertion and removal, so that lookups take O(log n) time
+   * even when the keys arrive in sorted order.
+   */
+  public BST(Comparator<K> order, boolean balanced)
   {
     this.root = null;
     this.order = order;
-  } // BST
+    this.balanced = balanced;
+  } // BST(Comparator<K>, boolean)
+
+  // +-----------+-------------------------------------------------------
+  // | Factories |
+  // +-----------+
+
+  /**
+   * Build a perfectly balanced tree from keys that are already sorted,
+   * in linear time.  values[i] is the value for keys[i].  (Calling set
+   * for each key would take O(n log n) time for a balanced tree and
+   * O(n^2) for an unbalanced one.)
+   *
+   * @throws IllegalArgumentException
+   *   if keys is not in strictly increasing order or if keys and values
+   *   have different lengths.
+   */
+  public static <K, V> BST<K, V> fromSorted(Comparator<K> order,
+                                            boolean balanced, K[] keys,
+                                            V[] values)
+  {
+    if (keys.length != values.length)
+      {
+        throw new IllegalArgumentException("Different numbers of keys ("
+                                           + keys.length + ") and values ("
+                                           + values.length + ")");
+      } // if the lengths differ
+    return fromSorted(order, balanced, Arrays.asList(keys).iterator(),
+                      Arrays.asList(values).iterator(), keys.length);
+  } // fromSorted(Comparator<K>, boolean, K[], V[])
+
+  /**
+   * Build a perfectly balanced tree from the first n keys and values
+   * returned by two iterators, in linear time.  The keys must come in
+   * sorted order, and the ith value goes with the ith key.
+   *
+   * @throws IllegalArgumentException
+   *   if the keys are not in strictly increasing order.
+   * @throws NoSuchElementException
+   *   if either iterator has fewer than n elements.
+   */
+  public static <K, V> BST<K, V> fromSorted(Comparator<K> order,
+                                            boolean balanced,
+                                            Iterator<K> keys,
+                                            Iterator<V> values, int n)
+  {
+    BST<K, V> tree = new BST<K, V>(order, balanced);
+    tree.root = tree.new SortedBuilder(keys, values).build(n);
+    return tree;
+  } // fromSorted(Comparator<K>, boolean, Iterator<K>, Iterator<V>, int)
+
+  /**
+   * Build a perfectly balanced tree from keys in any order, in
+   * O(n log n) time.  values[i] is the value for keys[i].  If a key
+   * appears more than once, the last value wins, just as if we had
+   * called set for each pair in turn.
+   *
+   * @throws IllegalArgumentException
+   *   if keys and values have different lengths.
+   */
+  public static <K, V> BST<K, V> fromUnsorted(final Comparator<K> order,
+                                              boolean balanced, K[] keys,
+                                              V[] values)
+  {
+    if (keys.length != values.length)
+      {
+        throw new IllegalArgumentException("Different numbers of keys ("
+                                           + keys.length + ") and values ("
+                                           + values.length + ")");
+      } // if the lengths differ
+    BST<K, V> tree = new BST<K, V>(order, balanced);
+    BST<K, V>.BSTNode[] nodes = tree.newPath(keys.length);
+    for (int i = 0; i < keys.length; i++)
+      {
+        nodes[i] = tree.new BSTNode(keys[i], values[i]);
+      } // for
+
+    // Sort the nodes.  Merge sort is stable, so the nodes with the
+    // same key stay in the order they were given.
+    Utils.mergeSort(new Comparator<BST<K, V>.BSTNode>()
+      {
+        public int compare(BST<K, V>.BSTNode left, BST<K, V>.BSTNode right)
+        {
+          return order.compare(left.key, right.key);
+        } // compare(BSTNode, BSTNode)
+      }, nodes);
+
+    // Keep only the last node with each key.
+    int n = 0;
+    for (int i = 0; i < nodes.length; i++)
+      {
+        if ((n > 0) && (order.compare(nodes[n - 1].key, nodes[i].key) == 0))
+          {
+            nodes[n - 1] = nodes[i];
+          } // if it's a duplicate
+        else
+          {
+            nodes[n++] = nodes[i];
+          } // if it's a new key
+      } // for
+
+    tree.root = tree.build(nodes, 0, n);
+    return tree;
+  } // fromUnsorted(Comparator<K>, boolean, K[], V[])
+
+  /**
+   * Build a perfectly balanced tree from a snapshot.  Sorted snapshots
+   * (like the ones snapshot writes) take linear time; others take
+   * O(n log n), as in fromUnsorted.
+   *
+   * @throws IOException
+   *   if we can't read the channel or it doesn't hold a snapshot
+   * @throws IllegalArgumentException
+   *   if the snapshot claims to be sorted but isn't
+   */
+  @SuppressWarnings("unchecked")
+  public static <K, V> BST<K, V> fromSnapshot(Comparator<K> order,
+                                              boolean balanced,
+                                              ReadableByteChannel in,
+                                              Codec<K> keyCodec,
+                                              Codec<V> valueCodec)
+    throws IOException
+  {
+    final Snapshot.Reader<K, V> reader =
+        new Snapshot.Reader<K, V>(in, keyCodec, valueCodec);
+    if (reader.count() > Integer.MAX_VALUE)
+      {
+        throw new IOException("Too many entries: " + reader.count());
+      } // if the tree would be too big
+    int n = (int) reader.count();
+    if (!reader.sorted())
+      {
+        K[] keys = (K[]) new Object[n];
+        V[] values = (V[]) new Object[n];
+        for (int i = 0; reader.next(); i++)
+          {
+            keys[i] = reader.key();
+            values[i] = reader.value();
+          } // for
+        return fromUnsorted(order, balanced, keys, values);
+      } // if the snapshot isn't sorted
+    // SortedBuilder asks for each key and then its value, so the keys
+    // iterator reads the next entry and the values iterator returns
+    // its value.
+    Iterator<K> keys = new Iterator<K>()
+      {
+        public boolean hasNext()
+        {
+          return true;
+        } // hasNext()
+
+        public K next()
+        {
+          try
+            {
+              if (!reader.next())
+                {
+                  throw new NoSuchElementException();
+                } // if there are no more entries
+            } // try
+          catch (IOException e)
+            {
+              throw new UncheckedIOException(e);
+            } // catch (IOException)
+          return reader.key();
+        } // next()
+      }; // new Iterator<K>
+    Iterator<V> values = new Iterator<V>()
+      {
+        public boolean hasNext()
+        {
+          return true;
+        } // hasNext()
+
+        public V next()
+        {
+          return reader.value();
+        } // next()
+      }; // new Iterator<V>
+    try
+      {
+        return fromSorted(order, balanced, keys, values, n);
+      } // try
+    catch (UncheckedIOException e)
+      {
+        throw e.getCause();
+      } // catch (UncheckedIOException)
+  } // fromSnapshot(Comparator<K>, boolean, ReadableByteChannel, ...)
 
   // +-----------+-------------------------------------------------------
   // | Observers |
@@ -79,12 +324,30 @@ public class BST<K, V>
     return node.value;
   } // get(K)
 
+  public V getOrDefault(K key, V defaultValue)
+  {
+    BSTNode node = find(this.root, key);
+    if (node == null)
+      {
+        return defaultValue;
+      } // if not found
+    return node.value;
+  } // getOrDefault(K, V)
+
   public boolean containsKey(K key)
   {
     BSTNode node = find(this.root, key);
     return node != null;
   } // containsKey(K)
 
+  /**
+   * Get the number of key/value pairs in the tree.
+   */
+  public int size()
+  {
+    return size(this.root);
+  } // size()
+
   /**
    * Dump a simple textual representation of the tree.
    */
@@ -93,6 +356,222 @@ public class BST<K, V>
     dump(pen, this.root, "");
   } // dump(PrintWriter)
 
+  /**
+   * Write a sorted snapshot of the tree (see Snapshot.java).
+   */
+  public void snapshot(WritableByteChannel out, Codec<K> keyCodec,
+                       Codec<V> valueCodec)
+    throws IOException
+  {
+    final Snapshot.Writer<K, V> writer =
+        new Snapshot.Writer<K, V>(out, keyCodec, valueCodec, this.size(),
+                                  true);
+    try
+      {
+        this.forEach(new BiConsumer<K, V>()
+          {
+            public void accept(K key, V value)
+            {
+              try
+                {
+                  writer.write(key, value);
+                } // try
+              catch (IOException e)
+                {
+                  throw new UncheckedIOException(e);
+                } // catch (IOException)
+            } // accept(K, V)
+          }); // new BiConsumer<K, V>
+      } // try
+    catch (UncheckedIOException e)
+      {
+        throw e.getCause();
+      } // catch (UncheckedIOException)
+    writer.finish();
+  } // snapshot(WritableByteChannel, Codec<K>, Codec<V>)
+
+  // +------------+------------------------------------------------------
+  // | Navigation |
+  // +------------+
+
+  /**
+   * Get the smallest key in the tree.
+   *
+   * @throws NoSuchElementException if the tree is empty.
+   */
+  public K firstKey()
+  {
+    BSTNode node = this.root;
+    if (node == null)
+      {
+        throw new NoSuchElementException();
+      } // if the tree is empty
+    while (node.smaller != null)
+      {
+        node = node.smaller;
+      } // while
+    return node.key;
+  } // firstKey()
+
+  /**
+   * Get the largest key in the tree.
+   *
+   * @throws NoSuchElementException if the tree is empty.
+   */
+  public K lastKey()
+  {
+    BSTNode node = this.root;
+    if (node == null)
+      {
+        throw new NoSuchElementException();
+      } // if the tree is empty
+    while (node.larger != null)
+      {
+        node = node.larger;
+      } // while
+    return node.key;
+  } // lastKey()
+
+  /**
+   * Get the largest key in the tree that is less than or equal to key.
+   *
+   * @return that key, or null if there is no such key.
+   */
+  public K floorKey(K key)
+  {
+    BSTNode node = this.root;
+    BSTNode best = null;
+    while (node != null)
+      {
+        int tmp = order.compare(key, node.key);
+        if (tmp == 0)
+          {
+            return node.key;
+          }
+        else if (tmp < 0)
+          {
+            node = node.smaller;
+          }
+        else
+          {
+            // node is a candidate, but there may be a closer one
+            // in its larger subtree.
+            best = node;
+            node = node.larger;
+          } // if the key is larger than the key at the node
+      } // while
+    return (best == null) ? null : best.key;
+  } // floorKey(K)
+
+  /**
+   * Get the smallest key in the tree that is greater than or equal to
+   * key.
+   *
+   * @return that key, or null if there is no such key.
+   */
+  public K ceilingKey(K key)
+  {
+    BSTNode node = this.root;
+    BSTNode best = null;
+    while (node != null)
+      {
+        int tmp = order.compare(key, node.key);
+        if (tmp == 0)
+          {
+            return node.key;
+          }
+        else if (tmp < 0)
+          {
+            // node is a candidate, but there may be a closer one
+            // in its smaller subtree.
+            best = node;
+            node = node.smaller;
+          }
+        else
+          {
+            node = node.larger;
+          } // if the key is larger than the key at the node
+      } // while
+    return (best == null) ? null : best.key;
+  } // ceilingKey(K)
+
+  // +------------------+------------------------------------------------
+  // | Order Statistics |
+  // +------------------+
+
+  /**
+   * Get the rank of a key: the number of keys in the tree that are
+   * smaller than key.  key need not be in the tree.
+   */
+  public int rank(K key)
+  {
+    int rank = 0;
+    BSTNode node = this.root;
+    while (node != null)
+      {
+        int tmp = order.compare(key, node.key);
+        if (tmp == 0)
+          {
+            return rank + size(node.smaller);
+          }
+        else if (tmp < 0)
+          {
+            node = node.smaller;
+          }
+        else
+          {
+            // node and everything in its smaller subtree are smaller
+            rank += size(node.smaller) + 1;
+            node = node.larger;
+          } // if the key is larger than the key at the node
+      } // while
+    return rank;
+  } // rank(K)
+
+  /**
+   * Get the key with a given rank, that is, the ith smallest key,
+   * counting from 0.
+   *
+   * @throws IndexOutOfBoundsException
+   *   unless 0 <= i < this.size()
+   */
+  public K select(int i)
+  {
+    if ((i < 0) || (i >= this.size()))
+      {
+        throw new IndexOutOfBoundsException("No key of rank " + i);
+      } // if i is out of range
+    BSTNode node = this.root;
+    while (true)
+      {
+        int smaller = size(node.smaller);
+        if (i == smaller)
+          {
+            return node.key;
+          }
+        else if (i < smaller)
+          {
+            node = node.smaller;
+          }
+        else
+          {
+            i -= smaller + 1;
+            node = node.larger;
+          } // if the key is in the larger subtree
+      } // while
+  } // select(int)
+
+  /**
+   * Count the keys k with lo <= k < hi.  Either bound may be null, in
+   * which case the range is unbounded at that end.
+   */
+  public int countInRange(K lo, K hi)
+  {
+    int from = (lo == null) ? 0 : rank(lo);
+    int to = (hi == null) ? this.size() : rank(hi);
+    return Math.max(0, to - from);
+  } // countInRange(K, K)
+
   // +----------+--------------------------------------------------------
   // | Mutators |
   // +----------+
@@ -129,58 +608,88 @@ public class BST<K, V>
       }; // new Iterable<K>
   } // keys
 
+  /**
+   * Get an iterator for the keys, in order from smallest to largest.
+   */
   public Iterator<K> keysIterator()
   {
-    return new Iterator<K>()
-      {
-        Iterator<BSTNode> it = new BSTNodeIterator(BST.this.root);
-
-        public K next()
-          throws NoSuchElementException
-        {
-          return it.next().key;
-        } // next()
-
-        public boolean hasNext()
-        {
-          return it.hasNext();
-        } // hasNext
-
-        public void remove()
-          throws UnsupportedOperationException,
-            IllegalStateException
-        {
-          it.remove();
-        } // remove
-      }; // new Iterator<K>
+    return rangeIterator(null, null);
   } // keysIterator()
 
-  public Iterator<V> iterator()
+  /**
+   * Get an Iterable for the keys k with lo <= k < hi, in order from
+   * smallest to largest.  Either bound may be null, in which case the
+   * range is unbounded at that end.
+   */
+  public Iterable<K> range(final K lo, final K hi)
   {
-    return new Iterator<V>()
+    return new Iterable<K>()
       {
-        Iterator<BSTNode> it = new BSTNodeIterator(BST.this.root);
-
-        public V next()
-          throws NoSuchElementException
+        public Iterator<K> iterator()
         {
-          return it.next().value;
-        } // next()
+          return BST.this.rangeIterator(lo, hi);
+        } // iterator()
+      }; // new Iterable<K>
+  } // range(K, K)
 
-        public boolean hasNext()
+  /**
+   * Get an iterator for the keys k with lo <= k < hi, in order from
+   * smallest to largest.  Either bound may be null.  The iterator is
+   * lazy: it takes O(log n) to find the first key and then O(1)
+   * amortized per key, so a scan that returns k keys takes
+   * O(log n + k) rather than a pass over the whole tree.
+   */
+  public Iterator<K> rangeIterator(K lo, K hi)
+  {
+    return new InOrderIterator<K>(BST.this.root, lo, hi)
+      {
+        K extract(BSTNode node)
         {
-          return it.hasNext();
-        } // hasNext
+          return node.key;
+        } // extract(BSTNode)
+      }; // new InOrderIterator<K>
+  } // rangeIterator(K, K)
 
-        public void remove()
-          throws UnsupportedOperationException,
-            IllegalStateException
+  public Iterator<V> iterator()
+  {
+    return new InOrderIterator<V>(BST.this.root, null, null)
+      {
+        V extract(BSTNode node)
         {
-          it.remove();
-        } // remove
-      }; // new Iterator<V>
+          return node.value;
+        } // extract(BSTNode)
+      }; // new InOrderIterator<V>
   } // iterator()
 
+  /**
+   * Apply action to each key/value pair, in order from the smallest key
+   * to the largest.  This is the fastest way to visit the whole tree,
+   * since we don't have to build an iterator and don't have to save
+   * our place between calls.
+   */
+  public void forEach(BiConsumer<? super K, ? super V> action)
+  {
+    BSTNode[] remaining = newPath(initialStackSize());
+    int top = 0;
+    BSTNode node = this.root;
+    while ((node != null) || (top > 0))
+      {
+        // Push the path to the smallest node in the current subtree.
+        while (node != null)
+          {
+            if (top == remaining.length)
+              {
+                remaining = Arrays.copyOf(remaining, 2 * top);
+              } // if the stack is full
+            remaining[top++] = node;
+            node = node.smaller;
+          } // while
+        node = remaining[--top];
+        action.accept(node.key, node.value);
+        node = node.larger;
+      } // while
+  } // forEach(BiConsumer<? super K, ? super V>)
+
   // +-----------------+-------------------------------------------------
   // | Local Utilities |
   // +-----------------+
@@ -214,12 +723,8 @@ public class BST<K, V>
    */
   BSTNode find(BSTNode tree, K key)
   {
-    // Special case: Empty tree. Give up
-    if (tree == null)
-      {
-        return null;
-      } // if (tree == null)
-    else
+    // Walk down the tree until we find the key or fall off the bottom.
+    while (tree != null)
       {
         int tmp = order.compare(key, tree.key);
         if (tmp == 0)
@@ -228,13 +733,15 @@ public class BST<K, V>
           }
         else if (tmp < 0)
           {
-            return find(tree.smaller, key);
+            tree = tree.smaller;
           }
         else
           {
-            return find(tree.larger, key);
+            tree = tree.larger;
           } // if the key is larger than the key at the node
-      } // if the tree is nonempty
+      } // while (tree != null)
+    // We fell off the bottom of the tree, so the key isn't there.
+    return null;
   } // find(BSTNode, K, V)
 
   /**
@@ -249,25 +756,52 @@ public class BST<K, V>
       {
         return new BSTNode(key, value);
       } // if (tree == null)
-    else
+
+    // The nodes we pass on the way down, which we rebalance on the
+    // way back up.  Only balanced trees need them, and in a balanced
+    // tree no path is longer than the height of the tree.
+    BSTNode[] path = this.balanced ? newPath(tree.height) : null;
+    int depth = 0;
+
+    BSTNode current = tree;
+    while (true)
       {
-        int tmp = order.compare(key, tree.key);
+        int tmp = order.compare(key, current.key);
         if (tmp == 0)
           {
-            tree.value = value;
+            // The shape doesn't change, so there's nothing to rebalance,
+            // but we need to take back the sizes we changed.
+            adjustSizes(tree, current, key, -1);
+            current.value = value;
             return tree;
-          }
-        else if (tmp < 0)
+          } // if we've found the key
+        if (path != null)
           {
-            tree.smaller = insert(tree.smaller, key, value);
-            return tree;
+            path[depth++] = current;
+          } // if we're recording the path
+        // Assume that the key is new, and so will end up below current.
+        current.size++;
+        if (tmp < 0)
+          {
+            if (current.smaller == null)
+              {
+                current.smaller = new BSTNode(key, value);
+                break;
+              } // if there's room for the key
+            current = current.smaller;
           }
         else
           {
-            tree.larger = insert(tree.larger, key, value);
-            return tree;
+            if (current.larger == null)
+              {
+                current.larger = new BSTNode(key, value);
+                break;
+              } // if there's room for the key
+            current = current.larger;
           } // if the key is larger than the key at the node
-      } // if the tree is nonempty
+      } // while
+
+    return rebalance(tree, path, depth);
   } // insert(BSTNode, K, V)
 
   /**
@@ -280,87 +814,384 @@ public class BST<K, V>
    */
   BSTNode remove(BSTNode tree, K key)
   {
-    // You can't remove from the empty tree.
-    if (tree == null)
-      return tree;
-    // Determine the relationship of the key to the root of the subtree.
-    int tmp = order.compare(key, tree.key);
-    // If we've found the item to remove, ...
-    if (tmp == 0)
+    // As in insert, the nodes we pass on the way down.
+    BSTNode[] path = this.balanced ? newPath(height(tree)) : null;
+    int depth = 0;
+
+    // Find the node to remove and its parent.
+    BSTNode parent = null;
+    BSTNode current = tree;
+    while (current != null)
       {
-        // Base cases:
-        if (tree.larger == null && tree.smaller == null)
+        // Determine the relationship of the key to the current node.
+        int tmp = order.compare(key, current.key);
+        if (tmp == 0)
+          break;
+        if (path != null)
           {
-            tree = null;
-          }// if it's a leaf
-        else if (tree.larger == null)
+            path[depth++] = current;
+          } // if we're recording the path
+        // Assume that the key is there, and so will leave the subtree.
+        current.size--;
+        parent = current;
+        current = (tmp < 0) ? current.smaller : current.larger;
+      } // while
+
+    // You can't remove something that isn't there.
+    if (current == null)
+      {
+        adjustSizes(tree, null, key, 1);
+        return tree;
+      } // if the key isn't there
+
+    // Figure out what takes the place of the node we're removing.
+    BSTNode replacement;
+    // Base cases:
+    if (current.larger == null && current.smaller == null)
+      {
+        replacement = null;
+      }// if it's a leaf
+    else if (current.larger == null)
+      {
+        // Skip current and go directly to its smaller child
+        replacement = current.smaller;
+      }// if no right child
+    else if (current.smaller == null)
+      {
+        // Skip current and go directly to its  larger child
+        replacement = current.larger;
+      }// if no left child
+    else if (this.balanced)
+      { // It has both children, and we need to keep it balanced
+        // Replace the contents of current with the contents of the
+        // largest node in the left subtree, and then remove that
+        // node from the left subtree.  Everything that changes is
+        // on the path, so we rebalance as we go back up.
+        path[depth++] = current;
+        BSTNode largestParent = current;
+        BSTNode largestChild = current.smaller;
+        while (largestChild.larger != null)
           {
-            // Skip tree and go directly to its smaller child
-            tree = tree.smaller;
-          }// if no right child
-        else if (tree.smaller == null)
+            path[depth++] = largestChild;
+            largestParent = largestChild;
+            largestChild = largestChild.larger;
+          } // while looking for the largest element in the left subtree
+        current.key = largestChild.key;
+        current.value = largestChild.value;
+        if (largestParent == current)
+          largestParent.smaller = largestChild.smaller;
+        else
+          largestParent.larger = largestChild.smaller;
+        return rebalance(tree, path, depth);
+      }// else it has both subtrees and is balanced
+    else
+      { // It has both children
+        BSTNode largestParent = current;
+        BSTNode largestChild = current.smaller;
+        // Flag that is reset if the while loop runs
+        boolean firstGeneration = true;
+
+        // Find the largest element in the left subtree and its parent
+        while (largestChild.larger != null)
           {
-            // Skip tree and go directly to its  larger child
-            tree = tree.larger;
-          }// if no left child
+            // Reset the flag
+            firstGeneration = false;
+            // The largest child will leave this subtree
+            largestChild.size--;
+            // The parent of the larger node is the current largestChild
+            largestParent = largestChild;
+            // The new largestChild is the larger node
+            largestChild = largestChild.larger;
+          }// while looking for largest element in the left subtree
+
+        // There are two cases:
+        // If the loop didn't run (i.e. the largest child is current.smaller)
+        // then we should reassign the parent's link to the smaller child
+        // Otherwise we reassign the paren't link to the largest child.
+        if (!firstGeneration)
+          {
+            // Skip the parent's link to the larger child
+            largestParent.larger = largestChild.smaller;
+          }// if the loop ran
         else
-          { // It has both children
-            BSTNode parent = tree;
-            BSTNode largestChild = tree.smaller;
-            // Flag that is reset if the while loop runs
-            boolean firstGeneration = true;
-
-            // Find the largest element in the left subtree and its parent
-            while (largestChild.larger != null)
-              {
-                // Reset the flag
-                firstGeneration = false;
-                // The parent of the larger node is the current largestChild
-                parent = largestChild;
-                // The new largestChild is the larger node
-                largestChild = largestChild.larger;
-              }// while looking for largest element in the left subtree
-
-            // There are two cases:
-            // If the loop didn't run (i.e. the largest child is tree.smaller)
-            // then we should reassign the parent's link to the smaller child
-            // Otherwise we reassign the paren't link to the largest child.
-            if (!firstGeneration)
-              {
-                // Skip the parent's link to the larger child
-                parent.larger = largestChild.smaller;
-              }// if the loop ran
-            else
-              {
-                // Skip the parent's link to the smaller child
-                parent.smaller = largestChild.smaller;
-              }// else the loop didn't run, it's the first generation child
-
-            // Reassign the children of the largestChild
-            largestChild.larger = tree.larger;
-            largestChild.smaller = tree.smaller;
-            // The cursor is now at the root of the tree
-            tree = largestChild;
-          }// else it has both subtrees
-        return tree;
-      } // if we've found the item to remove
-    else if (tmp < 0)
+          {
+            // Skip the parent's link to the smaller child
+            largestParent.smaller = largestChild.smaller;
+          }// else the loop didn't run, it's the first generation child
+
+        // Reassign the children of the largestChild
+        largestChild.larger = current.larger;
+        largestChild.smaller = current.smaller;
+        largestChild.size = current.size - 1;
+        // The largest child now takes the place of current
+        replacement = largestChild;
+      }// else it has both subtrees
+
+    // Link the replacement in where the removed node used to be.
+    if (parent == null)
       {
-        tree.smaller = remove(tree.smaller, key);
-        return tree;
+        tree = replacement;
+      } // if we removed the root
+    else if (parent.smaller == current)
+      {
+        parent.smaller = replacement;
+      } // if we removed the smaller child of parent
+    else
+      {
+        parent.larger = replacement;
+      } // if we removed the larger child of parent
+    return rebalance(tree, path, depth);
+  } // remove(BSTNode, K)
+
+  /**
+   * Build a perfectly balanced tree from nodes[lb..ub), which are in
+   * order.
+   *
+   * @return the root of the new tree
+   */
+  BSTNode build(BSTNode[] nodes, int lb, int ub)
+  {
+    if (lb >= ub)
+      return null;
+    int mid = (lb + ub) >>> 1;
+    BSTNode node = nodes[mid];
+    node.smaller = build(nodes, lb, mid);
+    node.larger = build(nodes, mid + 1, ub);
+    update(node);
+    return node;
+  } // build(BSTNode[], int, int)
+
+  /**
+   * Add delta to the sizes of the nodes on the path from tree toward
+   * key, stopping just above stop (or at the bottom of the tree, if
+   * stop is null).  insert and remove change the sizes on the way down,
+   * assuming that they will change the tree, and use this to undo those
+   * changes when they don't.
+   */
+  void adjustSizes(BSTNode tree, BSTNode stop, K key, int delta)
+  {
+    while (tree != stop)
+      {
+        tree.size += delta;
+        tree = (order.compare(key, tree.key) < 0) ? tree.smaller : tree.larger;
+      } // while
+  } // adjustSizes(BSTNode, BSTNode, K, int)
+
+  /**
+   * Rebalance the first depth nodes of path, from the bottom up, after
+   * an insertion into or removal from the subtree of path[depth-1].
+   * path[0] must be tree and each node in path must be a child of the
+   * one before.  Does nothing in an unbalanced tree.
+   *
+   * @return the new root of tree
+   */
+  BSTNode rebalance(BSTNode tree, BSTNode[] path, int depth)
+  {
+    if (!this.balanced)
+      return tree;
+    for (int i = depth - 1; i >= 0; i--)
+      {
+        BSTNode node = path[i];
+        BSTNode newNode = balance(node);
+        if (i == 0)
+          {
+            tree = newNode;
+          } // if we've reached the root
+        else if (path[i - 1].smaller == node)
+          {
+            path[i - 1].smaller = newNode;
+          } // if node is the smaller child of its parent
+        else
+          {
+            path[i - 1].larger = newNode;
+          } // if node is the larger child of its parent
+      } // for
+    return tree;
+  } // rebalance(BSTNode, BSTNode[], int)
+
+  /**
+   * Build an array to hold a path of the given length.  Included mostly
+   * so that the unchecked conversion is all in one place.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  BSTNode[] newPath(int length)
+  {
+    return (BSTNode[]) new BST.BSTNode[length];
+  } // newPath(int)
+
+  /**
+   * Figure out how big to make the stack for an in-order traversal.
+   * A balanced tree knows its height, which is as deep as the stack
+   * ever gets.  For an unbalanced tree, we start small and grow the
+   * stack as needed.
+   */
+  int initialStackSize()
+  {
+    return this.balanced ? Math.max(1, height(this.root)) : 16;
+  } // initialStackSize()
 
-      } // if key is smaller than current root, go left
+  /**
+   * Restore the balance of a subtree whose own subtrees are balanced
+   * but whose heights may differ by as much as two.  Does nothing in
+   * an unbalanced tree.
+   *
+   * @return the new root of the subtree
+   */
+  BSTNode balance(BSTNode tree)
+  {
+    if (!this.balanced || tree == null)
+      return tree;
+    int diff = height(tree.smaller) - height(tree.larger);
+    if (diff > 1)
+      {
+        // Left-right case: first turn it into a left-left case
+        if (height(tree.smaller.smaller) < height(tree.smaller.larger))
+          {
+            tree.smaller = rotateLeft(tree.smaller);
+          } // if the extra height is in the middle
+        return rotateRight(tree);
+      } // if the left side is too tall
+    else if (diff < -1)
+      {
+        // Right-left case: first turn it into a right-right case
+        if (height(tree.larger.larger) < height(tree.larger.smaller))
+          {
+            tree.larger = rotateRight(tree.larger);
+          } // if the extra height is in the middle
+        return rotateLeft(tree);
+      } // if the right side is too tall
     else
       {
-        tree.larger = remove(tree.larger, key);
+        update(tree);
         return tree;
-      }// if key is greater than current root, go right
-  } // remove(BSTNode, K)
+      } // if the tree is already balanced
+  } // balance(BSTNode)
+
+  /**
+   * Rotate a subtree right, so that its smaller child becomes its root.
+   *
+   * @pre tree.smaller != null
+   * @return the new root of the subtree
+   */
+  BSTNode rotateRight(BSTNode tree)
+  {
+    BSTNode newRoot = tree.smaller;
+    tree.smaller = newRoot.larger;
+    newRoot.larger = tree;
+    update(tree);
+    update(newRoot);
+    return newRoot;
+  } // rotateRight(BSTNode)
+
+  /**
+   * Rotate a subtree left, so that its larger child becomes its root.
+   *
+   * @pre tree.larger != null
+   * @return the new root of the subtree
+   */
+  BSTNode rotateLeft(BSTNode tree)
+  {
+    BSTNode newRoot = tree.larger;
+    tree.larger = newRoot.smaller;
+    newRoot.smaller = tree;
+    update(tree);
+    update(newRoot);
+    return newRoot;
+  } // rotateLeft(BSTNode)
+
+  /**
+   * Get the height of a subtree.  The empty tree has height 0.
+   */
+  int height(BSTNode tree)
+  {
+    return (tree == null) ? 0 : tree.height;
+  } // height(BSTNode)
+
+  /**
+   * Get the number of nodes in a subtree.  The empty tree has size 0.
+   */
+  int size(BSTNode tree)
+  {
+    return (tree == null) ? 0 : tree.size;
+  } // size(BSTNode)
+
+  /**
+   * Recompute the height and size of a node from the heights and sizes
+   * of its subtrees.
+   */
+  void update(BSTNode tree)
+  {
+    tree.height = 1 + Math.max(height(tree.smaller), height(tree.larger));
+    tree.size = 1 + size(tree.smaller) + size(tree.larger);
+  } // update(BSTNode)
 
   // +---------------+---------------------------------------------------
   // | Inner Classes |
   // +---------------+
 
+  /**
+   * Builds perfectly balanced trees from sorted keys and values that
+   * come from iterators.
+   */
+  class SortedBuilder
+  {
+    /**
+     * The keys, in sorted order.
+     */
+    Iterator<K> keys;
+
+    /**
+     * The corresponding values.
+     */
+    Iterator<V> values;
+
+    /**
+     * The last key we used, so that we can check the order.
+     */
+    K last;
+
+    /**
+     * Whether we've used any keys yet.
+     */
+    boolean started;
+
+    SortedBuilder(Iterator<K> keys, Iterator<V> values)
+    {
+      this.keys = keys;
+      this.values = values;
+      this.started = false;
+    } // SortedBuilder(Iterator<K>, Iterator<V>)
+
+    /**
+     * Build a perfectly balanced tree from the next n keys and values.
+     * We build the trees in order (smaller subtree, root, larger
+     * subtree), so that we take the keys in the order that the
+     * iterator gives them.
+     *
+     * @return the root of the new tree
+     */
+    BSTNode build(int n)
+    {
+      if (n <= 0)
+        return null;
+      int smaller = n / 2;
+      BSTNode left = build(smaller);
+      K key = this.keys.next();
+      if (this.started && (order.compare(this.last, key) >= 0))
+        {
+          throw new IllegalArgumentException("Keys out of order: "
+                                             + this.last + " then " + key);
+        } // if the keys are out of order
+      this.started = true;
+      this.last = key;
+      BSTNode node = new BSTNode(key, this.values.next());
+      node.smaller = left;
+      node.larger = build(n - smaller - 1);
+      update(node);
+      return node;
+    } // build(int)
+  } // class SortedBuilder
+
   /**
    * Nodes in a linked dictionary.
    */
@@ -390,6 +1221,17 @@ public class BST<K, V>
      */
     BSTNode larger;
 
+    /**
+     * The height of the subtree rooted at this node.  Only maintained
+     * in balanced trees.
+     */
+    int height;
+
+    /**
+     * The number of nodes in the subtree rooted at this node.
+     */
+    int size;
+
     // +--------------+----------------------------------------------------
     // | Constructors |
     // +--------------+
@@ -403,59 +1245,106 @@ public class BST<K, V>
       this.value = value;
       this.smaller = null;
       this.larger = null;
+      this.height = 1;
+      this.size = 1;
     } // BSTNode(K,V)
   } // BSTNode
 
   /**
-   * An iterator for BSTNodes.
+   * An in-order iterator over the nodes of a tree, optionally restricted
+   * to the keys in a range.  Subclasses decide what to return for each
+   * node.
    */
-  class BSTNodeIterator
-      implements Iterator<BSTNode>
+  abstract class InOrderIterator<T>
+      implements Iterator<T>
   {
     // +--------+----------------------------------------------------------
     // | Fields |
     // +--------+
 
     /**
-     * The nodes in the tree that we have left to process.
+     * The nodes in the tree that we have left to process, as a stack.
+     * Each node on the stack is followed (in order) by its larger
+     * subtree and then by the node below it on the stack.  We use an
+     * array, rather than a java.util.Stack, because Stack synchronizes
+     * every operation.
      */
-    Stack<BSTNode> remaining;
+    BSTNode[] remaining;
+
+    /**
+     * The number of nodes on the stack.
+     */
+    int top;
+
+    /**
+     * The upper bound of the range (exclusive), or null if there is no
+     * upper bound.
+     */
+    K hi;
 
     // +--------------+----------------------------------------------------
     // | Constructors |
     // +--------------+
 
-    public BSTNodeIterator(BSTNode root)
+    /**
+     * Iterate the nodes with keys k such that lo <= k < hi.  Either
+     * bound may be null.
+     */
+    public InOrderIterator(BSTNode root, K lo, K hi)
     {
-      this.remaining = new Stack<BSTNode>();
-      if (root != null)
+      this.remaining = newPath(initialStackSize());
+      this.top = 0;
+      this.hi = hi;
+      // Push the path to the first key that's at least lo, skipping
+      // the nodes (and smaller subtrees) that are below the range.
+      BSTNode node = root;
+      while (node != null)
         {
-          this.remaining.push(root);
-        } // if (root != null)
-    } // BSTNodeIterator(BSTNode)
+          if ((lo != null) && (order.compare(node.key, lo) < 0))
+            {
+              node = node.larger;
+            } // if node is below the range
+          else
+            {
+              this.push(node);
+              node = node.smaller;
+            } // if node is in or above the range
+        } // while
+    } // InOrderIterator(BSTNode, K, K)
+
+    // +---------+---------------------------------------------------------
+    // | Methods |
+    // +---------+
+
+    /**
+     * Get the value to return for a node.
+     */
+    abstract T extract(BSTNode node);
 
-    public BSTNode next()
+    public T next()
       throws NoSuchElementException
     {
       if (!this.hasNext())
         {
           throw new NoSuchElementException();
         } // if there are no more elements
-      BSTNode temp = this.remaining.pop();
-      if (temp.larger != null)
-        {
-          this.remaining.push(temp.larger);
-        } // if there's a larger subtree
-      if (temp.smaller != null)
+      BSTNode temp = this.remaining[--this.top];
+      // The next nodes are in the larger subtree, smallest first.
+      BSTNode node = temp.larger;
+      while (node != null)
         {
-          this.remaining.push(temp.smaller);
-        } // if there's a smaller subtree
-      return temp;
+          this.push(node);
+          node = node.smaller;
+        } // while
+      return extract(temp);
     } // next()
 
     public boolean hasNext()
     {
-      return !(this.remaining.empty());
+      return (this.top > 0)
+             && ((this.hi == null)
+                 || (order.compare(this.remaining[this.top - 1].key, this.hi)
+                     < 0));
     } // hasNext
 
     public void remove()
@@ -464,5 +1353,17 @@ public class BST<K, V>
     {
       throw new UnsupportedOperationException();
     } // remove
-  } // BSTNodeIterator<K,V>
+
+    /**
+     * Push a node on the stack, growing the stack if necessary.
+     */
+    void push(BSTNode node)
+    {
+      if (this.top == this.remaining.length)
+        {
+          this.remaining = Arrays.copyOf(this.remaining, 2 * this.top);
+        } // if the stack is full
+      this.remaining[this.top++] = node;
+    } // push(BSTNode)
+  } // InOrderIterator<T>
 } // BST<K,V>
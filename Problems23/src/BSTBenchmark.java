@@ -0,0 +1,469 @@
+import java.io.PrintWriter;
+
+import java.util.Comparator;
+import java.util.Random;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Timing experiments for binary search trees.  For unbalanced and
+ * balanced trees, and for each key type, key distribution, and size,
+ * we time get, containsKey, set, remove, and a full iteration (with an
+ * iterator and with forEach), and print one line per operation.  The
+ * output has the same columns as DictionaryBenchmark in Problem4, so
+ * the results can be compared directly.
+ *
+ * Usage: java BSTBenchmark [maxSize]
+ *        java BSTBenchmark deep
+ *        java BSTBenchmark load [size]
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class BSTBenchmark
+{
+  // +-------+-----------------------------------------------------------
+  // | Notes |
+  // +-------+
+
+  /*
+     See the notes in DictionaryBenchmark.java for how we measure.
+
+     Inserting sequential keys builds an unbalanced tree that is
+     really a linked list, so those runs are quadratic.  We skip them
+     for sizes above SEQUENTIAL_LIMIT, and print a "skipped" row so
+     that the table is still complete.
+
+     The "deep" experiment times lookups in an unbalanced tree of depth
+     DEEP, which is what you get from DEEP sequential keys, and in a
+     balanced tree with the same keys.  Building the deep tree with
+     set would take quadratic time, so we link the nodes up directly.
+
+     The "load" experiment compares three ways of loading a balanced
+     tree: calling set for each key, fromSorted, and fromUnsorted.
+   */
+
+  // +-----------+-------------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The sizes we try.
+   */
+  static final int[] SIZES =
+      { 10, 100, 1000, 10000, 100000, 1000000, 10000000 };
+
+  /**
+   * The largest unbalanced tree we build from sequential keys.
+   */
+  static final int SEQUENTIAL_LIMIT = 1000;
+
+  /**
+   * The number of lookups in each round.
+   */
+  static final int LOOKUPS = 1000000;
+
+  /**
+   * The number of rounds for each measurement.
+   */
+  static final int ROUNDS = 5;
+
+  /**
+   * The depth of the tree in the deep experiment.
+   */
+  static final int DEEP = 100000;
+
+  /**
+   * The number of lookups in each round of the deep experiment.
+   */
+  static final int DEEP_LOOKUPS = 10000;
+
+  /**
+   * The default number of keys in the load experiment.
+   */
+  static final int LOAD = 1000000;
+
+  /**
+   * The seed for our random number generator, so that runs are
+   * repeatable.
+   */
+  static final long SEED = 207;
+
+  // +--------+----------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Somewhere to put results so that they aren't optimized away.
+   */
+  static long sink = 0;
+
+  /**
+   * An action for forEach that adds the values to the sink.
+   */
+  static final BiConsumer<Object, Integer> SUM_VALUES =
+      new BiConsumer<Object, Integer>()
+        {
+          public void accept(Object key, Integer value)
+          {
+            sink += value;
+          } // accept(Object, Integer)
+        }; // new BiConsumer<Object, Integer>
+
+  // +------+------------------------------------------------------------
+  // | Main |
+  // +------+
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    PrintWriter pen = new PrintWriter(System.out, true);
+    int maxSize = SIZES[SIZES.length - 1];
+    if ((args.length > 0) && args[0].equals("deep"))
+      {
+        runDeep(pen);
+        return;
+      } // if the user asked for the deep experiment
+    if ((args.length > 0) && args[0].equals("load"))
+      {
+        runLoad(pen, (args.length > 1) ? Integer.parseInt(args[1]) : LOAD);
+        return;
+      } // if the user asked for the load experiment
+    if (args.length > 0)
+      {
+        maxSize = Integer.parseInt(args[0]);
+      } // if the user gave a maximum size
+
+    pen.println(header());
+    for (boolean balanced : new boolean[] { false, true })
+      {
+        runAll(pen, KeyGenerator.characters(), balanced, maxSize);
+        runAll(pen, KeyGenerator.integers(), balanced, maxSize);
+        runAll(pen, KeyGenerator.strings(), balanced, maxSize);
+      } // for unbalanced and balanced trees
+    pen.println("# checksum " + sink);
+  } // main(String[])
+
+  // +------------+------------------------------------------------------
+  // | Benchmarks |
+  // +------------+
+
+  /**
+   * Run the benchmarks for one kind of key at every distribution and
+   * size.
+   */
+  static <K extends Comparable<K>> void runAll(PrintWriter pen,
+                                               KeyGenerator<K> gen,
+                                               boolean balanced, int maxSize)
+    throws Exception
+  {
+    for (String dist : KeyGenerator.DISTRIBUTIONS)
+      {
+        for (int size : SIZES)
+          {
+            if ((size > maxSize) || (size > gen.maxKeys()))
+              continue;
+            if (!balanced && dist.equals("sequential")
+                && (size > SEQUENTIAL_LIMIT))
+              {
+                pen.println(prefix(balanced, gen, dist, size)
+                            + String.format("%-12s %10s", "all",
+                                            "skipped"));
+                continue;
+              } // if the run would be quadratic
+            run(pen, gen, balanced, dist, size);
+          } // for each size
+      } // for each distribution
+  } // runAll(PrintWriter, KeyGenerator<K>, boolean, int)
+
+  /**
+   * Time each of the operations with one kind of key.
+   */
+  static <K extends Comparable<K>> void run(PrintWriter pen,
+                                            KeyGenerator<K> gen,
+                                            boolean balanced, String dist,
+                                            int size)
+    throws Exception
+  {
+    Random rand = new Random(SEED);
+    Comparator<K> order = naturalOrder();
+    K[] keys = gen.keys(0, size);
+    // Keys that are not in the dictionary.  If the key type is too
+    // small, we fall back to keys that are.
+    K[] missing =
+        (2 * size <= gen.maxKeys()) ? gen.keys(size, 2 * size) : keys;
+    int[] insertion = KeyGenerator.insertionOrder(dist, size, rand);
+    int[] stream = KeyGenerator.indices(dist, LOOKUPS, size, rand);
+    // Small trees get rebuilt many times per round.
+    int reps = Math.max(1, LOOKUPS / size);
+
+    long set = Long.MAX_VALUE;
+    long get = Long.MAX_VALUE;
+    long contains = Long.MAX_VALUE;
+    long iterate = Long.MAX_VALUE;
+    long forEach = Long.MAX_VALUE;
+    long remove = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++)
+      {
+        BST<K, Integer> dict = null;
+
+        // set
+        long start = System.nanoTime();
+        for (int r = 0; r < reps; r++)
+          {
+            dict = new BST<K, Integer>(order, balanced);
+            fill(dict, keys, insertion);
+          } // for
+        set = Math.min(set, System.nanoTime() - start);
+
+        // get
+        start = System.nanoTime();
+        for (int i = 0; i < stream.length; i++)
+          {
+            sink += dict.get(keys[stream[i]]);
+          } // for
+        get = Math.min(get, System.nanoTime() - start);
+
+        // containsKey
+        start = System.nanoTime();
+        for (int i = 0; i < stream.length; i++)
+          {
+            K key = ((i & 1) == 0) ? keys[stream[i]] : missing[stream[i]];
+            if (dict.containsKey(key))
+              sink++;
+          } // for
+        contains = Math.min(contains, System.nanoTime() - start);
+
+        // iterate
+        start = System.nanoTime();
+        for (int r = 0; r < reps; r++)
+          {
+            for (Integer value : dict)
+              {
+                sink += value;
+              } // for
+          } // for
+        iterate = Math.min(iterate, System.nanoTime() - start);
+
+        // forEach
+        start = System.nanoTime();
+        for (int r = 0; r < reps; r++)
+          {
+            dict.forEach(SUM_VALUES);
+          } // for
+        forEach = Math.min(forEach, System.nanoTime() - start);
+
+        // remove.  We rebuild the trees before we start the clock, so
+        // we only time the removals.
+        BST<K, Integer>[] dicts = newArray(reps);
+        for (int r = 0; r < reps; r++)
+          {
+            dicts[r] = new BST<K, Integer>(order, balanced);
+            fill(dicts[r], keys, insertion);
+          } // for
+        start = System.nanoTime();
+        for (int r = 0; r < reps; r++)
+          {
+            for (int i = 0; i < insertion.length; i++)
+              {
+                dicts[r].remove(keys[insertion[i]]);
+              } // for
+          } // for
+        remove = Math.min(remove, System.nanoTime() - start);
+      } // for each round
+
+    String prefix = prefix(balanced, gen, dist, size);
+    long perRep = (long) reps * size;
+    pen.println(prefix + line("set", set, perRep));
+    pen.println(prefix + line("get", get, stream.length));
+    pen.println(prefix + line("containsKey", contains, stream.length));
+    pen.println(prefix + line("remove", remove, perRep));
+    pen.println(prefix + line("iterate", iterate, perRep));
+    pen.println(prefix + line("forEach", forEach, perRep));
+  } // run
+
+  /**
+   * Time lookups in a tree of depth DEEP and in a balanced tree with
+   * the same keys.
+   */
+  static void runDeep(PrintWriter pen)
+    throws Exception
+  {
+    Random rand = new Random(SEED);
+    Comparator<Integer> order = naturalOrder();
+    int[] stream = KeyGenerator.indices("uniform", DEEP_LOOKUPS, DEEP, rand);
+    Integer[] keys = KeyGenerator.integers().keys(0, DEEP);
+
+    // The deep tree: each key is the larger child of the one before.
+    BST<Integer, Integer> deep = new BST<Integer, Integer>(order);
+    BST<Integer, Integer>.BSTNode last = null;
+    for (int i = 0; i < DEEP; i++)
+      {
+        BST<Integer, Integer>.BSTNode node = deep.new BSTNode(keys[i], i);
+        if (last == null)
+          deep.root = node;
+        else
+          last.larger = node;
+        last = node;
+      } // for
+
+    BST<Integer, Integer> balanced = new BST<Integer, Integer>(order, true);
+    fill(balanced, keys,
+         KeyGenerator.insertionOrder("sequential", DEEP, rand));
+
+    pen.println(header());
+    runLookups(pen, "BST(depth " + DEEP + ")", deep, keys, stream);
+    runLookups(pen, "BalancedBST", balanced, keys, stream);
+    pen.println("# checksum " + sink);
+  } // runDeep(PrintWriter)
+
+  /**
+   * Time lookups of the keys selected by stream.
+   */
+  static void runLookups(PrintWriter pen, String name,
+                         BST<Integer, Integer> dict, Integer[] keys,
+                         int[] stream)
+    throws Exception
+  {
+    long get = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++)
+      {
+        long start = System.nanoTime();
+        for (int i = 0; i < stream.length; i++)
+          {
+            sink += dict.get(keys[stream[i]]);
+          } // for
+        get = Math.min(get, System.nanoTime() - start);
+      } // for each round
+    String prefix = String.format("%-18s %-10s %-11s %9d ", name, "Integer",
+                                  "uniform", keys.length);
+    pen.println(prefix + line("get", get, stream.length)
+                + String.format("  (%.0f lookups/s)",
+                                stream.length * 1e9 / get));
+  } // runLookups(PrintWriter, String, BST<Integer, Integer>, Integer[], int[])
+
+  /**
+   * Time three ways of loading size keys into a balanced tree.
+   */
+  static void runLoad(PrintWriter pen, int size)
+  {
+    Random rand = new Random(SEED);
+    Comparator<Integer> order = naturalOrder();
+    Integer[] sorted = KeyGenerator.integers().keys(0, size);
+    int[] shuffle = KeyGenerator.permutation(size, rand);
+    Integer[] unsorted = new Integer[size];
+    for (int i = 0; i < size; i++)
+      {
+        unsorted[i] = sorted[shuffle[i]];
+      } // for
+
+    long set = Long.MAX_VALUE;
+    long fromSorted = Long.MAX_VALUE;
+    long fromUnsorted = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++)
+      {
+        long start = System.nanoTime();
+        BST<Integer, Integer> dict = new BST<Integer, Integer>(order, true);
+        for (int i = 0; i < size; i++)
+          {
+            dict.set(sorted[i], sorted[i]);
+          } // for
+        set = Math.min(set, System.nanoTime() - start);
+        sink += dict.size();
+
+        start = System.nanoTime();
+        dict = BST.fromSorted(order, true, sorted, sorted);
+        fromSorted = Math.min(fromSorted, System.nanoTime() - start);
+        sink += dict.size();
+
+        start = System.nanoTime();
+        dict = BST.fromUnsorted(order, true, unsorted, unsorted);
+        fromUnsorted = Math.min(fromUnsorted, System.nanoTime() - start);
+        sink += dict.size();
+      } // for each round
+
+    pen.println(header());
+    String prefix = String.format("%-18s %-10s %-11s %9d ", "BalancedBST",
+                                  "Integer", "sequential", size);
+    pen.println(prefix + line("set", set, size));
+    pen.println(prefix + line("fromSorted", fromSorted, size));
+    prefix = String.format("%-18s %-10s %-11s %9d ", "BalancedBST",
+                           "Integer", "uniform", size);
+    pen.println(prefix + line("fromUnsorted", fromUnsorted, size));
+    pen.println("# checksum " + sink);
+  } // runLoad(PrintWriter, int)
+
+  // +-----------+-------------------------------------------------------
+  // | Utilities |
+  // +-----------+
+
+  /**
+   * The name we report for balanced or unbalanced trees.
+   */
+  static String name(boolean balanced)
+  {
+    return balanced ? "BalancedBST" : "BST";
+  } // name(boolean)
+
+  /**
+   * Format the start of a row of results.
+   */
+  static String prefix(boolean balanced, KeyGenerator<?> gen, String dist,
+                       int size)
+  {
+    return String.format("%-18s %-10s %-11s %9d ", name(balanced),
+                         gen.name(), dist, size);
+  } // prefix(boolean, KeyGenerator<?>, String, int)
+
+  /**
+   * Build a comparator that uses the natural order of the keys.
+   */
+  static <K extends Comparable<K>> Comparator<K> naturalOrder()
+  {
+    return new Comparator<K>()
+      {
+        public int compare(K left, K right)
+        {
+          return left.compareTo(right);
+        } // compare(K, K)
+      }; // new Comparator<K>
+  } // naturalOrder()
+
+  /**
+   * Add the keys to the tree in the given order.  Each key is
+   * associated with its index.
+   */
+  static <K> void fill(BST<K, Integer> dict, K[] keys, int[] order)
+  {
+    for (int i = 0; i < order.length; i++)
+      {
+        dict.set(keys[order[i]], order[i]);
+      } // for
+  } // fill(BST<K, Integer>, K[], int[])
+
+  /**
+   * Make an array of trees.  Java won't make an array of a generic
+   * type, so we make a raw one and cast it.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  static <K> BST<K, Integer>[] newArray(int length)
+  {
+    return (BST<K, Integer>[]) new BST[length];
+  } // newArray(int)
+
+  /**
+   * The column headings.
+   */
+  static String header()
+  {
+    return String.format("%-18s %-10s %-11s %9s %-12s %10s", "implementation",
+                         "keys", "dist", "size", "op", "ns/op");
+  } // header()
+
+  /**
+   * Format the time for one operation.
+   */
+  static String line(String op, long nanos, long ops)
+  {
+    return String.format("%-12s %10.1f", op, (double) nanos / ops);
+  } // line(String, long, long)
+} // class BSTBenchmark
@@ -0,0 +1,387 @@
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.HashMap;
+
+/**
+ * A fixed number of page-sized buffers that cache the pages of a file,
+ * evicting the least recently used page that no one is using.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class BufferPool
+{
+  // +-------+-----------------------------------------------------------
+  // | Notes |
+  // +-------+
+
+  /*
+      A file is a sequence of pages of pageBytes bytes each, and page i
+      starts at i * pageBytes.  To use a page, pin it, which reads it
+      into a frame if it isn't in one already, and unpin it when done,
+      saying whether it changed.  A pinned page stays put.  A page with
+      no pins is a candidate for eviction, and the candidates sit in a
+      doubly-linked list from least to most recently unpinned, so the
+      victim is always at the front and pinning or unpinning a page is
+      O(1).  (It's the list that LRUCache in Problem4 uses, except
+      that pinned pages aren't on it.)  We write a changed (dirty) page
+      back to the file when we evict it, or when someone calls flush.
+
+      All reads and writes are positional (FileChannel.read and write
+      with a position), one whole page at a time, into direct buffers,
+      so there's no seeking and no copying through the Java heap.
+      Callers should use absolute gets and puts on a frame's buffer;
+      we use its position and limit for I/O.
+
+      Page ids are ints, so a file can have 2^31 pages (8 TB of 4 KB
+      pages).  allocate hands out the next page after the end of the
+      file.  Nothing ever frees a page.
+
+      If every frame is pinned, there's nowhere to put another page,
+      and pin throws an IllegalStateException.  Callers should pin no
+      more pages at once than they need (e.g., one path from the root of
+      a tree to a leaf).
+
+      If writing back a victim fails, the victim stays where it was.
+      If reading a page fails, the page doesn't get a frame.  Either
+      way, pin and allocate pass on the exception, and the pool is
+      still usable.
+   */
+
+  // +--------+----------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The file.
+   */
+  FileChannel channel;
+
+  /**
+   * The size of a page.
+   */
+  int pageBytes;
+
+  /**
+   * The most frames we'll have.
+   */
+  int capacity;
+
+  /**
+   * The pages in frames, by id.
+   */
+  HashMap<Integer, Page> frames;
+
+  /**
+   * The front and back of the list of unpinned pages.  header.after is
+   * the least recently used, and header.before the most.
+   */
+  Page header;
+
+  /**
+   * The number of pages in the file, counting ones we've allocated but
+   * not yet written.
+   */
+  int pageCount;
+
+  /**
+   * The number of pins that found their page in a frame.
+   */
+  long hits;
+
+  /**
+   * The number of pins that had to read their page.
+   */
+  long misses;
+
+  // +--------------+----------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Cache the pages of a file, which has pageCount pages, in at most
+   * capacity frames.
+   *
+   * @pre capacity > 0
+   */
+  public BufferPool(FileChannel channel, int pageBytes, int capacity,
+                    int pageCount)
+  {
+    this.channel = channel;
+    this.pageBytes = pageBytes;
+    this.capacity = capacity;
+    this.pageCount = pageCount;
+    this.frames = new HashMap<Integer, Page>();
+    this.header = new Page(-1, null);
+    this.header.before = this.header;
+    this.header.after = this.header;
+  } // BufferPool(FileChannel, int, int, int)
+
+  // +-----------+-------------------------------------------------------
+  // | Observers |
+  // +-----------+
+
+  /**
+   * Get the number of pins that found their page in a frame.
+   */
+  public long hits()
+  {
+    return this.hits;
+  } // hits()
+
+  /**
+   * Get the number of pins that had to read their page.
+   */
+  public long misses()
+  {
+    return this.misses;
+  } // misses()
+
+  /**
+   * Get the number of pages in the file.
+   */
+  public int pageCount()
+  {
+    return this.pageCount;
+  } // pageCount()
+
+  // +----------+--------------------------------------------------------
+  // | Mutators |
+  // +----------+
+
+  /**
+   * Add a new page, full of zeros, at the end of the file, and pin it.
+   * It's dirty, so it will be written even if no one changes it.
+   */
+  public Page allocate()
+    throws IOException
+  {
+    Page page = this.frame(this.pageCount++);
+    ByteBuffer data = page.data;
+    for (int i = 0; i < this.pageBytes; i += 8)
+      {
+        data.putLong(i, 0);
+      } // for
+    page.dirty = true;
+    return page;
+  } // allocate()
+
+  /**
+   * Forget every page without writing anything, and treat the file as
+   * having pageCount pages.
+   *
+   * @pre No page is pinned.
+   */
+  public void discard(int pageCount)
+  {
+    this.frames.clear();
+    this.header.before = this.header;
+    this.header.after = this.header;
+    this.pageCount = pageCount;
+  } // discard(int)
+
+  /**
+   * Write every dirty page to the file.
+   */
+  public void flush()
+    throws IOException
+  {
+    for (Page page : this.frames.values())
+      {
+        if (page.dirty)
+          {
+            this.write(page);
+          } // if the page changed
+      } // for
+  } // flush()
+
+  /**
+   * Pin a page, reading it if it isn't in a frame.
+   *
+   * @throws IllegalStateException
+   *   if it isn't in a frame and every frame is pinned
+   */
+  public Page pin(int id)
+    throws IOException
+  {
+    Page page = this.frames.get(id);
+    if (page != null)
+      {
+        ++this.hits;
+        if (page.pins++ == 0)
+          {
+            this.unlink(page);
+          } // if it was a candidate for eviction
+        return page;
+      } // if it's in a frame
+    ++this.misses;
+    page = this.frame(id);
+    ByteBuffer data = page.data;
+    data.clear();
+    long position = (long) id * this.pageBytes;
+    boolean read = false;
+    try
+      {
+        while (data.hasRemaining())
+          {
+            int count = this.channel.read(data, position + data.position());
+            if (count < 0)
+              {
+                // Past the end of the file, the page is zeros.
+                while (data.hasRemaining())
+                  {
+                    data.put((byte) 0);
+                  } // while
+              } // if we reached the end of the file
+          } // while
+        read = true;
+      } // try
+    finally
+      {
+        if (!read)
+          {
+            // Don't leave a pinned frame of garbage behind.  Dropping
+            // it frees its slot, so the next frame gets a new buffer.
+            this.frames.remove(id);
+          } // if the read failed
+      } // finally
+    return page;
+  } // pin(int)
+
+  /**
+   * Unpin a page, noting whether we changed it.
+   */
+  public void unpin(Page page, boolean dirty)
+  {
+    page.dirty |= dirty;
+    if (--page.pins == 0)
+      {
+        // Link it in at the back, as the most recently used.
+        page.before = this.header.before;
+        page.after = this.header;
+        this.header.before.after = page;
+        this.header.before = page;
+      } // if no one is using it
+  } // unpin(Page, boolean)
+
+  // +---------+---------------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Get a pinned frame for a page that isn't in one, evicting the least
+   * recently used unpinned page if every frame is taken.  The frame's
+   * contents are left over from whatever was in it.
+   */
+  Page frame(int id)
+    throws IOException
+  {
+    Page page;
+    if (this.frames.size() < this.capacity)
+      {
+        page = new Page(id, ByteBuffer.allocateDirect(this.pageBytes));
+      } // if there's room for another frame
+    else
+      {
+        Page victim = this.header.after;
+        if (victim == this.header)
+          {
+            throw new IllegalStateException("All " + this.capacity
+                                            + " pages are pinned");
+          } // if there's nothing we can evict
+        // Write before unlinking, so that if the write fails, the
+        // victim is still in the list and in its frame.
+        if (victim.dirty)
+          {
+            this.write(victim);
+          } // if the victim changed
+        this.unlink(victim);
+        this.frames.remove(victim.id);
+        page = new Page(id, victim.data);
+      } // if we must evict a page
+    page.pins = 1;
+    this.frames.put(id, page);
+    return page;
+  } // frame(int)
+
+  /**
+   * Take a page out of the list of unpinned pages.
+   */
+  void unlink(Page page)
+  {
+    page.before.after = page.after;
+    page.after.before = page.before;
+    page.before = null;
+    page.after = null;
+  } // unlink(Page)
+
+  /**
+   * Write a page to the file.
+   */
+  void write(Page page)
+    throws IOException
+  {
+    ByteBuffer data = page.data;
+    data.clear();
+    long position = (long) page.id * this.pageBytes;
+    while (data.hasRemaining())
+      {
+        this.channel.write(data, position + data.position());
+      } // while
+    page.dirty = false;
+  } // write(Page)
+
+  // +---------------+---------------------------------------------------
+  // | Inner Classes |
+  // +---------------+
+
+  /**
+   * A page in a frame.
+   */
+  public static class Page
+  {
+    /**
+     * The page's number in the file.
+     */
+    int id;
+
+    /**
+     * The page's bytes.
+     */
+    ByteBuffer data;
+
+    /**
+     * The number of callers that have it pinned.
+     */
+    int pins;
+
+    /**
+     * Whether it has changed since we read or wrote it.
+     */
+    boolean dirty;
+
+    /**
+     * The previous page in the list of unpinned pages.
+     */
+    Page before;
+
+    /**
+     * The next page in the list of unpinned pages.
+     */
+    Page after;
+
+    /**
+     * Create a page in a frame.
+     */
+    Page(int id, ByteBuffer data)
+    {
+      this.id = id;
+      this.data = data;
+      this.pins = 0;
+      this.dirty = false;
+    } // Page(int, ByteBuffer)
+  } // class Page
+
+} // class BufferPool
@@ -0,0 +1,1158 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Dictionaries kept as a log-structured merge tree: recent changes in
+ * a balanced BST in memory, and everything older in sorted, immutable
+ * files that we merge in the background.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class LSMDictionary<K, V>
+    implements Dictionary<K, V>, Closeable
+{
+  // +-------+-----------------------------------------------------------
+  // | Notes |
+  // +-------+
+
+  /*
+     Writes go to the memtable, a balanced BST.  When it holds
+     memtableLimit entries, we flush it: we walk it in order and write
+     its entries to a new run file, and start a fresh memtable.  A run
+     is never changed after we write it, so writing is all sequential
+     I/O, however random the keys are.
+
+     A remove can't take a key out of a run, so it sets the key to
+     TOMBSTONE in the memtable, and the tombstone goes into the next
+     run like any other entry.  A lookup asks the memtable, and then
+     the runs from newest to oldest, and the first one that knows the
+     key has the answer (which may be that it was removed).
+
+     Each run file is a sequence of records, each the key's length,
+     the value's length (NULL_LENGTH for null, TOMBSTONE_LENGTH for a
+     tombstone), the key's bytes, and the value's bytes, in increasing
+     order of key.  After the records comes a sparse index: the key and
+     offset of every INDEX_INTERVAL-th record.  A footer gives the
+     offset of the index, the number of records, the number of index
+     entries, and MAGIC.  When we open a run, we read the index into
+     memory.  A lookup does a binary search of the index to find the
+     one block of INDEX_INTERVAL records that could hold the key, reads
+     that block with a single read, and scans it.  The codecs turn keys
+     and values into bytes; order compares decoded keys.
+
+     Every run file covers a range of sequence numbers, and its name
+     says which: run-first-last.lsm.  A flush makes a run whose range
+     is a single, new number.  When a flush leaves MERGE_THRESHOLD
+     runs, we merge all of them, on a separate thread, into one run
+     whose range covers theirs.  The merge is a k-way version of the
+     merge in Utils (see Problem1/merge-invariants.md).  Each run
+     has a cursor, and the merged run always gets the smallest key
+     among the cursors.  When several cursors are at that key, the
+     newest run's entry wins, just as merge takes from a1 on ties, and
+     all of those cursors advance.  So the output is sorted, has each
+     key once, and has the newest entry for each key.  A merge covers
+     every run, so nothing older can be hiding behind a tombstone, and
+     the merge drops the tombstones.
+
+     The merge thread only reads the input files and writes a new
+     one.  It never touches our fields.  The thread that uses the
+     dictionary installs the merged run at the start of its next
+     operation after the merge finishes.  It replaces the inputs with
+     the merged run, and closes and deletes their files.  Lookups
+     therefore never see a half-installed merge, and need no locks.  If
+     MAX_RUNS runs pile up while a merge is running, the next flush
+     waits for it.
+
+     Files are written under a .tmp name, synced, and then renamed, so
+     a run file is either complete or absent.  When we open a
+     directory, a run whose range is inside another run's range was an
+     input to a merge that finished, so we delete it.  The memtable
+     only lives in memory, so anything not yet flushed is lost if we
+     aren't closed.  (Put a log in front of us if that matters.)
+
+     Like the other dictionaries, this one isn't meant to be shared
+     among threads.  Iterators go over the memtable and the runs that
+     exist when they're created, and read the run files with their
+     own streams.
+   */
+
+  // +-----------+-------------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The last four bytes of every run file ("LSM1").
+   */
+  static final int MAGIC = 0x4c534d31;
+
+  /**
+   * The size of the footer of a run file.
+   */
+  static final int FOOTER_BYTES = 20;
+
+  /**
+   * The size of a record before the key: the two lengths.
+   */
+  static final int RECORD_HEADER_BYTES = 8;
+
+  /**
+   * The value length that marks a null value.
+   */
+  static final int NULL_LENGTH = -1;
+
+  /**
+   * The value length that marks a tombstone.
+   */
+  static final int TOMBSTONE_LENGTH = -2;
+
+  /**
+   * The number of records per entry in the sparse index.
+   */
+  static final int INDEX_INTERVAL = 16;
+
+  /**
+   * The number of entries at which we flush the memtable, by default.
+   */
+  static final int DEFAULT_MEMTABLE_LIMIT = 16384;
+
+  /**
+   * The number of runs at which we start a merge.
+   */
+  static final int MERGE_THRESHOLD = 4;
+
+  /**
+   * The number of runs at which a flush waits for the merge.
+   */
+  static final int MAX_RUNS = 12;
+
+  /**
+   * The value that marks a removed key, in the memtable and in
+   * cursors.
+   */
+  static final Object TOMBSTONE = new Object();
+
+  /**
+   * The value that lookups return when they know nothing of a key.
+   */
+  static final Object ABSENT = new Object();
+
+  // +--------+----------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The directory that holds the run files.
+   */
+  File directory;
+
+  /**
+   * The order of the keys.
+   */
+  Comparator<K> order;
+
+  /**
+   * How we turn keys into bytes and back.
+   */
+  Codec<K> keyCodec;
+
+  /**
+   * How we turn values into bytes and back.
+   */
+  Codec<V> valueCodec;
+
+  /**
+   * The size at which we flush the memtable.
+   */
+  int memtableLimit;
+
+  /**
+   * The recent changes.  The values are Vs or TOMBSTONE.
+   */
+  BST<K, Object> memtable;
+
+  /**
+   * The runs, from newest to oldest.
+   */
+  ArrayList<Run> runs;
+
+  /**
+   * The merge in progress, or null.
+   */
+  FutureTask<Run> merging;
+
+  /**
+   * The number of runs (the oldest ones) that the merge in progress
+   * is merging.
+   */
+  int mergeCount;
+
+  /**
+   * The sequence number for the next flush.
+   */
+  int nextSequence;
+
+  // +--------------+----------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Open the dictionary in a directory, creating the directory if
+   * need be.
+   */
+  public LSMDictionary(File directory, Comparator<K> order,
+                       Codec<K> keyCodec, Codec<V> valueCodec)
+    throws IOException
+  {
+    this(directory, order, keyCodec, valueCodec, DEFAULT_MEMTABLE_LIMIT);
+  } // LSMDictionary(File, Comparator<K>, Codec<K>, Codec<V>)
+
+  /**
+   * Open the dictionary in a directory, flushing the memtable whenever
+   * it holds memtableLimit entries.
+   *
+   * @pre memtableLimit > 0
+   */
+  public LSMDictionary(File directory, Comparator<K> order,
+                       Codec<K> keyCodec, Codec<V> valueCodec,
+                       int memtableLimit)
+    throws IOException
+  {
+    this.directory = directory;
+    this.order = order;
+    this.keyCodec = keyCodec;
+    this.valueCodec = valueCodec;
+    this.memtableLimit = memtableLimit;
+    this.memtable = new BST<K, Object>(order, true);
+    this.runs = new ArrayList<Run>();
+    this.merging = null;
+    this.nextSequence = 0;
+    directory.mkdirs();
+    this.load();
+  } // LSMDictionary(File, Comparator<K>, Codec<K>, Codec<V>, int)
+
+  // +-----------+-------------------------------------------------------
+  // | Observers |
+  // +-----------+
+
+  /**
+   * Determine if the dictionary contains a particular key.
+   */
+  public boolean containsKey(K key)
+  {
+    Object value = this.lookup(key);
+    return (value != ABSENT) && (value != TOMBSTONE);
+  } // containsKey(K)
+
+  /**
+   * Get the value for a particular key.
+   */
+  @SuppressWarnings("unchecked")
+  public V get(K key)
+    throws Exception
+  {
+    Object value = this.lookup(key);
+    if ((value == ABSENT) || (value == TOMBSTONE))
+      {
+        throw new Exception("Invalid key: " + key);
+      } // if the key isn't there
+    return (V) value;
+  } // get(K)
+
+  /**
+   * Get the value for a particular key, or defaultValue if there is
+   * no such key.
+   */
+  @SuppressWarnings("unchecked")
+  public V getOrDefault(K key, V defaultValue)
+  {
+    Object value = this.lookup(key);
+    return ((value == ABSENT) || (value == TOMBSTONE)) ? defaultValue
+                                                       : (V) value;
+  } // getOrDefault(K, V)
+
+  /**
+   * Get the number of run files.
+   */
+  public int runCount()
+  {
+    return this.runs.size();
+  } // runCount()
+
+  // +----------+--------------------------------------------------------
+  // | Mutators |
+  // +----------+
+
+  /**
+   * Remove all of the entries, and delete the run files.
+   */
+  public void clear()
+  {
+    try
+      {
+        this.awaitMerge();
+      } // try
+    catch (IOException e)
+      {
+        throw new UncheckedIOException(e);
+      } // catch (IOException)
+    for (Run run : this.runs)
+      {
+        run.delete();
+      } // for
+    this.runs.clear();
+    this.memtable.clear();
+  } // clear()
+
+  /**
+   * Flush the memtable, finish any merge, and close the run files.
+   * We can't be used after that.
+   */
+  public void close()
+    throws IOException
+  {
+    this.flush();
+    this.awaitMerge();
+    for (Run run : this.runs)
+      {
+        run.channel.close();
+      } // for
+  } // close()
+
+  /**
+   * Write the memtable to a new run now, if it isn't empty.
+   */
+  public void flush()
+    throws IOException
+  {
+    if (this.memtable.size() == 0)
+      {
+        return;
+      } // if there's nothing to flush
+    int sequence = this.nextSequence++;
+    Run run = this.writeRun(sequence, sequence,
+                            new MemtableCursor(this.memtable), true);
+    this.runs.add(0, run);
+    this.memtable = new BST<K, Object>(this.order, true);
+    if ((this.merging != null) && (this.runs.size() >= MAX_RUNS))
+      {
+        this.awaitMerge();
+      } // if we've gotten too far ahead of the merge
+    if ((this.merging == null) && (this.runs.size() >= MERGE_THRESHOLD))
+      {
+        this.startMerge();
+      } // if it's time to merge
+  } // flush()
+
+  /**
+   * Remove the value associated with a particular key.
+   */
+  public void remove(K key)
+  {
+    this.installMerge();
+    if (this.runs.isEmpty())
+      this.memtable.remove(key);
+    else
+      this.memtable.set(key, TOMBSTONE);
+    this.flushIfFull();
+  } // remove(K)
+
+  /**
+   * Set the value associated with a particular key.
+   */
+  public void set(K key, V value)
+  {
+    this.installMerge();
+    this.memtable.set(key, value);
+    this.flushIfFull();
+  } // set(K, V)
+
+  // +-----------+-------------------------------------------------------
+  // | Iterators |
+  // +-----------+
+
+  /**
+   * Get an iterator for the values, in order of their keys.
+   */
+  public Iterator<V> iterator()
+  {
+    return new EntryIterator<V>()
+      {
+        @SuppressWarnings("unchecked")
+        V extract(Cursor cursor)
+        {
+          return (V) cursor.value;
+        } // extract(Cursor)
+      }; // new EntryIterator<V>
+  } // iterator()
+
+  /**
+   * Get an Iterable for the keys.  See explanation in Dictionary.java.
+   */
+  public Iterable<K> keys()
+  {
+    return new Iterable<K>()
+      {
+        public Iterator<K> iterator()
+        {
+          return LSMDictionary.this.keysIterator();
+        } // iterator()
+      }; // new Iterable<K>
+  } // keys()
+
+  /**
+   * Get an iterator for the keys, from smallest to largest.
+   */
+  public Iterator<K> keysIterator()
+  {
+    return new EntryIterator<K>()
+      {
+        K extract(Cursor cursor)
+        {
+          return cursor.key;
+        } // extract(Cursor)
+      }; // new EntryIterator<K>
+  } // keysIterator()
+
+  // +---------+---------------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Find what we know about a key: its value, TOMBSTONE if it was
+   * removed, or ABSENT if we've never heard of it.
+   */
+  Object lookup(K key)
+  {
+    this.installMerge();
+    Object value = this.memtable.getOrDefault(key, ABSENT);
+    try
+      {
+        for (int i = 0; (value == ABSENT) && (i < this.runs.size()); i++)
+          {
+            value = this.runs.get(i).find(key);
+          } // for each run, from newest to oldest
+      } // try
+    catch (IOException e)
+      {
+        throw new UncheckedIOException(e);
+      } // catch (IOException)
+    return value;
+  } // lookup(K)
+
+  /**
+   * Flush the memtable if it has reached its limit.
+   */
+  void flushIfFull()
+  {
+    if (this.memtable.size() >= this.memtableLimit)
+      {
+        try
+          {
+            this.flush();
+          } // try
+        catch (IOException e)
+          {
+            throw new UncheckedIOException(e);
+          } // catch (IOException)
+      } // if the memtable is full
+  } // flushIfFull()
+
+  /**
+   * Start merging all of the runs on another thread.
+   */
+  void startMerge()
+  {
+    final Run[] inputs = this.runs.toArray(this.newRuns(0));
+    final int first = inputs[inputs.length - 1].first;
+    final int last = inputs[0].last;
+    this.mergeCount = inputs.length;
+    this.merging = new FutureTask<Run>(new Callable<Run>()
+      {
+        public Run call()
+          throws IOException
+        {
+          LSMDictionary<K, V> dict = LSMDictionary.this;
+          Cursor[] cursors = dict.newCursors(inputs.length);
+          for (int i = 0; i < inputs.length; i++)
+            {
+              cursors[i] = dict.new RunCursor(inputs[i]);
+            } // for each input, from newest to oldest
+          return dict.writeRun(first, last, dict.new MergeCursor(cursors),
+                               false);
+        } // call()
+      }); // new FutureTask<Run>
+    Thread thread = new Thread(this.merging, "LSM merge");
+    thread.setDaemon(true);
+    thread.start();
+  } // startMerge()
+
+  /**
+   * If the merge in progress has finished, put its run in place of
+   * its inputs.
+   */
+  void installMerge()
+  {
+    if ((this.merging != null) && this.merging.isDone())
+      {
+        try
+          {
+            this.awaitMerge();
+          } // try
+        catch (IOException e)
+          {
+            throw new UncheckedIOException(e);
+          } // catch (IOException)
+      } // if the merge is done
+  } // installMerge()
+
+  /**
+   * Wait for the merge in progress, if any, and put its run in place
+   * of its inputs.
+   */
+  void awaitMerge()
+    throws IOException
+  {
+    if (this.merging == null)
+      {
+        return;
+      } // if there's no merge
+    Run merged;
+    try
+      {
+        merged = this.merging.get();
+      } // try
+    catch (ExecutionException e)
+      {
+        this.merging = null;
+        if (e.getCause() instanceof IOException)
+          throw (IOException) e.getCause();
+        throw new RuntimeException(e.getCause());
+      } // catch (ExecutionException)
+    catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted waiting for merge", e);
+      } // catch (InterruptedException)
+    this.merging = null;
+    // The inputs are the oldest runs; anything newer arrived since.
+    int keep = this.runs.size() - this.mergeCount;
+    for (int i = keep; i < this.runs.size(); i++)
+      {
+        this.runs.get(i).delete();
+      } // for each input
+    this.runs.subList(keep, this.runs.size()).clear();
+    this.runs.add(merged);
+  } // awaitMerge()
+
+  /**
+   * Write the entries from a cursor to a new run file that covers
+   * sequence numbers first to last.  If keepTombstones isn't set, we
+   * leave the tombstones out.
+   */
+  @SuppressWarnings("unchecked")
+  Run writeRun(int first, int last, Cursor source, boolean keepTombstones)
+    throws IOException
+  {
+    File temp = new File(this.directory, name(first, last) + ".tmp");
+    FileOutputStream stream = new FileOutputStream(temp);
+    DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+    ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+    DataOutputStream index = new DataOutputStream(indexBytes);
+    long offset = 0;
+    int count = 0;
+    int indexCount = 0;
+    try
+      {
+        while (source.advance())
+          {
+            if ((source.value == TOMBSTONE) && !keepTombstones)
+              {
+                continue;
+              } // if we can drop the tombstone
+            byte[] key = this.keyCodec.encode(source.key);
+            if ((count % INDEX_INTERVAL) == 0)
+              {
+                index.writeInt(key.length);
+                index.write(key);
+                index.writeLong(offset);
+                ++indexCount;
+              } // if this record goes in the index
+            byte[] value = null;
+            int valueLength;
+            if (source.value == TOMBSTONE)
+              valueLength = TOMBSTONE_LENGTH;
+            else if (source.value == null)
+              valueLength = NULL_LENGTH;
+            else
+              {
+                value = this.valueCodec.encode((V) source.value);
+                valueLength = value.length;
+              } // if there's a value
+            out.writeInt(key.length);
+            out.writeInt(valueLength);
+            out.write(key);
+            if (value != null)
+              {
+                out.write(value);
+              } // if there's a value
+            offset += RECORD_HEADER_BYTES + key.length
+                      + ((value == null) ? 0 : value.length);
+            ++count;
+          } // while
+        indexBytes.writeTo(out);
+        out.writeLong(offset);
+        out.writeInt(count);
+        out.writeInt(indexCount);
+        out.writeInt(MAGIC);
+        out.flush();
+        stream.getFD().sync();
+      } // try
+    finally
+      {
+        out.close();
+      } // finally
+    File file = new File(this.directory, name(first, last) + ".lsm");
+    Files.move(temp.toPath(), file.toPath(),
+               StandardCopyOption.ATOMIC_MOVE);
+    return new Run(file, first, last);
+  } // writeRun(int, int, Cursor, boolean)
+
+  /**
+   * Open the runs in our directory, and clean up after any merge or
+   * flush that didn't finish.
+   */
+  void load()
+    throws IOException
+  {
+    ArrayList<int[]> ranges = new ArrayList<int[]>();
+    for (File file : this.directory.listFiles())
+      {
+        String name = file.getName();
+        if (name.startsWith("run-") && name.endsWith(".tmp"))
+          {
+            file.delete();
+          } // if it's left over from a write that didn't finish
+        else if (name.startsWith("run-") && name.endsWith(".lsm"))
+          {
+            String[] parts =
+                name.substring(4, name.length() - 4).split("-");
+            ranges.add(new int[] { Integer.parseInt(parts[0]),
+                                   Integer.parseInt(parts[1]) });
+          } // if it's a run
+      } // for each file
+    // Newest first, and of the runs that end at the same place, the
+    // widest first, so that each run comes after any that covers it.
+    ranges.sort(new Comparator<int[]>()
+      {
+        public int compare(int[] left, int[] right)
+        {
+          if (left[1] != right[1])
+            return Integer.compare(right[1], left[1]);
+          return Integer.compare(left[0], right[0]);
+        } // compare(int[], int[])
+      }); // new Comparator<int[]>
+    for (int[] range : ranges)
+      {
+        File file = new File(this.directory, name(range[0], range[1])
+                                             + ".lsm");
+        if (!this.runs.isEmpty()
+            && (range[1] >= this.runs.get(this.runs.size() - 1).first))
+          {
+            file.delete();
+          } // if a merged run already covers it
+        else
+          {
+            this.runs.add(new Run(file, range[0], range[1]));
+          } // if it's still needed
+        this.nextSequence = Math.max(this.nextSequence, range[1] + 1);
+      } // for each run
+  } // load()
+
+  /**
+   * Decode the value that follows a key in a record, or give TOMBSTONE.
+   */
+  Object value(ByteBuffer records, int valueLength)
+  {
+    if (valueLength == TOMBSTONE_LENGTH)
+      return TOMBSTONE;
+    if (valueLength == NULL_LENGTH)
+      return null;
+    byte[] bytes = new byte[valueLength];
+    records.get(bytes);
+    return this.valueCodec.decode(bytes);
+  } // value(ByteBuffer, int)
+
+  /**
+   * Make an array of cursors.  Included mostly so that the unchecked
+   * conversion is all in one place.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  Cursor[] newCursors(int length)
+  {
+    return (Cursor[]) new LSMDictionary.Cursor[length];
+  } // newCursors(int)
+
+  /**
+   * Make an array of runs, for the same reason.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  Run[] newRuns(int length)
+  {
+    return (Run[]) new LSMDictionary.Run[length];
+  } // newRuns(int)
+
+  /**
+   * Find the name (less the extension) of the run file for sequence
+   * numbers first to last.
+   */
+  static String name(int first, int last)
+  {
+    return String.format("run-%08d-%08d", first, last);
+  } // name(int, int)
+
+  // +---------------+---------------------------------------------------
+  // | Inner Classes |
+  // +---------------+
+
+  /**
+   * An open run file, with its sparse index in memory.
+   */
+  class Run
+  {
+    /**
+     * The file.
+     */
+    File file;
+
+    /**
+     * The first sequence number the run covers.
+     */
+    int first;
+
+    /**
+     * The last sequence number the run covers.
+     */
+    int last;
+
+    /**
+     * The open file, for lookups.
+     */
+    FileChannel channel;
+
+    /**
+     * The number of records.
+     */
+    int count;
+
+    /**
+     * The offset of the end of the records (and the start of the
+     * index).
+     */
+    long end;
+
+    /**
+     * The keys in the index.
+     */
+    Object[] indexKeys;
+
+    /**
+     * The offsets of the records for the keys in the index.
+     */
+    long[] indexOffsets;
+
+    /**
+     * Open a run file and read its index.
+     *
+     * @throws IOException
+     *   if we can't read the file, or it isn't a run
+     */
+    Run(File file, int first, int last)
+      throws IOException
+    {
+      this.file = file;
+      this.first = first;
+      this.last = last;
+      this.channel = FileChannel.open(file.toPath(),
+                                      StandardOpenOption.READ);
+      try
+        {
+          long size = this.channel.size();
+          if (size < FOOTER_BYTES)
+            {
+              throw new IOException("Not a run file: " + file);
+            } // if it's too small
+          ByteBuffer footer = this.read(size - FOOTER_BYTES, FOOTER_BYTES);
+          this.end = footer.getLong();
+          this.count = footer.getInt();
+          int indexCount = footer.getInt();
+          if (footer.getInt() != MAGIC)
+            {
+              throw new IOException("Not a run file: " + file);
+            } // if the footer is wrong
+          ByteBuffer index = this.read(this.end,
+                                       (int) (size - FOOTER_BYTES
+                                              - this.end));
+          this.indexKeys = new Object[indexCount];
+          this.indexOffsets = new long[indexCount];
+          for (int i = 0; i < indexCount; i++)
+            {
+              byte[] key = new byte[index.getInt()];
+              index.get(key);
+              this.indexKeys[i] = LSMDictionary.this.keyCodec.decode(key);
+              this.indexOffsets[i] = index.getLong();
+            } // for each index entry
+        } // try
+      catch (IOException e)
+        {
+          this.channel.close();
+          throw e;
+        } // catch (IOException)
+    } // Run(File, int, int)
+
+    /**
+     * Find what this run knows about a key: its value, TOMBSTONE, or
+     * ABSENT.
+     */
+    @SuppressWarnings("unchecked")
+    Object find(K key)
+      throws IOException
+    {
+      // Find the last index key that's no bigger than key.
+      int lb = 0;
+      int ub = this.indexKeys.length;
+      while (lb < ub)
+        {
+          int mid = (lb + ub) >>> 1;
+          if (LSMDictionary.this.order.compare((K) this.indexKeys[mid],
+                                               key) <= 0)
+            lb = mid + 1;
+          else
+            ub = mid;
+        } // while
+      int block = lb - 1;
+      if (block < 0)
+        {
+          return ABSENT;
+        } // if key comes before everything in the run
+      long from = this.indexOffsets[block];
+      long to = (block + 1 < this.indexOffsets.length)
+                ? this.indexOffsets[block + 1]
+                : this.end;
+      ByteBuffer records = this.read(from, (int) (to - from));
+      while (records.hasRemaining())
+        {
+          byte[] bytes = new byte[records.getInt()];
+          int valueLength = records.getInt();
+          records.get(bytes);
+          int comparison = LSMDictionary.this.order.compare(
+              LSMDictionary.this.keyCodec.decode(bytes), key);
+          if (comparison == 0)
+            {
+              return value(records, valueLength);
+            } // if we found it
+          if (comparison > 0)
+            {
+              return ABSENT;
+            } // if we've gone past it
+          records.position(records.position() + Math.max(0, valueLength));
+        } // while
+      return ABSENT;
+    } // find(K)
+
+    /**
+     * Read length bytes starting at offset.
+     */
+    ByteBuffer read(long offset, int length)
+      throws IOException
+    {
+      ByteBuffer buffer = ByteBuffer.allocate(length);
+      while (buffer.hasRemaining())
+        {
+          if (this.channel.read(buffer, offset + buffer.position()) < 0)
+            {
+              throw new IOException("Truncated run file: " + this.file);
+            } // if the file is too short
+        } // while
+      buffer.flip();
+      return buffer;
+    } // read(long, int)
+
+    /**
+     * Close and delete the file.
+     */
+    void delete()
+    {
+      try
+        {
+          this.channel.close();
+        } // try
+      catch (IOException e)
+        {
+          // We're throwing the file away anyway.
+        } // catch (IOException)
+      this.file.delete();
+    } // delete()
+  } // class Run
+
+  /**
+   * A position in a sorted sequence of entries.  The cursor starts
+   * before the first entry.  After advance returns true, key and value
+   * are the current entry.
+   */
+  abstract class Cursor
+  {
+    /**
+     * The current key.
+     */
+    K key;
+
+    /**
+     * The current value, which may be TOMBSTONE.
+     */
+    Object value;
+
+    /**
+     * Move to the next entry.
+     *
+     * @return false if there are no more entries
+     */
+    abstract boolean advance()
+      throws IOException;
+  } // class Cursor
+
+  /**
+   * A cursor over a memtable.
+   */
+  class MemtableCursor
+      extends Cursor
+  {
+    Iterator<K> keys;
+    Iterator<Object> values;
+
+    MemtableCursor(BST<K, Object> memtable)
+    {
+      this.keys = memtable.keysIterator();
+      this.values = memtable.iterator();
+    } // MemtableCursor(BST<K, Object>)
+
+    boolean advance()
+    {
+      if (!this.keys.hasNext())
+        return false;
+      this.key = this.keys.next();
+      this.value = this.values.next();
+      return true;
+    } // advance()
+  } // class MemtableCursor
+
+  /**
+   * A cursor over a run file, which reads the file with its own
+   * stream, from start to end.
+   */
+  class RunCursor
+      extends Cursor
+  {
+    DataInputStream in;
+    int remaining;
+
+    RunCursor(Run run)
+      throws IOException
+    {
+      this.in = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(run.file), 1 << 16));
+      this.remaining = run.count;
+    } // RunCursor(Run)
+
+    boolean advance()
+      throws IOException
+    {
+      if (this.remaining == 0)
+        {
+          this.in.close();
+          return false;
+        } // if we're done
+      --this.remaining;
+      byte[] bytes = new byte[this.in.readInt()];
+      int valueLength = this.in.readInt();
+      this.in.readFully(bytes);
+      this.key = LSMDictionary.this.keyCodec.decode(bytes);
+      if (valueLength == TOMBSTONE_LENGTH)
+        this.value = TOMBSTONE;
+      else if (valueLength == NULL_LENGTH)
+        this.value = null;
+      else
+        {
+          bytes = new byte[valueLength];
+          this.in.readFully(bytes);
+          this.value = LSMDictionary.this.valueCodec.decode(bytes);
+        } // if there's a value
+      return true;
+    } // advance()
+  } // class RunCursor
+
+  /**
+   * A k-way merge of cursors, given from newest to oldest.  Each key
+   * appears once, with the value from the newest cursor that has it.
+   */
+  class MergeCursor
+      extends Cursor
+  {
+    /**
+     * The cursors we merge.
+     */
+    Cursor[] sources;
+
+    /**
+     * live[i] is set when sources[i] is at an entry.
+     */
+    boolean[] live;
+
+    MergeCursor(Cursor[] sources)
+      throws IOException
+    {
+      this.sources = sources;
+      this.live = new boolean[sources.length];
+      for (int i = 0; i < sources.length; i++)
+        {
+          this.live[i] = sources[i].advance();
+        } // for
+    } // MergeCursor(Cursor[])
+
+    boolean advance()
+      throws IOException
+    {
+      // Invariant: the keys we've returned are sorted and distinct,
+      // and every live source is at a key bigger than all of them.
+      int min = -1;
+      for (int i = 0; i < this.sources.length; i++)
+        {
+          if (this.live[i]
+              && ((min < 0)
+                  || (LSMDictionary.this.order.compare(
+                          this.sources[i].key, this.sources[min].key) < 0)))
+            {
+              min = i;
+            } // if this is the smallest key so far
+        } // for
+      if (min < 0)
+        {
+          return false;
+        } // if every source is done
+      // On a tie, the strict comparison above kept the newest source.
+      this.key = this.sources[min].key;
+      this.value = this.sources[min].value;
+      for (int i = 0; i < this.sources.length; i++)
+        {
+          if (this.live[i]
+              && (LSMDictionary.this.order.compare(this.sources[i].key,
+                                                   this.key) == 0))
+            {
+              this.live[i] = this.sources[i].advance();
+            } // if this source is at the key we just took
+        } // for
+      return true;
+    } // advance()
+  } // class MergeCursor
+
+  /**
+   * Iterators over the live entries, in order.  Subclasses say what
+   * they want from each entry.
+   */
+  abstract class EntryIterator<T>
+      implements Iterator<T>
+  {
+    /**
+     * The merge of the memtable and the runs.
+     */
+    Cursor cursor;
+
+    /**
+     * Whether the cursor is at an entry we haven't returned yet.
+     */
+    boolean ready;
+
+    EntryIterator()
+    {
+      LSMDictionary<K, V> dict = LSMDictionary.this;
+      dict.installMerge();
+      Cursor[] sources = dict.newCursors(dict.runs.size() + 1);
+      sources[0] = dict.new MemtableCursor(dict.memtable);
+      try
+        {
+          for (int i = 0; i < dict.runs.size(); i++)
+            {
+              sources[i + 1] = dict.new RunCursor(dict.runs.get(i));
+            } // for each run
+          this.cursor = dict.new MergeCursor(sources);
+        } // try
+      catch (IOException e)
+        {
+          throw new UncheckedIOException(e);
+        } // catch (IOException)
+      this.ready = false;
+    } // EntryIterator()
+
+    /**
+     * Get what we want from the cursor's entry.
+     */
+    abstract T extract(Cursor cursor);
+
+    public boolean hasNext()
+    {
+      try
+        {
+          while (!this.ready)
+            {
+              if (!this.cursor.advance())
+                return false;
+              this.ready = (this.cursor.value != TOMBSTONE);
+            } // while
+        } // try
+      catch (IOException e)
+        {
+          throw new UncheckedIOException(e);
+        } // catch (IOException)
+      return true;
+    } // hasNext()
+
+    public T next()
+      throws NoSuchElementException
+    {
+      if (!this.hasNext())
+        throw new NoSuchElementException();
+      this.ready = false;
+      return this.extract(this.cursor);
+    } // next()
+
+    public void remove()
+      throws UnsupportedOperationException
+    {
+      throw new UnsupportedOperationException();
+    } // remove()
+  } // class EntryIterator<T>
+
+} // class LSMDictionary<K,V>
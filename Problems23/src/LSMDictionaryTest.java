@@ -0,0 +1,178 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.Files;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Tests for log-structured merge tree dictionaries.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class LSMDictionaryTest
+{
+  // +--------+----------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The usual order for integers.
+   */
+  Comparator<Integer> order = new Comparator<Integer>()
+    {
+      public int compare(Integer left, Integer right)
+      {
+        return left.compareTo(right);
+      } // compare(Integer, Integer)
+    }; // new Comparator<Integer>
+
+  // +-------+-----------------------------------------------------------
+  // | Tests |
+  // +-------+
+
+  /**
+   * Lots of random sets and removes, compared with a TreeMap.  The
+   * memtable is tiny, so we flush and merge all the time.  We close
+   * and reopen the dictionary along the way, and it should pick up
+   * where it left off.
+   */
+  @Test
+  public void randomTest()
+    throws Exception
+  {
+    File directory = Files.createTempDirectory("lsm").toFile();
+    Random rand = new Random();
+    TreeMap<Integer, String> map = new TreeMap<Integer, String>();
+    LSMDictionary<Integer, String> dict = open(directory);
+    for (int i = 0; i < 50000; i++)
+      {
+        Integer key = rand.nextInt(2000);
+        int op = rand.nextInt(10);
+        if (op < 5)
+          {
+            String value = (op == 0) ? null : ("v" + i);
+            dict.set(key, value);
+            map.put(key, value);
+          } // if it's a set
+        else if (op < 8)
+          {
+            assertEquals(map.containsKey(key), dict.containsKey(key));
+            assertEquals(map.get(key), dict.getOrDefault(key, null));
+          } // if it's a lookup
+        else
+          {
+            dict.remove(key);
+            map.remove(key);
+          } // if it's a remove
+        if ((i % 10000) == 0)
+          {
+            dict.close();
+            dict = open(directory);
+          } // if it's time to reopen
+      } // for
+    assertTrue(dict.runCount() <= LSMDictionary.MAX_RUNS);
+    checkContents(map, dict);
+    dict.close();
+    dict = open(directory);
+    checkContents(map, dict);
+    // Clearing should leave nothing behind.
+    dict.clear();
+    assertFalse(dict.keys().iterator().hasNext());
+    assertFalse(dict.containsKey(map.firstKey()));
+    dict.close();
+    assertEquals(0, directory.listFiles().length);
+    directory.delete();
+  } // randomTest()
+
+  /**
+   * Removes should hide keys in older runs, and sets after the removes
+   * should bring them back.
+   */
+  @Test
+  public void tombstoneTest()
+    throws Exception
+  {
+    File directory = Files.createTempDirectory("lsm").toFile();
+    LSMDictionary<Integer, String> dict = open(directory);
+    for (int i = 0; i < 100; i++)
+      {
+        dict.set(i, "old" + i);
+      } // for
+    dict.flush();
+    for (int i = 0; i < 100; i += 2)
+      {
+        dict.remove(i);
+      } // for
+    dict.flush();
+    for (int i = 0; i < 100; i++)
+      {
+        assertEquals((i % 2) == 1, dict.containsKey(i));
+      } // for
+    dict.set(10, "new10");
+    assertEquals("new10", dict.get(10));
+    try
+      {
+        dict.get(12);
+        fail("found a removed key");
+      } // try
+    catch (Exception e)
+      {
+        // That's what we want.
+      } // catch (Exception)
+    dict.clear();
+    dict.close();
+    directory.delete();
+  } // tombstoneTest()
+
+  // +---------+---------------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Open a dictionary with a tiny memtable in a directory.
+   */
+  LSMDictionary<Integer, String> open(File directory)
+    throws IOException
+  {
+    return new LSMDictionary<Integer, String>(directory, order,
+                                              Codec.INTEGERS, Codec.STRINGS,
+                                              50);
+  } // open(File)
+
+  /**
+   * Check that a dictionary has exactly the entries in a map, and
+   * iterates them in order.
+   */
+  static void checkContents(TreeMap<Integer, String> map,
+                            LSMDictionary<Integer, String> dict)
+    throws Exception
+  {
+    for (Integer key : map.keySet())
+      {
+        assertEquals(map.get(key), dict.get(key));
+      } // for
+    ArrayList<Integer> keys = new ArrayList<Integer>();
+    for (Integer key : dict.keys())
+      {
+        keys.add(key);
+      } // for
+    assertEquals(new ArrayList<Integer>(map.keySet()), keys);
+    ArrayList<String> values = new ArrayList<String>();
+    Iterator<String> it = dict.iterator();
+    while (it.hasNext())
+      {
+        values.add(it.next());
+      } // while
+    assertEquals(new ArrayList<String>(map.values()), values);
+  } // checkContents(TreeMap<Integer, String>, LSMDictionary<...>)
+
+} // class LSMDictionaryTest
@@ -9,6 +9,9 @@ import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Random;
+import java.util.TreeMap;
+
+import java.util.function.BiConsumer;
 
 /**
  * Randomized tests for binary search trees.
@@ -56,6 +59,214 @@ public class RandomBSTTests
   @Test
   public void randomTest()
     throws Exception
+  {
+    randomTest(false);
+  } // randomTest()
+
+  /**
+   * Conduct the same unpredictable tests on balanced trees, checking
+   * after each operation that the tree is still balanced.
+   */
+  @Test
+  public void randomBalancedTest()
+    throws Exception
+  {
+    randomTest(true);
+  } // randomBalancedTest()
+
+  /**
+   * Check the ordered operations (in-order iteration, forEach, first,
+   * last, floor, ceiling, and range) against Java's TreeMap on random
+   * trees.
+   */
+  @Test
+  public void randomNavigationTest()
+  {
+    String keys = "abcdefghijklmnopqrstuvwxyz";
+    Random rand = new Random();
+    for (int i = 0; i < ITERATIONS; i++)
+      {
+        boolean balanced = (i % 2 == 0);
+        BST<Character, String> dict =
+            SystematicBSTRemoveTests.buildTree("", balanced);
+        TreeMap<Character, String> map = new TreeMap<Character, String>();
+        for (int o = 0; o < NUMOPS / 10; o++)
+          {
+            char key = keys.charAt(rand.nextInt(keys.length()));
+            dict.set(key, Character.toString(key));
+            map.put(key, Character.toString(key));
+          } // for
+
+        // In-order iteration
+        assertEquals(new ArrayList<Character>(map.keySet()),
+                     toList(dict.keys().iterator()));
+        final ArrayList<Character> visited = new ArrayList<Character>();
+        dict.forEach(new BiConsumer<Character, String>()
+          {
+            public void accept(Character key, String value)
+            {
+              assertEquals(Character.toString(key), value);
+              visited.add(key);
+            } // accept(Character, String)
+          }); // new BiConsumer<Character, String>
+        assertEquals(new ArrayList<Character>(map.keySet()), visited);
+        assertEquals(map.firstKey(), dict.firstKey());
+        assertEquals(map.lastKey(), dict.lastKey());
+
+        // Floor and ceiling, including keys outside the range of letters
+        for (char key = '`'; key <= '{'; key++)
+          {
+            assertEquals(map.floorKey(key), dict.floorKey(key));
+            assertEquals(map.ceilingKey(key), dict.ceilingKey(key));
+          } // for
+
+        // Ranges, including ones that are empty or unbounded
+        for (int r = 0; r < 20; r++)
+          {
+            char lo = (char) ('`' + rand.nextInt(28));
+            char hi = (char) ('`' + rand.nextInt(28));
+            assertEquals("range(" + lo + "," + hi + ")",
+                         (lo <= hi)
+                           ? new ArrayList<Character>(map.subMap(lo, hi)
+                                                         .keySet())
+                           : new ArrayList<Character>(),
+                         toList(dict.rangeIterator(lo, hi)));
+            assertEquals(new ArrayList<Character>(map.tailMap(lo).keySet()),
+                         toList(dict.rangeIterator(lo, null)));
+            assertEquals(new ArrayList<Character>(map.headMap(hi).keySet()),
+                         toList(dict.rangeIterator(null, hi)));
+          } // for
+      } // for (i)
+  } // randomNavigationTest()
+
+  /**
+   * Check size, rank, select, and countInRange against Java's TreeMap
+   * on random trees.
+   */
+  @Test
+  public void randomOrderStatisticsTest()
+  {
+    String keys = "abcdefghijklmnopqrstuvwxyz";
+    Random rand = new Random();
+    for (int i = 0; i < ITERATIONS; i++)
+      {
+        boolean balanced = (i % 2 == 0);
+        BST<Character, String> dict =
+            SystematicBSTRemoveTests.buildTree("", balanced);
+        TreeMap<Character, String> map = new TreeMap<Character, String>();
+        for (int o = 0; o < NUMOPS / 10; o++)
+          {
+            char key = keys.charAt(rand.nextInt(keys.length()));
+            if (rand.nextInt(4) == 0)
+              {
+                dict.remove(key);
+                map.remove(key);
+              } // if we're removing
+            else
+              {
+                dict.set(key, Character.toString(key));
+                map.put(key, Character.toString(key));
+              } // if we're setting
+            assertEquals(map.size(), dict.size());
+          } // for
+
+        ArrayList<Character> inOrder = new ArrayList<Character>(map.keySet());
+        for (int r = 0; r < inOrder.size(); r++)
+          {
+            assertEquals(inOrder.get(r), dict.select(r));
+            assertEquals(r, dict.rank(inOrder.get(r)));
+          } // for each rank
+        for (char lo = '`'; lo <= '{'; lo++)
+          {
+            assertEquals(map.headMap(lo).size(), dict.rank(lo));
+            for (char hi = lo; hi <= '{'; hi++)
+              {
+                assertEquals(map.subMap(lo, hi).size(),
+                             dict.countInRange(lo, hi));
+              } // for each upper bound
+            assertEquals(0, dict.countInRange(lo, '`'));
+            assertEquals(map.tailMap(lo).size(), dict.countInRange(lo, null));
+          } // for each lower bound
+      } // for (i)
+  } // randomOrderStatisticsTest()
+
+  /**
+   * Check that the bulk loaders build the same dictionary as a series
+   * of calls to set, and that the trees they build are balanced.
+   */
+  @Test
+  public void randomBulkLoadTest()
+  {
+    String keys = "abcdefghijklmnopqrstuvwxyz";
+    Random rand = new Random();
+    Comparator<Character> order = new Comparator<Character>()
+      {
+        public int compare(Character left, Character right)
+        {
+          return left.compareTo(right);
+        } // compare(Character, Character)
+      };
+    for (int i = 0; i < ITERATIONS; i++)
+      {
+        boolean balanced = (i % 2 == 0);
+        // Random keys, with duplicates, and numbered values
+        int n = rand.nextInt(NUMOPS / 10);
+        Character[] unsorted = new Character[n];
+        String[] values = new String[n];
+        TreeMap<Character, String> map = new TreeMap<Character, String>();
+        for (int j = 0; j < n; j++)
+          {
+            unsorted[j] = keys.charAt(rand.nextInt(keys.length()));
+            values[j] = unsorted[j] + "" + j;
+            map.put(unsorted[j], values[j]);
+          } // for
+
+        BST<Character, String> fromUnsorted =
+            BST.fromUnsorted(order, balanced, unsorted, values);
+        BST<Character, String> fromSorted =
+            BST.fromSorted(order, balanced,
+                           map.keySet().toArray(new Character[0]),
+                           map.values().toArray(new String[0]));
+        ArrayList<BST<Character, String>> dicts =
+            new ArrayList<BST<Character, String>>();
+        dicts.add(fromUnsorted);
+        dicts.add(fromSorted);
+        for (BST<Character, String> dict : dicts)
+          {
+            assertNull(checkBalance(dict));
+            assertNull(checkSizes(dict));
+            assertEquals(new ArrayList<Character>(map.keySet()),
+                         toList(dict.keysIterator()));
+            assertEquals(new ArrayList<String>(map.values()),
+                         toList(dict.iterator()));
+            // Make sure that the tree still works after the bulk load
+            dict.set('!', "!");
+            dict.remove(keys.charAt(rand.nextInt(keys.length())));
+            assertNull(checkSizes(dict));
+            if (balanced)
+              assertNull(checkBalance(dict));
+          } // for each tree
+      } // for (i)
+
+    // Out-of-order keys are an error
+    try
+      {
+        BST.fromSorted(order, true, new Character[] { 'a', 'c', 'b' },
+                       new String[] { "a", "c", "b" });
+        fail("fromSorted accepted unsorted keys");
+      } // try
+    catch (IllegalArgumentException e)
+      {
+        // That's what we expected
+      } // catch (IllegalArgumentException)
+  } // randomBulkLoadTest()
+
+  /**
+   * Conduct a whole bunch of unpredictable tests on balanced or
+   * unbalanced trees.
+   */
+  public void randomTest(boolean balanced)
+    throws Exception
   {
     // The words we'll put in the dictionary. And yes, there are
     // intentionally some missing first letters.
@@ -87,7 +298,7 @@ public class RandomBSTTests
                 {
                   return left.compareTo(right);
                 } // compare(Character, Character)
-              });
+              }, balanced);
 
         // Create a list of operations so that we can report
         // on the operations that lead to an error.
@@ -144,6 +355,25 @@ public class RandomBSTTests
                   } // if the key has the wrong the value
               } // add case
 
+            // Are the sizes still right?
+            String sizeProblem = checkSizes(dict);
+            if (sizeProblem != null)
+              {
+                reportError(dict, ops, "After " + operation + ", "
+                                       + sizeProblem);
+              } // if the sizes are wrong
+
+            // Is the tree still balanced?
+            if (balanced)
+              {
+                String problem = checkBalance(dict);
+                if (problem != null)
+                  {
+                    reportError(dict, ops, "After " + operation + ", "
+                                           + problem);
+                  } // if the tree is out of balance
+              } // if (balanced)
+
             // Are all the active keys still active?
             for (Character active : activeKeys)
               {
@@ -157,12 +387,102 @@ public class RandomBSTTests
               } // for
           } // for (o)
       } // for (i)
-  } // randomTest()
+  } // randomTest(boolean)
 
   // +-------+-----------------------------------------------------------
   // | Utils |
   // +-------+
 
+  /**
+   * Check that every node of a tree records the number of nodes in
+   * its subtree.
+   *
+   * @return a description of the first problem we find, or null if
+   *   there is no problem.
+   */
+  static String checkSizes(BST<Character, String> tree)
+  {
+    StringBuilder problem = new StringBuilder();
+    checkSizes(tree.root, problem);
+    return (problem.length() == 0) ? null : problem.toString();
+  } // checkSizes(BST<Character, String>)
+
+  /**
+   * Check the sizes in a subtree, noting the first problem we find in
+   * problem.
+   *
+   * @return the number of nodes in the subtree
+   */
+  static int checkSizes(BST<Character, String>.BSTNode node,
+                        StringBuilder problem)
+  {
+    if (node == null)
+      return 0;
+    int size = 1 + checkSizes(node.smaller, problem)
+               + checkSizes(node.larger, problem);
+    if ((problem.length() == 0) && (node.size != size))
+      problem.append("node " + node.key + " has size " + node.size
+                     + " rather than " + size);
+    return size;
+  } // checkSizes(BSTNode, StringBuilder)
+
+  /**
+   * Check that a balanced tree really is balanced: its keys are in
+   * order, every node records the height of its subtree, and the
+   * heights of the two subtrees of every node differ by at most one.
+   *
+   * @return a description of the first problem we find, or null if
+   *   there is no problem.
+   */
+  static String checkBalance(BST<Character, String> tree)
+  {
+    StringBuilder problem = new StringBuilder();
+    checkBalance(tree.root, null, null, problem);
+    return (problem.length() == 0) ? null : problem.toString();
+  } // checkBalance(BST<Character, String>)
+
+  /**
+   * Check the balance of a subtree whose keys should all lie strictly
+   * between lower and upper (either of which may be null), noting the
+   * first problem we find in problem.
+   *
+   * @return the height of the subtree
+   */
+  static int checkBalance(BST<Character, String>.BSTNode node, Character lower,
+                          Character upper, StringBuilder problem)
+  {
+    if (node == null)
+      return 0;
+    int smaller = checkBalance(node.smaller, lower, node.key, problem);
+    int larger = checkBalance(node.larger, node.key, upper, problem);
+    int height = 1 + Math.max(smaller, larger);
+    if (problem.length() > 0)
+      return height;
+    if (((lower != null) && (node.key <= lower))
+        || ((upper != null) && (node.key >= upper)))
+      problem.append("key " + node.key + " is out of order");
+    else if (node.height != height)
+      problem.append("node " + node.key + " has height " + node.height
+                     + " rather than " + height);
+    else if (Math.abs(smaller - larger) > 1)
+      problem.append("node " + node.key + " has subtrees of heights "
+                     + smaller + " and " + larger);
+    return height;
+  } // checkBalance(BSTNode, Character, Character, StringBuilder)
+
+  /**
+   * Gather the values an iterator returns into a list.
+   */
+  static <T> ArrayList<T> toList(Iterator<T> it)
+  {
+    ArrayList<T> result = new ArrayList<T>();
+    while (it.hasNext())
+      {
+        result.add(it.next());
+      } // while
+    return result;
+  } // toList(Iterator<T>)
+
   /**
    * Report an error, giving some information about what led to the failure.
    */
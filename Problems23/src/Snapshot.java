@@ -0,0 +1,506 @@
+import java.io.EOFException;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import java.util.Iterator;
+
+/**
+ * A compact binary format for saving the contents of a dictionary and
+ * loading them back.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class Snapshot
+{
+  // +-------+-----------------------------------------------------------
+  // | Notes |
+  // +-------+
+
+  /*
+      A snapshot is a header and then the entries, one after another.
+      The header is MAGIC, VERSION, the flags, and the number of
+      entries (a long).  Each entry is the key's length, the value's
+      length (-1 for null), the key's bytes, and the value's bytes, as
+      the codecs encode them.
+
+      Putting the count first is what makes loading fast: a loader
+      knows how big the dictionary will be before it reads any entries,
+      so a hash table can allocate its arrays once, at the right size,
+      rather than expanding (and rehashing everything) over and over.
+      The one flag, SORTED, says that the keys come in increasing order,
+      so that BST can build a balanced tree directly, in linear time.
+      Since every snapshot comes from a dictionary, the keys should be
+      distinct.  Loaders that skip set (e.g., OpenHashTable.fromSnapshot)
+      check, and reject a snapshot that repeats a key.
+
+      Writer and Reader stream the entries through a large buffer, so
+      that we make one system call per BUFFER_BYTES, not one per entry,
+      and never hold more than one entry's bytes at a time.  (An entry
+      larger than the buffer gets a larger buffer.)  They work with any
+      channel: a FileChannel, a pipe, or a socket.  Neither of them
+      closes its channel, since the caller opened it.
+
+      Reader doesn't trust the lengths it reads.  A corrupt length
+      could otherwise make it allocate gigabytes, or overflow when we
+      add the key and value lengths.  So it adds them as longs, and
+      checks the total against MAX_ENTRY_BYTES and, when the channel
+      can tell us its size, against the bytes left in it.  It checks
+      the count the same way, since loaders presize from it: each
+      entry needs at least LENGTH_BYTES.
+
+      write and read work with any dictionary.  write has to count the
+      keys before it writes them, so classes that can do better (e.g.,
+      BST.snapshot) write their own snapshots with a Writer.  write
+      gets the values by walking keysIterator and iterator side by
+      side, which relies on the two visiting the entries in the same
+      order, as they do in every dictionary here.  It doesn't call get,
+      since in LRUCache and WTinyLFUCache a get is a use: it would move
+      entries while we walk them, and change the counts and the
+      frequencies.  Nobody should change the dictionary while we write.
+      read just calls set for each entry; the loaders that presize
+      come from the classes themselves (e.g., OpenHashTable.fromSnapshot).
+   */
+
+  // +-----------+-------------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The first four bytes of every snapshot ("SNP1").
+   */
+  static final int MAGIC = 0x534e5031;
+
+  /**
+   * The version of the snapshot format.
+   */
+  static final int VERSION = 1;
+
+  /**
+   * The flag for snapshots whose keys are in increasing order.
+   */
+  static final int SORTED = 1;
+
+  /**
+   * The size of the header.
+   */
+  static final int HEADER_BYTES = 20;
+
+  /**
+   * The size of the lengths at the start of each entry.
+   */
+  static final int LENGTH_BYTES = 8;
+
+  /**
+   * The size of the buffers we stream through.
+   */
+  static final int BUFFER_BYTES = 1 << 20;
+
+  /**
+   * The value length we write for a null value.
+   */
+  static final int NULL_LENGTH = -1;
+
+  /**
+   * The largest entry we read, which is about the largest array Java
+   * will allocate.
+   */
+  static final int MAX_ENTRY_BYTES = Integer.MAX_VALUE - 8;
+
+  // +-----------+-------------------------------------------------------
+  // | Utilities |
+  // +-----------+
+
+  /**
+   * Write a snapshot of any dictionary.
+   *
+   * @return the number of entries written
+   */
+  public static <K, V> long write(Dictionary<K, V> dict,
+                                  WritableByteChannel out,
+                                  Codec<K> keyCodec, Codec<V> valueCodec)
+    throws IOException
+  {
+    long count = 0;
+    Iterator<K> keys = dict.keysIterator();
+    while (keys.hasNext())
+      {
+        keys.next();
+        ++count;
+      } // while
+    Writer<K, V> writer = new Writer<K, V>(out, keyCodec, valueCodec, count,
+                                           false);
+    // Walking the keys and values together, rather than looking up
+    // each key, means that a cache doesn't count the snapshot as uses.
+    keys = dict.keysIterator();
+    Iterator<V> values = dict.iterator();
+    while (keys.hasNext())
+      {
+        writer.write(keys.next(), values.next());
+      } // while
+    writer.finish();
+    return count;
+  } // write(Dictionary<K, V>, WritableByteChannel, Codec<K>, Codec<V>)
+
+  /**
+   * Add the entries in a snapshot to any dictionary.
+   *
+   * @return the number of entries read
+   * @throws IOException
+   *   if we can't read the channel or it doesn't hold a snapshot
+   */
+  public static <K, V> long read(Dictionary<K, V> dict,
+                                 ReadableByteChannel in,
+                                 Codec<K> keyCodec, Codec<V> valueCodec)
+    throws IOException
+  {
+    Reader<K, V> reader = new Reader<K, V>(in, keyCodec, valueCodec);
+    while (reader.next())
+      {
+        dict.set(reader.key(), reader.value());
+      } // while
+    return reader.count();
+  } // read(Dictionary<K, V>, ReadableByteChannel, Codec<K>, Codec<V>)
+
+  // +---------------+---------------------------------------------------
+  // | Inner Classes |
+  // +---------------+
+
+  /**
+   * Something that writes a snapshot, one entry at a time.
+   */
+  public static class Writer<K, V>
+  {
+    /**
+     * Where we write.
+     */
+    WritableByteChannel out;
+
+    /**
+     * How we turn keys into bytes.
+     */
+    Codec<K> keyCodec;
+
+    /**
+     * How we turn values into bytes.
+     */
+    Codec<V> valueCodec;
+
+    /**
+     * The entries waiting to be written.
+     */
+    ByteBuffer buffer;
+
+    /**
+     * The number of entries we promised in the header.
+     */
+    long count;
+
+    /**
+     * The number of entries we've written.
+     */
+    long written;
+
+    /**
+     * Start a snapshot of count entries, which are in increasing order
+     * if sorted is true.
+     */
+    public Writer(WritableByteChannel out, Codec<K> keyCodec,
+                  Codec<V> valueCodec, long count, boolean sorted)
+    {
+      this.out = out;
+      this.keyCodec = keyCodec;
+      this.valueCodec = valueCodec;
+      this.count = count;
+      this.written = 0;
+      this.buffer = ByteBuffer.allocate(BUFFER_BYTES);
+      this.buffer.putInt(MAGIC);
+      this.buffer.putInt(VERSION);
+      this.buffer.putInt(sorted ? SORTED : 0);
+      this.buffer.putLong(count);
+    } // Writer(WritableByteChannel, Codec<K>, Codec<V>, long, boolean)
+
+    /**
+     * Write the next entry.
+     *
+     * @throws IllegalStateException
+     *   if we've already written as many entries as we promised.
+     */
+    public void write(K key, V value)
+      throws IOException
+    {
+      if (this.written == this.count)
+        {
+          throw new IllegalStateException("More than " + this.count
+                                          + " entries");
+        } // if there are too many entries
+      byte[] keyBytes = this.keyCodec.encode(key);
+      byte[] valueBytes = (value == null) ? null
+                                          : this.valueCodec.encode(value);
+      int length = 8 + keyBytes.length
+                   + ((valueBytes == null) ? 0 : valueBytes.length);
+      if (this.buffer.remaining() < length)
+        {
+          this.flush();
+          if (this.buffer.capacity() < length)
+            {
+              this.buffer = ByteBuffer.allocate(length);
+            } // if the entry won't fit in the buffer
+        } // if the entry won't fit in what's left of the buffer
+      this.buffer.putInt(keyBytes.length);
+      this.buffer.putInt((valueBytes == null) ? NULL_LENGTH
+                                              : valueBytes.length);
+      this.buffer.put(keyBytes);
+      if (valueBytes != null)
+        {
+          this.buffer.put(valueBytes);
+        } // if there's a value
+      ++this.written;
+    } // write(K, V)
+
+    /**
+     * Write out any entries still in the buffer.  The snapshot is
+     * complete after this.
+     *
+     * @throws IllegalStateException
+     *   if we've written fewer entries than we promised.
+     */
+    public void finish()
+      throws IOException
+    {
+      if (this.written != this.count)
+        {
+          throw new IllegalStateException("Only " + this.written + " of "
+                                          + this.count + " entries");
+        } // if there are too few entries
+      this.flush();
+    } // finish()
+
+    /**
+     * Write out the buffer.
+     */
+    void flush()
+      throws IOException
+    {
+      this.buffer.flip();
+      while (this.buffer.hasRemaining())
+        {
+          this.out.write(this.buffer);
+        } // while
+      this.buffer.clear();
+    } // flush()
+  } // class Writer<K, V>
+
+  /**
+   * Something that reads a snapshot, one entry at a time.
+   */
+  public static class Reader<K, V>
+  {
+    /**
+     * Where we read.
+     */
+    ReadableByteChannel in;
+
+    /**
+     * How we turn bytes into keys.
+     */
+    Codec<K> keyCodec;
+
+    /**
+     * How we turn bytes into values.
+     */
+    Codec<V> valueCodec;
+
+    /**
+     * The bytes we've read but not used yet.
+     */
+    ByteBuffer buffer;
+
+    /**
+     * The flags from the header.
+     */
+    int flags;
+
+    /**
+     * The number of entries in the snapshot.
+     */
+    long count;
+
+    /**
+     * The number of entries we've read.
+     */
+    long read;
+
+    /**
+     * The current key.
+     */
+    K key;
+
+    /**
+     * The current value.
+     */
+    V value;
+
+    /**
+     * Start reading a snapshot, by reading its header.
+     *
+     * @throws IOException
+     *   if we can't read the channel or it doesn't hold a snapshot
+     */
+    public Reader(ReadableByteChannel in, Codec<K> keyCodec,
+                  Codec<V> valueCodec)
+      throws IOException
+    {
+      this.in = in;
+      this.keyCodec = keyCodec;
+      this.valueCodec = valueCodec;
+      this.buffer = ByteBuffer.allocate(BUFFER_BYTES);
+      this.buffer.flip();
+      this.fill(HEADER_BYTES);
+      if ((this.buffer.getInt() != MAGIC) || (this.buffer.getInt() != VERSION))
+        {
+          throw new IOException("Not a snapshot");
+        } // if the header is wrong
+      this.flags = this.buffer.getInt();
+      this.count = this.buffer.getLong();
+      // Loaders presize from the count, so a bad one mustn't get past
+      // us.  Every entry takes at least its lengths.
+      if ((this.count < 0)
+          || (this.count > this.available() / LENGTH_BYTES))
+        {
+          throw new IOException("corrupt snapshot: bad entry count "
+                                + this.count);
+        } // if the count is nonsense
+      this.read = 0;
+    } // Reader(ReadableByteChannel, Codec<K>, Codec<V>)
+
+    /**
+     * Get the number of entries in the snapshot.
+     */
+    public long count()
+    {
+      return this.count;
+    } // count()
+
+    /**
+     * Determine if the keys in the snapshot are in increasing order.
+     */
+    public boolean sorted()
+    {
+      return (this.flags & SORTED) != 0;
+    } // sorted()
+
+    /**
+     * Get the key of the entry we read last.
+     */
+    public K key()
+    {
+      return this.key;
+    } // key()
+
+    /**
+     * Get the value of the entry we read last.
+     */
+    public V value()
+    {
+      return this.value;
+    } // value()
+
+    /**
+     * Read the next entry, if there is one.
+     *
+     * @return true if we read an entry, false if there are no more
+     * @throws IOException
+     *   if we can't read the channel or the snapshot ends early
+     */
+    public boolean next()
+      throws IOException
+    {
+      if (this.read == this.count)
+        {
+          return false;
+        } // if we've read everything
+      this.fill(LENGTH_BYTES);
+      int keyLength = this.buffer.getInt();
+      int valueLength = this.buffer.getInt();
+      long length = (long) keyLength + Math.max(valueLength, 0);
+      if ((keyLength < 0) || (valueLength < NULL_LENGTH)
+          || (length > MAX_ENTRY_BYTES) || (length > this.available()))
+        {
+          throw new IOException("corrupt snapshot: bad lengths in entry "
+                                + this.read);
+        } // if the lengths are nonsense
+      this.fill((int) length);
+      byte[] keyBytes = new byte[keyLength];
+      this.buffer.get(keyBytes);
+      this.key = this.keyCodec.decode(keyBytes);
+      if (valueLength == NULL_LENGTH)
+        {
+          this.value = null;
+        } // if the value is null
+      else
+        {
+          byte[] valueBytes = new byte[valueLength];
+          this.buffer.get(valueBytes);
+          this.value = this.valueCodec.decode(valueBytes);
+        } // if the value isn't null
+      ++this.read;
+      return true;
+    } // next()
+
+    /**
+     * Find how many more bytes we can read: the ones in the buffer,
+     * plus the rest of the channel if we can tell how much that is.
+     * Otherwise, as many as there could be.
+     */
+    long available()
+      throws IOException
+    {
+      if (this.in instanceof SeekableByteChannel)
+        {
+          SeekableByteChannel channel = (SeekableByteChannel) this.in;
+          return this.buffer.remaining()
+                 + Math.max(channel.size() - channel.position(), 0);
+        } // if we know the size of the channel
+      return Long.MAX_VALUE;
+    } // available()
+
+    /**
+     * Make sure that the buffer holds at least length unread bytes.
+     *
+     * @throws EOFException
+     *   if the channel ends first
+     */
+    void fill(int length)
+      throws IOException
+    {
+      if (this.buffer.remaining() >= length)
+        {
+          return;
+        } // if we already have enough
+      if (this.buffer.capacity() < length)
+        {
+          ByteBuffer bigger = ByteBuffer.allocate(length);
+          bigger.put(this.buffer);
+          this.buffer = bigger;
+        } // if the buffer is too small
+      else
+        {
+          this.buffer.compact();
+        } // if the buffer is big enough
+      while (this.buffer.position() < length)
+        {
+          if (this.in.read(this.buffer) < 0)
+            {
+              throw new EOFException("Snapshot ends after " + this.read
+                                     + " of " + this.count + " entries");
+            } // if there's nothing more
+        } // while
+      this.buffer.flip();
+    } // fill(int)
+  } // class Reader<K, V>
+
+} // class Snapshot
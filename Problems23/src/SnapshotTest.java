@@ -0,0 +1,167 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Tests for snapshots and the trees that load them.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class SnapshotTest
+{
+  // +--------+----------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The usual order for integers.
+   */
+  Comparator<Integer> order = new Comparator<Integer>()
+    {
+      public int compare(Integer left, Integer right)
+      {
+        return left.compareTo(right);
+      } // compare(Integer, Integer)
+    }; // new Comparator<Integer>
+
+  // +-------+-----------------------------------------------------------
+  // | Tests |
+  // +-------+
+
+  /**
+   * A tree's own snapshot is sorted, and should load into a balanced
+   * tree with the same entries.  So should the unsorted snapshot that
+   * Snapshot.write makes.
+   */
+  @Test
+  public void roundTripTest()
+    throws Exception
+  {
+    Random rand = new Random();
+    TreeMap<Integer, String> map = new TreeMap<Integer, String>();
+    BST<Integer, String> tree = new BST<Integer, String>(order);
+    for (int i = 0; i < 20000; i++)
+      {
+        Integer key = rand.nextInt();
+        String value = (i % 100 == 0) ? null : ("v" + rand.nextInt());
+        tree.set(key, value);
+        map.put(key, value);
+      } // for
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    tree.snapshot(Channels.newChannel(out), Codec.INTEGERS, Codec.STRINGS);
+    ReadableByteChannel in = channel(out.toByteArray());
+    assertTrue(new Snapshot.Reader<Integer, String>(in, Codec.INTEGERS,
+                                                    Codec.STRINGS).sorted());
+    BST<Integer, String> sorted =
+        BST.fromSnapshot(order, true, channel(out.toByteArray()),
+                         Codec.INTEGERS, Codec.STRINGS);
+    checkContents(map, sorted);
+    // Perfectly balanced: 20000 nodes fit in 15 levels.
+    assertTrue(sorted.height(sorted.root) <= 15);
+
+    out = new ByteArrayOutputStream();
+    Snapshot.write(tree, Channels.newChannel(out), Codec.INTEGERS,
+                   Codec.STRINGS);
+    BST<Integer, String> unsorted =
+        BST.fromSnapshot(order, false, channel(out.toByteArray()),
+                         Codec.INTEGERS, Codec.STRINGS);
+    checkContents(map, unsorted);
+  } // roundTripTest()
+
+  /**
+   * Snapshots that are truncated, or that claim to be sorted but
+   * aren't, shouldn't load.
+   */
+  @Test
+  public void badSnapshotTest()
+    throws Exception
+  {
+    BST<Integer, String> tree = new BST<Integer, String>(order);
+    for (int i = 0; i < 100; i++)
+      {
+        tree.set(i, "v" + i);
+      } // for
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    tree.snapshot(Channels.newChannel(out), Codec.INTEGERS, Codec.STRINGS);
+    byte[] bytes = out.toByteArray();
+    try
+      {
+        BST.fromSnapshot(order, true,
+                         channel(Arrays.copyOf(bytes, bytes.length - 1)),
+                         Codec.INTEGERS, Codec.STRINGS);
+        fail("loaded a truncated snapshot");
+      } // try
+    catch (EOFException e)
+      {
+        // That's what we want.
+      } // catch (EOFException)
+
+    out = new ByteArrayOutputStream();
+    WritableByteChannel channel = Channels.newChannel(out);
+    Snapshot.Writer<Integer, String> writer =
+        new Snapshot.Writer<Integer, String>(channel, Codec.INTEGERS,
+                                             Codec.STRINGS, 2, true);
+    writer.write(2, "two");
+    writer.write(1, "one");
+    writer.finish();
+    try
+      {
+        BST.fromSnapshot(order, true, channel(out.toByteArray()),
+                         Codec.INTEGERS, Codec.STRINGS);
+        fail("loaded an unsorted snapshot as sorted");
+      } // try
+    catch (IllegalArgumentException e)
+      {
+        // That's what we want.
+      } // catch (IllegalArgumentException)
+  } // badSnapshotTest()
+
+  // +---------+---------------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Get a channel that reads some bytes.
+   */
+  static ReadableByteChannel channel(byte[] bytes)
+  {
+    return Channels.newChannel(new ByteArrayInputStream(bytes));
+  } // channel(byte[])
+
+  /**
+   * Check that a tree has exactly the entries in a map, in order.
+   */
+  static void checkContents(TreeMap<Integer, String> map,
+                            BST<Integer, String> tree)
+    throws Exception
+  {
+    assertEquals(map.size(), tree.size());
+    for (Integer key : map.keySet())
+      {
+        assertEquals(map.get(key), tree.get(key));
+      } // for
+    ArrayList<Integer> keys = new ArrayList<Integer>();
+    for (Integer key : tree.keys())
+      {
+        keys.add(key);
+      } // for
+    assertEquals(new ArrayList<Integer>(map.keySet()), keys);
+  } // checkContents(TreeMap<Integer, String>, BST<Integer, String>)
+
+} // class SnapshotTest
@@ -433,12 +433,30 @@ public class SystematicBSTRemoveTests
     original.remove(str.charAt(index));
     // Check if all chars except for the deleted one are present
     checkSkipChar(original, str, index);
+    assertNull(RandomBSTTests.checkSizes(original));
+
+    // Do the same with a balanced tree, which should also stay balanced.
+    BST<Character, String> balanced = buildTree(str, true);
+    assertNull(RandomBSTTests.checkBalance(balanced));
+    balanced.remove(str.charAt(index));
+    checkSkipChar(balanced, str, index);
+    assertNull(RandomBSTTests.checkBalance(balanced));
+    assertNull(RandomBSTTests.checkSizes(balanced));
   }// generalTest
 
   /**
    * Build a tree by adding the characters in str, one at a time.
    */
   public static BST<Character, String> buildTree(String str)
+  {
+    return buildTree(str, false);
+  } // buildTree(String)
+
+  /**
+   * Build a balanced or unbalanced tree by adding the characters in
+   * str, one at a time.
+   */
+  public static BST<Character, String> buildTree(String str, boolean balanced)
   {
     // Build the empty tree.
     BST<Character, String> tree =
@@ -448,7 +466,7 @@ public class SystematicBSTRemoveTests
             {
               return left.compareTo(right);
             } // compare(Character, Character)
-          });
+          }, balanced);
 
     // Add all of the characters in order.
     int len = str.length();
@@ -460,7 +478,7 @@ public class SystematicBSTRemoveTests
 
     // And we're done.
     return tree;
-  } // buildTree(String)
+  } // buildTree(String, boolean)
 
   /**
    * Determine if a tree contains all of the characters in str.
@@ -0,0 +1,94 @@
+import java.util.Comparator;
+
+/**
+ * Assorted utilities for sorting arrays.
+ *
+ * @author Vasilisa Bashlovkina
+ */
+public class Utils
+{
+  // +-------+-----------------------------------------------------------
+  // | Notes |
+  // +-------+
+
+  /*
+     merge follows the loop invariants in Problem1/merge-invariants.md,
+     which were written for merge(Comparator<T> order, T[] a1, T[] a2)
+     in Utils.java from the sorting lab.  The one difference is that we
+     take from a1 when a1[cur1] and a2[cur2] are equal (rather than only
+     when a1[cur1] is smaller).  That makes merge, and so mergeSort,
+     stable: equal elements stay in the order in which they appeared.
+   */
+
+  // +---------+---------------------------------------------------------
+  // | Sorting |
+  // +---------+
+
+  /**
+   * Sort an array using merge sort.
+   *
+   * @pre order can compare all the elements of values.
+   * @post for all 0 < i < values.length,
+   *   order.compare(values[i-1], values[i]) <= 0
+   * @post values is a permutation of its original contents, and equal
+   *   elements appear in their original order.
+   */
+  public static <T> void mergeSort(Comparator<T> order, T[] values)
+  {
+    // We merge bottom up, runs of length 1, then 2, then 4, and so on,
+    // going back and forth between values and a scratch array.
+    T[] source = values;
+    T[] target = values.clone();
+    for (int width = 1; width < values.length; width *= 2)
+      {
+        for (int lb = 0; lb < values.length; lb += 2 * width)
+          {
+            int mid = Math.min(lb + width, values.length);
+            int ub = Math.min(lb + 2 * width, values.length);
+            merge(order, source, lb, mid, source, mid, ub, target, lb);
+          } // for each pair of runs
+        T[] tmp = source;
+        source = target;
+        target = tmp;
+      } // for each width
+    // If the sorted elements ended up in the scratch array, copy them back.
+    if (source != values)
+      {
+        System.arraycopy(source, 0, values, 0, values.length);
+      } // if (source != values)
+  } // mergeSort(Comparator<T>, T[])
+
+  /**
+   * Merge two sorted subarrays into m, starting at position lbm.
+   *
+   * @pre lb1 <= ub1 <= a1.length, lb2 <= ub2 <= a2.length
+   * @pre a1[lb1..ub1) and a2[lb2..ub2) are sorted by order
+   * @pre lbm + (ub1 - lb1) + (ub2 - lb2) <= m.length
+   * @pre the range of m that we fill does not overlap either subarray
+   * @post m[lbm..lbm+(ub1-lb1)+(ub2-lb2)) is sorted and is a permutation
+   *   of the concatenation of a1[lb1..ub1) and a2[lb2..ub2)
+   */
+  public static <T> void merge(Comparator<T> order, T[] a1, int lb1, int ub1,
+                               T[] a2, int lb2, int ub2, T[] m, int lbm)
+  {
+    int cur1 = lb1;
+    int cur2 = lb2;
+    int curM = lbm;
+    int ubm = lbm + (ub1 - lb1) + (ub2 - lb2);
+    // Invariants: m[lbm..curM) is sorted and is a permutation of
+    // a1[lb1..cur1) and a2[lb2..cur2).
+    while (curM < ubm)
+      {
+        if ((cur2 >= ub2)
+            || ((cur1 < ub1) && (order.compare(a1[cur1], a2[cur2]) <= 0)))
+          {
+            m[curM] = a1[cur1++];
+          } // if the next element comes from a1
+        else
+          {
+            m[curM] = a2[cur2++];
+          } // if the next element comes from a2
+        curM++;
+      } // while
+  } // merge(Comparator<T>, T[], int, int, T[], int, int, T[], int)
+} // class Utils